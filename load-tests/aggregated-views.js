@@ -0,0 +1,48 @@
+// Load test of the aggregated views opened by many instructors at once.
+//
+// Run with k6 (https://k6.io) against a service connected to Elasticsearch with the events of the given instance:
+//   k6 run -e BASE_URL=http://localhost:8085/elasticsearch-service/api/v1 -e TOKEN={bearer token} \
+//          -e INSTANCE_ID=1 -e LEVEL_ID=1 -e RUN_ID=1 -e PHASE_IDS=1,2,3 load-tests/aggregated-views.js
+//
+// Compare the request durations and failures of the service before and after a change.
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8085/elasticsearch-service/api/v1';
+const INSTANCE_ID = __ENV.INSTANCE_ID || '1';
+const LEVEL_ID = __ENV.LEVEL_ID || '1';
+const RUN_ID = __ENV.RUN_ID || '1';
+const PHASE_IDS = __ENV.PHASE_IDS || '1';
+
+export const options = {
+    scenarios: {
+        instructors: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '30s', target: 50 },
+                { duration: '1m', target: 200 },
+                { duration: '1m', target: 400 },
+                { duration: '30s', target: 0 },
+            ],
+        },
+    },
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+        http_req_duration: ['p(95)<5000'],
+    },
+};
+
+const params = {
+    headers: __ENV.TOKEN ? { Authorization: `Bearer ${__ENV.TOKEN}` } : {},
+};
+
+export default function () {
+    const responses = http.batch([
+        ['GET', `${BASE_URL}/training-platform-events/training-instances/${INSTANCE_ID}/aggregated/training-runs/levels`, null, params],
+        ['GET', `${BASE_URL}/training-platform-events/training-instances/${INSTANCE_ID}/aggregated/levels/training-runs`, null, params],
+        ['GET', `${BASE_URL}/training-platform-events/training-instances/${INSTANCE_ID}/levels/${LEVEL_ID}?aggregationField=user_ref_id`, null, params],
+        ['GET', `${BASE_URL}/training-statistics/training-runs/${RUN_ID}/phases/events/time?phaseIds=${PHASE_IDS}`, null, params],
+    ]);
+    responses.forEach((response) => check(response, { 'status is 200': (r) => r.status === 200 }));
+}
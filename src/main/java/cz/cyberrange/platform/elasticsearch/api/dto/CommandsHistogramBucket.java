@@ -0,0 +1,70 @@
+package cz.cyberrange.platform.elasticsearch.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+import java.util.Objects;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CommandsHistogramBucket {
+    private Long timestamp;
+    private Long numberOfCommands;
+    private Map<String, Long> topCommands;
+
+    public CommandsHistogramBucket() {
+    }
+
+    public CommandsHistogramBucket(Long timestamp, Long numberOfCommands, Map<String, Long> topCommands) {
+        this.timestamp = timestamp;
+        this.numberOfCommands = numberOfCommands;
+        this.topCommands = topCommands;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Long getNumberOfCommands() {
+        return numberOfCommands;
+    }
+
+    public void setNumberOfCommands(Long numberOfCommands) {
+        this.numberOfCommands = numberOfCommands;
+    }
+
+    public Map<String, Long> getTopCommands() {
+        return topCommands;
+    }
+
+    public void setTopCommands(Map<String, Long> topCommands) {
+        this.topCommands = topCommands;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CommandsHistogramBucket that = (CommandsHistogramBucket) o;
+        return Objects.equals(getTimestamp(), that.getTimestamp()) &&
+                Objects.equals(getNumberOfCommands(), that.getNumberOfCommands()) &&
+                Objects.equals(getTopCommands(), that.getTopCommands());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getTimestamp(), getNumberOfCommands(), getTopCommands());
+    }
+
+    @Override
+    public String toString() {
+        return "CommandsHistogramBucket{" +
+                "timestamp=" + timestamp +
+                ", numberOfCommands=" + numberOfCommands +
+                ", topCommands=" + topCommands +
+                '}';
+    }
+}
@@ -0,0 +1,91 @@
+package cz.cyberrange.platform.elasticsearch.api.dto;
+
+import java.util.Map;
+import java.util.Objects;
+
+public class LevelStatistics {
+    private Long levelId;
+    private Long startTime;
+    private Long endTime;
+    private Long levelTime;
+    private Map<String, Long> numberOfEvents;
+
+    public LevelStatistics() {
+    }
+
+    public LevelStatistics(Long levelId, Long startTime, Long endTime, Map<String, Long> numberOfEvents) {
+        this.levelId = levelId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.levelTime = endTime - startTime;
+        this.numberOfEvents = numberOfEvents;
+    }
+
+    public Long getLevelId() {
+        return levelId;
+    }
+
+    public void setLevelId(Long levelId) {
+        this.levelId = levelId;
+    }
+
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public Long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Long endTime) {
+        this.endTime = endTime;
+    }
+
+    public Long getLevelTime() {
+        return levelTime;
+    }
+
+    public void setLevelTime(Long levelTime) {
+        this.levelTime = levelTime;
+    }
+
+    public Map<String, Long> getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    public void setNumberOfEvents(Map<String, Long> numberOfEvents) {
+        this.numberOfEvents = numberOfEvents;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LevelStatistics that = (LevelStatistics) o;
+        return Objects.equals(getLevelId(), that.getLevelId()) &&
+                Objects.equals(getStartTime(), that.getStartTime()) &&
+                Objects.equals(getEndTime(), that.getEndTime()) &&
+                Objects.equals(getLevelTime(), that.getLevelTime()) &&
+                Objects.equals(getNumberOfEvents(), that.getNumberOfEvents());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getLevelId(), getStartTime(), getEndTime(), getLevelTime(), getNumberOfEvents());
+    }
+
+    @Override
+    public String toString() {
+        return "LevelStatistics{" +
+                "levelId=" + levelId +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                ", levelTime=" + levelTime +
+                ", numberOfEvents=" + numberOfEvents +
+                '}';
+    }
+}
@@ -0,0 +1,102 @@
+package cz.cyberrange.platform.elasticsearch.api.dto;
+
+import java.util.Map;
+import java.util.Objects;
+
+public class PhaseTimeDistribution {
+    private Long phaseId;
+    private Long numberOfRuns;
+    private Long minPhaseTime;
+    private Long maxPhaseTime;
+    private Map<Double, Long> percentiles;
+    private Long histogramInterval;
+    private Map<Long, Long> histogram;
+
+    public Long getPhaseId() {
+        return phaseId;
+    }
+
+    public void setPhaseId(Long phaseId) {
+        this.phaseId = phaseId;
+    }
+
+    public Long getNumberOfRuns() {
+        return numberOfRuns;
+    }
+
+    public void setNumberOfRuns(Long numberOfRuns) {
+        this.numberOfRuns = numberOfRuns;
+    }
+
+    public Long getMinPhaseTime() {
+        return minPhaseTime;
+    }
+
+    public void setMinPhaseTime(Long minPhaseTime) {
+        this.minPhaseTime = minPhaseTime;
+    }
+
+    public Long getMaxPhaseTime() {
+        return maxPhaseTime;
+    }
+
+    public void setMaxPhaseTime(Long maxPhaseTime) {
+        this.maxPhaseTime = maxPhaseTime;
+    }
+
+    public Map<Double, Long> getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(Map<Double, Long> percentiles) {
+        this.percentiles = percentiles;
+    }
+
+    public Long getHistogramInterval() {
+        return histogramInterval;
+    }
+
+    public void setHistogramInterval(Long histogramInterval) {
+        this.histogramInterval = histogramInterval;
+    }
+
+    public Map<Long, Long> getHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(Map<Long, Long> histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PhaseTimeDistribution that = (PhaseTimeDistribution) o;
+        return Objects.equals(getPhaseId(), that.getPhaseId()) &&
+                Objects.equals(getNumberOfRuns(), that.getNumberOfRuns()) &&
+                Objects.equals(getMinPhaseTime(), that.getMinPhaseTime()) &&
+                Objects.equals(getMaxPhaseTime(), that.getMaxPhaseTime()) &&
+                Objects.equals(getPercentiles(), that.getPercentiles()) &&
+                Objects.equals(getHistogramInterval(), that.getHistogramInterval()) &&
+                Objects.equals(getHistogram(), that.getHistogram());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getPhaseId(), getNumberOfRuns(), getMinPhaseTime(), getMaxPhaseTime(), getPercentiles(), getHistogramInterval(), getHistogram());
+    }
+
+    @Override
+    public String toString() {
+        return "PhaseTimeDistribution{" +
+                "phaseId=" + phaseId +
+                ", numberOfRuns=" + numberOfRuns +
+                ", minPhaseTime=" + minPhaseTime +
+                ", maxPhaseTime=" + maxPhaseTime +
+                ", percentiles=" + percentiles +
+                ", histogramInterval=" + histogramInterval +
+                ", histogram=" + histogram +
+                '}';
+    }
+}
@@ -1,25 +1,61 @@
 package cz.cyberrange.platform.elasticsearch.data;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchCancellation;
+import cz.cyberrange.platform.elasticsearch.data.search.SingleFlight;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregator;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * The type Abstract elastic client dao.
  */
 public abstract class AbstractElasticClientDAO {
 
+    private static final String SEARCH_OPERATION = "search";
+    private static final String MULTI_SEARCH_OPERATION = "msearch";
+    private static final String DELETE_INDEX_OPERATION = "delete_index";
+    private static final String DELETE_BY_QUERY_OPERATION = "delete_by_query";
+    /**
+     * The identical searches in flight, shared by all DAOs, see {@link #coalesce(SearchRequest)}.
+     */
+    private static final SingleFlight<String> SEARCHES = new SingleFlight<>();
+
     private RestHighLevelClient restHighLevelClient;
     private ObjectMapper mapper;
+    private final IndexNameResolver indexNameResolver;
 
     /**
      * Instantiates a new Abstract elastic client dao.
      *
-     * @param client the client
-     * @param mapper the mapper
+     * @param client             the client
+     * @param mapper             the mapper
+     * @param indexNameResolver  the resolver of the index patterns to the concrete indices
      */
-    protected AbstractElasticClientDAO(RestHighLevelClient client, ObjectMapper mapper) {
+    protected AbstractElasticClientDAO(RestHighLevelClient client, ObjectMapper mapper, IndexNameResolver indexNameResolver) {
         this.restHighLevelClient = client;
         this.mapper = mapper;
+        this.indexNameResolver = indexNameResolver;
     }
 
     /**
@@ -58,4 +94,273 @@ public abstract class AbstractElasticClientDAO {
         this.mapper = mapper;
     }
 
+    /**
+     * Create search request targeting the concrete indices matching the given index pattern, if they are known.
+     * The concrete indices may have been deleted since they were resolved, so the missing ones are ignored.
+     *
+     * @param indexPattern the index pattern
+     * @return the search request
+     */
+    protected SearchRequest createSearchRequest(String indexPattern) {
+        String[] indices = indexNameResolver.resolve(indexPattern);
+        SearchRequest searchRequest = new SearchRequest(indices);
+        if (IndexNameResolver.isResolved(indexPattern, indices)) {
+            searchRequest.indicesOptions(IndicesOptions.lenientExpandOpen());
+        }
+        return searchRequest;
+    }
+
+    /**
+     * Create source filtering that returns only the given fields of the <i>_source</i> of the hits. The fields may
+     * contain wildcards, e.g. <i>syslog.*</i>.
+     *
+     * @param fields the fields to return, all fields are returned if null or empty
+     * @return the fetch source context, or null if the whole source is returned
+     */
+    protected static FetchSourceContext createFetchSourceContext(List<String> fields) {
+        if (fields == null) {
+            return null;
+        }
+        String[] includes = fields.stream()
+                .filter(field -> field != null && !field.isBlank())
+                .map(String::trim)
+                .toArray(String[]::new);
+        return includes.length == 0 ? null : new FetchSourceContext(true, includes, null);
+    }
+
+    /**
+     * Create the keyed filters of the <i>filters</i> aggregation matching the given values anywhere in the field,
+     * case-insensitively. Each filter is keyed by its value.
+     *
+     * @param fieldName   the name of the field
+     * @param fieldValues the values to match
+     * @return the keyed filters
+     */
+    protected static FiltersAggregator.KeyedFilter[] createWildcardQueryFilters(String fieldName, List<String> fieldValues) {
+        FiltersAggregator.KeyedFilter[] filterArray = new FiltersAggregator.KeyedFilter[fieldValues.size()];
+        for (int i = 0; i < fieldValues.size(); i++) {
+            filterArray[i] = new FiltersAggregator.KeyedFilter(fieldValues.get(i), QueryBuilders.wildcardQuery(fieldName, "*" + fieldValues.get(i) + "*").caseInsensitive(true));
+        }
+        return filterArray;
+    }
+
+    /**
+     * Delete the indices. Fails if the deletion is not acknowledged.
+     *
+     * @param deleteIndexRequest the delete index request
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     */
+    protected void deleteIndex(DeleteIndexRequest deleteIndexRequest) {
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(DELETE_INDEX_OPERATION);
+        try {
+            AcknowledgedResponse deleteIndexResponse = restHighLevelClient.indices().delete(deleteIndexRequest, request.getRequestOptions());
+            if (!deleteIndexResponse.isAcknowledged()) {
+                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+            }
+            request.recordCompleted();
+        } catch (IOException e) {
+            request.recordFailure(e);
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+        } catch (RuntimeException e) {
+            request.recordFailure(e);
+            throw e;
+        }
+        indexNameResolver.forget(deleteIndexRequest.indices());
+    }
+
+    /**
+     * Execute the search. The identical search already in flight is waited for instead of being sent again, see
+     * {@link #coalesce(SearchRequest)}.
+     *
+     * @param searchRequest the search request
+     * @return the search response
+     * @throws IOException the io exception
+     */
+    protected SearchResponse search(SearchRequest searchRequest) throws IOException {
+        String fingerprint = coalesce(searchRequest);
+        if (fingerprint == null) {
+            return doSearch(searchRequest);
+        }
+        return SEARCHES.load(fingerprint, () -> doSearch(searchRequest));
+    }
+
+    private SearchResponse doSearch(SearchRequest searchRequest) throws IOException {
+        SearchResponse searchResponse = DaoCallMetrics.current().search(restHighLevelClient, searchRequest);
+        if (searchResponse == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        return searchResponse;
+    }
+
+    /**
+     * Execute all searches of the multi search request in one round trip. The multi search is cancellable if the DAO call is.
+     *
+     * @param multiSearchRequest the multi search request
+     * @return the responses of the searches in the order of the requests
+     * @throws IOException the io exception
+     */
+    protected MultiSearchResponse.Item[] multiSearch(MultiSearchRequest multiSearchRequest) throws IOException {
+        DaoCallMetrics call = DaoCallMetrics.current();
+        DaoCallMetrics.Request request = call.startRequest(MULTI_SEARCH_OPERATION, multiSearchRequest.requests());
+        MultiSearchResponse multiSearchResponse;
+        try {
+            multiSearchResponse = call.getCancellation() == null
+                    ? restHighLevelClient.msearch(multiSearchRequest, request.getRequestOptions())
+                    : call.getCancellation().execute(listener -> restHighLevelClient.msearchAsync(multiSearchRequest, request.getRequestOptions(), listener));
+        } catch (IOException | RuntimeException ex) {
+            request.recordFailure(ex);
+            throw ex;
+        }
+        if (multiSearchResponse == null) {
+            request.recordFailure(null);
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        request.recordMultiSearch(multiSearchResponse);
+        return multiSearchResponse.getResponses();
+    }
+
+    /**
+     * Gets the search response of the multi search item.
+     *
+     * @param item the multi search item
+     * @return the search response
+     * @throws ElasticsearchTrainingDataLayerException if the search of the item failed
+     */
+    protected SearchResponse getItemResponse(MultiSearchResponse.Item item) {
+        if (item.isFailure()) {
+            throw new ElasticsearchTrainingDataLayerException(item.getFailureMessage(), item.getFailure());
+        }
+        return item.getResponse();
+    }
+
+    /**
+     * Execute the search without blocking the calling thread.
+     * <p>
+     * The returned future runs the dependent stages directly on the I/O thread of the Elasticsearch client, so they
+     * should do only light processing of the response. The failures are reported as {@link ElasticsearchTrainingDataLayerException}.
+     * The future is completed in the DAO call issuing the search, so the searches issued by the dependent stages
+     * are measured as the part of that call, see {@link DaoCallMetrics}. The search is cancelled together with the REST
+     * request it is issued for, see {@link SearchCancellation}. The identical search already in flight is waited for
+     * instead of being sent again, see {@link #coalesce(SearchRequest)}.
+     *
+     * @param searchRequest the search request
+     * @return the future of the search response
+     */
+    protected CompletableFuture<SearchResponse> searchAsync(SearchRequest searchRequest) {
+        String fingerprint = coalesce(searchRequest);
+        if (fingerprint == null) {
+            return doSearchAsync(searchRequest);
+        }
+        return SEARCHES.loadAsync(fingerprint, () -> doSearchAsync(searchRequest));
+    }
+
+    private CompletableFuture<SearchResponse> doSearchAsync(SearchRequest searchRequest) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(SEARCH_OPERATION, List.of(searchRequest));
+        trackCancellable(restHighLevelClient.searchAsync(searchRequest, request.getRequestOptions(),
+                completing(future, request, request::recordSearch)), future);
+        return future;
+    }
+
+    /**
+     * Execute all searches of the multi search request in one round trip without blocking the calling thread.
+     *
+     * @param multiSearchRequest the multi search request
+     * @return the future of the responses of the searches in the order of the requests
+     */
+    protected CompletableFuture<MultiSearchResponse.Item[]> multiSearchAsync(MultiSearchRequest multiSearchRequest) {
+        CompletableFuture<MultiSearchResponse> future = new CompletableFuture<>();
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(MULTI_SEARCH_OPERATION, multiSearchRequest.requests());
+        trackCancellable(restHighLevelClient.msearchAsync(multiSearchRequest, request.getRequestOptions(),
+                completing(future, request, request::recordMultiSearch)), future);
+        return future.thenApply(MultiSearchResponse::getResponses);
+    }
+
+    /**
+     * Delete the indices without blocking the calling thread. The future fails if the deletion is not acknowledged.
+     *
+     * @param deleteIndexRequest the delete index request
+     * @return the future completed once the indices are deleted
+     */
+    protected CompletableFuture<Void> deleteIndexAsync(DeleteIndexRequest deleteIndexRequest) {
+        CompletableFuture<AcknowledgedResponse> future = new CompletableFuture<>();
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(DELETE_INDEX_OPERATION);
+        restHighLevelClient.indices().deleteAsync(deleteIndexRequest, request.getRequestOptions(),
+                completing(future, request, response -> request.recordCompleted()));
+        return future.thenAccept(deleteIndexResponse -> {
+            if (!deleteIndexResponse.isAcknowledged()) {
+                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+            }
+            indexNameResolver.forget(deleteIndexRequest.indices());
+        });
+    }
+
+    /**
+     * Delete the documents matching the query without blocking the calling thread. The future fails if some documents
+     * could not be deleted.
+     *
+     * @param deleteByQueryRequest the delete by query request
+     * @return the future completed once the documents are deleted
+     */
+    protected CompletableFuture<Void> deleteByQueryAsync(DeleteByQueryRequest deleteByQueryRequest) {
+        CompletableFuture<BulkByScrollResponse> future = new CompletableFuture<>();
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(DELETE_BY_QUERY_OPERATION);
+        restHighLevelClient.deleteByQueryAsync(deleteByQueryRequest, request.getRequestOptions(),
+                completing(future, request, response -> request.recordCompleted()));
+        return future.thenAccept(deleteByQueryResponse -> {
+            if (!deleteByQueryResponse.getBulkFailures().isEmpty() || !deleteByQueryResponse.getSearchFailures().isEmpty()) {
+                throw new ElasticsearchTrainingDataLayerException("Some documents could not be deleted.");
+            }
+        });
+    }
+
+    /**
+     * Gets the canonical fingerprint of the search, the concurrent searches with the same fingerprint share the response
+     * of the first one, e.g., when several instructors open the dashboard of the same training instance at once.
+     * The response is shared read-only, the callers only decode it. The scroll searches are never coalesced, their
+     * scroll id would be consumed by more callers, neither are the profiled searches, their profile belongs to one call.
+     *
+     * @param searchRequest the search request
+     * @return the fingerprint of the search, or null if the search must not be coalesced
+     */
+    private static String coalesce(SearchRequest searchRequest) {
+        if (searchRequest.scroll() != null || DaoCallMetrics.current().isProfiled()) {
+            return null;
+        }
+        return String.join(",", searchRequest.indices())
+                + "|" + searchRequest.indicesOptions()
+                + "|" + searchRequest.routing()
+                + "|" + searchRequest.preference()
+                + "|" + searchRequest.searchType()
+                + "|" + searchRequest.requestCache()
+                + "|" + searchRequest.allowPartialSearchResults()
+                + "|" + searchRequest.source();
+    }
+
+    private static void trackCancellable(Cancellable search, CompletableFuture<?> future) {
+        SearchCancellation cancellation = DaoCallMetrics.current().getCancellation();
+        if (cancellation != null) {
+            cancellation.track(search, future);
+        }
+    }
+
+    private <T> ActionListener<T> completing(CompletableFuture<T> future, DaoCallMetrics.Request request, Consumer<T> recordResponse) {
+        DaoCallMetrics call = DaoCallMetrics.current();
+        return ActionListener.wrap(response -> call.run(() -> {
+            if (response == null) {
+                request.recordFailure(null);
+                future.completeExceptionally(new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service."));
+            } else {
+                recordResponse.accept(response);
+                future.complete(response);
+            }
+        }), ex -> call.run(() -> {
+            request.recordFailure(ex);
+            SearchCancellation cancellation = call.getCancellation();
+            future.completeExceptionally(cancellation != null && cancellation.isCancelled()
+                    ? cancellation.toCancelledException()
+                    : new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.", ex));
+        }));
+    }
+
 }
@@ -1,13 +1,21 @@
 package cz.cyberrange.platform.elasticsearch.data;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO.EndedRun;
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
 import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoTrainingType;
+import cz.cyberrange.platform.elasticsearch.data.search.SeqNoCursor;
+import cz.cyberrange.platform.elasticsearch.data.statistics.TrainingRunPhasesData;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.InnerHitBuilder;
@@ -16,13 +24,20 @@ import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
 import org.elasticsearch.search.aggregations.bucket.filter.Filters;
 import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregationBuilder;
-import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregator;
+import org.elasticsearch.search.aggregations.bucket.range.DateRangeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.range.Range;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.Max;
 import org.elasticsearch.search.aggregations.metrics.Min;
+import org.elasticsearch.search.aggregations.metrics.TopHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.collapse.CollapseBuilder;
 import org.elasticsearch.search.sort.SortOrder;
@@ -35,10 +50,18 @@ import org.springframework.stereotype.Repository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE;
@@ -47,6 +70,7 @@ import static cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczp
  * The type Adaptive Training Statistics dao.
  */
 @Repository
+@DaoTrainingType(TrainingType.ADAPTIVE)
 public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
 
     private static final int INDEX_DOCUMENTS_MIN_RETURN_NUMBER = 0;
@@ -56,20 +80,47 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
     private static final String KEYWORD_FILTER_SUB_AGGREGATION = "keyword_filter";
     private static final String PHASES_AGGREGATION = "phases_aggregation";
     private static final String PHASES_COLLAPSE = "phases_collapse";
+    private static final String PHASES_RANGES_AGGREGATION = "phases_ranges";
+    private static final String RUNS_AGGREGATION = "runs_aggregation";
+    private static final String PHASE_STARTED_FILTER_SUB_AGGREGATION = "phase_started_filter";
+    private static final String TASK_ID_SUB_AGGREGATION = "task_id";
+    private static final String PHASE_TIMES_AGGREGATION = "phase_times";
+    private static final String PHASE_COMPLETED_FILTER_SUB_AGGREGATION = "phase_completed_filter";
+    private static final String ENDED_RUNS_AGGREGATION = "ended_runs";
+    private static final String ENDED_SOURCE = "ended";
+    private static final String RUN_SOURCE = "run";
+    private static final String INSTANCE_SOURCE = "instance";
+    private static final String PHASE_SOURCE = "phase";
+    private static final String SEQ_NO_FIELD = "_seq_no";
+    private static final String INDEX_FIELD = "_index";
+    private static final String EPOCH_MILLIS_FORMAT = "epoch_millis";
+    private static final String[] NEW_EVENT_FIELDS = {
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TASK_ID,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_ANSWER_CONTENT,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_SANDBOX_ID,
+            AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID};
 
     @Value("${elasticsearch.max-result-window:10000}")
     private int indexDocumentsMaxReturnNumber;
 
+    @Value("${elasticsearch.page-size:1000}")
+    private int pageSize;
+
     /**
      * Instantiates a new Adaptive Training Statistics dao.
      *
      * @param restHighLevelClient the rest high level client
      * @param objectMapper        the object mapper
+     * @param indexNameResolver   the resolver of the index patterns to the concrete indices
      */
     @Autowired
     public AdaptiveTrainingStatisticsDAO(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient,
-                                         @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper) {
-        super(restHighLevelClient, objectMapper);
+                                         @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                         IndexNameResolver indexNameResolver) {
+        super(restHighLevelClient, objectMapper, indexNameResolver);
     }
 
     /**
@@ -108,6 +159,26 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
             throw new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty.");
         }
 
+        return handleCountEventsResponse(search(createCountEventsRequest(trainingRunId, phaseIds, events)), events);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #countEventsInPhases(Long, List, List)}.
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      ids of phases to count event
+     * @param events        events to count
+     * @return the future of the mapping of phases and number of event occurrences in that phases
+     */
+    public CompletableFuture<Map<Long, Map<String, Long>>> countEventsInPhasesAsync(Long trainingRunId, List<Long> phaseIds, List<String> events) {
+        if (events == null || events.isEmpty()) {
+            return CompletableFuture.failedFuture(new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty."));
+        }
+        return searchAsync(createCountEventsRequest(trainingRunId, phaseIds, events))
+                .thenApply(response -> handleCountEventsResponse(response, events));
+    }
+
+    private SearchRequest createCountEventsRequest(Long trainingRunId, List<Long> phaseIds, List<String> events) {
         //Phases aggregation query
         TermsAggregationBuilder aggregation = AggregationBuilders.terms(PHASES_AGGREGATION)
                 .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)
@@ -119,10 +190,9 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         searchSourceBuilder.query(includeOnlySpecifiedPhases(phaseIds));
         searchSourceBuilder.aggregation(aggregation);
 
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
         searchRequest.source(searchSourceBuilder);
-
-        return handleCountEventsResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT), events);
+        return searchRequest;
     }
 
     private Map<Long, Map<String, Long>> handleCountEventsResponse(SearchResponse response, List<String> events) {
@@ -179,6 +249,22 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
      * @throws IOException                             the io exception
      */
     public Map<Long, List<String>> getWrongAnswersInPhases(Long trainingRunId, List<Long> phaseIds) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleWrongAnswersResponse(search(createWrongAnswersRequest(trainingRunId, phaseIds)), phaseIds);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #getWrongAnswersInPhases(Long, List)}.
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      ids of phases to get submitted wrong flags
+     * @return the future of the mapping of phases and list of wrong answers submitted in that phases
+     */
+    public CompletableFuture<Map<Long, List<String>>> getWrongAnswersInPhasesAsync(Long trainingRunId, List<Long> phaseIds) {
+        return searchAsync(createWrongAnswersRequest(trainingRunId, phaseIds))
+                .thenApply(response -> handleWrongAnswersResponse(response, phaseIds));
+    }
+
+    private SearchRequest createWrongAnswersRequest(Long trainingRunId, List<Long> phaseIds) {
         //Phases collapse builder query
         InnerHitBuilder innerHitBuilder = new InnerHitBuilder(PHASES_COLLAPSE)
                 .setSize(indexDocumentsMaxReturnNumber);
@@ -195,14 +281,9 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
                 .query(boolQueryBuilder)
                 .collapse(collapseBuilder);
 
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
         searchRequest.source(searchSourceBuilder);
-
-        Map<Long, List<String>> result = handleWrongAnswersResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT), phaseIds);
-        for (Long phaseId : phaseIds) {
-            result.putIfAbsent(phaseId, new ArrayList<>());
-        }
-        return result;
+        return searchRequest;
     }
 
     private Map<Long, List<String>> handleWrongAnswersResponse(SearchResponse response, List<Long> phaseIds) {
@@ -220,6 +301,9 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         } else {
             throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
         }
+        for (Long phaseId : phaseIds) {
+            wrongAnswersMapping.putIfAbsent(phaseId, new ArrayList<>());
+        }
         return wrongAnswersMapping;
     }
 
@@ -266,6 +350,22 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
      * @throws IOException                             the io exception
      */
     public Map<Long, Pair<Long, Long>> findTimeBoundariesOfPhases(Long trainingRunId, List<Long> phaseIds) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleTimeBoundariesResponse(search(createTimeBoundariesRequest(trainingRunId, phaseIds)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findTimeBoundariesOfPhases(Long, List)}.
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      ids of phases
+     * @return the future of the mapping of phases and time spent at the phases
+     */
+    public CompletableFuture<Map<Long, Pair<Long, Long>>> findTimeBoundariesOfPhasesAsync(Long trainingRunId, List<Long> phaseIds) {
+        return searchAsync(createTimeBoundariesRequest(trainingRunId, phaseIds))
+                .thenApply(this::handleTimeBoundariesResponse);
+    }
+
+    private SearchRequest createTimeBoundariesRequest(Long trainingRunId, List<Long> phaseIds) {
         //Phase aggregation query
         TermsAggregationBuilder aggregation = AggregationBuilders.terms(PHASES_AGGREGATION)
                 .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)
@@ -282,10 +382,9 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         searchSourceBuilder.query(boolQueryBuilder);
         searchSourceBuilder.aggregation(aggregation);
 
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
         searchRequest.source(searchSourceBuilder);
-
-        return handleTimeBoundariesResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT));
+        return searchRequest;
     }
 
     private Map<Long, Pair<Long, Long>> handleTimeBoundariesResponse(SearchResponse response) {
@@ -319,13 +418,31 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
      * @throws IOException                             the io exception
      */
     public Object getUniqueFieldValueFromTrainingEvent(Long trainingRunId, String fieldName) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleUniqueFieldResponse(search(createUniqueFieldRequest(trainingRunId)), fieldName);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #getUniqueFieldValueFromTrainingEvent(Long, String)}.
+     *
+     * @param trainingRunId the training run id
+     * @param fieldName     name of the field
+     * @return the future of the value of the specified field
+     */
+    public CompletableFuture<Object> getUniqueFieldValueFromTrainingEventAsync(Long trainingRunId, String fieldName) {
+        return searchAsync(createUniqueFieldRequest(trainingRunId))
+                .thenApply(response -> handleUniqueFieldResponse(response, fieldName));
+    }
+
+    private SearchRequest createUniqueFieldRequest(Long trainingRunId) {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder().size(1)
                 .timeout(new TimeValue(5, TimeUnit.MINUTES));
 
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
         searchRequest.source(searchSourceBuilder);
-        SearchResponse response = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
+        return searchRequest;
+    }
 
+    private Object handleUniqueFieldResponse(SearchResponse response, String fieldName) {
         if (response != null) {
             SearchHits responseHits = response.getHits();
             if (responseHits != null && responseHits.getHits().length > 0) {
@@ -372,7 +489,23 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
      * @throws IOException                             the io exception
      */
     public Map<Long, Long> getTaskIdsOfPhases(Long trainingRunId, List<Long> phaseIds) throws ElasticsearchTrainingDataLayerException, IOException {
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        return handleTaskIdsResponse(search(createTaskIdsRequest(trainingRunId, phaseIds)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #getTaskIdsOfPhases(Long, List)}.
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      list of phase ids
+     * @return the future of the mapping of phases and their task ids
+     */
+    public CompletableFuture<Map<Long, Long>> getTaskIdsOfPhasesAsync(Long trainingRunId, List<Long> phaseIds) {
+        return searchAsync(createTaskIdsRequest(trainingRunId, phaseIds))
+                .thenApply(this::handleTaskIdsResponse);
+    }
+
+    private SearchRequest createTaskIdsRequest(Long trainingRunId, List<Long> phaseIds) {
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
 
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery()
                 .must(includeOnlySpecifiedPhases(phaseIds))
@@ -381,8 +514,10 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
                 .timeout(new TimeValue(5, TimeUnit.MINUTES))
                 .query(boolQueryBuilder);
         searchRequest.source(searchSourceBuilder);
-        SearchResponse response = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
+        return searchRequest;
+    }
 
+    private Map<Long, Long> handleTaskIdsResponse(SearchResponse response) {
         if (response != null) {
             SearchHits responseHits = response.getHits();
             Map<Long, Long> phasesTasksMapping = new HashMap<>();
@@ -399,6 +534,680 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         }
     }
 
+    /**
+     * Get ids of all phases in which the events of the training run were recorded.
+     *
+     * <pre>{@code
+     *  GET crczp.events.adaptive.trainings*.run=${RUN_ID}/_search
+     * {
+     *   "size": 0,
+     *   "aggs": {
+     *     "phases_agg": { "terms": { "field": "phase_id", "size": ${MAX_RESULT_WINDOW}, "order": { "_key": "asc" } } }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param trainingRunId the training run id
+     * @return the ids of the phases in the ascending order
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public List<Long> getPhaseIdsOfTrainingRun(Long trainingRunId) throws ElasticsearchTrainingDataLayerException, IOException {
+        TermsAggregationBuilder aggregation = AggregationBuilders.terms(PHASES_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)
+                .size(indexDocumentsMaxReturnNumber)
+                .order(BucketOrder.key(true));
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId);
+        searchRequest.source(searchSourceBuilder);
+        SearchResponse response = search(searchRequest);
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        List<Long> phaseIds = new ArrayList<>();
+        if (response.getAggregations() != null) {
+            Terms phasesAggregation = response.getAggregations().get(PHASES_AGGREGATION);
+            for (Terms.Bucket phaseBucket : phasesAggregation.getBuckets()) {
+                phaseIds.add(phaseBucket.getKeyAsNumber().longValue());
+            }
+        }
+        return phaseIds;
+    }
+
+    /**
+     * Get the sandbox id, time boundaries, number of specified events, wrong answers and task ids of the given phases
+     * in a single multi search request. The individual searches are the same as the ones of the
+     * {@link #getUniqueFieldValueFromTrainingEvent(Long, String)}, {@link #findTimeBoundariesOfPhases(Long, List)},
+     * {@link #countEventsInPhases(Long, List, List)}, {@link #getWrongAnswersInPhases(Long, List)}
+     * and {@link #getTaskIdsOfPhases(Long, List)}.
+     *
+     * <pre>{@code
+     * GET /_msearch
+     * { "index": "crczp.events.adaptive.trainings*.run=${RUN_ID}" }
+     * { "size": 1 }
+     * { "index": "crczp.events.adaptive.trainings*.run=${RUN_ID}" }
+     * { "size": 0, "query": { ... }, "aggs": { "phases_agg": { ... min/max timestamp ... } } }
+     * ...
+     * }</pre>
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      ids of phases
+     * @param events        events to count
+     * @return the events data of the given phases
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public TrainingRunPhasesData findPhasesData(Long trainingRunId, List<Long> phaseIds, List<String> events) throws ElasticsearchTrainingDataLayerException, IOException {
+        if (events == null || events.isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty.");
+        }
+        return handlePhasesDataResponses(multiSearch(createPhasesDataRequest(trainingRunId, phaseIds, events)), phaseIds, events);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findPhasesData(Long, List, List)}.
+     *
+     * @param trainingRunId the training run id
+     * @param phaseIds      ids of phases
+     * @param events        events to count
+     * @return the future of the events data of the given phases
+     */
+    public CompletableFuture<TrainingRunPhasesData> findPhasesDataAsync(Long trainingRunId, List<Long> phaseIds, List<String> events) {
+        if (events == null || events.isEmpty()) {
+            return CompletableFuture.failedFuture(new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty."));
+        }
+        return multiSearchAsync(createPhasesDataRequest(trainingRunId, phaseIds, events))
+                .thenApply(responses -> handlePhasesDataResponses(responses, phaseIds, events));
+    }
+
+    private MultiSearchRequest createPhasesDataRequest(Long trainingRunId, List<Long> phaseIds, List<String> events) {
+        return new MultiSearchRequest()
+                .add(createUniqueFieldRequest(trainingRunId))
+                .add(createTimeBoundariesRequest(trainingRunId, phaseIds))
+                .add(createCountEventsRequest(trainingRunId, phaseIds, events))
+                .add(createWrongAnswersRequest(trainingRunId, phaseIds))
+                .add(createTaskIdsRequest(trainingRunId, phaseIds));
+    }
+
+    private TrainingRunPhasesData handlePhasesDataResponses(MultiSearchResponse.Item[] responses, List<Long> phaseIds, List<String> events) {
+        TrainingRunPhasesData phasesData = new TrainingRunPhasesData();
+        phasesData.setSandboxId(handleUniqueFieldResponse(getItemResponse(responses[0]), AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_SANDBOX_ID));
+        phasesData.setPhasesBoundaries(handleTimeBoundariesResponse(getItemResponse(responses[1])));
+        phasesData.setEventsInPhases(handleCountEventsResponse(getItemResponse(responses[2]), events));
+        phasesData.setWrongAnswersInPhases(handleWrongAnswersResponse(getItemResponse(responses[3]), phaseIds));
+        phasesData.setTaskIdsOfPhases(handleTaskIdsResponse(getItemResponse(responses[4])));
+        return phasesData;
+    }
+
+    /**
+     * Get the time boundaries, number of specified events, wrong answers and task ids of the given phases of all given
+     * training runs in a single multi search request. Unlike {@link #findPhasesData(Long, List, List)}, the searches are
+     * not run against the indices of the individual training runs, but against all adaptive training events filtered
+     * by the training run ids and the per-run data are split by the terms aggregation on the training run id, so
+     * the number of searches does not depend on the number of training runs. The sandbox ids are not retrieved.
+     * If no phases are given, all phases of the training runs are included, up to <i>max-result-window</i> phases
+     * of each training run.
+     * <p>
+     * The wrong answers are returned as hits sorted by the timestamp; the first page is a part of the multi search and
+     * the following pages are fetched with <i>search_after</i> once the previous page is full, so all wrong answers are
+     * returned regardless of <i>max-result-window</i>. The index and the sequence number break the ties of the timestamps,
+     * they identify the event as long as the indices of the training runs have a single shard, see {@link SeqNoCursor}.
+     *
+     * <pre>{@code
+     * GET /_msearch
+     * { "index": "crczp.events.adaptive.trainings*" }
+     * {
+     *   "size": 0,
+     *   "query": { "bool": { "filter": [
+     *     { "terms": { "training_run_id": [${RUN_ID}, ...] } }, { "terms": { "phase_id": [${PHASE_ID}, ...] } },
+     *     { "bool": { "should": [ { "wildcard": { "type": "*PhaseStarted" }}, { "wildcard": { "type": "*PhaseCompleted" }} ] } }
+     *   ] } },
+     *   "aggs": {
+     *     "runs_aggregation": { "terms": { "field": "training_run_id", "size": ${RUNS_COUNT} },
+     *       "aggs": {
+     *         "phases_aggregation": { "terms": { "field": "phase_id", "size": ${PHASES_COUNT} },
+     *           "aggs": {
+     *             "max_timestamp": { "max": { "field": "timestamp"} },
+     *             "min_timestamp": { "min": { "field": "timestamp" }},
+     *             "phase_started_filter": { "filter": { "wildcard": { "type": "*PhaseStarted" }},
+     *               "aggs": { "task_id": { "top_hits": { "size": 1, "_source": ["task_id"], "sort": [{ "timestamp": "desc" }] } } }
+     *             }
+     *           }
+     *         }
+     *       }
+     *     }
+     *   }
+     * }
+     * { "index": "crczp.events.adaptive.trainings*" }
+     * { "size": 0, "query": { ... runs and phases ... }, "aggs": { "runs_aggregation": { ... "phases_aggregation": { ... "type_filter": { ... } } } } }
+     * { "index": "crczp.events.adaptive.trainings*" }
+     * { "size": ${PAGE_SIZE}, "query": { ... runs, phases and *WrongAnswerSubmitted ... }, "_source": ["training_run_id", "phase_id", "answer_content"],
+     *   "sort": [{ "timestamp": "asc" }, { "_index": "asc" }, { "_seq_no": "asc" }] }
+     *
+     * GET crczp.events.adaptive.trainings* /_search
+     * { "size": ${PAGE_SIZE}, "query": { ... }, "_source": [ ... ], "sort": [ ... ], "search_after": [${TIMESTAMP}, "${INDEX}", ${SEQ_NO}] }
+     * }</pre>
+     *
+     * @param trainingRunIds the training run ids
+     * @param phaseIds       ids of phases, all phases if null or empty
+     * @param events         events to count
+     * @return the mapping of the training runs and the events data of their phases, in the order of the given training run ids
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Map<Long, TrainingRunPhasesData> findPhasesDataOfRuns(List<Long> trainingRunIds, List<Long> phaseIds, List<String> events) throws ElasticsearchTrainingDataLayerException, IOException {
+        if (events == null || events.isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty.");
+        }
+        if (trainingRunIds.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        MultiSearchResponse.Item[] responses = multiSearch(createPhasesDataOfRunsRequest(trainingRunIds, phaseIds, events));
+        Map<Long, TrainingRunPhasesData> phasesDataOfRuns = handlePhasesDataOfRunsResponses(responses, trainingRunIds, phaseIds, events);
+        Object[] searchAfter = addWrongAnswers(getItemResponse(responses[2]), phasesDataOfRuns);
+        while (searchAfter != null) {
+            searchAfter = addWrongAnswers(search(createWrongAnswersOfRunsRequest(trainingRunIds, phaseIds, searchAfter)), phasesDataOfRuns);
+        }
+        return phasesDataOfRuns;
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findPhasesDataOfRuns(List, List, List)}.
+     *
+     * @param trainingRunIds the training run ids
+     * @param phaseIds       ids of phases, all phases if null or empty
+     * @param events         events to count
+     * @return the future of the mapping of the training runs and the events data of their phases
+     */
+    public CompletableFuture<Map<Long, TrainingRunPhasesData>> findPhasesDataOfRunsAsync(List<Long> trainingRunIds, List<Long> phaseIds, List<String> events) {
+        if (events == null || events.isEmpty()) {
+            return CompletableFuture.failedFuture(new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty."));
+        }
+        if (trainingRunIds.isEmpty()) {
+            return CompletableFuture.completedFuture(new LinkedHashMap<>());
+        }
+        return multiSearchAsync(createPhasesDataOfRunsRequest(trainingRunIds, phaseIds, events))
+                .thenCompose(responses -> {
+                    Map<Long, TrainingRunPhasesData> phasesDataOfRuns = handlePhasesDataOfRunsResponses(responses, trainingRunIds, phaseIds, events);
+                    return fetchWrongAnswersAsync(trainingRunIds, phaseIds, addWrongAnswers(getItemResponse(responses[2]), phasesDataOfRuns), phasesDataOfRuns)
+                            .thenApply(ignored -> phasesDataOfRuns);
+                });
+    }
+
+    private CompletableFuture<Void> fetchWrongAnswersAsync(List<Long> trainingRunIds, List<Long> phaseIds, Object[] searchAfter,
+                                                           Map<Long, TrainingRunPhasesData> phasesDataOfRuns) {
+        if (searchAfter == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return searchAsync(createWrongAnswersOfRunsRequest(trainingRunIds, phaseIds, searchAfter))
+                .thenCompose(response -> fetchWrongAnswersAsync(trainingRunIds, phaseIds, addWrongAnswers(response, phasesDataOfRuns), phasesDataOfRuns));
+    }
+
+    private MultiSearchRequest createPhasesDataOfRunsRequest(List<Long> trainingRunIds, List<Long> phaseIds, List<String> events) {
+        return new MultiSearchRequest()
+                .add(createTimeBoundariesAndTaskIdsOfRunsRequest(trainingRunIds, phaseIds))
+                .add(createCountEventsOfRunsRequest(trainingRunIds, phaseIds, events))
+                .add(createWrongAnswersOfRunsRequest(trainingRunIds, phaseIds, null));
+    }
+
+    private SearchRequest createTimeBoundariesAndTaskIdsOfRunsRequest(List<Long> trainingRunIds, List<Long> phaseIds) {
+        //Time boundaries and task id of each phase of each run
+        TermsAggregationBuilder phasesAggregation = AggregationBuilders.terms(PHASES_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)
+                .size(getPhasesAggregationSize(phaseIds))
+                .subAggregation(AggregationBuilders.max(MAX_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.min(MIN_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.filter(PHASE_STARTED_FILTER_SUB_AGGREGATION,
+                                QueryBuilders.wildcardQuery(CRCZP_ELASTICSEARCH_EVENT_TYPE, "*PhaseStarted").caseInsensitive(true))
+                        .subAggregation(AggregationBuilders.topHits(TASK_ID_SUB_AGGREGATION)
+                                .size(1)
+                                .fetchSource(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TASK_ID, null)
+                                .sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, SortOrder.DESC)));
+
+        BoolQueryBuilder boolQueryBuilder = includeOnlySpecifiedRunsAndPhases(trainingRunIds, phaseIds)
+                .filter(includeOnlyPhaseStartedAndCompleted());
+        return createRunsAggregationRequest(trainingRunIds, boolQueryBuilder, phasesAggregation);
+    }
+
+    private SearchRequest createCountEventsOfRunsRequest(List<Long> trainingRunIds, List<Long> phaseIds, List<String> events) {
+        //Phases aggregation of each run
+        TermsAggregationBuilder phasesAggregation = AggregationBuilders.terms(PHASES_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)
+                .size(getPhasesAggregationSize(phaseIds))
+                .subAggregation(AggregationBuilders.filters(TYPE_FILTER_SUB_AGGREGATION, createWildcardQueryFilters(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE, events)));
+        return createRunsAggregationRequest(trainingRunIds, includeOnlySpecifiedRunsAndPhases(trainingRunIds, phaseIds), phasesAggregation);
+    }
+
+    private SearchRequest createRunsAggregationRequest(List<Long> trainingRunIds, BoolQueryBuilder query, TermsAggregationBuilder phasesAggregation) {
+        TermsAggregationBuilder aggregation = AggregationBuilders.terms(RUNS_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID)
+                .size(trainingRunIds.size())
+                .subAggregation(phasesAggregation);
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(query);
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private SearchRequest createWrongAnswersOfRunsRequest(List<Long> trainingRunIds, List<Long> phaseIds, Object[] searchAfter) {
+        BoolQueryBuilder boolQueryBuilder = includeOnlySpecifiedRunsAndPhases(trainingRunIds, phaseIds)
+                .filter(includeOnlyWrongAnswers());
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(pageSize)
+                .timeout(new TimeValue(5, TimeUnit.MINUTES))
+                .query(boolQueryBuilder)
+                .fetchSource(new String[]{
+                        AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID,
+                        AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID,
+                        AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_ANSWER_CONTENT}, null)
+                .sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, SortOrder.ASC)
+                .sort(INDEX_FIELD, SortOrder.ASC)
+                .sort(SEQ_NO_FIELD, SortOrder.ASC);
+        if (searchAfter != null) {
+            searchSourceBuilder.searchAfter(searchAfter);
+        }
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private Map<Long, TrainingRunPhasesData> handlePhasesDataOfRunsResponses(MultiSearchResponse.Item[] responses, List<Long> trainingRunIds,
+                                                                            List<Long> phaseIds, List<String> events) {
+        Map<Long, TrainingRunPhasesData> phasesDataOfRuns = new LinkedHashMap<>();
+        for (Long trainingRunId : trainingRunIds) {
+            TrainingRunPhasesData phasesData = new TrainingRunPhasesData();
+            phasesData.setPhasesBoundaries(new HashMap<>());
+            phasesData.setEventsInPhases(new HashMap<>());
+            phasesData.setWrongAnswersInPhases(new HashMap<>());
+            phasesData.setTaskIdsOfPhases(new HashMap<>());
+            phasesDataOfRuns.put(trainingRunId, phasesData);
+        }
+
+        for (Terms.Bucket runBucket : getRunsBuckets(getItemResponse(responses[0]))) {
+            TrainingRunPhasesData phasesData = phasesDataOfRuns.get(runBucket.getKeyAsNumber().longValue());
+            Terms phasesAggregation = runBucket.getAggregations().get(PHASES_AGGREGATION);
+            for (Terms.Bucket phaseBucket : phasesAggregation.getBuckets()) {
+                Long phaseId = phaseBucket.getKeyAsNumber().longValue();
+                Min minTimestampAggregation = phaseBucket.getAggregations().get(MIN_TIMESTAMP_SUB_AGGREGATION);
+                Max maxTimestampAggregation = phaseBucket.getAggregations().get(MAX_TIMESTAMP_SUB_AGGREGATION);
+                Long minTimestamp = Double.valueOf(minTimestampAggregation.getValue()).longValue();
+                Long maxTimestamp = Double.valueOf(maxTimestampAggregation.getValue()).longValue();
+                phasesData.getPhasesBoundaries().put(phaseId, Pair.with(minTimestamp, maxTimestamp.equals(minTimestamp) ? Long.MAX_VALUE : maxTimestamp));
+
+                Filter phaseStartedAggregation = phaseBucket.getAggregations().get(PHASE_STARTED_FILTER_SUB_AGGREGATION);
+                TopHits taskIdAggregation = phaseStartedAggregation.getAggregations().get(TASK_ID_SUB_AGGREGATION);
+                SearchHit[] taskIdHits = taskIdAggregation.getHits().getHits();
+                if (taskIdHits.length > 0) {
+                    phasesData.getTaskIdsOfPhases().put(phaseId,
+                            convertObjectToLong(taskIdHits[0].getSourceAsMap().get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TASK_ID)));
+                }
+            }
+        }
+
+        for (Terms.Bucket runBucket : getRunsBuckets(getItemResponse(responses[1]))) {
+            TrainingRunPhasesData phasesData = phasesDataOfRuns.get(runBucket.getKeyAsNumber().longValue());
+            Terms phasesAggregation = runBucket.getAggregations().get(PHASES_AGGREGATION);
+            for (Terms.Bucket phaseBucket : phasesAggregation.getBuckets()) {
+                Filters typeFilterAggregation = phaseBucket.getAggregations().get(TYPE_FILTER_SUB_AGGREGATION);
+                Map<String, Long> eventsOccurrences = new HashMap<>();
+                for (String event : events) {
+                    eventsOccurrences.put(event, typeFilterAggregation.getBucketByKey(event).getDocCount());
+                }
+                phasesData.getEventsInPhases().put(phaseBucket.getKeyAsNumber().longValue(), eventsOccurrences);
+            }
+        }
+
+        for (TrainingRunPhasesData phasesData : phasesDataOfRuns.values()) {
+            for (Long phaseId : phaseIds == null || phaseIds.isEmpty() ? phasesData.getPhasesBoundaries().keySet() : phaseIds) {
+                phasesData.getWrongAnswersInPhases().put(phaseId, new ArrayList<>());
+            }
+        }
+        return phasesDataOfRuns;
+    }
+
+    /**
+     * Add the page of the wrong answers to the events data of the training runs.
+     *
+     * @return the sort values of the last hit if the page is full, null if it is the last page
+     */
+    private Object[] addWrongAnswers(SearchResponse response, Map<Long, TrainingRunPhasesData> phasesDataOfRuns) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        SearchHit[] hits = response.getHits().getHits();
+        for (SearchHit hit : hits) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            TrainingRunPhasesData phasesData = phasesDataOfRuns.get(((Number) source.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID)).longValue());
+            Long phaseId = ((Number) source.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)).longValue();
+            phasesData.getWrongAnswersInPhases().computeIfAbsent(phaseId, id -> new ArrayList<>())
+                    .add(source.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_ANSWER_CONTENT).toString());
+        }
+        return hits.length < pageSize ? null : hits[hits.length - 1].getSortValues();
+    }
+
+    private List<? extends Terms.Bucket> getRunsBuckets(SearchResponse response) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return List.of();
+        }
+        Terms runsAggregation = response.getAggregations().get(RUNS_AGGREGATION);
+        return runsAggregation.getBuckets();
+    }
+
+    /**
+     * Find the training runs of the training definition which ended since the given time, ordered by their end.
+     * The training run has ended if its <i>TrainingRunEnded</i> event exists.
+     *
+     * <pre>{@code
+     *  GET crczp.events.adaptive.trainings*.definition=${DEFINITION_ID}.* /_search
+     * {
+     *   "size": 0,
+     *   "query": { "bool": { "filter": [
+     *     { "wildcard": { "type": "*TrainingRunEnded" }},
+     *     { "range": { "timestamp": { "gte": ${FROM} } } }
+     *   ] } },
+     *   "aggs": {
+     *     "ended_runs": {
+     *       "composite": {
+     *         "size": ${PAGE_SIZE},
+     *         "sources": [
+     *           { "ended": { "terms": { "field": "timestamp" } } },
+     *           { "run": { "terms": { "field": "training_run_id" } } },
+     *           { "instance": { "terms": { "field": "training_instance_id" } } }
+     *         ],
+     *         "after": { "ended": ${LAST_ENDED}, "run": ${LAST_RUN_ID}, "instance": ${LAST_INSTANCE_ID} }
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param from                 the lower bound of the timestamp of the ended event (epoch_millis timestamp format), inclusive
+     * @return the future of the ended training runs ordered by their end
+     */
+    public CompletableFuture<List<EndedRun>> findEndedRunsAsync(Long trainingDefinitionId, long from) {
+        List<EndedRun> endedRuns = new ArrayList<>();
+        return fetchEndedRunsAsync(trainingDefinitionId, from, null, endedRuns)
+                .thenApply(ignored -> endedRuns);
+    }
+
+    private CompletableFuture<Void> fetchEndedRunsAsync(Long trainingDefinitionId, long from, Map<String, Object> afterKey, List<EndedRun> endedRuns) {
+        return searchAsync(createEndedRunsRequest(trainingDefinitionId, from, afterKey))
+                .thenCompose(response -> {
+                    Map<String, Object> nextAfterKey = handleEndedRunsResponse(response, endedRuns);
+                    return nextAfterKey == null
+                            ? CompletableFuture.completedFuture(null)
+                            : fetchEndedRunsAsync(trainingDefinitionId, from, nextAfterKey, endedRuns);
+                });
+    }
+
+    private SearchRequest createEndedRunsRequest(Long trainingDefinitionId, long from, Map<String, Object> afterKey) {
+        CompositeAggregationBuilder aggregation = AggregationBuilders.composite(ENDED_RUNS_AGGREGATION, List.of(
+                        new TermsValuesSourceBuilder(ENDED_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP),
+                        new TermsValuesSourceBuilder(RUN_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID),
+                        new TermsValuesSourceBuilder(INSTANCE_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID)))
+                .size(pageSize);
+        if (afterKey != null) {
+            aggregation.aggregateAfter(afterKey);
+        }
+
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.wildcardQuery(CRCZP_ELASTICSEARCH_EVENT_TYPE, "*TrainingRunEnded").caseInsensitive(true))
+                .filter(QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP).gte(from));
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.trackTotalHits(false);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(boolQueryBuilder);
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*.definition=" + trainingDefinitionId + ".*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private Map<String, Object> handleEndedRunsResponse(SearchResponse response, List<EndedRun> endedRuns) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return null;
+        }
+        CompositeAggregation endedRunsAggregation = response.getAggregations().get(ENDED_RUNS_AGGREGATION);
+        for (CompositeAggregation.Bucket bucket : endedRunsAggregation.getBuckets()) {
+            endedRuns.add(new EndedRun(((Number) bucket.getKey().get(RUN_SOURCE)).longValue(),
+                    ((Number) bucket.getKey().get(INSTANCE_SOURCE)).longValue(),
+                    ((Number) bucket.getKey().get(ENDED_SOURCE)).longValue()));
+        }
+        return endedRunsAggregation.getBuckets().size() < pageSize ? null : endedRunsAggregation.afterKey();
+    }
+
+    /**
+     * Pass the time spent at each completed phase of the given training runs of the training definition to the consumer.
+     * The phase is completed if its <i>PhaseCompleted</i> event exists; the time is the difference of the last and the first
+     * timestamp of its <i>PhaseStarted</i> and <i>PhaseCompleted</i> events. Only the aggregated numbers are fetched,
+     * the pairs of the training runs and the phases are paged with the composite aggregation.
+     *
+     * <pre>{@code
+     *  GET crczp.events.adaptive.trainings*.definition=${DEFINITION_ID}.* /_search
+     * {
+     *   "size": 0,
+     *   "query": { "bool": { "filter": [
+     *     { "bool": { "should": [ { "wildcard": { "type": "*PhaseStarted" }}, { "wildcard": { "type": "*PhaseCompleted" }} ] } },
+     *     { "terms": { "training_run_id": [${RUN_ID}, ...] } }
+     *   ] } },
+     *   "aggs": {
+     *     "phase_times": {
+     *       "composite": {
+     *         "size": ${PAGE_SIZE},
+     *         "sources": [{ "run": { "terms": { "field": "training_run_id" } } }, { "phase": { "terms": { "field": "phase_id" } } }],
+     *         "after": { "run": ${LAST_RUN_ID}, "phase": ${LAST_PHASE_ID} }
+     *       },
+     *       "aggs": {
+     *         "max_timestamp": { "max": { "field": "timestamp"} },
+     *         "min_timestamp": { "min": { "field": "timestamp" }},
+     *         "phase_completed_filter": { "filter": { "wildcard": { "type": "*PhaseCompleted" }} }
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingRunIds       ids of the training runs, nothing is passed to the consumer if empty
+     * @param consumer             the consumer of the phase times, it is called from the threads completing the searches
+     * @return the future completed once all phase times are passed to the consumer
+     */
+    public CompletableFuture<Void> forEachCompletedPhaseTimeAsync(Long trainingDefinitionId, Collection<Long> trainingRunIds, PhaseTimeConsumer consumer) {
+        if (trainingRunIds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return fetchPhaseTimesAsync(trainingDefinitionId, trainingRunIds, null, consumer);
+    }
+
+    private CompletableFuture<Void> fetchPhaseTimesAsync(Long trainingDefinitionId, Collection<Long> trainingRunIds, Map<String, Object> afterKey,
+                                                         PhaseTimeConsumer consumer) {
+        return searchAsync(createPhaseTimesRequest(trainingDefinitionId, trainingRunIds, afterKey))
+                .thenCompose(response -> {
+                    Map<String, Object> nextAfterKey = handlePhaseTimesResponse(response, consumer);
+                    return nextAfterKey == null
+                            ? CompletableFuture.completedFuture(null)
+                            : fetchPhaseTimesAsync(trainingDefinitionId, trainingRunIds, nextAfterKey, consumer);
+                });
+    }
+
+    private SearchRequest createPhaseTimesRequest(Long trainingDefinitionId, Collection<Long> trainingRunIds, Map<String, Object> afterKey) {
+        //Time boundaries of each phase of each run
+        CompositeAggregationBuilder aggregation = AggregationBuilders.composite(PHASE_TIMES_AGGREGATION, List.of(
+                        new TermsValuesSourceBuilder(RUN_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID),
+                        new TermsValuesSourceBuilder(PHASE_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID)))
+                .size(pageSize)
+                .subAggregation(AggregationBuilders.max(MAX_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.min(MIN_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.filter(PHASE_COMPLETED_FILTER_SUB_AGGREGATION,
+                        QueryBuilders.wildcardQuery(CRCZP_ELASTICSEARCH_EVENT_TYPE, "*PhaseCompleted").caseInsensitive(true)));
+        if (afterKey != null) {
+            aggregation.aggregateAfter(afterKey);
+        }
+
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery()
+                .filter(includeOnlyPhaseStartedAndCompleted())
+                .filter(QueryBuilders.termsQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, trainingRunIds));
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.trackTotalHits(false);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(boolQueryBuilder);
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*.definition=" + trainingDefinitionId + ".*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private Map<String, Object> handlePhaseTimesResponse(SearchResponse response, PhaseTimeConsumer consumer) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return null;
+        }
+        CompositeAggregation phaseTimes = response.getAggregations().get(PHASE_TIMES_AGGREGATION);
+        for (CompositeAggregation.Bucket bucket : phaseTimes.getBuckets()) {
+            Filter phaseCompletedAggregation = bucket.getAggregations().get(PHASE_COMPLETED_FILTER_SUB_AGGREGATION);
+            if (phaseCompletedAggregation.getDocCount() == 0) {
+                continue;
+            }
+            Min minTimestampAggregation = bucket.getAggregations().get(MIN_TIMESTAMP_SUB_AGGREGATION);
+            Max maxTimestampAggregation = bucket.getAggregations().get(MAX_TIMESTAMP_SUB_AGGREGATION);
+            consumer.accept(((Number) bucket.getKey().get(RUN_SOURCE)).longValue(),
+                    ((Number) bucket.getKey().get(PHASE_SOURCE)).longValue(),
+                    Double.valueOf(maxTimestampAggregation.getValue()).longValue() - Double.valueOf(minTimestampAggregation.getValue()).longValue());
+        }
+        return phaseTimes.getBuckets().size() < pageSize ? null : phaseTimes.afterKey();
+    }
+
+    /**
+     * Pass the events of the training run indexed after the cursor to the consumer and move the cursor past them.
+     * Only the fields needed to compute the statistics of the phases are returned.
+     *
+     * <pre>{@code
+     *  GET crczp.events.adaptive.trainings*.run=${RUN_ID}/_search
+     * {
+     *   "size": ${PAGE_SIZE},
+     *   "seq_no_primary_term": true,
+     *   "_source": ["type", "timestamp", "phase_id", "task_id", "answer_content", "sandbox_id", "training_instance_id"],
+     *   "query": { ... documents after the cursor ... },
+     *   "sort": [{ "_seq_no": "asc" }]
+     * }
+     * }</pre>
+     *
+     * @param trainingRunId the training run id
+     * @param cursor        the cursor of the events already passed to the consumer
+     * @param consumer      the consumer of the sources of the events, it is called from the threads completing the searches
+     * @return the future completed once all new events are passed to the consumer
+     */
+    public CompletableFuture<Void> forEachNewEventAsync(Long trainingRunId, SeqNoCursor cursor, Consumer<Map<String, Object>> consumer) {
+        SearchSourceBuilder searchSourceBuilder = createNewDocumentsSearchSource()
+                .fetchSource(NEW_EVENT_FIELDS, null);
+        return fetchNewDocumentsAsync(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*" + ".run=" + trainingRunId,
+                searchSourceBuilder, cursor, new HashSet<>(), hit -> consumer.accept(hit.getSourceAsMap()));
+    }
+
+    /**
+     * Pass the commands indexed after the cursor to the consumer and move the cursor past them.
+     *
+     * <pre>{@code
+     *  GET crczp.logs.console*.sandbox=${SANDBOX_ID}/_search
+     * {
+     *   "size": ${PAGE_SIZE},
+     *   "seq_no_primary_term": true,
+     *   "_source": ["cmd"],
+     *   "docvalue_fields": [{ "field": "timestamp_str", "format": "epoch_millis" }],
+     *   "query": { ... documents after the cursor ... },
+     *   "sort": [{ "_seq_no": "asc" }]
+     * }
+     * }</pre>
+     *
+     * @param index    the index pattern of the commands
+     * @param cursor   the cursor of the commands already passed to the consumer
+     * @param consumer the consumer of the commands, it is called from the threads completing the searches
+     * @return the future completed once all new commands are passed to the consumer
+     */
+    public CompletableFuture<Void> forEachNewCommandAsync(String index, SeqNoCursor cursor, CommandConsumer consumer) {
+        SearchSourceBuilder searchSourceBuilder = createNewDocumentsSearchSource()
+                .fetchSource(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND, null)
+                .docValueField(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR, EPOCH_MILLIS_FORMAT);
+        return fetchNewDocumentsAsync(index, searchSourceBuilder, cursor, new HashSet<>(), hit -> {
+            Object command = hit.getSourceAsMap().get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND);
+            DocumentField timestamp = hit.field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR);
+            if (timestamp != null) {
+                consumer.accept(Long.parseLong(timestamp.getValue().toString()), command == null ? "" : command.toString());
+            }
+        });
+    }
+
+    private SearchSourceBuilder createNewDocumentsSearchSource() {
+        return new SearchSourceBuilder()
+                .size(pageSize)
+                .seqNoAndPrimaryTerm(true)
+                .trackTotalHits(false)
+                .timeout(new TimeValue(5, TimeUnit.MINUTES))
+                .sort(SEQ_NO_FIELD, SortOrder.ASC);
+    }
+
+    private CompletableFuture<Void> fetchNewDocumentsAsync(String index, SearchSourceBuilder searchSourceBuilder, SeqNoCursor cursor,
+                                                          Set<String> excludedIndices, Consumer<SearchHit> consumer) {
+        //The previous page was already sent, so the search source is reused with the moved cursor
+        searchSourceBuilder.query(cursor.newerDocuments(excludedIndices));
+        SearchRequest searchRequest = createSearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        return searchAsync(searchRequest)
+                .thenCompose(response -> {
+                    if (response == null) {
+                        throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+                    }
+                    cursor.recordShards(response.getTotalShards());
+                    SearchHit[] hits = response.getHits().getHits();
+                    long now = System.currentTimeMillis();
+                    boolean progressed = false;
+                    for (SearchHit hit : hits) {
+                        //Documents after a gap are left for the next search, the gap may be filled in the meantime
+                        if (excludedIndices.contains(hit.getIndex()) || cursor.isRead(hit.getIndex(), hit.getSeqNo())) {
+                            continue;
+                        }
+                        if (cursor.advance(hit.getIndex(), hit.getSeqNo(), now)) {
+                            consumer.accept(hit);
+                        } else {
+                            excludedIndices.add(hit.getIndex());
+                        }
+                        progressed = true;
+                    }
+                    //The page that neither moved the cursor nor excluded an index would be searched again as it is
+                    return hits.length < pageSize || !progressed
+                            ? CompletableFuture.completedFuture(null)
+                            : fetchNewDocumentsAsync(index, searchSourceBuilder, cursor, excludedIndices, consumer);
+                });
+    }
+
     private Long convertObjectToLong(Object longValue) {
         return longValue == null ? null : Long.valueOf((Integer) longValue);
     }
@@ -440,6 +1249,150 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
      * @throws IOException                             the io exception
      */
     public Pair<Long, Map<String, Long>> findCommandsStatisticsInTimeRange(String sandboxId, Long from, Long to, List<String> keywords) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleCommandsStatisticsResponse(search(createCommandsStatisticsRequest(sandboxId, from, to, keywords)), keywords);
+    }
+
+    /**
+     * Get number of commands and occurrences of specified keywords in the time ranges of all given phases in a single search.
+     * Each phase is one bucket of the date range aggregation keyed by the phase id; the upper bound of the range is exclusive,
+     * so one millisecond is added to the end of the phase. The keyword filters are the union of keywords of all phases
+     * and only the keywords of the given phase are picked from its bucket.
+     *
+     * Elasticserach query:
+     * <pre>{@code
+     * GET crczp.logs.console*.sandbox={sandboxId}/_search
+     * {
+     *   "size": 0,
+     *   "query": {
+     *     "range": { "timestamp_str": { "gte": ${MIN_FROM} } }
+     *   },
+     *   "aggs": {
+     *     "phases_ranges": {
+     *       "date_range": {
+     *         "field": "timestamp_str",
+     *         "ranges": [
+     *           { "key": ${PHASE_ID}, "from": ${FROM}, "to": ${TO} + 1 },
+     *           { "key": ${PHASE_ID}, "from": ${FROM} }
+     *         ]
+     *       },
+     *       "aggs": {
+     *         "keyword_filter": {
+     *           "filters" : {
+     *             "filters" : [
+     *               { "wildcard" : { "cmd" : ${KEYWORD} }},
+     *               { "wildcard" : { "cmd" : ${KEYWORD} }}
+     *             ]
+     *           }
+     *         }
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param index            the index of the console commands
+     * @param phasesBoundaries the mapping of phases and their time ranges (epoch_millis timestamp format)
+     * @param keywordsMapping  the mapping of phases and keywords searched in that phases, may be null
+     * @return the mapping of phases and commands statistics in their time ranges
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Map<Long, Pair<Long, Map<String, Long>>> findCommandsStatisticsInTimeRanges(String index, Map<Long, Pair<Long, Long>> phasesBoundaries,
+                                                                                        Map<Long, List<String>> keywordsMapping) throws ElasticsearchTrainingDataLayerException, IOException {
+        if (phasesBoundaries.isEmpty()) {
+            return new HashMap<>();
+        }
+        return handleCommandsStatisticsInTimeRangesResponse(search(
+                createCommandsStatisticsInTimeRangesRequest(index, phasesBoundaries, keywordsMapping)), keywordsMapping);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findCommandsStatisticsInTimeRanges(String, Map, Map)}.
+     *
+     * @param index            the index of the console commands
+     * @param phasesBoundaries the mapping of phases and their time ranges (epoch_millis timestamp format)
+     * @param keywordsMapping  the mapping of phases and keywords searched in that phases, may be null
+     * @return the future of the mapping of phases and commands statistics in their time ranges
+     */
+    public CompletableFuture<Map<Long, Pair<Long, Map<String, Long>>>> findCommandsStatisticsInTimeRangesAsync(String index, Map<Long, Pair<Long, Long>> phasesBoundaries,
+                                                                                                               Map<Long, List<String>> keywordsMapping) {
+        if (phasesBoundaries.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        return searchAsync(createCommandsStatisticsInTimeRangesRequest(index, phasesBoundaries, keywordsMapping))
+                .thenApply(response -> handleCommandsStatisticsInTimeRangesResponse(response, keywordsMapping));
+    }
+
+    private SearchRequest createCommandsStatisticsInTimeRangesRequest(String index, Map<Long, Pair<Long, Long>> phasesBoundaries,
+                                                                      Map<Long, List<String>> keywordsMapping) {
+        //Time range of each phase
+        DateRangeAggregationBuilder aggregation = AggregationBuilders.dateRange(PHASES_RANGES_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR);
+        for (Map.Entry<Long, Pair<Long, Long>> phaseBoundaries : phasesBoundaries.entrySet()) {
+            Long from = phaseBoundaries.getValue().getValue0();
+            Long to = phaseBoundaries.getValue().getValue1();
+            if (to == Long.MAX_VALUE) {
+                aggregation.addUnboundedFrom(phaseBoundaries.getKey().toString(), from);
+            } else {
+                aggregation.addRange(phaseBoundaries.getKey().toString(), from, to + 1);
+            }
+        }
+
+        //Aggregation of keywords of all phases
+        Set<String> keywords = new LinkedHashSet<>();
+        if (keywordsMapping != null) {
+            phasesBoundaries.keySet().stream()
+                    .map(keywordsMapping::get)
+                    .filter(Objects::nonNull)
+                    .forEach(keywords::addAll);
+        }
+        if (!keywords.isEmpty()) {
+            aggregation.subAggregation(AggregationBuilders.filters(KEYWORD_FILTER_SUB_AGGREGATION,
+                    createWildcardQueryFilters(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND, new ArrayList<>(keywords))));
+        }
+
+        Long minFrom = phasesBoundaries.values().stream()
+                .map(Pair::getValue0)
+                .min(Long::compareTo)
+                .get();
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR).gte(minFrom));
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private Map<Long, Pair<Long, Map<String, Long>>> handleCommandsStatisticsInTimeRangesResponse(SearchResponse response, Map<Long, List<String>> keywordsMapping) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        Map<Long, Pair<Long, Map<String, Long>>> commandsStatistics = new HashMap<>();
+        if (response.getAggregations() == null) {
+            return commandsStatistics;
+        }
+        Range phasesRanges = response.getAggregations().get(PHASES_RANGES_AGGREGATION);
+        for (Range.Bucket phaseBucket : phasesRanges.getBuckets()) {
+            Long phaseId = Long.valueOf(phaseBucket.getKeyAsString());
+            List<String> phaseKeywords = keywordsMapping == null ? null : keywordsMapping.get(phaseId);
+            Map<String, Long> keywordMapping = null;
+            if (phaseKeywords != null) {
+                keywordMapping = new HashMap<>();
+                Filters filtersAggregation = phaseBucket.getAggregations().get(KEYWORD_FILTER_SUB_AGGREGATION);
+                for (String keyword : phaseKeywords) {
+                    Filters.Bucket keywordBucket = filtersAggregation == null ? null : filtersAggregation.getBucketByKey(keyword);
+                    keywordMapping.put(keyword, keywordBucket == null ? 0L : keywordBucket.getDocCount());
+                }
+            }
+            commandsStatistics.put(phaseId, Pair.with(phaseBucket.getDocCount(), keywordMapping));
+        }
+        return commandsStatistics;
+    }
+
+    private SearchRequest createCommandsStatisticsRequest(String index, Long from, Long to, List<String> keywords) {
         //Timestamp range query
         RangeQueryBuilder dateRangeBuilder = QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR)
                 .gte(from)
@@ -457,10 +1410,9 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
             searchSourceBuilder.aggregation(aggregation);
         }
 
-        SearchRequest searchRequest = new SearchRequest(sandboxId);
+        SearchRequest searchRequest = createSearchRequest(index);
         searchRequest.source(searchSourceBuilder);
-
-        return handleCommandsStatisticsResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT), keywords);
+        return searchRequest;
     }
 
     private Pair<Long, Map<String, Long>> handleCommandsStatisticsResponse(SearchResponse response, List<String> keywords) {
@@ -492,6 +1444,19 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         return boolQueryBuilder;
     }
 
+    private BoolQueryBuilder includeOnlySpecifiedRunsAndPhases(List<Long> trainingRunIds, List<Long> phaseIds) {
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termsQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, trainingRunIds));
+        if (phaseIds != null && !phaseIds.isEmpty()) {
+            boolQueryBuilder.filter(QueryBuilders.termsQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID, phaseIds));
+        }
+        return boolQueryBuilder;
+    }
+
+    private int getPhasesAggregationSize(List<Long> phaseIds) {
+        return phaseIds == null || phaseIds.isEmpty() ? indexDocumentsMaxReturnNumber : phaseIds.size();
+    }
+
     private BoolQueryBuilder includeOnlyPhaseStartedAndCompleted() {
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
         boolQueryBuilder.should(QueryBuilders.wildcardQuery(CRCZP_ELASTICSEARCH_EVENT_TYPE, "*PhaseStarted").caseInsensitive(true));
@@ -505,11 +1470,34 @@ public class AdaptiveTrainingStatisticsDAO extends AbstractElasticClientDAO {
         return boolQueryBuilder;
     }
 
-    private FiltersAggregator.KeyedFilter[] createWildcardQueryFilters(String fieldName, List<String> fieldValues) {
-        FiltersAggregator.KeyedFilter[] filterArray = new FiltersAggregator.KeyedFilter[fieldValues.size()];
-        for (int i = 0; i < fieldValues.size(); i++) {
-            filterArray[i] = new FiltersAggregator.KeyedFilter(fieldValues.get(i), QueryBuilders.wildcardQuery(fieldName, "*" + fieldValues.get(i) + "*").caseInsensitive(true));
-        }
-        return filterArray;
+    /**
+     * Consumer of the commands.
+     */
+    @FunctionalInterface
+    public interface CommandConsumer {
+
+        /**
+         * Process the command.
+         *
+         * @param timestamp the time the command was executed (epoch_millis timestamp format)
+         * @param command   the command
+         */
+        void accept(long timestamp, String command);
+    }
+
+    /**
+     * Consumer of the time spent at the phase of the training run.
+     */
+    @FunctionalInterface
+    public interface PhaseTimeConsumer {
+
+        /**
+         * Process the phase time.
+         *
+         * @param trainingRunId the training run id
+         * @param phaseId       the phase id
+         * @param phaseTime     the time spent at the phase in milliseconds
+         */
+        void accept(Long trainingRunId, Long phaseId, long phaseTime);
     }
 }
@@ -0,0 +1,462 @@
+package cz.cyberrange.platform.elasticsearch.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoTrainingType;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.core.CheckedFunction;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE;
+
+/**
+ * The type Adaptive Training Statistics Store dao. Keeps the statistics of the ended adaptive training runs in the dedicated
+ * index <i>crczp.statistics.adaptive.trainings</i>, one document per training run with the training run id as its id,
+ * so they are not recomputed from the events of the runs that will never change. The training runs with the local
+ * sandboxes are recorded without the statistics, so they are not looked at again.
+ */
+@Repository
+@DaoTrainingType(TrainingType.ADAPTIVE)
+public class AdaptiveTrainingStatisticsStoreDAO extends AbstractElasticClientDAO {
+
+    private static final String EXISTS_INDEX_OPERATION = "exists_index";
+    private static final String CREATE_INDEX_OPERATION = "create_index";
+    private static final String INDEX_OPERATION = "index";
+    private static final String MATERIALIZED_AT = "materialized_at";
+    private static final String ENDED_AT = "ended_at";
+    private static final String LOCAL_SANDBOX = "local_sandbox";
+    private static final String PHASES = "phases";
+    private static final String ENDED_RUNS_AGGREGATION = "ended_runs";
+    private static final String CHECKPOINT_AGGREGATION = "checkpoint";
+    private static final String ENDED_SOURCE = "ended";
+    private static final String RUN_SOURCE = "run";
+    private static final String INSTANCE_SOURCE = "instance";
+
+    @Value("${elasticsearch.page-size:1000}")
+    private int pageSize;
+
+    /**
+     * Instantiates a new Adaptive Training Statistics Store dao.
+     *
+     * @param restHighLevelClient the rest high level client
+     * @param objectMapper        the object mapper
+     * @param indexNameResolver   the resolver of the index patterns to the concrete indices
+     */
+    @Autowired
+    public AdaptiveTrainingStatisticsStoreDAO(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient,
+                                              @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                              IndexNameResolver indexNameResolver) {
+        super(restHighLevelClient, objectMapper, indexNameResolver);
+    }
+
+    /**
+     * Create the statistics index unless it exists. Only the ids are indexed, the statistics of the phases are only stored.
+     *
+     * <pre>{@code
+     * PUT crczp.statistics.adaptive.trainings
+     * {
+     *   "mappings": {
+     *     "dynamic": false,
+     *     "properties": {
+     *       "training_run_id": { "type": "long" },
+     *       "training_instance_id": { "type": "long" },
+     *       "materialized_at": { "type": "date", "format": "epoch_millis" },
+     *       "ended_at": { "type": "date", "format": "epoch_millis" },
+     *       "local_sandbox": { "type": "boolean" },
+     *       "phases": { "type": "object", "enabled": false }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public void createStatisticsIndexIfMissing() throws ElasticsearchTrainingDataLayerException, IOException {
+        String index = AbstractCrczpIndexPath.CRCZP_ADAPTIVE_STATISTICS_INDEX;
+        if (execute(EXISTS_INDEX_OPERATION, options -> getRestHighLevelClient().indices().exists(new GetIndexRequest(index), options))) {
+            return;
+        }
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index).mapping(Map.of(
+                "dynamic", false,
+                "properties", Map.of(
+                        AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, Map.of("type", "long"),
+                        AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID, Map.of("type", "long"),
+                        MATERIALIZED_AT, Map.of("type", "date", "format", "epoch_millis"),
+                        ENDED_AT, Map.of("type", "date", "format", "epoch_millis"),
+                        LOCAL_SANDBOX, Map.of("type", "boolean"),
+                        PHASES, Map.of("type", "object", "enabled", false))));
+        try {
+            if (!execute(CREATE_INDEX_OPERATION, options -> getRestHighLevelClient().indices().create(createIndexRequest, options)).isAcknowledged()) {
+                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+            }
+        } catch (ElasticsearchStatusException ex) {
+            // the index was created by another instance of the service in the meantime
+            if (ex.status() != RestStatus.BAD_REQUEST || !ex.getMessage().contains("resource_already_exists_exception")) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Pass the ended training runs to the consumer page by page, ordered by their end. The training run has ended if its
+     * <i>TrainingRunEnded</i> event exists, only the events with the timestamp in the given range are considered.
+     *
+     * <pre>{@code
+     *  GET crczp.events.adaptive.trainings* /_search
+     * {
+     *   "size": 0,
+     *   "query": { "bool": { "filter": [
+     *     { "wildcard": { "type": "*TrainingRunEnded" }},
+     *     { "range": { "timestamp": { "gte": ${FROM}, "lt": ${TO} } } }
+     *   ] } },
+     *   "aggs": {
+     *     "ended_runs": {
+     *       "composite": {
+     *         "size": ${PAGE_SIZE},
+     *         "sources": [
+     *           { "ended": { "terms": { "field": "timestamp" } } },
+     *           { "run": { "terms": { "field": "training_run_id" } } },
+     *           { "instance": { "terms": { "field": "training_instance_id" } } }
+     *         ]
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param from     the lower bound of the timestamp of the ended event (epoch_millis timestamp format), inclusive
+     * @param to       the upper bound of the timestamp of the ended event (epoch_millis timestamp format), exclusive
+     * @param consumer the consumer of the ended training runs
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public void forEachEndedRuns(long from, long to, EndedRunsConsumer consumer) throws ElasticsearchTrainingDataLayerException, IOException {
+        Map<String, Object> afterKey = null;
+        do {
+            SearchResponse response = search(createEndedRunsRequest(from, to, afterKey));
+            if (response == null) {
+                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+            }
+            if (response.getAggregations() == null) {
+                return;
+            }
+            CompositeAggregation endedRuns = response.getAggregations().get(ENDED_RUNS_AGGREGATION);
+            List<EndedRun> endedRunsPage = new ArrayList<>();
+            for (CompositeAggregation.Bucket bucket : endedRuns.getBuckets()) {
+                endedRunsPage.add(new EndedRun(((Number) bucket.getKey().get(RUN_SOURCE)).longValue(),
+                        ((Number) bucket.getKey().get(INSTANCE_SOURCE)).longValue(),
+                        ((Number) bucket.getKey().get(ENDED_SOURCE)).longValue()));
+            }
+            if (!endedRunsPage.isEmpty()) {
+                consumer.accept(endedRunsPage);
+            }
+            afterKey = endedRuns.getBuckets().size() < pageSize ? null : endedRuns.afterKey();
+        } while (afterKey != null);
+    }
+
+    private SearchRequest createEndedRunsRequest(long from, long to, Map<String, Object> afterKey) {
+        CompositeAggregationBuilder aggregation = AggregationBuilders.composite(ENDED_RUNS_AGGREGATION, List.of(
+                        new TermsValuesSourceBuilder(ENDED_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP),
+                        new TermsValuesSourceBuilder(RUN_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID),
+                        new TermsValuesSourceBuilder(INSTANCE_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID)))
+                .size(pageSize);
+        if (afterKey != null) {
+            aggregation.aggregateAfter(afterKey);
+        }
+
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.wildcardQuery(CRCZP_ELASTICSEARCH_EVENT_TYPE, "*TrainingRunEnded").caseInsensitive(true))
+                .filter(QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP).gte(from).lt(to));
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(0);
+        searchSourceBuilder.trackTotalHits(false);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(boolQueryBuilder);
+        searchSourceBuilder.aggregation(aggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_EVENTS_INDEX + "*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    /**
+     * Find the end of the latest training run recorded in the statistics index. The ended training runs are recorded
+     * in the order of their end, so all the training runs which ended before it are already recorded.
+     *
+     * <pre>{@code
+     *  GET crczp.statistics.adaptive.trainings/_search
+     * {
+     *   "size": 0,
+     *   "aggs": { "checkpoint": { "max": { "field": "ended_at" } } }
+     * }
+     * }</pre>
+     *
+     * @return the end of the latest recorded training run (epoch_millis timestamp format), 0 if no training run is recorded
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public long findCheckpoint() throws ElasticsearchTrainingDataLayerException, IOException {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .size(0)
+                .aggregation(AggregationBuilders.max(CHECKPOINT_AGGREGATION).field(ENDED_AT));
+        SearchResponse response = search(createStatisticsSearchRequest(searchSourceBuilder));
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return 0;
+        }
+        Max checkpoint = response.getAggregations().get(CHECKPOINT_AGGREGATION);
+        return Double.isFinite(checkpoint.getValue()) ? Double.valueOf(checkpoint.getValue()).longValue() : 0;
+    }
+
+    /**
+     * Find which of the given training runs are already recorded, i.e., they have the stored statistics or they were
+     * recorded as the training runs with the local sandboxes.
+     *
+     * @param trainingRunIds the training run ids
+     * @return the ids of the recorded training runs
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Set<Long> findStoredTrainingRunIds(Collection<Long> trainingRunIds) throws ElasticsearchTrainingDataLayerException, IOException {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .size(trainingRunIds.size())
+                .fetchSource(false)
+                .query(QueryBuilders.idsQuery().addIds(trainingRunIds.stream().map(String::valueOf).toArray(String[]::new)));
+        SearchResponse response = search(createStatisticsSearchRequest(searchSourceBuilder));
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        Set<Long> storedTrainingRunIds = new HashSet<>();
+        for (SearchHit hit : response.getHits().getHits()) {
+            storedTrainingRunIds.add(Long.valueOf(hit.getId()));
+        }
+        return storedTrainingRunIds;
+    }
+
+    /**
+     * Store the statistics of the training run, the former statistics of the training run are replaced.
+     *
+     * @param endedRun the ended training run
+     * @param phases   the statistics of the phases of the training run
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public void storeStatistics(EndedRun endedRun, List<?> phases) throws ElasticsearchTrainingDataLayerException, IOException {
+        Map<String, Object> document = createDocument(endedRun);
+        document.put(PHASES, phases);
+        index(endedRun, document);
+    }
+
+    /**
+     * Record the training run with the local sandbox. Its statistics are not stored, since its commands are found by
+     * the access token and the user which are known only to the requests, it is recorded only not to be looked at again.
+     *
+     * @param endedRun the ended training run
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public void storeLocalSandboxRun(EndedRun endedRun) throws ElasticsearchTrainingDataLayerException, IOException {
+        Map<String, Object> document = createDocument(endedRun);
+        document.put(LOCAL_SANDBOX, true);
+        index(endedRun, document);
+    }
+
+    private Map<String, Object> createDocument(EndedRun endedRun) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, endedRun.getTrainingRunId());
+        document.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID, endedRun.getTrainingInstanceId());
+        document.put(MATERIALIZED_AT, System.currentTimeMillis());
+        document.put(ENDED_AT, endedRun.getEndedAt());
+        return document;
+    }
+
+    private void index(EndedRun endedRun, Map<String, Object> document) throws IOException {
+        IndexRequest indexRequest = new IndexRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_STATISTICS_INDEX)
+                .id(String.valueOf(endedRun.getTrainingRunId()))
+                .source(getMapper().writeValueAsBytes(document), XContentType.JSON);
+        execute(INDEX_OPERATION, options -> getRestHighLevelClient().index(indexRequest, options));
+    }
+
+    /**
+     * Execute the request which is measured as a part of the current DAO call, see {@link DaoCallMetrics}.
+     */
+    private <T> T execute(String operation, CheckedFunction<RequestOptions, T, IOException> call) throws IOException {
+        DaoCallMetrics.Request request = DaoCallMetrics.current().startRequest(operation);
+        try {
+            T response = call.apply(request.getRequestOptions());
+            request.recordCompleted();
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            request.recordFailure(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the stored statistics of the phases of the training run.
+     *
+     * @param trainingRunId the training run id
+     * @return the future of the stored statistics of the phases, or null if the statistics of the training run are not stored,
+     * e.g. the training run has the local sandbox
+     */
+    public CompletableFuture<List<Map<String, Object>>> getStatisticsAsync(Long trainingRunId) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .size(1)
+                .query(QueryBuilders.idsQuery().addIds(trainingRunId.toString()));
+        return searchAsync(createStatisticsSearchRequest(searchSourceBuilder))
+                .thenApply(response -> {
+                    SearchHit[] hits = response.getHits().getHits();
+                    if (hits.length == 0) {
+                        return null;
+                    }
+                    @SuppressWarnings("unchecked")
+                    List<Map<String, Object>> phases = (List<Map<String, Object>>) hits[0].getSourceAsMap().get(PHASES);
+                    return phases;
+                });
+    }
+
+    /**
+     * Delete the stored statistics of the training runs of the training instance.
+     *
+     * @param trainingInstanceId the training instance id
+     * @return the future completed once the statistics are deleted
+     */
+    public CompletableFuture<Void> deleteStatisticsOfTrainingInstanceAsync(Long trainingInstanceId) {
+        return deleteByQueryAsync(createDeleteStatisticsRequest()
+                .setQuery(QueryBuilders.termQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID, trainingInstanceId)));
+    }
+
+    /**
+     * Delete the stored statistics of the training run.
+     *
+     * @param trainingRunId the training run id
+     * @return the future completed once the statistics are deleted
+     */
+    public CompletableFuture<Void> deleteStatisticsOfTrainingRunAsync(Long trainingRunId) {
+        return deleteByQueryAsync(createDeleteStatisticsRequest()
+                .setQuery(QueryBuilders.idsQuery().addIds(trainingRunId.toString())));
+    }
+
+    private SearchRequest createStatisticsSearchRequest(SearchSourceBuilder searchSourceBuilder) {
+        // the index does not exist until the first statistics are stored
+        return new SearchRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_STATISTICS_INDEX)
+                .indicesOptions(IndicesOptions.lenientExpandOpen())
+                .source(searchSourceBuilder);
+    }
+
+    private DeleteByQueryRequest createDeleteStatisticsRequest() {
+        DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(AbstractCrczpIndexPath.CRCZP_ADAPTIVE_STATISTICS_INDEX);
+        deleteByQueryRequest.setIndicesOptions(IndicesOptions.lenientExpandOpen());
+        deleteByQueryRequest.setRefresh(true);
+        return deleteByQueryRequest;
+    }
+
+    /**
+     * Consumer of the pages of the ended training runs.
+     */
+    @FunctionalInterface
+    public interface EndedRunsConsumer {
+
+        /**
+         * Process the page of the ended training runs.
+         *
+         * @param endedRuns the ended training runs ordered by their end
+         * @throws IOException the io exception
+         */
+        void accept(List<EndedRun> endedRuns) throws IOException;
+    }
+
+    /**
+     * The training run detected by its <i>TrainingRunEnded</i> event.
+     */
+    public static final class EndedRun {
+
+        private final long trainingRunId;
+        private final long trainingInstanceId;
+        private final long endedAt;
+
+        /**
+         * Instantiates a new Ended run.
+         *
+         * @param trainingRunId      the training run id
+         * @param trainingInstanceId the training instance id
+         * @param endedAt            the timestamp of the ended event (epoch_millis timestamp format)
+         */
+        public EndedRun(long trainingRunId, long trainingInstanceId, long endedAt) {
+            this.trainingRunId = trainingRunId;
+            this.trainingInstanceId = trainingInstanceId;
+            this.endedAt = endedAt;
+        }
+
+        /**
+         * Gets the training run id.
+         *
+         * @return the training run id
+         */
+        public long getTrainingRunId() {
+            return trainingRunId;
+        }
+
+        /**
+         * Gets the training instance id.
+         *
+         * @return the training instance id
+         */
+        public long getTrainingInstanceId() {
+            return trainingInstanceId;
+        }
+
+        /**
+         * Gets the timestamp of the ended event.
+         *
+         * @return the timestamp of the ended event (epoch_millis timestamp format)
+         */
+        public long getEndedAt() {
+            return endedAt;
+        }
+    }
+}
@@ -4,11 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.cyberrange.platform.elasticsearch.data.enums.CommandType;
 import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
@@ -16,12 +18,21 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.histogram.LongBounds;
 import org.elasticsearch.search.aggregations.bucket.range.ParsedRange;
 import org.elasticsearch.search.aggregations.bucket.range.Range;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.aggregations.metrics.Min;
 import org.elasticsearch.search.aggregations.metrics.TopHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
+import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -29,15 +40,23 @@ import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @Repository
 public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
 
+    private static final String COMMANDS_HISTOGRAM_AGGREGATION = "commands_histogram";
+    private static final String TOP_COMMANDS_SUB_AGGREGATION = "top_commands";
+    private static final String MIN_TIMESTAMP_AGGREGATION = "min_timestamp";
+    private static final String MAX_TIMESTAMP_AGGREGATION = "max_timestamp";
+
     @Value("${elasticsearch.max-result-window:10000}")
     private int indexDocumentsMaxReturnNumber;
 
@@ -46,11 +65,13 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
      *
      * @param restHighLevelClient the rest high level client
      * @param objectMapper        the object mapper
+     * @param indexNameResolver   the resolver of the index patterns to the concrete indices
      */
     @Autowired
     public TrainingConsoleCommandsDao(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient,
-                                      @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper) {
-        super(restHighLevelClient, objectMapper);
+                                      @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                      IndexNameResolver indexNameResolver) {
+        super(restHighLevelClient, objectMapper, indexNameResolver);
     }
 
     /**
@@ -59,15 +80,35 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
      * @param index             index used to search for commands
      * @param filterCommands    list of commands to filter
      * @param commandType       type of filtered commands
+     * @param fields            fields of the commands to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public List<Map<String, Object>> findAllConsoleCommands(String index, List<String> filterCommands, CommandType commandType) throws ElasticsearchTrainingDataLayerException, IOException {
+    public List<RawJsonSource> findAllConsoleCommands(String index, List<String> filterCommands, CommandType commandType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleElasticsearchResponse(search(createAllCommandsRequest(index, filterCommands, commandType, fields)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findAllConsoleCommands(String, List, CommandType, List)}.
+     *
+     * @param index          index used to search for commands
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @return the future of the list
+     */
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsAsync(String index, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return searchAsync(createAllCommandsRequest(index, filterCommands, commandType, fields))
+                .thenApply(this::handleElasticsearchResponse);
+    }
+
+    private SearchRequest createAllCommandsRequest(String index, List<String> filterCommands, CommandType commandType, List<String> fields) {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR, SortOrder.ASC);
         searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
         searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.fetchSource(createFetchSourceContext(fields));
         if(filterCommands != null && !filterCommands.isEmpty()) {
             searchSourceBuilder.query(QueryBuilders.regexpQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND, StringUtils.collectionToDelimitedString(filterCommands, "|")));
         }
@@ -76,10 +117,9 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
             searchSourceBuilder.query(QueryBuilders.regexpQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND_TYPE, commandTypeString));
         }
 
-        SearchRequest searchRequest = new SearchRequest(index);
+        SearchRequest searchRequest = createSearchRequest(index);
         searchRequest.source(searchSourceBuilder);
-
-        return handleElasticsearchResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT));
+        return searchRequest;
     }
 
     /**
@@ -103,22 +143,323 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
      * @param to        the upper bound of the time range (epoch_millis timestamp format)
      * @param filterCommands list of commands to filter
      * @param commandType type of filtered commands
+     * @param fields      fields of the commands to return, all fields if null or empty
      * @return the list of commands in given time range
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public List<Map<String, Object>> findAllConsoleCommandsBySandboxAndTimeRange(String index, Long from, Long to, List<String> filterCommands, CommandType commandType) throws ElasticsearchTrainingDataLayerException, IOException {
+    public List<RawJsonSource> findAllConsoleCommandsBySandboxAndTimeRange(String index, Long from, Long to, List<String> filterCommands, CommandType commandType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        SearchRequest searchRequest = createCommandsInTimeRangeRequest(index, from, to, filterCommands, commandType, fields, indexDocumentsMaxReturnNumber);
+        SearchResponse searchResponse = search(searchRequest);
+
+        return handleElasticsearchResponse(searchResponse);
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findAllConsoleCommandsBySandboxAndTimeRange(String, Long, Long, List, CommandType, List)}.
+     *
+     * @param index          index under which commands from local or cloud sandboxes are stored
+     * @param from           the lower bound of the time range (epoch_millis timestamp format)
+     * @param to             the upper bound of the time range (epoch_millis timestamp format)
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @return the future of the list of commands in given time range
+     */
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsBySandboxAndTimeRangeAsync(String index, Long from, Long to, List<String> filterCommands,
+                                                                                                 CommandType commandType, List<String> fields) {
+        return searchAsync(createCommandsInTimeRangeRequest(index, from, to, filterCommands, commandType, fields, indexDocumentsMaxReturnNumber))
+                .thenApply(this::handleElasticsearchResponse);
+    }
+
+    /**
+     * Find the bash commands of several sandboxes (or users) in the time range in a single multi search request.
+     * The individual searches are the same as the one of the
+     * {@link #findAllConsoleCommandsBySandboxAndTimeRange(String, Long, Long, List, CommandType, List)}.
+     *
+     * <pre>{@code
+     * GET /_msearch
+     * { "index": "crczp.logs.console*.sandbox={sandboxId}" }
+     * { "size": {limit}, "query": { "bool": { "must": [{ "range": { "timestamp_str": { "gte": {from}, "lte": {to} } } }] } }, "sort": [{ "timestamp_str": "asc" }] }
+     * { "index": "crczp.logs.console*.sandbox={sandboxId}" }
+     * ...
+     * }</pre>
+     *
+     * @param indices        the indices of the commands of each sandbox (or user) keyed by the sandbox id (or user id)
+     * @param from           the lower bound of the time range (epoch_millis timestamp format)
+     * @param to             the upper bound of the time range (epoch_millis timestamp format)
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @param limit          the maximum number of commands returned for each sandbox (or user), null for the maximum result window
+     * @param <K>            the type of the keys of the indices
+     * @return the commands in the time range under the keys of their indices
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public <K> Map<K, List<RawJsonSource>> findAllConsoleCommandsByIndicesAndTimeRange(Map<K, String> indices, Long from, Long to, List<String> filterCommands,
+                                                                                       CommandType commandType, List<String> fields, Integer limit) throws ElasticsearchTrainingDataLayerException, IOException {
+        if (indices.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        return handleCommandsOfIndicesResponses(indices, multiSearch(createCommandsOfIndicesRequest(indices, from, to, filterCommands, commandType, fields, limit)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findAllConsoleCommandsByIndicesAndTimeRange(Map, Long, Long, List, CommandType, List, Integer)}.
+     *
+     * @param indices        the indices of the commands of each sandbox (or user) keyed by the sandbox id (or user id)
+     * @param from           the lower bound of the time range (epoch_millis timestamp format)
+     * @param to             the upper bound of the time range (epoch_millis timestamp format)
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @param limit          the maximum number of commands returned for each sandbox (or user), null for the maximum result window
+     * @param <K>            the type of the keys of the indices
+     * @return the future of the commands in the time range under the keys of their indices
+     */
+    public <K> CompletableFuture<Map<K, List<RawJsonSource>>> findAllConsoleCommandsByIndicesAndTimeRangeAsync(Map<K, String> indices, Long from, Long to,
+                                                                                                               List<String> filterCommands, CommandType commandType,
+                                                                                                               List<String> fields, Integer limit) {
+        if (indices.isEmpty()) {
+            return CompletableFuture.completedFuture(new LinkedHashMap<>());
+        }
+        return multiSearchAsync(createCommandsOfIndicesRequest(indices, from, to, filterCommands, commandType, fields, limit))
+                .thenApply(responses -> handleCommandsOfIndicesResponses(indices, responses));
+    }
+
+    private MultiSearchRequest createCommandsOfIndicesRequest(Map<?, String> indices, Long from, Long to, List<String> filterCommands,
+                                                              CommandType commandType, List<String> fields, Integer limit) {
+        int size = limit == null ? indexDocumentsMaxReturnNumber : Math.min(limit, indexDocumentsMaxReturnNumber);
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        for (String index : indices.values()) {
+            multiSearchRequest.add(createCommandsInTimeRangeRequest(index, from, to, filterCommands, commandType, fields, size));
+        }
+        return multiSearchRequest;
+    }
+
+    private <K> Map<K, List<RawJsonSource>> handleCommandsOfIndicesResponses(Map<K, String> indices, MultiSearchResponse.Item[] responses) {
+        Map<K, List<RawJsonSource>> commands = new LinkedHashMap<>();
+        int item = 0;
+        for (K key : indices.keySet()) {
+            commands.put(key, handleElasticsearchResponse(getItemResponse(responses[item++])));
+        }
+        return commands;
+    }
+
+    /**
+     * Count the commands in the fixed time intervals, optionally with the most frequent commands of each interval.
+     * The intervals without commands are returned with zero count, so the histogram has no gaps.
+     * <p>
+     * Elasticserach query:
+     * <pre>{@code
+     * GET crczp.logs.console*.sandbox={sandboxId}/_search
+     * {
+     *   "size": 0,
+     *   "query": {
+     *     "bool": {
+     *       "must": [
+     *         { "range": { "timestamp_str": { "gte": {from}, "lte": {to} } } },
+     *         { "regexp": { "cmd": "{command}|{command}" } },
+     *         { "regexp": { "command_type": "{commandType}-command" } }
+     *       ]
+     *     }
+     *   },
+     *   "aggs": {
+     *     "commands_histogram": {
+     *       "date_histogram": {
+     *         "field": "timestamp_str",
+     *         "fixed_interval": {interval},
+     *         "min_doc_count": 0,
+     *         "extended_bounds": { "min": {from}, "max": {to} }
+     *       },
+     *       "aggs": {
+     *         "top_commands": { "terms": { "field": "cmd.keyword", "size": {topCommands} } }
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param index          index under which commands from local or cloud sandboxes are stored
+     * @param interval       the length of one interval, e.g. 30s, 5m or 1h
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param topCommands    the number of the most frequent commands returned for each interval, 0 for none
+     * @return the mapping of the starts of the intervals (epoch_millis) to the number of commands and the most frequent
+     * commands with their counts in the interval, in the ascending order of the intervals
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Map<Long, Pair<Long, Map<String, Long>>> findConsoleCommandsHistogram(String index, TimeValue interval, Long from, Long to, List<String> filterCommands,
+                                                                                 CommandType commandType, int topCommands) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleCommandsHistogramResponse(search(createCommandsHistogramRequest(index, interval, from, to, filterCommands, commandType, topCommands)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findConsoleCommandsHistogram(String, TimeValue, Long, Long, List, CommandType, int)}.
+     *
+     * @param index          index under which commands from local or cloud sandboxes are stored
+     * @param interval       the length of one interval, e.g. 30s, 5m or 1h
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param topCommands    the number of the most frequent commands returned for each interval, 0 for none
+     * @return the future of the mapping of the starts of the intervals (epoch_millis) to the number of commands and
+     * the most frequent commands with their counts in the interval, in the ascending order of the intervals
+     */
+    public CompletableFuture<Map<Long, Pair<Long, Map<String, Long>>>> findConsoleCommandsHistogramAsync(String index, TimeValue interval, Long from, Long to,
+                                                                                                        List<String> filterCommands, CommandType commandType,
+                                                                                                        int topCommands) {
+        return searchAsync(createCommandsHistogramRequest(index, interval, from, to, filterCommands, commandType, topCommands))
+                .thenApply(this::handleCommandsHistogramResponse);
+    }
+
+    private SearchRequest createCommandsHistogramRequest(String index, TimeValue interval, Long from, Long to, List<String> filterCommands,
+                                                         CommandType commandType, int topCommands) {
+        DateHistogramAggregationBuilder histogram = AggregationBuilders.dateHistogram(COMMANDS_HISTOGRAM_AGGREGATION)
+                .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR)
+                .fixedInterval(new DateHistogramInterval(interval.getStringRep()))
+                .minDocCount(0);
+        if (from != null && to != null) {
+            histogram.extendedBounds(new LongBounds(from, to));
+        }
+        if (topCommands > 0) {
+            histogram.subAggregation(AggregationBuilders.terms(TOP_COMMANDS_SUB_AGGREGATION)
+                    .field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND_KEYWORD)
+                    .size(topCommands));
+        }
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(0);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(createCommandsInTimeRangeQuery(from, to, filterCommands, commandType));
+        searchSourceBuilder.aggregation(histogram);
+
+        SearchRequest searchRequest = createSearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    /**
+     * Find the time span of the commands, i.e., the timestamps of the first and the last command.
+     * <p>
+     * Elasticserach query:
+     * <pre>{@code
+     * GET crczp.logs.console*.sandbox={sandboxId}/_search
+     * {
+     *   "size": 0,
+     *   "query": { ... the same as of the histogram ... },
+     *   "aggs": {
+     *     "min_timestamp": { "min": { "field": "timestamp_str" } },
+     *     "max_timestamp": { "max": { "field": "timestamp_str" } }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param index          index under which commands from local or cloud sandboxes are stored
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @return the timestamps of the first and the last command (epoch_millis timestamp format), or null if there is no command
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Pair<Long, Long> findConsoleCommandsTimeSpan(String index, Long from, Long to, List<String> filterCommands,
+                                                        CommandType commandType) throws ElasticsearchTrainingDataLayerException, IOException {
+        return handleCommandsTimeSpanResponse(search(createCommandsTimeSpanRequest(index, from, to, filterCommands, commandType)));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findConsoleCommandsTimeSpan(String, Long, Long, List, CommandType)}.
+     *
+     * @param index          index under which commands from local or cloud sandboxes are stored
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @return the future of the timestamps of the first and the last command (epoch_millis timestamp format), completed
+     * with null if there is no command
+     */
+    public CompletableFuture<Pair<Long, Long>> findConsoleCommandsTimeSpanAsync(String index, Long from, Long to, List<String> filterCommands,
+                                                                               CommandType commandType) {
+        return searchAsync(createCommandsTimeSpanRequest(index, from, to, filterCommands, commandType))
+                .thenApply(this::handleCommandsTimeSpanResponse);
+    }
+
+    private SearchRequest createCommandsTimeSpanRequest(String index, Long from, Long to, List<String> filterCommands, CommandType commandType) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(0);
+        searchSourceBuilder.trackTotalHits(false);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(createCommandsInTimeRangeQuery(from, to, filterCommands, commandType));
+        searchSourceBuilder.aggregation(AggregationBuilders.min(MIN_TIMESTAMP_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR));
+        searchSourceBuilder.aggregation(AggregationBuilders.max(MAX_TIMESTAMP_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR));
+
+        SearchRequest searchRequest = createSearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    private Pair<Long, Long> handleCommandsTimeSpanResponse(SearchResponse response) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elasticsearch. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return null;
+        }
+        Min minTimestamp = response.getAggregations().get(MIN_TIMESTAMP_AGGREGATION);
+        Max maxTimestamp = response.getAggregations().get(MAX_TIMESTAMP_AGGREGATION);
+        if (!Double.isFinite(minTimestamp.getValue()) || !Double.isFinite(maxTimestamp.getValue())) {
+            return null;
+        }
+        return Pair.with((long) minTimestamp.getValue(), (long) maxTimestamp.getValue());
+    }
+
+    /**
+     * @param index the pool id
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     */
+    public void deleteConsoleCommands(String index) throws ElasticsearchTrainingDataLayerException {
+        deleteIndex(new DeleteIndexRequest(index));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #deleteConsoleCommands(String)}.
+     *
+     * @param index the index of the console commands
+     * @return the future completed once the commands are deleted
+     */
+    public CompletableFuture<Void> deleteConsoleCommandsAsync(String index) {
+        return deleteIndexAsync(new DeleteIndexRequest(index));
+    }
+
+    private SearchRequest createCommandsInTimeRangeRequest(String index, Long from, Long to, List<String> filterCommands, CommandType commandType,
+                                                           List<String> fields, int size) {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR, SortOrder.ASC);
-        searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
+        searchSourceBuilder.size(size);
         searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.fetchSource(createFetchSourceContext(fields));
+        searchSourceBuilder.query(createCommandsInTimeRangeQuery(from, to, filterCommands, commandType));
+
+        SearchRequest searchRequest = createSearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
 
+    private BoolQueryBuilder createCommandsInTimeRangeQuery(Long from, Long to, List<String> filterCommands, CommandType commandType) {
         //Compound queries - Date Range Aggregation Query + Regexp Query
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
         List<QueryBuilder> boolMustQueries = boolQueryBuilder.must();
-        boolMustQueries.add(QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR)
-                .gte(from)
-                .lte(to));
+        if (from != null || to != null) {
+            boolMustQueries.add(QueryBuilders.rangeQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP_STR)
+                    .gte(from)
+                    .lte(to));
+        }
         if(filterCommands != null && !filterCommands.isEmpty()) {
             boolMustQueries.add(QueryBuilders.regexpQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND, StringUtils.collectionToDelimitedString(filterCommands, "|")));
         }
@@ -126,41 +467,40 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
             String commandTypeString = commandType.toString().toLowerCase() + "-command";
             boolMustQueries.add(QueryBuilders.regexpQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_COMMAND_TYPE, commandTypeString));
         }
-        
-        searchSourceBuilder.query(boolQueryBuilder);
-
-        SearchRequest searchRequest = new SearchRequest(index);
-        searchRequest.source(searchSourceBuilder);
-        SearchResponse searchResponse = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
-
-        return handleElasticsearchResponse(searchResponse);
+        return boolQueryBuilder;
     }
 
-    /**
-     * @param index the pool id
-     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
-     */
-    public void deleteConsoleCommands(String index) throws ElasticsearchTrainingDataLayerException {
-        DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(index);
-        try {
-            AcknowledgedResponse deleteIndexResponse = getRestHighLevelClient().indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
-            if (!deleteIndexResponse.isAcknowledged()) {
-                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+    private Map<Long, Pair<Long, Map<String, Long>>> handleCommandsHistogramResponse(SearchResponse response) throws ElasticsearchTrainingDataLayerException {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elasticsearch. Please, restart Elasticsearch service.");
+        }
+        Map<Long, Pair<Long, Map<String, Long>>> histogram = new LinkedHashMap<>();
+        if (response.getAggregations() == null) {
+            return histogram;
+        }
+        Histogram commandsHistogram = response.getAggregations().get(COMMANDS_HISTOGRAM_AGGREGATION);
+        for (Histogram.Bucket bucket : commandsHistogram.getBuckets()) {
+            Terms topCommandsAggregation = bucket.getAggregations().get(TOP_COMMANDS_SUB_AGGREGATION);
+            Map<String, Long> topCommands = null;
+            if (topCommandsAggregation != null) {
+                topCommands = new LinkedHashMap<>();
+                for (Terms.Bucket commandBucket : topCommandsAggregation.getBuckets()) {
+                    topCommands.put(commandBucket.getKeyAsString(), commandBucket.getDocCount());
+                }
             }
-        } catch (IOException e) {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
+            histogram.put(((ZonedDateTime) bucket.getKey()).toInstant().toEpochMilli(), Pair.with(bucket.getDocCount(), topCommands));
         }
+        return histogram;
     }
 
-    private List<Map<String, Object>> handleElasticsearchResponse(SearchResponse response) throws ElasticsearchTrainingDataLayerException {
-        List<Map<String, Object>> events = new ArrayList<>();
+    private List<RawJsonSource> handleElasticsearchResponse(SearchResponse response) throws ElasticsearchTrainingDataLayerException {
+        List<RawJsonSource> events = new ArrayList<>();
         if (response != null) {
             SearchHits responseHits = response.getHits();
             if (responseHits != null) {
                 SearchHit[] results = responseHits.getHits();
                 for (SearchHit hit : results) {
-                    Map<String, Object> source = hit.getSourceAsMap();
-                    events.add(source);
+                    events.add(RawJsonSource.of(hit));
                 }
             }
         } else {
@@ -169,27 +509,27 @@ public class TrainingConsoleCommandsDao extends AbstractElasticClientDAO {
         return events;
     }
 
-    private List<List<Map<String, Object>>> resolveTimeRangeAggregation(SearchResponse searchResponse) {
+    private List<List<RawJsonSource>> resolveTimeRangeAggregation(SearchResponse searchResponse) {
         Aggregations aggregations = searchResponse.getAggregations();
         ParsedRange commandsByTimeRanges = aggregations.get("timestamp_ranges");
         Collection<Range.Bucket> timestampRanges = (Collection<Range.Bucket>) commandsByTimeRanges.getBuckets();
 
-        List<List<Map<String, Object>>> commandsDivision = new ArrayList<>();
+        List<List<RawJsonSource>> commandsDivision = new ArrayList<>();
         for (Range.Bucket rangeBucket : timestampRanges) {
             commandsDivision.add(resolveBucketTopHits(rangeBucket));
         }
         return commandsDivision;
     }
 
-    private List<Map<String, Object>> resolveBucketTopHits(Range.Bucket rangeBucket) throws ElasticsearchTrainingDataLayerException {
-        List<Map<String, Object>> resultBucketTopHits = new ArrayList<>();
+    private List<RawJsonSource> resolveBucketTopHits(Range.Bucket rangeBucket) throws ElasticsearchTrainingDataLayerException {
+        List<RawJsonSource> resultBucketTopHits = new ArrayList<>();
         TopHits topHits = rangeBucket.getAggregations().get("by_top_hits");
         SearchHits responseHits = topHits.getHits();
 
         if (responseHits != null) {
             SearchHit[] results = responseHits.getHits();
             for (SearchHit hit : results) {
-                resultBucketTopHits.add(hit.getSourceAsMap());
+                resultBucketTopHits.add(RawJsonSource.of(hit));
             }
         } else {
             throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elasticsearch. Please, restart Elasticsearch service.");
@@ -5,19 +5,22 @@ import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
 import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoTrainingType;
+import cz.cyberrange.platform.elasticsearch.data.search.CompositeGroupPager;
+import cz.cyberrange.platform.elasticsearch.data.search.IntKeyGrouping;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchAfterPager;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.core.TimeValue;
-import org.elasticsearch.index.query.InnerHitBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
-import org.elasticsearch.search.collapse.CollapseBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,9 +31,10 @@ import org.springframework.stereotype.Repository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,40 +43,52 @@ import java.util.concurrent.TimeUnit;
 @Repository
 public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
 
-    @Value("${elasticsearch.max-result-window:10000}")
-    private int indexDocumentsMaxReturnNumber;
+    @Value("${elasticsearch.page-size:1000}")
+    private int pageSize;
+    @Value("${elasticsearch.point-in-time.keep-alive:1m}")
+    private String pointInTimeKeepAlive;
 
     /**
      * Instantiates a new Training events dao.
      *
      * @param restHighLevelClient the rest high level client
      * @param objectMapper        the object mapper
+     * @param indexNameResolver   the resolver of the index patterns to the concrete indices
      */
     @Autowired
     public TrainingPlatformEventsDAO(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient,
-                                     @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper) {
-        super(restHighLevelClient, objectMapper);
+                                     @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                     IndexNameResolver indexNameResolver) {
+        super(restHighLevelClient, objectMapper, indexNameResolver);
     }
 
     /**
      * Find all events by training definition.
      *
      * @param trainingDefinitionId the training definition id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public List<Map<String, Object>> findAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException, IOException {
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
-        searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, SortOrder.ASC);
-        searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
-        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        SearchRequest searchRequest = new SearchRequest(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".*");
-        searchRequest.source(searchSourceBuilder);
+    public List<RawJsonSource> findAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        try (SearchAfterPager pager = pageAllEventsByTrainingDefinition(trainingDefinitionId, trainingType, fields)) {
+            return extractDataFromSearchHits(pager);
+        }
+    }
 
-        return handleElasticsearchResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT));
+    /**
+     * Create pager that lazily walks all events of the training definition sorted by timestamp.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @return the pager over events, it must be closed by the caller
+     */
+    public SearchAfterPager pageAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType, List<String> fields) {
+        return createEventsPager(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".*",
+                QueryBuilders.matchAllQuery(), fields);
     }
 
     /**
@@ -80,21 +96,30 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      *
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public List<Map<String, Object>> findAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException, IOException {
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
-        searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, SortOrder.ASC);
-        searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
-        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        SearchRequest searchRequest = new SearchRequest(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*");
-        searchRequest.source(searchSourceBuilder);
+    public List<RawJsonSource> findAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        try (SearchAfterPager pager = pageAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, trainingType, fields)) {
+            return extractDataFromSearchHits(pager);
+        }
+    }
 
-        return handleElasticsearchResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT));
+    /**
+     * Create pager that lazily walks all events of the training instance sorted by timestamp.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @return the pager over events, it must be closed by the caller
+     */
+    public SearchAfterPager pageAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType, List<String> fields) {
+        return createEventsPager(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*",
+                QueryBuilders.matchAllQuery(), fields);
     }
 
     /**
@@ -103,69 +128,81 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
      * @param trainingRunId        the training run id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public List<Map<String, Object>> findAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException, IOException {
+    public List<RawJsonSource> findAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        try (SearchAfterPager pager = pageAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, trainingType, fields)) {
+            return extractDataFromSearchHits(pager);
+        }
+    }
+
+    /**
+     * Create pager that lazily walks all events of the training run sorted by timestamp.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingRunId        the training run id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @return the pager over events, it must be closed by the caller
+     */
+    public SearchAfterPager pageAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType, List<String> fields) {
+        return createEventsPager(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*",
+                QueryBuilders.termQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, trainingRunId), fields);
+    }
+
+    private SearchAfterPager createEventsPager(String index, QueryBuilder query, List<String> fields) {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.termQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, trainingRunId));
+        searchSourceBuilder.query(query);
+        searchSourceBuilder.fetchSource(createFetchSourceContext(fields));
         searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, SortOrder.ASC);
-        searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
         searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        SearchRequest searchRequest = new SearchRequest(getEventsIndexPath(trainingType) + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*");
-        searchRequest.source(searchSourceBuilder);
-
-        return handleElasticsearchResponse(getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT));
+        SearchRequest searchRequest = createSearchRequest(index);
+        return new SearchAfterPager(getRestHighLevelClient(), searchRequest.indices(), searchRequest.indicesOptions(), searchSourceBuilder, pageSize,
+                TimeValue.parseTimeValue(pointInTimeKeepAlive, "elasticsearch.point-in-time.keep-alive"));
     }
 
     /**
-     * Find all events from training run list.
+     * Find all events of the level of the training instance aggregated by the given field.
      *
      * @param trainingInstanceId   the training instance id
      * @param levelId  the level id
      * @param collapseField the field used to collapse data
      * @param trainingType type of the training (linear or adaptive)
+     * @param fields fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public Map<Object, List<Map<String, Object>>> findEventsByInstanceAndLevelAggregatedByGivenField(Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException, IOException {
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                .query(QueryBuilders.matchQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID, levelId))
-                .size(indexDocumentsMaxReturnNumber)
-                .timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        InnerHitBuilder innerHitBuilder = new InnerHitBuilder().setName("by_" + collapseField)
-                .setSize(indexDocumentsMaxReturnNumber)
-                .addSort(SortBuilders.fieldSort("timestamp"));
-        CollapseBuilder collapseBuilder = new CollapseBuilder(collapseField).setInnerHits(innerHitBuilder);
-        searchSourceBuilder.collapse(collapseBuilder);
-
-        SearchRequest searchRequest = new SearchRequest(getEventsIndexPath(trainingType) + "*.instance=" + trainingInstanceId + "*");
-        searchRequest.source(searchSourceBuilder);
-
-        SearchResponse searchResponse = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
-        return handleAggregatedEvents(searchResponse, collapseField);
+    public Map<Object, List<RawJsonSource>> findEventsByInstanceAndLevelAggregatedByGivenField(Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        Map<Object, List<RawJsonSource>> aggregatedEventsByField = new HashMap<>();
+        createGroupPager(getEventsIndexPath(trainingType) + "*.instance=" + trainingInstanceId + ".*",
+                QueryBuilders.matchQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID, levelId),
+                collapseField,
+                List.of(),
+                fields,
+                SortBuilders.fieldSort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .forEachGroup((fieldValue, events) -> aggregatedEventsByField.put(fieldValue, extractDataFromSearchHits(events)));
+        return aggregatedEventsByField;
     }
 
-
     /**
-     * Find all events by training definition and training instance id list.
+     * Find all events of the training instance aggregated by the training runs and levels.
+     * <p>
+     * The training runs are paged by the composite aggregation and the events of each run are walked sorted by timestamp,
+     * see {@link CompositeGroupPager}.
      *
      * <pre>{@code
-     *  GET crczp.events.trainings*.definition={definitionId}.instance={instanceId}
+     *  GET crczp.events.trainings*.instance={instanceId}.*
      *  {
-     *   "query": {
-     *     "match_all": {}
-     *   },
-     *   "collapse": {
-     *     "field": "training_run_id",
-     *     "inner_hits": {
-     *       "name": "by_training_run_id",
-     *       "sort": [{"timestamp": "asc" }, {"syslog.@timestamp": "asc" }],
-     *       "size": 10000
+     *   "size": 0,
+     *   "aggs": {
+     *     "groups": {
+     *       "composite": { "sources": [{ "group": { "terms": { "field": "training_run_id" } } }] }
      *     }
      *   }
      * }
@@ -173,47 +210,33 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      * </pre>
      *
      * @param trainingInstanceId   the training instance id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> getEventsOfTrainingInstanceAggregatedByRunsAndLevels(Long trainingInstanceId) throws ElasticsearchTrainingDataLayerException, IOException {
-
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                .query(QueryBuilders.matchAllQuery())
-                .sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, SortOrder.ASC)
-                .size(indexDocumentsMaxReturnNumber)
-                .timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        InnerHitBuilder innerHitBuilder = new InnerHitBuilder().setName("by_" + AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID)
-                .setSize(indexDocumentsMaxReturnNumber)
-                .addSort(SortBuilders.fieldSort("timestamp"));
-        CollapseBuilder collapseBuilder = new CollapseBuilder(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID).setInnerHits(innerHitBuilder);
-        searchSourceBuilder.collapse(collapseBuilder);
-
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.instance=" + trainingInstanceId + "*");
-        searchRequest.source(searchSourceBuilder);
-
-        SearchResponse searchResponse = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
-
-        return handleAggregatedEvents(searchResponse, AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID);
+    @DaoTrainingType(TrainingType.LINEAR)
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> getEventsOfTrainingInstanceAggregatedByRunsAndLevels(Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        return aggregateEvents(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.instance=" + trainingInstanceId + ".*",
+                AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID,
+                AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID,
+                fields,
+                SortBuilders.fieldSort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP));
     }
 
     /**
-     * Find all events by training definition and training instance id list.
+     * Find all events of the training instance aggregated by the levels and training runs.
+     * <p>
+     * The levels are paged by the composite aggregation and the events of each level are walked sorted by training run
+     * and timestamp, see {@link CompositeGroupPager}.
      *
      * <pre>{@code
-     *  GET crczp.events.trainings*.definition={definitionId}.instance={instanceId}
+     *  GET crczp.events.trainings*.instance={instanceId}.*
      *  {
-     *   "query": {
-     *     "match_all": {}
-     *   },
-     *   "collapse": {
-     *     "field": "level",
-     *     "inner_hits": {
-     *       "name": "by_level",
-     *       "sort": [{"timestamp": "asc" }, {"syslog.@timestamp": "asc" }],
-     *       "size": 10000
+     *   "size": 0,
+     *   "aggs": {
+     *     "groups": {
+     *       "composite": { "sources": [{ "group": { "terms": { "field": "level" } } }] }
      *     }
      *   }
      * }
@@ -221,96 +244,40 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      * </pre>
      *
      * @param trainingInstanceId   the training instance id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> getEventsOfTrainingInstanceAggregatedByLevelsAndRuns(Long trainingInstanceId) throws ElasticsearchTrainingDataLayerException, IOException {
-
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                .query(QueryBuilders.matchAllQuery())
-                .sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID, SortOrder.ASC)
-                .size(indexDocumentsMaxReturnNumber)
-                .timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        InnerHitBuilder innerHitBuilder = new InnerHitBuilder().setName("by_" + AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID)
-                .setSize(indexDocumentsMaxReturnNumber)
-                .addSort(SortBuilders.fieldSort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID))
-                .addSort(SortBuilders.fieldSort("timestamp"));
-        CollapseBuilder collapseBuilder = new CollapseBuilder(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID).setInnerHits(innerHitBuilder);
-        searchSourceBuilder.collapse(collapseBuilder);
-
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.instance=" + trainingInstanceId + "*");
-        searchRequest.source(searchSourceBuilder);
-
-        SearchResponse searchResponse = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
-
-        return handleAggregatedEvents(searchResponse, AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID, AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID);
-    }
-
-    /**
-     * Process and aggregate Elasticsearch response that contains events of the users.
-     * @param searchResponse Elasticsearch response.
-     * @return events aggregated by user.
-     */
-    private Map<Integer, Map<Integer, List<Map<String, Object>>>> handleAggregatedEvents(
-            SearchResponse searchResponse, String firstLevelAggregationField, String secondLevelAggregationField) throws ElasticsearchTrainingDataLayerException, IOException {
-        Map<Integer, Map<Integer, List<Map<String, Object>>>> aggregatedEvents = new HashMap<>();
-
-        if (searchResponse != null) {
-            SearchHits responseHits = searchResponse.getHits();
-            if (responseHits != null) {
-                SearchHit[] collapsedResults = responseHits.getHits();
-                for (SearchHit hit : collapsedResults) {
-                    Integer firstFieldValue = hit.getFields().get(firstLevelAggregationField).getValue();
-                    SearchHits innerHitsByFirstField = hit.getInnerHits().get("by_" + firstLevelAggregationField);
-                    aggregatedEvents.put(firstFieldValue, aggregateEventsBySecondLevelField(innerHitsByFirstField, secondLevelAggregationField));
-                }
-            }
-        } else {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
-        }
-        return aggregatedEvents;
+    @DaoTrainingType(TrainingType.LINEAR)
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> getEventsOfTrainingInstanceAggregatedByLevelsAndRuns(Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        return aggregateEvents(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.instance=" + trainingInstanceId + ".*",
+                AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID,
+                AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID,
+                fields,
+                SortBuilders.fieldSort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID),
+                SortBuilders.fieldSort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP));
     }
 
-    private Map<Object, List<Map<String, Object>>> handleAggregatedEvents(SearchResponse searchResponse, String aggregationField) throws ElasticsearchTrainingDataLayerException, IOException {
-        Map<Object, List<Map<String, Object>>> aggregatedEventsByField = new HashMap<>();
-
-        if (searchResponse != null) {
-            SearchHits responseHits = searchResponse.getHits();
-            if (responseHits != null) {
-                SearchHit[] collapsedResults = responseHits.getHits();
-                for (SearchHit hit : collapsedResults) {
-                    Object firstFieldValue = hit.getFields().get(aggregationField).getValue();
-                    SearchHits innerHitsByFirstField = hit.getInnerHits().get("by_" + aggregationField);
-                    aggregatedEventsByField.put(firstFieldValue, extractDataFromSearchHits(innerHitsByFirstField.getHits()));
-                }
-            }
-        } else {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
-        }
-        return aggregatedEventsByField;
+    private CompositeGroupPager createGroupPager(String index, QueryBuilder query, String groupField, List<String> docValueFields,
+                                                 List<String> fields, SortBuilder<?>... groupSort) {
+        SearchRequest searchRequest = createSearchRequest(index);
+        return new CompositeGroupPager(getRestHighLevelClient(), searchRequest.indices(), searchRequest.indicesOptions(), query,
+                groupField, List.of(groupSort), docValueFields, createFetchSourceContext(fields), pageSize,
+                TimeValue.parseTimeValue(pointInTimeKeepAlive, "elasticsearch.point-in-time.keep-alive"));
     }
 
     /**
-     * Process and aggregate sorted list of events by level.
-     * @param unprocessedEvents list of SearchHits that represents events of the particular user sorted by timestamp.
-     * @return events aggregated by level.
+     * Aggregate all events by the values of the first field and the events of each value by the second field.
+     * @return events aggregated by the first and second field.
      */
-    private Map<Integer, List<Map<String, Object>>> aggregateEventsBySecondLevelField(SearchHits unprocessedEvents, String secondLevelAggregationField) {
-        Map<Integer, List<Map<String, Object>>> aggregatedEvents = new LinkedHashMap<>();
-        List<Map<String, Object>> eventsOfField = new ArrayList<>();
-        Integer fieldValue = (Integer) unprocessedEvents.getAt(0).getSourceAsMap().get(secondLevelAggregationField);
-
-        for (SearchHit unprocessedEvent: unprocessedEvents) {
-            if(!fieldValue.equals(unprocessedEvent.getSourceAsMap().get(secondLevelAggregationField))) {
-                aggregatedEvents.put(fieldValue, eventsOfField);
-                fieldValue = (Integer) unprocessedEvent.getSourceAsMap().get(secondLevelAggregationField);
-                eventsOfField = new ArrayList<>();
-            }
-            eventsOfField.add(unprocessedEvent.getSourceAsMap());
-        }
-        aggregatedEvents.put(fieldValue, eventsOfField);
+    private Map<Integer, Map<Integer, List<RawJsonSource>>> aggregateEvents(String index, String firstLevelAggregationField,
+                                                                                  String secondLevelAggregationField, List<String> fields,
+                                                                                  SortBuilder<?>... groupSort) throws IOException {
+        Map<Integer, Map<Integer, List<RawJsonSource>>> aggregatedEvents = new HashMap<>();
+        createGroupPager(index, QueryBuilders.matchAllQuery(), firstLevelAggregationField, List.of(secondLevelAggregationField), fields, groupSort)
+                .forEachGroup((firstFieldValue, events) -> aggregatedEvents.put(((Number) firstFieldValue).intValue(),
+                        IntKeyGrouping.groupHits(events, secondLevelAggregationField, RawJsonSource::of)));
         return aggregatedEvents;
     }
 
@@ -324,15 +291,18 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      */
     public void deleteEventsByTrainingInstanceId(Long trainingInstanceId, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException {
-        DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".*");
-        try {
-            AcknowledgedResponse deleteIndexResponse = getRestHighLevelClient().indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
-            if (!deleteIndexResponse.isAcknowledged()) {
-                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
-            }
-        } catch (IOException e) {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
-        }
+        deleteIndex(new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".*"));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #deleteEventsByTrainingInstanceId(Long, TrainingType)}.
+     *
+     * @param trainingInstanceId the training instance id
+     * @param trainingType       type of the training (linear or adaptive)
+     * @return the future completed once the events are deleted
+     */
+    public CompletableFuture<Void> deleteEventsByTrainingInstanceIdAsync(Long trainingInstanceId, TrainingType trainingType) {
+        return deleteIndexAsync(new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".*"));
     }
 
     /**
@@ -341,33 +311,35 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      */
     public void deleteEventsFromTrainingRun(Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) throws ElasticsearchTrainingDataLayerException {
-        DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".run=" + trainingRunId);
-        try {
-            AcknowledgedResponse deleteIndexResponse = getRestHighLevelClient().indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
-            if (!deleteIndexResponse.isAcknowledged()) {
-                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
-            }
-        } catch (IOException e) {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.");
-        }
+        deleteIndex(new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".run=" + trainingRunId));
+    }
+
+    /**
+     * Asynchronous variant of the {@link #deleteEventsFromTrainingRun(Long, Long, TrainingType)}.
+     *
+     * @param trainingInstanceId the training instance id
+     * @param trainingRunId      the training run id
+     * @param trainingType       type of the training (linear or adaptive)
+     * @return the future completed once the events are deleted
+     */
+    public CompletableFuture<Void> deleteEventsFromTrainingRunAsync(Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) {
+        return deleteIndexAsync(new DeleteIndexRequest(getEventsIndexPath(trainingType) + "*" + ".instance=" + trainingInstanceId + ".run=" + trainingRunId));
     }
 
 
     /**
      * Find all events by training definition and training instance id list.
+     * <p>
+     * The users are paged by the composite aggregation and the events of each user are walked sorted by timestamp,
+     * see {@link CompositeGroupPager}.
      *
      * <pre>{@code
-     *  GET crczp.events.trainings*.definition={definitionId}.instance={instanceId}
+     *  GET crczp.events.trainings*.definition={definitionId}.instance={instanceId}.*
      *  {
-     *   "query": {
-     *     "match_all": {}
-     *   },
-     *   "collapse": {
-     *     "field": "user_ref_id",
-     *     "inner_hits": {
-     *       "name": "by_user",
-     *       "sort": "timestamp",
-     *       "size": 10000
+     *   "size": 0,
+     *   "aggs": {
+     *     "groups": {
+     *       "composite": { "sources": [{ "group": { "terms": { "field": "user_ref_id" } } }] }
      *     }
      *   }
      * }
@@ -376,91 +348,30 @@ public class TrainingPlatformEventsDAO extends AbstractElasticClientDAO {
      *
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
      * @throws IOException                             the io exception
      */
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(Long trainingDefinitionId, Long trainingInstanceId) throws ElasticsearchTrainingDataLayerException, IOException {
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
-        searchSourceBuilder.sort(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_USER_REF_ID, SortOrder.ASC);
-        searchSourceBuilder.size(indexDocumentsMaxReturnNumber);
-        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
-
-        //Collapse query
-        InnerHitBuilder innerHitBuilder = new InnerHitBuilder().setName("by_user")
-                .setSize(indexDocumentsMaxReturnNumber)
-                .addSort(SortBuilders.fieldSort("timestamp"))
-                .addSort(SortBuilders.fieldSort("syslog.@timestamp"));
-        CollapseBuilder collapseBuilder = new CollapseBuilder("user_ref_id").setInnerHits(innerHitBuilder);
-        searchSourceBuilder.collapse(collapseBuilder);
-
-        SearchRequest searchRequest = new SearchRequest(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + "*");
-        searchRequest.source(searchSourceBuilder);
-
-        SearchResponse searchResponse = getRestHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
-        return handleAggregationOfEventsByUser(searchResponse);
-    }
-
-    /**
-     * Process and aggregate Elasticsearch response that contains events of the users.
-     * @param searchResponse Elasticsearch response.
-     * @return events aggregated by user.
-     */
-    private Map<Integer, Map<Integer, List<Map<String, Object>>>> handleAggregationOfEventsByUser(SearchResponse searchResponse) throws ElasticsearchTrainingDataLayerException, IOException {
-        Map<Integer, Map<Integer, List<Map<String, Object>>>> aggregatedEventsByUserRefId = new HashMap<>();
-
-        if (searchResponse != null) {
-            SearchHits responseHits = searchResponse.getHits();
-            if (responseHits != null) {
-                SearchHit[] collapsedResults = responseHits.getHits();
-                for (SearchHit hit : collapsedResults) {
-                    Integer userRefId = hit.getFields().get("user_ref_id").getValue();
-                    SearchHits innerHitsByUser = hit.getInnerHits().get("by_user");
-                    aggregatedEventsByUserRefId.put(userRefId, aggregateEventsOfUserByLevels(innerHitsByUser));
-                }
-            }
-        } else {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
-        }
+    @DaoTrainingType(TrainingType.LINEAR)
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(Long trainingDefinitionId, Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingDataLayerException, IOException {
+        Map<Integer, Map<Integer, List<RawJsonSource>>> aggregatedEventsByUserRefId = new HashMap<>();
+        createGroupPager(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*",
+                QueryBuilders.matchAllQuery(),
+                AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_USER_REF_ID,
+                List.of(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID),
+                fields,
+                SortBuilders.fieldSort("timestamp"),
+                SortBuilders.fieldSort("syslog.@timestamp"))
+                .forEachGroup((userRefId, events) -> aggregatedEventsByUserRefId.put(((Number) userRefId).intValue(),
+                        IntKeyGrouping.groupHits(events, AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID, RawJsonSource::of)));
         return aggregatedEventsByUserRefId;
     }
 
-    /**
-     * Process and aggregate sorted list of events by level.
-     * @param unprocessedEvents list of SearchHits that represents events of the particular user sorted by timestamp.
-     * @return events aggregated by level.
-     */
-    private Map<Integer, List<Map<String, Object>>> aggregateEventsOfUserByLevels(SearchHits unprocessedEvents) {
-        Map<Integer, List<Map<String, Object>>> aggregatedEvents = new HashMap<>();
-        List<Map<String, Object>> eventsOfLevel = new ArrayList<>();
-        Integer levelId = (Integer) unprocessedEvents.getAt(0).getSourceAsMap().get("level");
-
-        for (SearchHit unprocessedEvent: unprocessedEvents) {
-            if(!levelId.equals(unprocessedEvent.getSourceAsMap().get("level"))) {
-                aggregatedEvents.put(levelId, eventsOfLevel);
-                levelId = (Integer) unprocessedEvent.getSourceAsMap().get("level");
-                eventsOfLevel = new ArrayList<>();
-            }
-            eventsOfLevel.add(unprocessedEvent.getSourceAsMap());
-        }
-        return aggregatedEvents;
-    }
-
-    private List<Map<String, Object>> handleElasticsearchResponse(SearchResponse response) throws ElasticsearchTrainingDataLayerException {
-        if (response != null) {
-            SearchHits responseHits = response.getHits();
-            return responseHits != null ? extractDataFromSearchHits(responseHits.getHits()) : new ArrayList<>();
-        } else {
-            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
-        }
-    }
-
-    private List<Map<String, Object>> extractDataFromSearchHits(SearchHit[] hits) {
-        List<Map<String, Object>> events = new ArrayList<>();
-        for (SearchHit hit : hits) {
-            Map<String, Object> source = hit.getSourceAsMap();
-            events.add(source);
+    private List<RawJsonSource> extractDataFromSearchHits(Iterator<SearchHit> hits) {
+        List<RawJsonSource> events = new ArrayList<>();
+        while (hits.hasNext()) {
+            events.add(RawJsonSource.of(hits.next()));
         }
         return events;
     }
@@ -0,0 +1,212 @@
+package cz.cyberrange.platform.elasticsearch.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoTrainingType;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.Filters;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.aggregations.metrics.Min;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.javatuples.Triplet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type Training Statistics dao computing the statistics of the linear trainings.
+ */
+@Repository
+@DaoTrainingType(TrainingType.LINEAR)
+public class TrainingStatisticsDAO extends AbstractElasticClientDAO {
+
+    private static final int INDEX_DOCUMENTS_MIN_RETURN_NUMBER = 0;
+    private static final String LEVELS_OF_RUNS_AGGREGATION = "levels_of_runs";
+    private static final String RUN_SOURCE = "run";
+    private static final String LEVEL_SOURCE = "level";
+    private static final String MAX_TIMESTAMP_SUB_AGGREGATION = "max_timestamp";
+    private static final String MIN_TIMESTAMP_SUB_AGGREGATION = "min_timestamp";
+    private static final String TYPE_FILTER_SUB_AGGREGATION = "type_filter";
+
+    @Value("${elasticsearch.page-size:1000}")
+    private int pageSize;
+
+    /**
+     * Instantiates a new Training Statistics dao.
+     *
+     * @param restHighLevelClient the rest high level client
+     * @param objectMapper        the object mapper
+     * @param indexNameResolver   the resolver of the index patterns to the concrete indices
+     */
+    @Autowired
+    public TrainingStatisticsDAO(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient,
+                                 @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                 IndexNameResolver indexNameResolver) {
+        super(restHighLevelClient, objectMapper, indexNameResolver);
+    }
+
+    /**
+     * Get the first and the last timestamp of the events and the number of the specified events in each level
+     * of each training run of the training instance. Only the aggregated numbers are returned, not the events.
+     * The levels of the training runs are paged by the composite aggregation, the next page continues after the
+     * <i>after_key</i> of the previous one.
+     *
+     * <pre>{@code
+     *  GET crczp.events.trainings*.definition=${DEFINITION_ID}.instance=${INSTANCE_ID}.* /_search
+     * {
+     *   "size": 0,
+     *   "query": { "terms": { "training_run_id": [${RUN_ID}, ...] } },
+     *   "aggs": {
+     *     "levels_of_runs": {
+     *       "composite": {
+     *         "size": ${PAGE_SIZE},
+     *         "sources": [{ "run": { "terms": { "field": "training_run_id" } } }, { "level": { "terms": { "field": "level" } } }]
+     *       },
+     *       "aggs": {
+     *         "max_timestamp": { "max": { "field": "timestamp"} },
+     *         "min_timestamp": { "min": { "field": "timestamp" }},
+     *         "type_filter": { "filters" : {
+     *           "filters" : { "${EVENT_TYPE}": { "wildcard" : { "type" : "*${EVENT_TYPE}*" }}, ... }
+     *         }}
+     *       }
+     *     }
+     *   }
+     * }
+     * }</pre>
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingRunIds       ids of the training runs, all training runs of the instance if null or empty
+     * @param events               events to count
+     * @return the mapping of the training runs to the mapping of their levels and the first timestamp, the last timestamp
+     * and the number of the event occurrences in that levels
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    public Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>> findLevelsStatistics(Long trainingDefinitionId, Long trainingInstanceId,
+                                                                                            List<Long> trainingRunIds, List<String> events) throws ElasticsearchTrainingDataLayerException, IOException {
+        if (events == null || events.isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty.");
+        }
+        Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>> levelsStatisticsOfRuns = new LinkedHashMap<>();
+        Map<String, Object> afterKey = null;
+        do {
+            afterKey = handleLevelsStatisticsResponse(search(createLevelsStatisticsRequest(trainingDefinitionId, trainingInstanceId,
+                    trainingRunIds, events, afterKey)), events, levelsStatisticsOfRuns);
+        } while (afterKey != null);
+        return levelsStatisticsOfRuns;
+    }
+
+    /**
+     * Asynchronous variant of the {@link #findLevelsStatistics(Long, Long, List, List)}.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingRunIds       ids of the training runs, all training runs of the instance if null or empty
+     * @param events               events to count
+     * @return the future of the mapping of the training runs to the mapping of their levels and the first timestamp,
+     * the last timestamp and the number of the event occurrences in that levels
+     */
+    public CompletableFuture<Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>>> findLevelsStatisticsAsync(Long trainingDefinitionId, Long trainingInstanceId,
+                                                                                                                   List<Long> trainingRunIds, List<String> events) {
+        if (events == null || events.isEmpty()) {
+            return CompletableFuture.failedFuture(new ElasticsearchTrainingDataLayerException("Parameter \"events\" cannot be null nor empty."));
+        }
+        Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>> levelsStatisticsOfRuns = new LinkedHashMap<>();
+        return fetchLevelsStatisticsAsync(trainingDefinitionId, trainingInstanceId, trainingRunIds, events, null, levelsStatisticsOfRuns)
+                .thenApply(ignored -> levelsStatisticsOfRuns);
+    }
+
+    private CompletableFuture<Void> fetchLevelsStatisticsAsync(Long trainingDefinitionId, Long trainingInstanceId, List<Long> trainingRunIds, List<String> events,
+                                                               Map<String, Object> afterKey, Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>> levelsStatisticsOfRuns) {
+        return searchAsync(createLevelsStatisticsRequest(trainingDefinitionId, trainingInstanceId, trainingRunIds, events, afterKey))
+                .thenCompose(response -> {
+                    Map<String, Object> nextAfterKey = handleLevelsStatisticsResponse(response, events, levelsStatisticsOfRuns);
+                    return nextAfterKey == null
+                            ? CompletableFuture.completedFuture(null)
+                            : fetchLevelsStatisticsAsync(trainingDefinitionId, trainingInstanceId, trainingRunIds, events, nextAfterKey, levelsStatisticsOfRuns);
+                });
+    }
+
+    private SearchRequest createLevelsStatisticsRequest(Long trainingDefinitionId, Long trainingInstanceId, List<Long> trainingRunIds,
+                                                        List<String> events, Map<String, Object> afterKey) {
+        //Levels of each run, the composite buckets are ordered by the run and the level
+        CompositeAggregationBuilder levelsOfRunsAggregation = AggregationBuilders.composite(LEVELS_OF_RUNS_AGGREGATION, List.of(
+                        new TermsValuesSourceBuilder(RUN_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID),
+                        new TermsValuesSourceBuilder(LEVEL_SOURCE).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_LEVEL_ID)))
+                .size(pageSize)
+                .subAggregation(AggregationBuilders.max(MAX_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.min(MIN_TIMESTAMP_SUB_AGGREGATION).field(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP))
+                .subAggregation(AggregationBuilders.filters(TYPE_FILTER_SUB_AGGREGATION, createWildcardQueryFilters(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE, events)));
+        if (afterKey != null) {
+            levelsOfRunsAggregation.aggregateAfter(afterKey);
+        }
+
+        QueryBuilder query = trainingRunIds == null || trainingRunIds.isEmpty()
+                ? QueryBuilders.matchAllQuery()
+                : QueryBuilders.termsQuery(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_RUN_ID, trainingRunIds);
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.size(INDEX_DOCUMENTS_MIN_RETURN_NUMBER);
+        searchSourceBuilder.trackTotalHits(false);
+        searchSourceBuilder.timeout(new TimeValue(5, TimeUnit.MINUTES));
+        searchSourceBuilder.query(query);
+        searchSourceBuilder.aggregation(levelsOfRunsAggregation);
+
+        SearchRequest searchRequest = createSearchRequest(AbstractCrczpIndexPath.CRCZP_EVENTS_INDEX + "*.definition=" + trainingDefinitionId + ".instance=" + trainingInstanceId + ".*");
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    /**
+     * Add the levels of the training runs from the page to the statistics.
+     *
+     * @return the after key of the next page, null if this is the last page
+     */
+    private Map<String, Object> handleLevelsStatisticsResponse(SearchResponse response, List<String> events,
+                                                               Map<Long, Map<Long, Triplet<Long, Long, Map<String, Long>>>> levelsStatisticsOfRuns) {
+        if (response == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.getAggregations() == null) {
+            return null;
+        }
+        CompositeAggregation levelsOfRunsAggregation = response.getAggregations().get(LEVELS_OF_RUNS_AGGREGATION);
+        for (CompositeAggregation.Bucket levelBucket : levelsOfRunsAggregation.getBuckets()) {
+            Min minTimestampAggregation = levelBucket.getAggregations().get(MIN_TIMESTAMP_SUB_AGGREGATION);
+            Max maxTimestampAggregation = levelBucket.getAggregations().get(MAX_TIMESTAMP_SUB_AGGREGATION);
+            Filters typeFilterAggregation = levelBucket.getAggregations().get(TYPE_FILTER_SUB_AGGREGATION);
+            Map<String, Long> eventsOccurrences = new LinkedHashMap<>();
+            for (String event : events) {
+                eventsOccurrences.put(event, typeFilterAggregation.getBucketByKey(event).getDocCount());
+            }
+            levelsStatisticsOfRuns.computeIfAbsent(((Number) levelBucket.getKey().get(RUN_SOURCE)).longValue(), runId -> new LinkedHashMap<>())
+                    .put(((Number) levelBucket.getKey().get(LEVEL_SOURCE)).longValue(), Triplet.with(
+                            Double.valueOf(minTimestampAggregation.getValue()).longValue(),
+                            Double.valueOf(maxTimestampAggregation.getValue()).longValue(),
+                            eventsOccurrences));
+        }
+        return levelsOfRunsAggregation.getBuckets().size() < pageSize ? null : levelsOfRunsAggregation.afterKey();
+    }
+}
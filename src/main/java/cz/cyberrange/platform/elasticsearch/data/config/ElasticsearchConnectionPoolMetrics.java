@@ -0,0 +1,42 @@
+package cz.cyberrange.platform.elasticsearch.data.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Exposes the state of the Elasticsearch client connection pool as metrics.
+ */
+public class ElasticsearchConnectionPoolMetrics implements MeterBinder {
+
+    private static final String METRIC_PREFIX = "elasticsearch.client.connections.";
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    /**
+     * Instantiates a new Elasticsearch connection pool metrics.
+     *
+     * @param connectionManager the connection manager of the Elasticsearch client
+     */
+    public ElasticsearchConnectionPoolMetrics(PoolingNHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerGauge(registry, "leased", "Connections currently leased to the requests.", PoolStats::getLeased);
+        registerGauge(registry, "pending", "Requests waiting for a connection.", PoolStats::getPending);
+        registerGauge(registry, "available", "Idle connections kept alive in the pool.", PoolStats::getAvailable);
+        registerGauge(registry, "max", "Maximum number of connections in the pool.", PoolStats::getMax);
+    }
+
+    private void registerGauge(MeterRegistry registry, String name, String description, ToDoubleFunction<PoolStats> statistic) {
+        Gauge.builder(METRIC_PREFIX + name, connectionManager, manager -> statistic.applyAsDouble(manager.getTotalStats()))
+                .description(description)
+                .register(registry);
+    }
+}
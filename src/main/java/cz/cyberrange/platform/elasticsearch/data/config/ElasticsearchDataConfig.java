@@ -1,13 +1,30 @@
 package cz.cyberrange.platform.elasticsearch.data.config;
 
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
 import org.apache.http.HttpHost;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.NodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
+import java.util.Arrays;
+
 @Configuration
 @Import({ObjectMapperConfigElasticsearch.class})
 public class ElasticsearchDataConfig {
@@ -15,15 +32,146 @@ public class ElasticsearchDataConfig {
     @Value("${elasticsearch.protocol}")
     private String protocol;
     @Value("${elasticsearch.host}")
-    private String host;
+    private String[] hosts;
     @Value("${elasticsearch.port}")
     private int port;
 
+    @Value("${elasticsearch.client.max-connections-per-route:10}")
+    private int maxConnectionsPerRoute;
+    @Value("${elasticsearch.client.max-connections-total:30}")
+    private int maxConnectionsTotal;
+    @Value("${elasticsearch.client.io-thread-count:0}")
+    private int ioThreadCount;
+    @Value("${elasticsearch.client.connect-timeout:1s}")
+    private String connectTimeout;
+    @Value("${elasticsearch.client.socket-timeout:5m}")
+    private String socketTimeout;
+    @Value("${elasticsearch.client.connection-request-timeout:1m}")
+    private String connectionRequestTimeout;
+    @Value("${elasticsearch.client.keep-alive:5m}")
+    private String keepAlive;
+
+    @Value("${elasticsearch.client.sniff.enabled:false}")
+    private boolean sniffEnabled;
+    @Value("${elasticsearch.client.sniff.interval:5m}")
+    private String sniffInterval;
+    @Value("${elasticsearch.client.sniff.delay-after-failure:1m}")
+    private String sniffDelayAfterFailure;
+
+    @Value("${elasticsearch.index-resolution.enabled:false}")
+    private boolean indexResolutionEnabled;
+    @Value("${elasticsearch.index-resolution.refresh-interval:30s}")
+    private String indexResolutionRefreshInterval;
+    @Value("${elasticsearch.index-resolution.max-indices-length:3000}")
+    private int indexResolutionMaxIndicesLength;
+
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+
+    /**
+     * Connection pool shared by all requests of the Elasticsearch client.
+     *
+     * @return the connection manager
+     */
+    @Bean("crczpElasticsearchConnectionManager")
+    public PoolingNHttpClientConnectionManager elasticsearchConnectionManager() {
+        IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(toMillis(connectTimeout, "elasticsearch.client.connect-timeout"))
+                .setSoTimeout(toMillis(socketTimeout, "elasticsearch.client.socket-timeout"));
+        if (ioThreadCount > 0) {
+            ioReactorConfig.setIoThreadCount(ioThreadCount);
+        }
+        try {
+            PoolingNHttpClientConnectionManager connectionManager =
+                    new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig.build()));
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            connectionManager.setMaxTotal(maxConnectionsTotal);
+            return connectionManager;
+        } catch (IOReactorException ex) {
+            throw new ElasticsearchTrainingDataLayerException("Could not create IO reactor of the Elasticsearch client.", ex);
+        }
+    }
+
     @Bean("crczpRestHighLevelClient")
-    public RestHighLevelClient restHighLevelClient() {
-        return new RestHighLevelClient(
-                RestClient.builder(
-                        new HttpHost(host, port, protocol)));
+    public RestHighLevelClient restHighLevelClient(@Qualifier("crczpElasticsearchConnectionManager") PoolingNHttpClientConnectionManager connectionManager) {
+        long keepAliveMillis = toMillis(keepAlive, "elasticsearch.client.keep-alive");
+        RestClientBuilder restClientBuilder = RestClient.builder(resolveHttpHosts())
+                .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+                        .setConnectTimeout(toMillis(connectTimeout, "elasticsearch.client.connect-timeout"))
+                        .setSocketTimeout(toMillis(socketTimeout, "elasticsearch.client.socket-timeout"))
+                        .setConnectionRequestTimeout(toMillis(connectionRequestTimeout, "elasticsearch.client.connection-request-timeout")))
+                .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy((response, context) -> {
+                            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+                        }));
+        if (sniffEnabled) {
+            // the listener fails the request if no sniffer is attached to it
+            restClientBuilder.setFailureListener(sniffOnFailureListener);
+        }
+        return new RestHighLevelClient(restClientBuilder);
+    }
+
+    /**
+     * Periodically discovers the nodes of the Elasticsearch cluster and updates the hosts of the client.
+     *
+     * @param restHighLevelClient the rest high level client
+     * @return the sniffer
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "elasticsearch.client.sniff.enabled", havingValue = "true")
+    public Sniffer elasticsearchSniffer(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient) {
+        RestClient lowLevelClient = restHighLevelClient.getLowLevelClient();
+        NodesSniffer nodesSniffer = new ElasticsearchNodesSniffer(lowLevelClient,
+                ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT,
+                ElasticsearchNodesSniffer.Scheme.valueOf(protocol.toUpperCase()));
+        Sniffer sniffer = Sniffer.builder(lowLevelClient)
+                .setNodesSniffer(nodesSniffer)
+                .setSniffIntervalMillis(toMillis(sniffInterval, "elasticsearch.client.sniff.interval"))
+                .setSniffAfterFailureDelayMillis(toMillis(sniffDelayAfterFailure, "elasticsearch.client.sniff.delay-after-failure"))
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
+    /**
+     * Resolver of the wildcard index patterns to the concrete names of the indices, refreshed periodically. It is opt-in,
+     * since the indices of the training runs started after the last refresh are missed until the next refresh; the
+     * patterns are sent to Elasticsearch as they are by default.
+     *
+     * @param restHighLevelClient the rest high level client
+     * @return the index name resolver
+     */
+    @Bean(destroyMethod = "close")
+    public IndexNameResolver indexNameResolver(@Qualifier("crczpRestHighLevelClient") RestHighLevelClient restHighLevelClient) {
+        if (!indexResolutionEnabled) {
+            return IndexNameResolver.disabled();
+        }
+        return IndexNameResolver.refreshing(restHighLevelClient.getLowLevelClient(),
+                TimeValue.parseTimeValue(indexResolutionRefreshInterval, "elasticsearch.index-resolution.refresh-interval"),
+                indexResolutionMaxIndicesLength);
+    }
+
+    @Bean
+    public ElasticsearchConnectionPoolMetrics elasticsearchConnectionPoolMetrics(@Qualifier("crczpElasticsearchConnectionManager") PoolingNHttpClientConnectionManager connectionManager) {
+        return new ElasticsearchConnectionPoolMetrics(connectionManager);
+    }
+
+    private HttpHost[] resolveHttpHosts() {
+        return Arrays.stream(hosts)
+                .map(String::trim)
+                .filter(host -> !host.isEmpty())
+                .map(host -> {
+                    int portSeparator = host.lastIndexOf(':');
+                    return portSeparator < 0
+                            ? new HttpHost(host, port, protocol)
+                            : new HttpHost(host.substring(0, portSeparator), Integer.parseInt(host.substring(portSeparator + 1)), protocol);
+                })
+                .toArray(HttpHost[]::new);
+    }
+
+    private static int toMillis(String timeValue, String settingName) {
+        return Math.toIntExact(TimeValue.parseTimeValue(timeValue, settingName).millis());
     }
 
 }
@@ -81,4 +81,9 @@ public abstract class AbstractCrczpElasticTermQueryFields {
      */
     public static final String CRCZP_ELASTICSEARCH_COMMAND = "cmd";
 
+    /**
+     * The constant CRCZP_ELASTICSEARCH_COMMAND_KEYWORD, the keyword sub-field of the command used by the aggregations.
+     */
+    public static final String CRCZP_ELASTICSEARCH_COMMAND_KEYWORD = "cmd.keyword";
+
 }
@@ -11,4 +11,5 @@ public abstract class AbstractCrczpIndexPath {
     public static final String CRCZP_EVENTS_INDEX = "crczp.events.trainings";
     public static final String CRCZP_ADAPTIVE_EVENTS_INDEX = "crczp.events.adaptive.trainings";
     public static final String CRCZP_CONSOLE_COMMANDS_INDEX = "crczp.logs.console";
+    public static final String CRCZP_ADAPTIVE_STATISTICS_INDEX = "crczp.statistics.adaptive.trainings";
 }
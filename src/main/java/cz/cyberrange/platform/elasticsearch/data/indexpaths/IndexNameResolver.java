@@ -0,0 +1,184 @@
+package cz.cyberrange.platform.elasticsearch.data.indexpaths;
+
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.core.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the wildcard index patterns, e.g. <i>crczp.events.trainings*.definition=1.instance=2.*</i>, to the concrete
+ * names of the indices, so Elasticsearch does not have to expand the pattern against the cluster state on each request.
+ * <p>
+ * The names of all open CRCZP indices are periodically loaded with
+ * <pre>{@code
+ *  GET _cat/indices/crczp.*?h=index&expand_wildcards=open
+ * }</pre>
+ * and the patterns are matched against them locally; the result of each pattern is cached until the next refresh.
+ * The pattern is used as it is if the names have not been loaded yet, it does not match any known index (e.g. the index
+ * was created after the last refresh) or the concrete names would not fit into the request line.
+ * <p>
+ * The indices created after the last refresh are not searched until the next refresh when the pattern matches some other
+ * indices, so the refresh interval bounds how long the events of a newly started training run may be missing. That is
+ * why the resolver is enabled only by the property <i>elasticsearch.index-resolution.enabled</i>, e.g. for the clusters
+ * with so many indices that expanding the patterns dominates the searches.
+ */
+public class IndexNameResolver implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexNameResolver.class);
+    private static final String CRCZP_INDICES = "crczp.*";
+
+    private final RestClient client;
+    private final int maxIndicesLength;
+    private final ScheduledExecutorService scheduler;
+    private volatile Snapshot snapshot;
+
+    private IndexNameResolver(RestClient client, int maxIndicesLength, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.maxIndicesLength = maxIndicesLength;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Create resolver that periodically refreshes the names of the indices.
+     *
+     * @param client           the low level client of Elasticsearch
+     * @param refreshInterval  how often the names of the indices are refreshed
+     * @param maxIndicesLength the maximum length of the comma separated concrete names used instead of the pattern
+     * @return the resolver
+     */
+    public static IndexNameResolver refreshing(RestClient client, TimeValue refreshInterval, int maxIndicesLength) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crczp-index-name-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        IndexNameResolver resolver = new IndexNameResolver(client, maxIndicesLength, scheduler);
+        scheduler.scheduleWithFixedDelay(resolver::refresh, 0, refreshInterval.millis(), TimeUnit.MILLISECONDS);
+        return resolver;
+    }
+
+    /**
+     * Create resolver that always uses the patterns as they are.
+     *
+     * @return the resolver
+     */
+    public static IndexNameResolver disabled() {
+        return new IndexNameResolver(null, 0, null);
+    }
+
+    /**
+     * Resolve the index pattern to the concrete names of the indices.
+     *
+     * @param indexPattern the index pattern
+     * @return the concrete names of the indices, or the array with the given pattern if it cannot be resolved
+     */
+    public String[] resolve(String indexPattern) {
+        Snapshot current = snapshot;
+        if (current == null || !Regex.isSimpleMatchPattern(indexPattern)) {
+            return new String[]{indexPattern};
+        }
+        return current.resolved.computeIfAbsent(indexPattern, pattern -> {
+            List<String> concreteIndices = current.match(pattern);
+            int length = concreteIndices.stream().mapToInt(index -> index.length() + 1).sum();
+            if (concreteIndices.isEmpty() || length > maxIndicesLength) {
+                return new String[]{pattern};
+            }
+            return concreteIndices.toArray(new String[0]);
+        });
+    }
+
+    /**
+     * Check whether the indices returned by {@link #resolve(String)} are the concrete names of the indices.
+     *
+     * @param indexPattern the index pattern
+     * @param indices      the resolved indices
+     * @return true if the pattern was replaced by the concrete names
+     */
+    public static boolean isResolved(String indexPattern, String[] indices) {
+        return !(indices.length == 1 && indices[0].equals(indexPattern));
+    }
+
+    /**
+     * Forget the indices matching the given patterns, e.g., after they were deleted.
+     *
+     * @param indexPatterns the index patterns
+     */
+    public synchronized void forget(String... indexPatterns) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            List<String> indices = new ArrayList<>(current.indices);
+            indices.removeIf(index -> Regex.simpleMatch(indexPatterns, index));
+            snapshot = new Snapshot(indices);
+        }
+    }
+
+    /**
+     * Load the names of all open CRCZP indices.
+     */
+    public void refresh() {
+        Request request = new Request("GET", "/_cat/indices/" + CRCZP_INDICES);
+        request.addParameter("h", "index");
+        request.addParameter("expand_wildcards", "open");
+        try {
+            Response response = client.performRequest(request);
+            List<String> indices = new ArrayList<>();
+            for (String line : EntityUtils.toString(response.getEntity()).split("\n")) {
+                if (!line.isBlank()) {
+                    indices.add(line.trim());
+                }
+            }
+            synchronized (this) {
+                snapshot = new Snapshot(indices);
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Could not load the names of the indices, the index patterns are sent to Elasticsearch as they are: {}", ex.getMessage());
+            synchronized (this) {
+                snapshot = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * The names of the indices loaded by one refresh together with the patterns resolved against them.
+     */
+    private static final class Snapshot {
+
+        private final List<String> indices;
+        private final Map<String, String[]> resolved = new ConcurrentHashMap<>();
+
+        private Snapshot(List<String> indices) {
+            this.indices = Collections.unmodifiableList(indices);
+        }
+
+        private List<String> match(String pattern) {
+            List<String> matched = new ArrayList<>();
+            for (String index : indices) {
+                if (Regex.simpleMatch(pattern, index)) {
+                    matched.add(index);
+                }
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Response consumer counting the bytes of the response body received from Elasticsearch, as they are sent
+ * over the wire, before the body is buffered by the delegate consumer.
+ */
+class CountingResponseConsumer implements HttpAsyncResponseConsumer<HttpResponse> {
+
+    private final HttpAsyncResponseConsumer<HttpResponse> delegate;
+    private final LongAdder responseBytes;
+
+    /**
+     * Instantiates a new Counting response consumer.
+     *
+     * @param delegate      the consumer buffering the response
+     * @param responseBytes the counter of the received bytes
+     */
+    CountingResponseConsumer(HttpAsyncResponseConsumer<HttpResponse> delegate, LongAdder responseBytes) {
+        this.delegate = delegate;
+        this.responseBytes = responseBytes;
+    }
+
+    @Override
+    public void responseReceived(HttpResponse response) throws IOException, HttpException {
+        delegate.responseReceived(response);
+    }
+
+    @Override
+    public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        delegate.consumeContent(new ContentDecoder() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int read = decoder.read(dst);
+                if (read > 0) {
+                    responseBytes.add(read);
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isCompleted() {
+                return decoder.isCompleted();
+            }
+        }, ioControl);
+    }
+
+    @Override
+    public void responseCompleted(HttpContext context) {
+        delegate.responseCompleted(context);
+    }
+
+    @Override
+    public void failed(Exception ex) {
+        delegate.failed(ex);
+    }
+
+    @Override
+    public Exception getException() {
+        return delegate.getException();
+    }
+
+    @Override
+    public HttpResponse getResult() {
+        return delegate.getResult();
+    }
+
+    @Override
+    public boolean isDone() {
+        return delegate.isDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public boolean cancel() {
+        return delegate.cancel();
+    }
+}
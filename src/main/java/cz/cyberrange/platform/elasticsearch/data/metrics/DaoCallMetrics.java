@@ -0,0 +1,411 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import cz.cyberrange.platform.elasticsearch.data.search.SearchCancellation;
+import cz.cyberrange.platform.elasticsearch.data.search.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHits;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Metrics of a call of a public DAO method and of the Elasticsearch requests issued by it. The call is the current
+ * call of the thread for the duration of the DAO method, see {@link DaoMetricsAspect}. The requests issued later
+ * are attributed to the call too: the stages of the asynchronous responses run in the call, see {@link #run(Runnable)},
+ * and the lazy pagers keep the call which created them.
+ * <p>
+ * Recorded metrics:
+ * <ul>
+ *     <li><i>elasticsearch.dao.calls</i> - the duration of the DAO method, until the returned future completes</li>
+ *     <li><i>elasticsearch.client.requests</i> - the round trip of each Elasticsearch request measured by the client</li>
+ *     <li><i>elasticsearch.client.requests.took</i> - the time spent by Elasticsearch executing the search</li>
+ *     <li><i>elasticsearch.client.requests.hits</i> - the total hits of the search, or the returned hits if they
+ *     are not tracked</li>
+ *     <li><i>elasticsearch.client.requests.shards</i> - the number of the searched shards</li>
+ *     <li><i>elasticsearch.client.requests.response</i> - the bytes of the response body</li>
+ *     <li><i>elasticsearch.client.requests.coalesced</i> - the searches which shared the response of the identical search
+ *     already in flight instead of being sent, see {@link SingleFlight}</li>
+ * </ul>
+ * All metrics are tagged by the <i>class</i> and the <i>method</i> of the DAO and by the <i>training_type</i>; the
+ * metrics of the requests also by the <i>operation</i>, e.g. <i>search</i> or <i>msearch</i>. The slow searches are
+ * passed to the {@link SlowQueryLog}.
+ * <p>
+ * The searches of the call are profiled by Elasticsearch if the call is made on behalf of the request
+ * with an active {@link SearchProfile}, and they are cancelled together with the request by its
+ * {@link SearchCancellation}.
+ */
+public final class DaoCallMetrics {
+
+    private static final String CALLS_METRIC = "elasticsearch.dao.calls";
+    private static final String REQUESTS_METRIC = "elasticsearch.client.requests";
+    private static final String OUTCOME_TAG = "outcome";
+    private static final String OPERATION_TAG = "operation";
+    private static final String SUCCESS = "SUCCESS";
+    private static final String PARTIAL = "PARTIAL";
+    private static final String ERROR = "ERROR";
+    // the expected ranges of the distributions bound the number of their histogram buckets, the properties
+    // of the distributions cannot express them since their plain numbers are read as durations
+    private static final double MAX_EXPECTED_HITS = 100_000;
+    private static final double MAX_EXPECTED_SHARDS = 1_000;
+    private static final double MIN_EXPECTED_RESPONSE_BYTES = 1024;
+    private static final double MAX_EXPECTED_RESPONSE_BYTES = 100 * 1024 * 1024;
+
+    private static final ThreadLocal<DaoCallMetrics> CURRENT = new ThreadLocal<>();
+    private static final DaoCallMetrics NONE = new DaoCallMetrics(null, null, null, null, Tags.empty());
+
+    private final MeterRegistry registry;
+    private final SlowQueryLog slowQueryLog;
+    private final SearchProfile profile;
+    private final SearchCancellation cancellation;
+    private final Tags tags;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Instantiates a new Dao call metrics.
+     *
+     * @param registry     the meter registry, nothing is recorded if null
+     * @param slowQueryLog the log of the slow searches
+     * @param profile      the profile collecting the searches of the call, null if they are not profiled
+     * @param cancellation the cancellation of the searches of the call, null if they are not cancellable
+     * @param tags         the tags of the DAO method
+     */
+    DaoCallMetrics(MeterRegistry registry, SlowQueryLog slowQueryLog, SearchProfile profile, SearchCancellation cancellation, Tags tags) {
+        this.registry = registry;
+        this.slowQueryLog = slowQueryLog;
+        this.profile = profile;
+        this.cancellation = cancellation;
+        this.tags = tags;
+    }
+
+    /**
+     * Gets the call of the DAO method running in the current thread.
+     *
+     * @return the current call, or the call recording nothing outside the DAO methods
+     */
+    public static DaoCallMetrics current() {
+        DaoCallMetrics current = CURRENT.get();
+        return current == null ? NONE : current;
+    }
+
+    SearchProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Check whether the searches of this call are profiled, their responses must not be shared with other calls.
+     *
+     * @return true if the searches are profiled
+     */
+    public boolean isProfiled() {
+        return profile != null;
+    }
+
+    /**
+     * Gets the cancellation of the searches of this call.
+     *
+     * @return the cancellation, null if the searches are not cancellable
+     */
+    public SearchCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Run the task as the part of this call, the Elasticsearch requests issued by the task are attributed to it.
+     *
+     * @param task the task
+     */
+    public void run(Runnable task) {
+        DaoCallMetrics previous = enter();
+        try {
+            task.run();
+        } finally {
+            exit(previous);
+        }
+    }
+
+    /**
+     * Start measuring the Elasticsearch request issued by this call.
+     *
+     * @param operation the name of the Elasticsearch operation
+     * @return the measured request
+     */
+    public Request startRequest(String operation) {
+        return new Request(operation, Collections.emptyList());
+    }
+
+    /**
+     * Start measuring the Elasticsearch request executing the searches issued by this call.
+     *
+     * @param operation      the name of the Elasticsearch operation
+     * @param searchRequests the searches of the request, logged if the request is slow and profiled if the call is
+     * @return the measured request
+     */
+    public Request startRequest(String operation, List<SearchRequest> searchRequests) {
+        if (profile != null) {
+            searchRequests.stream()
+                    .filter(searchRequest -> searchRequest.source() != null)
+                    .forEach(searchRequest -> searchRequest.source().profile(true));
+        }
+        return new Request(operation, searchRequests);
+    }
+
+    /**
+     * Execute the search measured as the request of this call. The search is cancellable if the call is.
+     *
+     * @param client        the rest high level client
+     * @param searchRequest the search request
+     * @return the search response
+     * @throws IOException the io exception
+     */
+    public SearchResponse search(RestHighLevelClient client, SearchRequest searchRequest) throws IOException {
+        Request request = startRequest("search", List.of(searchRequest));
+        SearchResponse response;
+        try {
+            response = cancellation == null
+                    ? client.search(searchRequest, request.getRequestOptions())
+                    : cancellation.execute(listener -> client.searchAsync(searchRequest, request.getRequestOptions(), listener));
+        } catch (IOException | RuntimeException ex) {
+            request.recordFailure(ex);
+            throw ex;
+        }
+        if (response == null) {
+            request.recordFailure(null);
+        } else {
+            request.recordSearch(response);
+        }
+        return response;
+    }
+
+    DaoCallMetrics enter() {
+        DaoCallMetrics previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    static void exit(DaoCallMetrics previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Record the search which waited for the response of the identical search in flight instead of being sent.
+     */
+    public void recordCoalescedSearch() {
+        if (registry == null) {
+            return;
+        }
+        Counter.builder(REQUESTS_METRIC + ".coalesced")
+                .description("Searches which shared the response of the identical search in flight.")
+                .tags(tags)
+                .register(registry)
+                .increment();
+    }
+
+    void recordCall(boolean failed) {
+        if (registry == null) {
+            return;
+        }
+        Timer.builder(CALLS_METRIC)
+                .description("Duration of the calls of the DAO methods.")
+                .tags(tags)
+                .tag(OUTCOME_TAG, failed ? ERROR : SUCCESS)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Elasticsearch request issued by the DAO call.
+     */
+    public final class Request {
+
+        private final String operation;
+        private final List<SearchRequest> searchRequests;
+        private final long requestStartNanos = System.nanoTime();
+        private final LongAdder responseBytes = new LongAdder();
+
+        private Request(String operation, List<SearchRequest> searchRequests) {
+            this.operation = operation;
+            this.searchRequests = searchRequests;
+        }
+
+        /**
+         * Gets the options of the request counting the bytes of the response.
+         *
+         * @return the request options
+         */
+        public RequestOptions getRequestOptions() {
+            if (registry == null) {
+                return RequestOptions.DEFAULT;
+            }
+            RequestOptions.Builder requestOptions = RequestOptions.DEFAULT.toBuilder();
+            requestOptions.setHttpAsyncResponseConsumerFactory(() -> new CountingResponseConsumer(
+                    HttpAsyncResponseConsumerFactory.DEFAULT.createHttpAsyncResponseConsumer(), responseBytes));
+            return requestOptions.build();
+        }
+
+        /**
+         * Record the search. The search is partial if it timed out or some shards failed.
+         *
+         * @param response the search response
+         */
+        public void recordSearch(SearchResponse response) {
+            if (profile != null && !searchRequests.isEmpty()) {
+                profile.add(getCall(), searchRequests.get(0), response);
+            }
+            if (registry == null) {
+                return;
+            }
+            boolean partial = response.isTimedOut() || response.getFailedShards() > 0;
+            long roundTripNanos = record(partial ? PARTIAL : SUCCESS);
+            if (!searchRequests.isEmpty() && slowQueryLog.isSlow(roundTripNanos)) {
+                slowQueryLog.record(getCall(), searchRequests.get(0), response, null, roundTripNanos);
+            }
+            recordSearchStatistics(response.getTook().nanos(), countHits(response.getHits()), response.getTotalShards());
+        }
+
+        /**
+         * Record the multi search, summing the hits and the shards of its searches. The multi search is partial if some
+         * of its searches failed or are partial.
+         *
+         * @param response the multi search response
+         */
+        public void recordMultiSearch(MultiSearchResponse response) {
+            if (profile != null) {
+                MultiSearchResponse.Item[] items = response.getResponses();
+                for (int i = 0; i < items.length && i < searchRequests.size(); i++) {
+                    if (!items[i].isFailure()) {
+                        profile.add(getCall(), searchRequests.get(i), items[i].getResponse());
+                    }
+                }
+            }
+            if (registry == null) {
+                return;
+            }
+            boolean partial = false;
+            long hits = 0;
+            int shards = 0;
+            for (MultiSearchResponse.Item item : response.getResponses()) {
+                if (item.isFailure()) {
+                    partial = true;
+                    continue;
+                }
+                SearchResponse itemResponse = item.getResponse();
+                partial |= itemResponse.isTimedOut() || itemResponse.getFailedShards() > 0;
+                hits += countHits(itemResponse.getHits());
+                shards += itemResponse.getTotalShards();
+            }
+            long roundTripNanos = record(partial ? PARTIAL : SUCCESS);
+            if (slowQueryLog.isSlow(roundTripNanos)) {
+                MultiSearchResponse.Item[] items = response.getResponses();
+                for (int i = 0; i < items.length && i < searchRequests.size(); i++) {
+                    slowQueryLog.record(getCall(), searchRequests.get(i), items[i].getResponse(), items[i].getFailure(), roundTripNanos);
+                }
+            }
+            recordSearchStatistics(response.getTook().nanos(), hits, shards);
+        }
+
+        /**
+         * Record the request other than search, e.g. the deletion of the indices.
+         */
+        public void recordCompleted() {
+            if (registry != null) {
+                record(SUCCESS);
+            }
+        }
+
+        /**
+         * Record the failed request.
+         *
+         * @param failure the failure of the request, null if not known
+         */
+        public void recordFailure(Exception failure) {
+            if (registry == null) {
+                return;
+            }
+            long roundTripNanos = record(ERROR);
+            if (slowQueryLog.isSlow(roundTripNanos)) {
+                searchRequests.forEach(searchRequest -> slowQueryLog.record(getCall(), searchRequest, null, failure, roundTripNanos));
+            }
+        }
+
+        private long record(String outcome) {
+            long roundTripNanos = System.nanoTime() - requestStartNanos;
+            Timer.builder(REQUESTS_METRIC)
+                    .description("Round trip of the Elasticsearch requests measured by the client.")
+                    .tags(tags)
+                    .tag(OPERATION_TAG, operation)
+                    .tag(OUTCOME_TAG, outcome)
+                    .register(registry)
+                    .record(roundTripNanos, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder(REQUESTS_METRIC + ".response")
+                    .description("Bytes of the bodies of the Elasticsearch responses.")
+                    .baseUnit(BaseUnits.BYTES)
+                    .minimumExpectedValue(MIN_EXPECTED_RESPONSE_BYTES)
+                    .maximumExpectedValue(MAX_EXPECTED_RESPONSE_BYTES)
+                    .tags(tags)
+                    .tag(OPERATION_TAG, operation)
+                    .register(registry)
+                    .record(responseBytes.sum());
+            return roundTripNanos;
+        }
+
+        private void recordSearchStatistics(long tookNanos, long hits, int shards) {
+            Timer.builder(REQUESTS_METRIC + ".took")
+                    .description("Time spent by Elasticsearch executing the searches.")
+                    .tags(tags)
+                    .tag(OPERATION_TAG, operation)
+                    .register(registry)
+                    .record(tookNanos, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder(REQUESTS_METRIC + ".hits")
+                    .description("Hits matching the searches.")
+                    .minimumExpectedValue(1.0)
+                    .maximumExpectedValue(MAX_EXPECTED_HITS)
+                    .tags(tags)
+                    .tag(OPERATION_TAG, operation)
+                    .register(registry)
+                    .record(hits);
+            DistributionSummary.builder(REQUESTS_METRIC + ".shards")
+                    .description("Shards searched by the searches.")
+                    .minimumExpectedValue(1.0)
+                    .maximumExpectedValue(MAX_EXPECTED_SHARDS)
+                    .tags(tags)
+                    .tag(OPERATION_TAG, operation)
+                    .register(registry)
+                    .record(shards);
+        }
+
+        private Map<String, String> getCall() {
+            return tags.stream().collect(Collectors.toMap(Tag::getKey, Tag::getValue, (first, second) -> first, LinkedHashMap::new));
+        }
+    }
+
+    static long countHits(SearchHits searchHits) {
+        if (searchHits == null) {
+            return 0;
+        }
+        TotalHits totalHits = searchHits.getTotalHits();
+        return totalHits != null ? totalHits.value : searchHits.getHits().length;
+    }
+}
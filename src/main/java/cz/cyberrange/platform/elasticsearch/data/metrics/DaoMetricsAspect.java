@@ -0,0 +1,101 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchCancellation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the calls of the public methods of the DAOs, see {@link DaoCallMetrics}. The call of the method returning
+ * a future lasts until the future completes. The methods returning a lazy pager measure only the creation
+ * of the pager, its searches are measured as the requests of the call.
+ * <p>
+ * The <i>training_type</i> tag is taken from the {@link TrainingType} parameter of the method, or from
+ * the {@link DaoTrainingType} annotation of the method or the DAO; it is <i>none</i> for the calls not bound to a training type.
+ * <p>
+ * The call inherits the {@link SearchProfile} and the {@link SearchCancellation} of the enclosing call, or of the request
+ * handled by the thread.
+ */
+@Aspect
+@Component
+public class DaoMetricsAspect {
+
+    private static final String NO_TRAINING_TYPE = "none";
+
+    private final MeterRegistry registry;
+    private final SlowQueryLog slowQueryLog;
+
+    /**
+     * Instantiates a new Dao metrics aspect.
+     *
+     * @param registry     the meter registry
+     * @param slowQueryLog the log of the slow searches
+     */
+    public DaoMetricsAspect(MeterRegistry registry, SlowQueryLog slowQueryLog) {
+        this.registry = registry;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Measure the call of the public DAO method.
+     *
+     * @param joinPoint the join point of the DAO method
+     * @return the result of the DAO method
+     * @throws Throwable the exception thrown by the DAO method
+     */
+    @Around("execution(public * cz.cyberrange.platform.elasticsearch.data.AbstractElasticClientDAO+.*(..))")
+    public Object measureDaoCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        Class<?> daoClass = joinPoint.getTarget().getClass();
+        DaoCallMetrics call = new DaoCallMetrics(registry, slowQueryLog, resolveProfile(), resolveCancellation(), Tags.of(
+                "class", daoClass.getSimpleName(),
+                "method", joinPoint.getSignature().getName(),
+                "training_type", resolveTrainingType(daoClass, (MethodSignature) joinPoint.getSignature(), joinPoint.getArgs())));
+        DaoCallMetrics previous = call.enter();
+        try {
+            Object result = joinPoint.proceed();
+            if (result instanceof CompletableFuture) {
+                ((CompletableFuture<?>) result).whenComplete((value, ex) -> call.recordCall(ex != null));
+            } else {
+                call.recordCall(false);
+            }
+            return result;
+        } catch (Throwable ex) {
+            call.recordCall(true);
+            throw ex;
+        } finally {
+            DaoCallMetrics.exit(previous);
+        }
+    }
+
+    private static SearchProfile resolveProfile() {
+        SearchProfile enclosingProfile = DaoCallMetrics.current().getProfile();
+        return enclosingProfile != null ? enclosingProfile : SearchProfile.active();
+    }
+
+    private static SearchCancellation resolveCancellation() {
+        SearchCancellation enclosingCancellation = DaoCallMetrics.current().getCancellation();
+        return enclosingCancellation != null ? enclosingCancellation : SearchCancellation.active();
+    }
+
+    private static String resolveTrainingType(Class<?> daoClass, MethodSignature signature, Object[] args) {
+        for (Object arg : args) {
+            if (arg instanceof TrainingType) {
+                return ((TrainingType) arg).name().toLowerCase(Locale.ROOT);
+            }
+        }
+        DaoTrainingType daoTrainingType = AnnotationUtils.findAnnotation(signature.getMethod(), DaoTrainingType.class);
+        if (daoTrainingType == null) {
+            daoTrainingType = daoClass.getAnnotation(DaoTrainingType.class);
+        }
+        return daoTrainingType == null ? NO_TRAINING_TYPE : daoTrainingType.value().name().toLowerCase(Locale.ROOT);
+    }
+}
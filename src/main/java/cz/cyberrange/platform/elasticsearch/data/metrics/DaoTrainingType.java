@@ -0,0 +1,26 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The training type of the events queried by the DAO or its method, used as the <i>training_type</i> tag of its
+ * metrics. It applies to the methods without the {@link TrainingType} parameter, the parameter takes precedence, and
+ * the annotation of the method takes precedence over the annotation of the DAO. The DAOs serving both training types
+ * annotate only their methods bound to one of them.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DaoTrainingType {
+
+    /**
+     * The training type.
+     *
+     * @return the training type
+     */
+    TrainingType value();
+}
@@ -0,0 +1,145 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.search.profile.SearchProfileShardResult;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the timing breakdown of the searches issued on behalf of a REST request by the Elasticsearch Profile API.
+ * <p>
+ * The profile is activated for the thread handling the request and it is inherited by the DAO calls made in it,
+ * including the searches issued later by the stages of the asynchronous responses and by the lazy pagers, see
+ * {@link DaoCallMetrics}. The searches of the calls get <i>"profile": true</i> and the profiled shards of their
+ * responses are collected in the order in which the responses arrive. The results served by the caches
+ * or by the materialized statistics issue no searches, so they have no profile.
+ *
+ * <pre>{@code
+ *  GET crczp.events.trainings*.run=${RUN_ID}/_search
+ *  {
+ *    "profile": true,
+ *    "query": { ... }
+ *  }
+ * }</pre>
+ */
+public class SearchProfile {
+
+    private static final ThreadLocal<SearchProfile> ACTIVE = new ThreadLocal<>();
+
+    private final List<ProfiledSearch> searches = new ArrayList<>();
+
+    /**
+     * Activate the profile for the current thread.
+     *
+     * @param profile the profile
+     */
+    public static void activate(SearchProfile profile) {
+        ACTIVE.set(profile);
+    }
+
+    /**
+     * Deactivate the profile of the current thread.
+     */
+    public static void deactivate() {
+        ACTIVE.remove();
+    }
+
+    /**
+     * Gets the profile active for the current thread.
+     *
+     * @return the active profile, null if the searches are not profiled
+     */
+    static SearchProfile active() {
+        return ACTIVE.get();
+    }
+
+    /**
+     * Gets the profiled searches.
+     *
+     * @return the profiled searches
+     */
+    public List<ProfiledSearch> getSearches() {
+        synchronized (searches) {
+            return new ArrayList<>(searches);
+        }
+    }
+
+    /**
+     * Add the profiled shards of the search response.
+     *
+     * @param call          the tags of the DAO call issuing the search
+     * @param searchRequest the search request
+     * @param response      the search response
+     */
+    void add(Map<String, String> call, SearchRequest searchRequest, SearchResponse response) {
+        if (response.getProfileResults() == null || response.getProfileResults().isEmpty()) {
+            return;
+        }
+        ProfiledSearch profiledSearch = new ProfiledSearch(call, SlowQueryLog.describeIndices(searchRequest.indices()),
+                response.getTook().millis(), toJson(response.getProfileResults()));
+        synchronized (searches) {
+            searches.add(profiledSearch);
+        }
+    }
+
+    private static String toJson(Map<String, SearchProfileShardResult> shardResults) {
+        try (XContentBuilder builder = JsonXContent.contentBuilder()) {
+            builder.startArray();
+            for (Map.Entry<String, SearchProfileShardResult> shardResult : shardResults.entrySet()) {
+                builder.startObject();
+                builder.field("id", shardResult.getKey());
+                shardResult.getValue().toXContent(builder, ToXContent.EMPTY_PARAMS);
+                builder.endObject();
+            }
+            builder.endArray();
+            return Strings.toString(builder);
+        } catch (IOException ex) {
+            throw new ElasticsearchTrainingDataLayerException("The profile of the search could not be serialized.", ex);
+        }
+    }
+
+    /**
+     * The profiled search.
+     */
+    public static class ProfiledSearch {
+
+        private final Map<String, String> call;
+        private final String indices;
+        private final long tookMillis;
+        private final String shards;
+
+        private ProfiledSearch(Map<String, String> call, String indices, long tookMillis, String shards) {
+            this.call = call;
+            this.indices = indices;
+            this.tookMillis = tookMillis;
+            this.shards = shards;
+        }
+
+        public Map<String, String> getCall() {
+            return call;
+        }
+
+        public String getIndices() {
+            return indices;
+        }
+
+        public long getTookMillis() {
+            return tookMillis;
+        }
+
+        @JsonRawValue
+        public String getShards() {
+            return shards;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Actuator endpoint listing the last slow Elasticsearch searches with their queries, see {@link SlowQueryLog}.
+ *
+ * <pre>{@code
+ *  GET /actuator/slowqueries
+ *  DELETE /actuator/slowqueries
+ * }</pre>
+ */
+@Component
+@Endpoint(id = "slowqueries")
+public class SlowQueriesEndpoint {
+
+    private final SlowQueryLog slowQueryLog;
+
+    /**
+     * Instantiates a new Slow queries endpoint.
+     *
+     * @param slowQueryLog the slow query log
+     */
+    public SlowQueriesEndpoint(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Gets the last slow searches, the slowest first.
+     *
+     * @return the slow searches
+     */
+    @ReadOperation
+    public List<SlowQueryLog.SlowQuery> slowQueries() {
+        return slowQueryLog.getSlowQueries();
+    }
+
+    /**
+     * Forget the kept slow searches.
+     */
+    @DeleteOperation
+    public void clear() {
+        slowQueryLog.clear();
+    }
+}
@@ -0,0 +1,291 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Logs the Elasticsearch searches whose round trip exceeds the threshold, together with the query generated
+ * by the DAO, and keeps the last slow searches for the <i>slowqueries</i> actuator endpoint, see
+ * {@link SlowQueriesEndpoint}. The searches of a multi search are logged separately, each with the round trip
+ * of the whole multi search.
+ * <p>
+ * The logged searches are redacted, since the endpoint is exposed together with the other actuator endpoints: the access
+ * tokens in the names of the indices of the console commands are replaced by <i>***</i>, and so are the string values
+ * of the query, e.g. the submitted answers or the searched commands. The names of the fields, the numbers (ids and
+ * timestamps) and the structure of the query are kept, they are what tells why the search is slow.
+ */
+@Component
+public class SlowQueryLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+    private static final int MAX_LOGGED_INDICES = 3;
+    private static final String REDACTED = "***";
+    private static final Pattern ACCESS_TOKEN = Pattern.compile("access-token=[^.,/\\s\\]]*");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /**
+     * The keys whose string values name the fields or set the options of the search rather than hold the searched values.
+     */
+    private static final Set<String> STRUCTURAL_KEYS = Set.of("field", "fields", "_source", "includes", "excludes",
+            "docvalue_fields", "stored_fields", "format", "order", "mode", "unmapped_type", "numeric_type", "timeout",
+            "calendar_interval", "fixed_interval", "interval", "execution_hint", "collect_mode", "rewrite", "relation",
+            "time_zone", "keep_alive", "_name");
+
+    private final boolean enabled;
+    private final long thresholdNanos;
+    private final int size;
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    /**
+     * Instantiates a new Slow query log.
+     *
+     * @param enabled   whether the slow searches are logged
+     * @param threshold the round trip above which the search is slow
+     * @param size      the number of the last slow searches kept
+     */
+    public SlowQueryLog(@Value("${elasticsearch.slow-query-log.enabled:true}") boolean enabled,
+                        @Value("${elasticsearch.slow-query-log.threshold:2s}") String threshold,
+                        @Value("${elasticsearch.slow-query-log.size:50}") int size) {
+        this.enabled = enabled;
+        this.thresholdNanos = TimeValue.parseTimeValue(threshold, "elasticsearch.slow-query-log.threshold").nanos();
+        this.size = size;
+    }
+
+    /**
+     * Check whether the search with the given round trip is slow.
+     *
+     * @param roundTripNanos the round trip of the search in nanoseconds
+     * @return true if the search is logged
+     */
+    boolean isSlow(long roundTripNanos) {
+        return enabled && size > 0 && roundTripNanos >= thresholdNanos;
+    }
+
+    /**
+     * Log the slow search.
+     *
+     * @param call           the tags of the DAO call issuing the search
+     * @param searchRequest  the search request
+     * @param response       the search response, null if the search failed
+     * @param failure        the failure of the search, null if it succeeded
+     * @param roundTripNanos the round trip of the search in nanoseconds
+     */
+    void record(Map<String, String> call, SearchRequest searchRequest, SearchResponse response, Exception failure, long roundTripNanos) {
+        SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), call, describeIndices(searchRequest.indices()),
+                describeQuery(searchRequest.source()), TimeValue.timeValueNanos(roundTripNanos).millis(), response, failure);
+        LOG.warn("Slow Elasticsearch search of {}.{} took {} ms (took {} ms by Elasticsearch, {} hits, {} of {} shards failed{}) in {}: {}",
+                call.get("class"), call.get("method"), slowQuery.getRoundTripMillis(), slowQuery.getTookMillis(), slowQuery.getHits(),
+                slowQuery.getFailedShards(), slowQuery.getTotalShards(), failure == null ? "" : ", failed with " + slowQuery.getFailure(),
+                slowQuery.getIndices(), slowQuery.getQuery());
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= size) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(slowQuery);
+        }
+    }
+
+    /**
+     * Gets the last slow searches, the slowest first.
+     *
+     * @return the slow searches
+     */
+    public List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> result;
+        synchronized (slowQueries) {
+            result = new ArrayList<>(slowQueries);
+        }
+        result.sort(Comparator.comparingLong(SlowQuery::getRoundTripMillis).reversed());
+        return result;
+    }
+
+    /**
+     * Forget all kept slow searches.
+     */
+    public void clear() {
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Describe the searched indices with the access tokens redacted.
+     *
+     * @param indices the indices of the search
+     * @return the description of the indices
+     */
+    static String describeIndices(String[] indices) {
+        if (indices == null || indices.length == 0) {
+            return "_pit";
+        }
+        if (indices.length <= MAX_LOGGED_INDICES) {
+            return redact(String.join(",", indices));
+        }
+        return redact(String.join(",", Arrays.asList(indices).subList(0, MAX_LOGGED_INDICES))) + ",... (" + indices.length + " indices)";
+    }
+
+    /**
+     * Describe the search source with the string values redacted.
+     *
+     * @param source the search source
+     * @return the redacted search source as JSON
+     */
+    static String describeQuery(SearchSourceBuilder source) {
+        if (source == null) {
+            return "{}";
+        }
+        try {
+            JsonNode query = MAPPER.readTree(source.toString());
+            redactValues(query, null);
+            return MAPPER.writeValueAsString(query);
+        } catch (JsonProcessingException ex) {
+            return "\"" + REDACTED + "\"";
+        }
+    }
+
+    /**
+     * Replace the access tokens in the text, e.g. in the names of the indices or in the failure messages.
+     */
+    static String redact(String text) {
+        return text == null ? null : ACCESS_TOKEN.matcher(text).replaceAll("access-token=" + REDACTED);
+    }
+
+    private static void redactValues(JsonNode node, String key) {
+        if (node instanceof ObjectNode) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getValue().isTextual()) {
+                    if (!STRUCTURAL_KEYS.contains(field.getKey())) {
+                        field.setValue(TextNode.valueOf(REDACTED));
+                    }
+                } else {
+                    redactValues(field.getValue(), field.getKey());
+                }
+            }
+        } else if (node instanceof ArrayNode) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                if (array.get(i).isTextual()) {
+                    if (!STRUCTURAL_KEYS.contains(key)) {
+                        array.set(i, TextNode.valueOf(REDACTED));
+                    }
+                } else {
+                    redactValues(array.get(i), key);
+                }
+            }
+        }
+    }
+
+    /**
+     * The slow search.
+     */
+    public static class SlowQuery {
+
+        private final long timestamp;
+        private final Map<String, String> call;
+        private final String indices;
+        private final String query;
+        private final long roundTripMillis;
+        private final Long tookMillis;
+        private final Long hits;
+        private final Integer totalShards;
+        private final Integer failedShards;
+        private final List<String> shardFailures;
+        private final Boolean timedOut;
+        private final String failure;
+
+        private SlowQuery(long timestamp, Map<String, String> call, String indices, String query, long roundTripMillis,
+                          SearchResponse response, Exception failure) {
+            this.timestamp = timestamp;
+            this.call = call;
+            this.indices = indices;
+            this.query = query;
+            this.roundTripMillis = roundTripMillis;
+            this.tookMillis = response == null ? null : response.getTook().millis();
+            this.hits = response == null || response.getHits() == null ? null : DaoCallMetrics.countHits(response.getHits());
+            this.totalShards = response == null ? null : response.getTotalShards();
+            this.failedShards = response == null ? null : response.getFailedShards();
+            this.shardFailures = response == null ? Collections.emptyList() : Arrays.stream(response.getShardFailures())
+                    .map(shardFailure -> redact(shardFailure.reason()))
+                    .distinct()
+                    .collect(Collectors.toList());
+            this.timedOut = response == null ? null : response.isTimedOut();
+            this.failure = failure == null ? null : redact(failure.getMessage());
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Map<String, String> getCall() {
+            return call;
+        }
+
+        public String getIndices() {
+            return indices;
+        }
+
+        @JsonRawValue
+        public String getQuery() {
+            return query;
+        }
+
+        public long getRoundTripMillis() {
+            return roundTripMillis;
+        }
+
+        public Long getTookMillis() {
+            return tookMillis;
+        }
+
+        public Long getHits() {
+            return hits;
+        }
+
+        public Integer getTotalShards() {
+            return totalShards;
+        }
+
+        public Integer getFailedShards() {
+            return failedShards;
+        }
+
+        public List<String> getShardFailures() {
+            return shardFailures;
+        }
+
+        public Boolean getTimedOut() {
+            return timedOut;
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+    }
+}
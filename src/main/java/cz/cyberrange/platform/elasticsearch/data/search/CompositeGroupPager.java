@@ -0,0 +1,229 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.SortBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the hits matching the query by the values of the given field, replacing the <i>collapse</i> with
+ * the <i>inner_hits</i> that runs one sub-search per group in a single response and caps the size of each group.
+ * <p>
+ * The groups are paged in the ascending order of their keys with the composite aggregation and the hits of each group
+ * are walked with <i>search_after</i> in the given sort order, so neither the number of the groups nor the number
+ * of the hits in a group is limited and only one page of either is held in the memory at a time. All searches run
+ * against the same point-in-time, which is released once all groups are consumed or when the pager is closed.
+ * The searches are measured as the part of the DAO call creating the pager.
+ *
+ * <pre>{@code
+ *  POST crczp.events.trainings*.instance={instanceId}* /_pit?keep_alive=1m
+ *
+ *  GET /_search
+ *  {
+ *    "size": 0,
+ *    "query": { "match_all": {} },
+ *    "pit": { "id": "{pitId}", "keep_alive": "1m" },
+ *    "aggs": {
+ *      "groups": {
+ *        "composite": {
+ *          "size": 1000,
+ *          "sources": [{ "group": { "terms": { "field": "training_run_id" } } }],
+ *          "after": { "group": {lastGroup} }
+ *        }
+ *      }
+ *    }
+ *  }
+ *
+ *  GET /_search
+ *  {
+ *    "size": 1000,
+ *    "query": { "bool": { "filter": [{ "match_all": {} }, { "term": { "training_run_id": {group} } }] } },
+ *    "pit": { "id": "{pitId}", "keep_alive": "1m" },
+ *    "sort": [{ "timestamp": "asc" }],
+ *    "search_after": [{lastTimestamp}, {lastShardDoc}]
+ *  }
+ * }</pre>
+ */
+public class CompositeGroupPager implements Closeable {
+
+    private static final String GROUPS_AGGREGATION = "groups";
+    private static final String GROUP_SOURCE = "group";
+
+    private final RestHighLevelClient client;
+    private final DaoCallMetrics call = DaoCallMetrics.current();
+    private final String[] indices;
+    private final IndicesOptions indicesOptions;
+    private final QueryBuilder query;
+    private final String groupField;
+    private final List<SortBuilder<?>> groupSort;
+    private final List<String> docValueFields;
+    private final FetchSourceContext fetchSource;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+
+    private String pointInTimeId;
+
+    /**
+     * Instantiates a new Composite group pager.
+     *
+     * @param client         the rest high level client
+     * @param indices        the indices (or index patterns) to search in
+     * @param indicesOptions the options of resolving the indices
+     * @param query          the query selecting the hits
+     * @param groupField     the field whose values group the hits
+     * @param groupSort      the sort of the hits in each group
+     * @param docValueFields the fields whose docvalues are returned in the <i>fields</i> of the hits
+     * @param fetchSource    the filtering of the <i>_source</i> of the hits, null to return the whole source
+     * @param pageSize       the number of groups or hits fetched in one page
+     * @param keepAlive      how long the point-in-time is kept alive between two pages
+     */
+    public CompositeGroupPager(RestHighLevelClient client, String[] indices, IndicesOptions indicesOptions, QueryBuilder query,
+                               String groupField, List<SortBuilder<?>> groupSort, List<String> docValueFields,
+                               FetchSourceContext fetchSource, int pageSize, TimeValue keepAlive) {
+        if (groupSort == null || groupSort.isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Search after pagination requires the sorted search source.");
+        }
+        this.client = client;
+        this.indices = indices;
+        this.indicesOptions = indicesOptions;
+        this.query = query;
+        this.groupField = groupField;
+        this.groupSort = groupSort;
+        this.docValueFields = docValueFields;
+        this.fetchSource = fetchSource;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Pass each group to the given consumer together with the pager over its hits. The pager must be consumed
+     * by the consumer before it returns, it is closed afterwards.
+     *
+     * @param consumer the consumer of the groups
+     * @throws IOException the io exception
+     */
+    public void forEachGroup(GroupConsumer consumer) throws IOException {
+        try {
+            openPointInTime();
+            Map<String, Object> afterKey = null;
+            do {
+                CompositeAggregation groups = fetchGroups(afterKey);
+                for (CompositeAggregation.Bucket group : groups.getBuckets()) {
+                    Object groupKey = group.getKey().get(GROUP_SOURCE);
+                    try (SearchAfterPager hits = new SearchAfterPager(client, pointInTimeId, createGroupSearchSource(groupKey), pageSize, keepAlive)) {
+                        consumer.accept(groupKey, hits);
+                        if (hits.getPointInTimeId() != null) {
+                            pointInTimeId = hits.getPointInTimeId();
+                        }
+                    }
+                }
+                afterKey = groups.getBuckets().size() < pageSize ? null : groups.afterKey();
+            } while (afterKey != null);
+        } catch (IOException | RuntimeException ex) {
+            closeQuietly();
+            throw ex;
+        }
+        close();
+    }
+
+    /**
+     * Releases the point-in-time if it is still open.
+     *
+     * @throws IOException the io exception
+     */
+    @Override
+    public void close() throws IOException {
+        if (pointInTimeId != null) {
+            String id = pointInTimeId;
+            pointInTimeId = null;
+            client.closePointInTime(new ClosePointInTimeRequest(id), RequestOptions.DEFAULT);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException | RuntimeException ignored) {
+            // the point-in-time expires on its own after the keep alive period
+        }
+    }
+
+    private void openPointInTime() throws IOException {
+        OpenPointInTimeRequest openPointInTimeRequest = new OpenPointInTimeRequest(indices)
+                .indicesOptions(indicesOptions)
+                .keepAlive(keepAlive);
+        pointInTimeId = client.openPointInTime(openPointInTimeRequest, RequestOptions.DEFAULT).getPointInTimeId();
+    }
+
+    private CompositeAggregation fetchGroups(Map<String, Object> afterKey) throws IOException {
+        CompositeAggregationBuilder groupsAggregation = AggregationBuilders.composite(GROUPS_AGGREGATION,
+                        Collections.singletonList(new TermsValuesSourceBuilder(GROUP_SOURCE).field(groupField)))
+                .size(pageSize);
+        if (afterKey != null) {
+            groupsAggregation.aggregateAfter(afterKey);
+        }
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(query)
+                .size(0)
+                .trackTotalHits(false)
+                .aggregation(groupsAggregation)
+                .pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId).setKeepAlive(keepAlive));
+        SearchResponse response = call.search(client, new SearchRequest().source(searchSourceBuilder));
+        if (response == null || response.getAggregations() == null) {
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+        }
+        if (response.pointInTimeId() != null) {
+            pointInTimeId = response.pointInTimeId();
+        }
+        return response.getAggregations().get(GROUPS_AGGREGATION);
+    }
+
+    private SearchSourceBuilder createGroupSearchSource(Object groupKey) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .filter(query)
+                        .filter(QueryBuilders.termQuery(groupField, groupKey)))
+                .fetchSource(fetchSource);
+        groupSort.forEach(searchSourceBuilder::sort);
+        docValueFields.forEach(searchSourceBuilder::docValueField);
+        return searchSourceBuilder;
+    }
+
+    /**
+     * Consumer of the groups of the hits.
+     */
+    @FunctionalInterface
+    public interface GroupConsumer {
+
+        /**
+         * Process the group.
+         *
+         * @param groupKey the value of the group field shared by all hits of the group
+         * @param hits     the pager over the hits of the group
+         * @throws IOException the io exception
+         */
+        void accept(Object groupKey, SearchAfterPager hits) throws IOException;
+    }
+}
@@ -0,0 +1,135 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Groups the values by the primitive int keys in one pass. The groups are kept in the order of the first appearance
+ * of their keys and the values of the same key are merged even if they are not contiguous.
+ * <p>
+ * The keys are looked up in the open-addressing hash table, so no key is boxed until the groups are converted to the map,
+ * and the last used group is checked first, which is the common case of the sorted input.
+ *
+ * @param <T> the type of the grouped values
+ */
+public final class IntKeyGrouping<T> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_GROUP = -1;
+
+    private int[] tableKeys = new int[INITIAL_CAPACITY];
+    private int[] tableGroups = filledWithNoGroup(INITIAL_CAPACITY);
+    private int[] groupKeys = new int[INITIAL_CAPACITY];
+    private final List<List<T>> groups = new ArrayList<>();
+    private int lastKey;
+    private List<T> lastGroup;
+
+    /**
+     * Group the search hits by the values of the int field read from the docvalue <i>fields</i> of the hits.
+     * The hits without the value are skipped, they belong to no group and the null key could not be serialized.
+     *
+     * @param hits   the search hits, the field must be requested as the docvalue field
+     * @param field  the int field whose values group the hits
+     * @param mapper the mapper of the hit to the grouped value
+     * @param <T>    the type of the grouped values
+     * @return the groups in the order of the first appearance of their keys
+     */
+    public static <T> Map<Integer, List<T>> groupHits(Iterator<SearchHit> hits, String field, Function<SearchHit, T> mapper) {
+        IntKeyGrouping<T> grouping = new IntKeyGrouping<>();
+        while (hits.hasNext()) {
+            SearchHit hit = hits.next();
+            DocumentField documentField = hit.field(field);
+            Object key = documentField == null ? null : documentField.getValue();
+            if (key instanceof Number) {
+                grouping.add(((Number) key).intValue(), mapper.apply(hit));
+            }
+        }
+        return grouping.toMap();
+    }
+
+    /**
+     * Add the value to the group of the given key.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void add(int key, T value) {
+        if (lastGroup == null || lastKey != key) {
+            lastGroup = findOrCreateGroup(key);
+            lastKey = key;
+        }
+        lastGroup.add(value);
+    }
+
+    /**
+     * Convert the groups to the map.
+     *
+     * @return the groups in the order of the first appearance of their keys
+     */
+    public Map<Integer, List<T>> toMap() {
+        Map<Integer, List<T>> result = new LinkedHashMap<>();
+        for (int group = 0; group < groups.size(); group++) {
+            result.put(groupKeys[group], groups.get(group));
+        }
+        return result;
+    }
+
+    private List<T> findOrCreateGroup(int key) {
+        int mask = tableKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (tableGroups[slot] != NO_GROUP) {
+            if (tableKeys[slot] == key) {
+                return groups.get(tableGroups[slot]);
+            }
+            slot = (slot + 1) & mask;
+        }
+        int group = groups.size();
+        List<T> values = new ArrayList<>();
+        groups.add(values);
+        if (group == groupKeys.length) {
+            groupKeys = Arrays.copyOf(groupKeys, group * 2);
+        }
+        groupKeys[group] = key;
+        tableKeys[slot] = key;
+        tableGroups[slot] = group;
+        if (groups.size() * 2 > tableKeys.length) {
+            rehash(tableKeys.length * 2);
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = new int[capacity];
+        int[] groupIndexes = filledWithNoGroup(capacity);
+        int mask = capacity - 1;
+        for (int group = 0; group < groups.size(); group++) {
+            int slot = mix(groupKeys[group]) & mask;
+            while (groupIndexes[slot] != NO_GROUP) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = groupKeys[group];
+            groupIndexes[slot] = group;
+        }
+        tableKeys = keys;
+        tableGroups = groupIndexes;
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int[] filledWithNoGroup(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, NO_GROUP);
+        return array;
+    }
+}
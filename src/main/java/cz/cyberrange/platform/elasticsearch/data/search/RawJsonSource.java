@@ -0,0 +1,221 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The <i>_source</i> of the search hit kept as the raw JSON bytes returned by Elasticsearch.
+ * <p>
+ * When serialized by Jackson, the bytes are copied to the output as they are, so the document is never parsed
+ * into the map of maps just to be serialized back again.
+ */
+public final class RawJsonSource implements JsonSerializable {
+
+    private final BytesReference source;
+
+    /**
+     * Instantiates a new Raw json source.
+     *
+     * @param source the raw JSON source
+     */
+    public RawJsonSource(BytesReference source) {
+        this.source = source;
+    }
+
+    /**
+     * Create raw JSON source of the search hit.
+     *
+     * @param hit the search hit
+     * @return the raw JSON source, or null if the hit does not contain the source
+     */
+    public static RawJsonSource of(SearchHit hit) {
+        return hit.hasSource() ? new RawJsonSource(hit.getSourceRef()) : null;
+    }
+
+    /**
+     * Gets the raw JSON bytes.
+     *
+     * @return the raw JSON bytes
+     */
+    public BytesReference getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the number of bytes of the source.
+     *
+     * @return the number of bytes
+     */
+    public int length() {
+        return source.length();
+    }
+
+    /**
+     * Parse the source to the map. Intended only for the callers that really need to inspect the document.
+     *
+     * @return the source as map
+     */
+    public Map<String, Object> asMap() {
+        return XContentHelper.convertToMap(source, false, XContentType.JSON).v2();
+    }
+
+    /**
+     * Write the raw JSON bytes to the output stream.
+     *
+     * @param outputStream the output stream
+     * @throws IOException the io exception
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        source.writeTo(outputStream);
+    }
+
+    /**
+     * Write the raw JSON bytes to the output stream as a single line, e.g. of NDJSON. The bytes are copied as they are
+     * unless the source contains a line break, i.e., it was indexed pretty-printed. The line breaks can occur only
+     * between the tokens, the strings contain them escaped, so they are replaced with the spaces.
+     *
+     * @param outputStream the output stream
+     * @throws IOException the io exception
+     */
+    public void writeLineTo(OutputStream outputStream) throws IOException {
+        if (source.indexOf((byte) '\n', 0) < 0 && source.indexOf((byte) '\r', 0) < 0) {
+            source.writeTo(outputStream);
+            return;
+        }
+        BytesRefIterator iterator = source.iterator();
+        BytesRef slice;
+        while ((slice = iterator.next()) != null) {
+            byte[] line = new byte[slice.length];
+            for (int i = 0; i < slice.length; i++) {
+                byte b = slice.bytes[slice.offset + i];
+                line[i] = b == '\n' || b == '\r' ? (byte) ' ' : b;
+            }
+            outputStream.write(line);
+        }
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeRawValue(new RawUtf8String(source));
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
+
+    @Override
+    public String toString() {
+        return source.utf8ToString();
+    }
+
+    /**
+     * Adapts raw UTF-8 bytes to the Jackson {@link SerializableString}. The byte based generator copies the bytes
+     * directly into its output buffer, only the char based generators need the decoded value.
+     */
+    private static final class RawUtf8String implements SerializableString {
+
+        private final BytesReference bytes;
+        private String value;
+
+        private RawUtf8String(BytesReference bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getValue() {
+            if (value == null) {
+                value = bytes.utf8ToString();
+            }
+            return value;
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return new SerializedString(getValue()).asQuotedChars();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return BytesReference.toBytes(bytes);
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return new SerializedString(getValue()).asQuotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return new SerializedString(getValue()).appendQuotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return new SerializedString(getValue()).appendQuoted(buffer, offset);
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            int length = bytes.length();
+            if (offset + length > buffer.length) {
+                return -1;
+            }
+            BytesRef bytesRef = bytes.toBytesRef();
+            System.arraycopy(bytesRef.bytes, bytesRef.offset, buffer, offset, length);
+            return length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            return new SerializedString(getValue()).appendUnquoted(buffer, offset);
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return new SerializedString(getValue()).writeQuotedUTF8(out);
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            bytes.writeTo(out);
+            return bytes.length();
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+            return new SerializedString(getValue()).putQuotedUTF8(buffer);
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) throws IOException {
+            int length = bytes.length();
+            if (length > buffer.remaining()) {
+                return -1;
+            }
+            BytesRef bytesRef = bytes.toBytesRef();
+            buffer.put(bytesRef.bytes, bytesRef.offset, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily walks all hits matching the given search source using point-in-time and <i>search_after</i>.
+ * <p>
+ * The point-in-time is opened with the first call of {@link #hasNext()} and the pages of the given size are fetched
+ * only once the previous page has been consumed, so at most one page is held in the memory at a time. The search
+ * source must define a sort; Elasticsearch appends the implicit <i>_shard_doc</i> tiebreaker to it, which makes
+ * the <i>search_after</i> values unique. The point-in-time is released when the last page is reached or when
+ * the pager is closed. The searches are measured as the part of the DAO call creating the pager.
+ *
+ * <pre>{@code
+ *  POST crczp.events.trainings*.definition={definitionId}.* /_pit?keep_alive=1m
+ *
+ *  GET /_search
+ *  {
+ *    "size": 1000,
+ *    "query": { "match_all": {} },
+ *    "pit": { "id": "{pitId}", "keep_alive": "1m" },
+ *    "sort": [{ "timestamp": "asc" }],
+ *    "search_after": [{lastTimestamp}, {lastShardDoc}]
+ *  }
+ * }</pre>
+ */
+public class SearchAfterPager implements Iterator<SearchHit>, Closeable {
+
+    private final RestHighLevelClient client;
+    private final DaoCallMetrics call = DaoCallMetrics.current();
+    private final String[] indices;
+    private final IndicesOptions indicesOptions;
+    private final SearchSourceBuilder searchSourceBuilder;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+    private final boolean ownsPointInTime;
+
+    private String pointInTimeId;
+    private Object[] searchAfter;
+    private SearchHit[] page = new SearchHit[0];
+    private int pagePosition;
+    private boolean lastPage;
+
+    /**
+     * Instantiates a new Search after pager.
+     *
+     * @param client              the rest high level client
+     * @param indices             the indices (or index patterns) to search in
+     * @param indicesOptions      the options of resolving the indices
+     * @param searchSourceBuilder the search source with query and sort
+     * @param pageSize            the number of hits fetched in one page
+     * @param keepAlive           how long the point-in-time is kept alive between two pages
+     */
+    public SearchAfterPager(RestHighLevelClient client, String[] indices, IndicesOptions indicesOptions,
+                            SearchSourceBuilder searchSourceBuilder, int pageSize, TimeValue keepAlive) {
+        if (searchSourceBuilder.sorts() == null || searchSourceBuilder.sorts().isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Search after pagination requires the sorted search source.");
+        }
+        this.client = client;
+        this.indices = indices;
+        this.indicesOptions = indicesOptions;
+        this.searchSourceBuilder = searchSourceBuilder;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+        this.ownsPointInTime = true;
+    }
+
+    /**
+     * Instantiates a new Search after pager walking the point-in-time opened by the caller. The point-in-time is not
+     * released when the pager is closed, it remains owned by the caller.
+     *
+     * @param client              the rest high level client
+     * @param pointInTimeId       the id of the open point-in-time
+     * @param searchSourceBuilder the search source with query and sort
+     * @param pageSize            the number of hits fetched in one page
+     * @param keepAlive           how long the point-in-time is kept alive between two pages
+     */
+    SearchAfterPager(RestHighLevelClient client, String pointInTimeId, SearchSourceBuilder searchSourceBuilder,
+                     int pageSize, TimeValue keepAlive) {
+        if (searchSourceBuilder.sorts() == null || searchSourceBuilder.sorts().isEmpty()) {
+            throw new ElasticsearchTrainingDataLayerException("Search after pagination requires the sorted search source.");
+        }
+        this.client = client;
+        this.indices = null;
+        this.indicesOptions = null;
+        this.searchSourceBuilder = searchSourceBuilder;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+        this.ownsPointInTime = false;
+        this.pointInTimeId = pointInTimeId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pagePosition < page.length) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+        fetchNextPage();
+        return pagePosition < page.length;
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page[pagePosition++];
+    }
+
+    /**
+     * Pass all remaining hits to the given consumer as they are fetched.
+     *
+     * @param consumer the consumer of hits
+     * @throws IOException the io exception
+     */
+    public void forEachRemainingHit(SearchHitConsumer consumer) throws IOException {
+        while (hasNext()) {
+            consumer.accept(next());
+        }
+    }
+
+    /**
+     * Gets the id of the point-in-time returned by the last page, the id may change between the pages.
+     *
+     * @return the point-in-time id
+     */
+    String getPointInTimeId() {
+        return pointInTimeId;
+    }
+
+    /**
+     * Releases the point-in-time if it is still open and owned by this pager.
+     *
+     * @throws IOException the io exception
+     */
+    @Override
+    public void close() throws IOException {
+        lastPage = true;
+        if (ownsPointInTime && pointInTimeId != null) {
+            String id = pointInTimeId;
+            pointInTimeId = null;
+            client.closePointInTime(new ClosePointInTimeRequest(id), RequestOptions.DEFAULT);
+        }
+    }
+
+    private void fetchNextPage() {
+        try {
+            if (pointInTimeId == null) {
+                OpenPointInTimeRequest openPointInTimeRequest = new OpenPointInTimeRequest(indices)
+                        .indicesOptions(indicesOptions)
+                        .keepAlive(keepAlive);
+                pointInTimeId = client.openPointInTime(openPointInTimeRequest, RequestOptions.DEFAULT).getPointInTimeId();
+            }
+            searchSourceBuilder.size(pageSize)
+                    .trackTotalHits(false)
+                    .pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId).setKeepAlive(keepAlive));
+            if (searchAfter != null) {
+                searchSourceBuilder.searchAfter(searchAfter);
+            }
+            SearchResponse response = call.search(client, new SearchRequest().source(searchSourceBuilder));
+            if (response == null || response.getHits() == null) {
+                throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic. Please, restart Elasticsearch service.");
+            }
+            if (response.pointInTimeId() != null) {
+                pointInTimeId = response.pointInTimeId();
+            }
+            page = response.getHits().getHits();
+            pagePosition = 0;
+            if (page.length > 0) {
+                searchAfter = page[page.length - 1].getSortValues();
+            }
+            if (page.length < pageSize) {
+                close();
+            }
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.", ex);
+        } catch (RuntimeException ex) {
+            closeQuietly();
+            throw ex;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException | RuntimeException ignored) {
+            // the point-in-time expires on its own after the keep alive period
+        }
+    }
+}
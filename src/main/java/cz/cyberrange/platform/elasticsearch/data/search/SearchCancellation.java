@@ -0,0 +1,177 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cancels the Elasticsearch searches issued on behalf of a REST request once the request is abandoned, i.e., the client
+ * went away, the deadline of the request passed or the request completed while some of its searches were still
+ * running, e.g., after one of the parallel searches failed.
+ * <p>
+ * The searches are issued as the cancellable requests of the client. Cancelling the request aborts its HTTP connection
+ * and Elasticsearch cancels the search task once it notices the connection was closed, so the task stops burning
+ * the search threads of the cluster. The searches issued after the cancellation are aborted right away.
+ * <p>
+ * The cancellation is activated for the thread handling the request and it is inherited by the DAO calls made in it,
+ * including the searches issued later by the stages of the asynchronous responses and by the lazy pagers, see
+ * {@link cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics}.
+ */
+public class SearchCancellation implements AutoCloseable {
+
+    private static final ThreadLocal<SearchCancellation> ACTIVE = new ThreadLocal<>();
+
+    private final Set<Runnable> runningSearches = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> deadlineTimer;
+    private volatile String reason;
+
+    /**
+     * Instantiates a new Search cancellation.
+     *
+     * @param deadline  how long the searches of the request may run, no deadline if it is not positive
+     * @param scheduler the scheduler of the deadline
+     */
+    public SearchCancellation(TimeValue deadline, ScheduledExecutorService scheduler) {
+        this.deadlineTimer = deadline.nanos() > 0
+                ? scheduler.schedule(() -> cancel("its deadline of " + deadline + " passed"), deadline.nanos(), TimeUnit.NANOSECONDS)
+                : null;
+    }
+
+    /**
+     * Activate the cancellation for the current thread.
+     *
+     * @param cancellation the cancellation
+     */
+    public static void activate(SearchCancellation cancellation) {
+        ACTIVE.set(cancellation);
+    }
+
+    /**
+     * Deactivate the cancellation of the current thread.
+     */
+    public static void deactivate() {
+        ACTIVE.remove();
+    }
+
+    /**
+     * Gets the cancellation active for the current thread.
+     *
+     * @return the active cancellation, null if the searches are not cancellable
+     */
+    public static SearchCancellation active() {
+        return ACTIVE.get();
+    }
+
+    /**
+     * Cancel all running searches and the searches issued later. Only the first reason is kept.
+     *
+     * @param reason why the request was abandoned, e.g. <i>the client went away</i>
+     */
+    public void cancel(String reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+        }
+        runningSearches.forEach(Runnable::run);
+    }
+
+    /**
+     * Check whether the searches are cancelled.
+     *
+     * @return true if the searches are cancelled
+     */
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Keep the running search until its future completes, so it is cancelled together with the request.
+     *
+     * @param search the cancellable search
+     * @param future the future completed by the search
+     */
+    public void track(Cancellable search, CompletableFuture<?> future) {
+        onCancel(search::cancel, future);
+    }
+
+    /**
+     * Run the action if the request is cancelled before the future completes, e.g. to stop waiting for the search
+     * issued by another request.
+     *
+     * @param action the action cancelling the wait
+     * @param future the future of the wait
+     */
+    public void onCancel(Runnable action, CompletableFuture<?> future) {
+        runningSearches.add(action);
+        future.whenComplete((response, ex) -> runningSearches.remove(action));
+        if (isCancelled()) {
+            action.run();
+        }
+    }
+
+    /**
+     * Execute the search and wait for its response. The search is cancelled together with the request.
+     *
+     * @param search the asynchronous search notifying the given listener
+     * @param <T>    the type of the response
+     * @return the response of the search
+     * @throws IOException the io exception
+     */
+    public <T> T execute(Function<ActionListener<T>, Cancellable> search) throws IOException {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        track(search.apply(ActionListener.wrap(future::complete, future::completeExceptionally)), future);
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel("the thread handling it was interrupted");
+            throw toCancelledException();
+        } catch (CancellationException ex) {
+            throw isCancelled() ? toCancelledException() : new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (isCancelled()) {
+                throw toCancelledException();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchTrainingDataLayerException("Client could not connect to Elastic.", cause);
+        }
+    }
+
+    /**
+     * Create the exception reporting why the search was cancelled, the failure of the aborted search itself
+     * tells nothing more.
+     *
+     * @return the data layer exception
+     */
+    public ElasticsearchTrainingDataLayerException toCancelledException() {
+        return new ElasticsearchTrainingDataLayerException("The search was cancelled since " + reason + ".");
+    }
+
+    /**
+     * Stop the deadline and cancel the searches which are still running once the request is completed.
+     */
+    @Override
+    public void close() {
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+        }
+        if (!runningSearches.isEmpty()) {
+            cancel("the request was completed");
+        }
+    }
+}
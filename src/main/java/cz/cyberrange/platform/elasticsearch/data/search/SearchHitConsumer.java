@@ -0,0 +1,20 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+
+/**
+ * Consumer of the search hits that are processed one by one as they are fetched from Elasticsearch.
+ */
+@FunctionalInterface
+public interface SearchHitConsumer {
+
+    /**
+     * Process the search hit.
+     *
+     * @param hit the search hit
+     * @throws IOException the io exception
+     */
+    void accept(SearchHit hit) throws IOException;
+}
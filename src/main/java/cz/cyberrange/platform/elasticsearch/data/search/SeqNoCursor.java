@@ -0,0 +1,143 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * High-water mark of the documents already read from the indices matching an index pattern, kept as the sequence
+ * number (<i>_seq_no</i>) of the last read document of each concrete index. It selects only the documents indexed
+ * after the mark, so the documents appended to the indices can be read incrementally.
+ * <p>
+ * The sequence numbers are dense and increasing only within a shard, so the mark is valid only for the indices with
+ * a single primary shard, see {@link #coversAllShards()}. A document is accepted only if its sequence number directly
+ * follows the mark, since a document with a lower sequence number may not be visible to the searches yet; the gap
+ * is skipped once it lasts for the gap timeout, e.g. when the sequence number was taken by a failed operation.
+ *
+ * <pre>{@code
+ *  GET crczp.events.adaptive.trainings*.run=${RUN_ID}/_search
+ *  {
+ *    "size": 1000,
+ *    "seq_no_primary_term": true,
+ *    "query": { "bool": { "should": [
+ *      { "bool": { "filter": [{ "term": { "_index": "${INDEX}" } }, { "range": { "_seq_no": { "gt": ${MARK} } } }] } },
+ *      { "bool": { "must_not": [{ "terms": { "_index": ["${INDEX}", ...] } }] } }
+ *    ] } },
+ *    "sort": [{ "_seq_no": "asc" }]
+ *  }
+ * }</pre>
+ */
+public class SeqNoCursor {
+
+    private static final String INDEX_FIELD = "_index";
+    private static final String SEQ_NO_FIELD = "_seq_no";
+
+    private final long gapTimeoutMillis;
+    private final Map<String, Long> marks = new HashMap<>();
+    private final Map<String, Long> gapsSince = new HashMap<>();
+    private final Set<String> seenIndices = new HashSet<>();
+    private int totalShards;
+
+    /**
+     * Instantiates a new cursor before the first document of all indices.
+     *
+     * @param gapTimeoutMillis how long the missing sequence number is waited for before it is skipped
+     */
+    public SeqNoCursor(long gapTimeoutMillis) {
+        this.gapTimeoutMillis = gapTimeoutMillis;
+    }
+
+    /**
+     * Create the query selecting the documents after the mark. The documents of the excluded indices are not selected
+     * at all, whether the indices have a mark or not, so the next page always starts after the documents already
+     * passed over.
+     *
+     * @param excludedIndices the concrete indices whose documents are not selected
+     * @return the query
+     */
+    public synchronized QueryBuilder newerDocuments(Set<String> excludedIndices) {
+        if (marks.isEmpty() && excludedIndices.isEmpty()) {
+            return QueryBuilders.matchAllQuery();
+        }
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        marks.forEach((index, mark) -> {
+            if (!excludedIndices.contains(index)) {
+                query.should(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery(INDEX_FIELD, index))
+                        .filter(QueryBuilders.rangeQuery(SEQ_NO_FIELD).gt(mark)));
+            }
+        });
+        //The excluded indices without a mark must not be selected by the documents of the indices not read yet
+        Set<String> markedOrExcludedIndices = new HashSet<>(marks.keySet());
+        markedOrExcludedIndices.addAll(excludedIndices);
+        query.should(QueryBuilders.boolQuery().mustNot(QueryBuilders.termsQuery(INDEX_FIELD, markedOrExcludedIndices)));
+        return query;
+    }
+
+    /**
+     * Check whether the document was already read.
+     *
+     * @param index the concrete index of the document
+     * @param seqNo the sequence number of the document
+     * @return true if the document is not after the mark
+     */
+    public synchronized boolean isRead(String index, long seqNo) {
+        seenIndices.add(index);
+        return seqNo <= marks.getOrDefault(index, -1L);
+    }
+
+    /**
+     * Move the mark of the index to the document if it directly follows the mark or the gap before it has lasted
+     * for the gap timeout.
+     *
+     * @param index the concrete index of the document
+     * @param seqNo the sequence number of the document
+     * @param now   the current time in milliseconds
+     * @return true if the mark was moved and the document should be read, false if the documents of the index
+     * must not be read until the next search
+     */
+    public synchronized boolean advance(String index, long seqNo, long now) {
+        if (seqNo != marks.getOrDefault(index, -1L) + 1) {
+            Long gapSince = gapsSince.putIfAbsent(index, now);
+            if (gapSince == null || now - gapSince < gapTimeoutMillis) {
+                return false;
+            }
+        }
+        gapsSince.remove(index);
+        marks.put(index, seqNo);
+        return true;
+    }
+
+    /**
+     * Check whether the documents of some index are held back by a gap, i.e., the documents after the mark of the index
+     * exist but are not read until the missing sequence number appears or the gap timeout passes.
+     *
+     * @return true if some index waits for the missing sequence number
+     */
+    public synchronized boolean hasGaps() {
+        return !gapsSince.isEmpty();
+    }
+
+    /**
+     * Record the number of the shards searched by the last search.
+     *
+     * @param totalShards the number of the searched shards
+     */
+    public synchronized void recordShards(int totalShards) {
+        this.totalShards = Math.max(this.totalShards, totalShards);
+    }
+
+    /**
+     * Check whether each searched index has a single shard, so the sequence numbers of its documents are increasing.
+     *
+     * @return false if more shards than the indices with the documents were searched
+     */
+    public synchronized boolean coversAllShards() {
+        return seenIndices.isEmpty() || totalShards <= seenIndices.size();
+    }
+}
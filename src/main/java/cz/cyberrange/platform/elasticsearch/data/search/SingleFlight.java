@@ -0,0 +1,229 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.metrics.DaoCallMetrics;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces the concurrent loads of the same key, so the identical requests arriving together share one in-flight
+ * Elasticsearch call and its decoded result instead of each firing the same query.
+ * <p>
+ * The first request loads the result, the requests arriving before it completes wait for its result or failure.
+ * The waiting request stops waiting once its own searches are cancelled, see {@link SearchCancellation}. If the searches
+ * of the loading request are cancelled, e.g. its client went away, the waiting requests load the result again instead
+ * of failing with it. The asynchronous waiting requests are completed as the part of their own DAO calls, so the searches
+ * issued by their dependent stages are attributed to them, see {@link DaoCallMetrics}.
+ *
+ * @param <K> the type of the key
+ */
+public class SingleFlight<K> {
+
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Load the result of the key or wait for the load of the same key which is already in flight.
+     *
+     * @param key    the key
+     * @param loader the loader of the result
+     * @param <T>    the type of the result
+     * @return the result
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(K key, Loader<T> loader) throws ElasticsearchTrainingDataLayerException, IOException {
+        while (true) {
+            Flight flight = new Flight(activeCancellation());
+            Flight inFlight = flights.putIfAbsent(key, flight);
+            if (inFlight == null) {
+                try {
+                    T result = loader.load();
+                    flight.result.complete(result);
+                    return result;
+                } catch (Throwable ex) {
+                    //Errors too, otherwise the waiting requests would never be released
+                    flight.result.completeExceptionally(ex);
+                    throw ex;
+                } finally {
+                    flights.remove(key, flight);
+                }
+            }
+            coalesced.incrementAndGet();
+            DaoCallMetrics.current().recordCoalescedSearch();
+            Object result = inFlight.await();
+            if (result != Flight.ABANDONED) {
+                return (T) result;
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant of the {@link #load(Object, Loader)}, the future of the result is shared instead of waiting
+     * for it.
+     *
+     * @param key    the key
+     * @param loader the loader of the future of the result
+     * @param <T>    the type of the result
+     * @return the future of the result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> loadAsync(K key, Supplier<CompletableFuture<T>> loader) {
+        Flight flight = new Flight(activeCancellation());
+        Flight inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight == null) {
+            CompletableFuture<T> result;
+            try {
+                result = loader.get();
+            } catch (Throwable ex) {
+                flights.remove(key, flight);
+                flight.result.completeExceptionally(ex);
+                throw ex;
+            }
+            result.whenComplete((loaded, ex) -> {
+                flights.remove(key, flight);
+                if (ex == null) {
+                    flight.result.complete(loaded);
+                } else {
+                    flight.result.completeExceptionally(ex);
+                }
+            });
+            return result;
+        }
+        coalesced.incrementAndGet();
+        DaoCallMetrics call = DaoCallMetrics.current();
+        call.recordCoalescedSearch();
+        SearchCancellation waitingCancellation = activeCancellation();
+        CompletableFuture<T> wait = new CompletableFuture<>();
+        inFlight.result.whenComplete((loaded, ex) -> call.run(() -> {
+            if (ex == null) {
+                wait.complete((T) loaded);
+            } else if (inFlight.cancellation != null && inFlight.cancellation.isCancelled() && !wait.isDone()) {
+                loadAsync(key, loader).whenComplete((reloaded, reloadEx) -> {
+                    if (reloadEx == null) {
+                        wait.complete(reloaded);
+                    } else {
+                        wait.completeExceptionally(reloadEx);
+                    }
+                });
+            } else {
+                wait.completeExceptionally(ex);
+            }
+        }));
+        if (waitingCancellation != null) {
+            waitingCancellation.onCancel(() -> wait.completeExceptionally(waitingCancellation.toCancelledException()), wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Check whether the load of the key started by the current thread is still the load in flight, i.e., it was not
+     * forgotten meanwhile.
+     *
+     * @param key the key
+     * @return true if the load is still in flight
+     */
+    public boolean isInFlight(K key) {
+        Flight flight = flights.get(key);
+        return flight != null && flight.thread == Thread.currentThread();
+    }
+
+    /**
+     * Forget the loads in flight of the matching keys, the requests arriving later load the result again.
+     *
+     * @param keys the predicate of the keys
+     */
+    public void forget(Predicate<K> keys) {
+        flights.keySet().removeIf(keys);
+    }
+
+    /**
+     * Gets the number of the requests which waited for the load of another request.
+     *
+     * @return the number of coalesced requests
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * The cancellation of the searches of the current DAO call, or of the current REST request outside the DAO calls.
+     */
+    private static SearchCancellation activeCancellation() {
+        SearchCancellation callCancellation = DaoCallMetrics.current().getCancellation();
+        return callCancellation != null ? callCancellation : SearchCancellation.active();
+    }
+
+    /**
+     * Loads the result on the first request of the key.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        /**
+         * Load the result from Elasticsearch.
+         *
+         * @return the result
+         * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+         * @throws IOException                             the io exception
+         */
+        T load() throws ElasticsearchTrainingDataLayerException, IOException;
+    }
+
+    private static final class Flight {
+
+        private static final Object ABANDONED = new Object();
+
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private final SearchCancellation cancellation;
+        private final Thread thread = Thread.currentThread();
+
+        private Flight(SearchCancellation cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        /**
+         * Wait for the result of the load.
+         *
+         * @return the result, or {@link #ABANDONED} if the loading request was cancelled
+         */
+        private Object await() throws IOException {
+            SearchCancellation waitingCancellation = activeCancellation();
+            CompletableFuture<Object> wait = result.thenApply(loaded -> loaded);
+            if (waitingCancellation != null) {
+                waitingCancellation.onCancel(() -> wait.cancel(false), wait);
+            }
+            try {
+                return wait.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ElasticsearchTrainingDataLayerException("The wait for the result was interrupted.", ex);
+            } catch (CancellationException ex) {
+                throw waitingCancellation.toCancelledException();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cancellation != null && cancellation.isCancelled()) {
+                    return ABANDONED;
+                } else if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new ElasticsearchTrainingDataLayerException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cz.cyberrange.platform.elasticsearch.data.statistics;
+
+import org.javatuples.Pair;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Events data of the phases of one training run retrieved in a single round trip to Elasticsearch.
+ */
+public class TrainingRunPhasesData {
+
+    private Object sandboxId;
+    private Map<Long, Pair<Long, Long>> phasesBoundaries;
+    private Map<Long, Map<String, Long>> eventsInPhases;
+    private Map<Long, List<String>> wrongAnswersInPhases;
+    private Map<Long, Long> taskIdsOfPhases;
+
+    /**
+     * Gets the sandbox id of the training run.
+     *
+     * @return the sandbox id
+     */
+    public Object getSandboxId() {
+        return sandboxId;
+    }
+
+    /**
+     * Sets the sandbox id of the training run.
+     *
+     * @param sandboxId the sandbox id
+     */
+    public void setSandboxId(Object sandboxId) {
+        this.sandboxId = sandboxId;
+    }
+
+    /**
+     * Gets the mapping of phases and their start and end timestamps.
+     *
+     * @return the phases boundaries
+     */
+    public Map<Long, Pair<Long, Long>> getPhasesBoundaries() {
+        return phasesBoundaries;
+    }
+
+    /**
+     * Sets the mapping of phases and their start and end timestamps.
+     *
+     * @param phasesBoundaries the phases boundaries
+     */
+    public void setPhasesBoundaries(Map<Long, Pair<Long, Long>> phasesBoundaries) {
+        this.phasesBoundaries = phasesBoundaries;
+    }
+
+    /**
+     * Gets the mapping of phases and number of the counted event occurrences in that phases.
+     *
+     * @return the events in phases
+     */
+    public Map<Long, Map<String, Long>> getEventsInPhases() {
+        return eventsInPhases;
+    }
+
+    /**
+     * Sets the mapping of phases and number of the counted event occurrences in that phases.
+     *
+     * @param eventsInPhases the events in phases
+     */
+    public void setEventsInPhases(Map<Long, Map<String, Long>> eventsInPhases) {
+        this.eventsInPhases = eventsInPhases;
+    }
+
+    /**
+     * Gets the mapping of phases and wrong answers submitted in that phases.
+     *
+     * @return the wrong answers in phases
+     */
+    public Map<Long, List<String>> getWrongAnswersInPhases() {
+        return wrongAnswersInPhases;
+    }
+
+    /**
+     * Sets the mapping of phases and wrong answers submitted in that phases.
+     *
+     * @param wrongAnswersInPhases the wrong answers in phases
+     */
+    public void setWrongAnswersInPhases(Map<Long, List<String>> wrongAnswersInPhases) {
+        this.wrongAnswersInPhases = wrongAnswersInPhases;
+    }
+
+    /**
+     * Gets the mapping of phases and tasks assigned to the trainee in that phases.
+     *
+     * @return the task ids of phases
+     */
+    public Map<Long, Long> getTaskIdsOfPhases() {
+        return taskIdsOfPhases;
+    }
+
+    /**
+     * Sets the mapping of phases and tasks assigned to the trainee in that phases.
+     *
+     * @param taskIdsOfPhases the task ids of phases
+     */
+    public void setTaskIdsOfPhases(Map<Long, Long> taskIdsOfPhases) {
+        this.taskIdsOfPhases = taskIdsOfPhases;
+    }
+
+    @Override
+    public String toString() {
+        return "TrainingRunPhasesData{" +
+                "sandboxId=" + sandboxId +
+                ", phasesBoundaries=" + phasesBoundaries +
+                ", eventsInPhases=" + eventsInPhases +
+                ", wrongAnswersInPhases=" + wrongAnswersInPhases +
+                ", taskIdsOfPhases=" + taskIdsOfPhases +
+                '}';
+    }
+}
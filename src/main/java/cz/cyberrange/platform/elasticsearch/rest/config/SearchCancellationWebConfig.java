@@ -0,0 +1,173 @@
+package cz.cyberrange.platform.elasticsearch.rest.config;
+
+import cz.cyberrange.platform.elasticsearch.data.search.SearchCancellation;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Cancels the Elasticsearch searches of the abandoned requests, see {@link SearchCancellation}.
+ * <p>
+ * The searches of a request are cancelled when:
+ * <ul>
+ *     <li>the deadline of the endpoint passes, it is set by the property <i>elasticsearch.search-deadline.default</i>
+ *     and overridden for the endpoint by <i>elasticsearch.search-deadline.endpoint.{method}</i>, where the method is
+ *     the name of the handler method, e.g. <i>getAllEventsByTrainingDefinition</i></li>
+ *     <li>the asynchronous request fails, e.g. the container noticed the client went away, or it times out</li>
+ *     <li>the request completes while some of its searches are still running</li>
+ * </ul>
+ * The container does not notice the client went away while the thread handling the request is blocked, so the
+ * searches of the synchronous endpoints are cancelled only by their deadline. The streamed responses stop fetching
+ * the next pages once the write to the closed connection fails.
+ */
+@Configuration
+public class SearchCancellationWebConfig implements WebMvcConfigurer, DisposableBean {
+
+    /**
+     * The request attribute holding the {@link SearchCancellation} of the request.
+     */
+    public static final String CANCELLATION_ATTRIBUTE = SearchCancellation.class.getName();
+    private static final String DEFAULT_DEADLINE_PROPERTY = "elasticsearch.search-deadline.default";
+    private static final String ENDPOINT_DEADLINE_PROPERTY = "elasticsearch.search-deadline.endpoint.";
+
+    private final Environment environment;
+    private final String defaultDeadline;
+    private final Map<Method, TimeValue> endpointDeadlines = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "crczp-search-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Instantiates a new Search cancellation web config.
+     *
+     * @param environment     the environment with the deadlines of the endpoints
+     * @param defaultDeadline the deadline of the endpoints without their own
+     */
+    public SearchCancellationWebConfig(Environment environment,
+                                       @Value("${" + DEFAULT_DEADLINE_PROPERTY + ":5m}") String defaultDeadline) {
+        this.environment = environment;
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new SearchCancellationInterceptor());
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                SearchCancellation cancellation = (SearchCancellation) request.getAttribute(CANCELLATION_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (cancellation != null) {
+                    SearchCancellation.activate(cancellation);
+                }
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+                SearchCancellation.deactivate();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        deadlineScheduler.shutdownNow();
+    }
+
+    private TimeValue getDeadline(HandlerMethod handlerMethod) {
+        return endpointDeadlines.computeIfAbsent(handlerMethod.getMethod(), method -> {
+            String property = ENDPOINT_DEADLINE_PROPERTY + method.getName();
+            return TimeValue.parseTimeValue(environment.getProperty(property, defaultDeadline), property);
+        });
+    }
+
+    private class SearchCancellationInterceptor implements AsyncHandlerInterceptor {
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            if (!(handler instanceof HandlerMethod)) {
+                return true;
+            }
+            SearchCancellation cancellation = (SearchCancellation) request.getAttribute(CANCELLATION_ATTRIBUTE);
+            if (cancellation == null) {
+                cancellation = new SearchCancellation(getDeadline((HandlerMethod) handler), deadlineScheduler);
+                request.setAttribute(CANCELLATION_ATTRIBUTE, cancellation);
+            }
+            SearchCancellation.activate(cancellation);
+            return true;
+        }
+
+        @Override
+        public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            SearchCancellation.deactivate();
+            SearchCancellation cancellation = (SearchCancellation) request.getAttribute(CANCELLATION_ATTRIBUTE);
+            if (cancellation != null && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CancellingAsyncListener(cancellation));
+            }
+        }
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+            SearchCancellation.deactivate();
+            SearchCancellation cancellation = (SearchCancellation) request.getAttribute(CANCELLATION_ATTRIBUTE);
+            if (cancellation != null) {
+                cancellation.close();
+            }
+        }
+    }
+
+    private static class CancellingAsyncListener implements AsyncListener {
+
+        private final SearchCancellation cancellation;
+
+        private CancellingAsyncListener(SearchCancellation cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            cancellation.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            cancellation.cancel("the asynchronous request timed out");
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            cancellation.cancel("the asynchronous request failed");
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // the listener is not carried over to the next asynchronous cycle of the request
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cz.cyberrange.platform.elasticsearch.rest.config;
+
+import cz.cyberrange.platform.elasticsearch.data.metrics.SearchProfile;
+import cz.cyberrange.platform.elasticsearch.rest.controllers.TrainingPlatformEventsRestController;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Returns the body of the profiled request together with the profile of its searches, see {@link SearchProfilingWebConfig}.
+ *
+ * <pre>{@code
+ *  {
+ *    "results": ...,
+ *    "profile": [
+ *      {
+ *        "call": { "class": "TrainingStatisticsDAO", "method": "...", "training_type": "linear" },
+ *        "indices": "crczp.events.trainings*.instance=1.run=*",
+ *        "took_millis": 12,
+ *        "shards": [ { "id": "[node][index][0]", "searches": [ ... ], "aggregations": [ ... ] } ]
+ *      }
+ *    ]
+ *  }
+ * }</pre>
+ */
+@ControllerAdvice(basePackageClasses = TrainingPlatformEventsRestController.class)
+public class SearchProfileResponseBodyAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return AbstractJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body == null || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        SearchProfile profile = (SearchProfile) ((ServletServerHttpRequest) request).getServletRequest()
+                .getAttribute(SearchProfilingWebConfig.PROFILE_ATTRIBUTE);
+        if (profile == null) {
+            return body;
+        }
+        Map<String, Object> profiledBody = new LinkedHashMap<>();
+        profiledBody.put("results", body);
+        profiledBody.put("profile", profile.getSearches());
+        return profiledBody;
+    }
+}
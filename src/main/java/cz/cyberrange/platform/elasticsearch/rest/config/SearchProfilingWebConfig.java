@@ -0,0 +1,71 @@
+package cz.cyberrange.platform.elasticsearch.rest.config;
+
+import cz.cyberrange.platform.elasticsearch.data.metrics.SearchProfile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Profiles the Elasticsearch searches of the requests with the parameter <i>profile=true</i>, see {@link SearchProfile}.
+ * The profile is active for the thread handling the request, including the asynchronous dispatch of the completed
+ * future, and the body of the response is returned together with it, see {@link SearchProfileResponseBodyAdvice}.
+ * <p>
+ * The profiling is allowed only if the property <i>elasticsearch.profiling.enabled</i> is set, the profiled
+ * request is rejected otherwise. The streamed responses are written after the handling of the request
+ * and they are not profiled.
+ */
+@Configuration
+public class SearchProfilingWebConfig implements WebMvcConfigurer {
+
+    /**
+     * The request parameter enabling the profiling of the searches.
+     */
+    public static final String PROFILE_PARAMETER = "profile";
+    /**
+     * The request attribute holding the {@link SearchProfile} of the request.
+     */
+    public static final String PROFILE_ATTRIBUTE = SearchProfile.class.getName();
+
+    @Value("${elasticsearch.profiling.enabled:false}")
+    private boolean profilingEnabled;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new SearchProfilingInterceptor());
+    }
+
+    private class SearchProfilingInterceptor implements AsyncHandlerInterceptor {
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            if (!Boolean.parseBoolean(request.getParameter(PROFILE_PARAMETER))) {
+                return true;
+            }
+            if (!profilingEnabled) {
+                throw new IllegalArgumentException("The profiling of the searches is not enabled on this instance.");
+            }
+            SearchProfile profile = (SearchProfile) request.getAttribute(PROFILE_ATTRIBUTE);
+            if (profile == null) {
+                profile = new SearchProfile();
+                request.setAttribute(PROFILE_ATTRIBUTE, profile);
+            }
+            SearchProfile.activate(profile);
+            return true;
+        }
+
+        @Override
+        public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            SearchProfile.deactivate();
+        }
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+            SearchProfile.deactivate();
+        }
+    }
+}
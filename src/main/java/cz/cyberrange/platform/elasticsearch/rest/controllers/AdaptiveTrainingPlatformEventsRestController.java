@@ -6,6 +6,7 @@ import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
 import cz.cyberrange.platform.elasticsearch.rest.ApiError;
 import cz.cyberrange.platform.elasticsearch.service.TrainingPlatformEventsService;
 import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -20,8 +21,12 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The rest controller for Training platform events.
  */
@@ -54,6 +59,7 @@ public class AdaptiveTrainingPlatformEventsRestController {
      *
      * @param trainingDefinitionId id of definition associated with wanted instance
      * @param trainingInstanceId   id of wanted instance
+     * @param fields               fields of the events to return
      * @return all events in selected Training Instance.
      */
     @ApiOperation(httpMethod = "GET",
@@ -70,9 +76,11 @@ public class AdaptiveTrainingPlatformEventsRestController {
             @ApiParam(value = "Training definition ID", required = true)
             @PathVariable("definitionId") Long trainingDefinitionId,
             @ApiParam(value = "Training instance ID", required = true)
-            @PathVariable("instanceId") Long trainingInstanceId) {
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, TrainingType.ADAPTIVE));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, TrainingType.ADAPTIVE, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
@@ -84,6 +92,7 @@ public class AdaptiveTrainingPlatformEventsRestController {
      * @param trainingDefinitionId id of definition associated with wanted run
      * @param trainingInstanceId   id of instance associated with wanted run
      * @param trainingRunId        id of wanted run
+     * @param fields               fields of the events to return
      * @return all events in selected Training Run.
      */
     @ApiOperation(httpMethod = "GET",
@@ -102,9 +111,11 @@ public class AdaptiveTrainingPlatformEventsRestController {
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId,
             @ApiParam(value = "Training run ID", required = true)
-            @PathVariable("runId") Long trainingRunId) {
+            @PathVariable("runId") Long trainingRunId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, TrainingType.ADAPTIVE));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, TrainingType.ADAPTIVE, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
@@ -126,17 +137,14 @@ public class AdaptiveTrainingPlatformEventsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/training-instances/{instanceId}/training-runs/{runId}")
-    public ResponseEntity<Void> deleteEventsFromTrainingRun(
+    public CompletableFuture<ResponseEntity<Void>> deleteEventsFromTrainingRun(
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId,
             @ApiParam(value = "Training run ID", required = true)
             @PathVariable("runId") Long trainingRunId) {
-        try {
-            trainingEventsService.deleteEventsFromTrainingRun(trainingInstanceId, trainingRunId, TrainingType.ADAPTIVE);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingEventsService.deleteEventsFromTrainingRun(trainingInstanceId, trainingRunId, TrainingType.ADAPTIVE)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -154,15 +162,12 @@ public class AdaptiveTrainingPlatformEventsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/training-instances/{instanceId}")
-    public ResponseEntity<Void> deleteEventsFromTrainingInstance(
+    public CompletableFuture<ResponseEntity<Void>> deleteEventsFromTrainingInstance(
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId) {
-        try {
-            trainingEventsService.deleteEventsByTrainingInstanceId(trainingInstanceId, TrainingType.ADAPTIVE);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingEventsService.deleteEventsByTrainingInstanceId(trainingInstanceId, TrainingType.ADAPTIVE)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
 }
@@ -4,7 +4,7 @@ import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotFoundExcep
 import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotModifiedException;
 import cz.cyberrange.platform.elasticsearch.rest.ApiError;
 import cz.cyberrange.platform.elasticsearch.service.AdaptiveTrainingStatisticsService;
-import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -24,6 +24,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The rest controller for Training platform events.
@@ -70,17 +71,15 @@ public class AdaptiveTrainingStatisticsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @PostMapping(path = "/training-runs/{runId}/phases/commands", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> getCommandsStatisticsByTrainingRun(
+    public CompletableFuture<ResponseEntity<Object>> getCommandsStatisticsByTrainingRun(
             @ApiParam(value = "Training run ID", required = true) @PathVariable("runId") Long trainingRunId,
             @ApiParam(value = "Phase Ids") @RequestParam(name = "phaseIds", required = false) List<Long> phaseIds,
             @ApiParam(value = "Training instance access token", required = true) @RequestParam("accessToken") String accessToken,
             @ApiParam(value = "User ID") @RequestParam(name = "userId", required = false) Long userId,
             @ApiParam(value = "Keywords in the individual phases") @RequestBody(required = false) Map<Long, List<String>> keywordsMapping) {
-        try {
-            return ResponseEntity.ok(adaptiveTrainingStatisticsService.findCommandsStatistic(trainingRunId, phaseIds, accessToken, userId, keywordsMapping));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+        return adaptiveTrainingStatisticsService.findCommandsStatistic(trainingRunId, phaseIds, accessToken, userId, keywordsMapping)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
     /**
@@ -99,16 +98,14 @@ public class AdaptiveTrainingStatisticsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/training-runs/{runId}/phases/events/time")
-    public ResponseEntity<Object> getPhaseTimeStatistics(
+    public CompletableFuture<ResponseEntity<Object>> getPhaseTimeStatistics(
             @ApiParam(value = "Training run ID", required = true)
             @PathVariable("runId") Long trainingRunId,
             @ApiParam(value = "Phase Ids", required = true)
             @RequestParam("phaseIds") List<Long> phaseIds) {
-        try {
-            return ResponseEntity.ok(adaptiveTrainingStatisticsService.findPhaseTimeStatistics(trainingRunId, phaseIds));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return adaptiveTrainingStatisticsService.findPhaseTimeStatistics(trainingRunId, phaseIds)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -127,16 +124,14 @@ public class AdaptiveTrainingStatisticsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/training-runs/{runId}/phases/events/solutions")
-    public ResponseEntity<Object> getPhaseSolutionsStatistics(
+    public CompletableFuture<ResponseEntity<Object>> getPhaseSolutionsStatistics(
             @ApiParam(value = "Training run ID", required = true)
             @PathVariable("runId") Long trainingRunId,
             @ApiParam(value = "Phase Ids", required = true)
             @RequestParam("phaseIds") List<Long> phaseIds) {
-        try {
-            return ResponseEntity.ok(adaptiveTrainingStatisticsService.findPhaseSolutionsStatistics(trainingRunId, phaseIds));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return adaptiveTrainingStatisticsService.findPhaseSolutionsStatistics(trainingRunId, phaseIds)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
     /**
      * Get wrong answers statistics of the specified phases.
@@ -154,16 +149,14 @@ public class AdaptiveTrainingStatisticsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/training-runs/{runId}/phases/events/wrong-answers")
-    public ResponseEntity<Object> getPhaseWrongAnswersStatistics(
+    public CompletableFuture<ResponseEntity<Object>> getPhaseWrongAnswersStatistics(
             @ApiParam(value = "Training run ID", required = true)
             @PathVariable("runId") Long trainingRunId,
             @ApiParam(value = "Phase Ids", required = true)
             @RequestParam("phaseIds") List<Long> phaseIds) {
-        try {
-            return ResponseEntity.ok(adaptiveTrainingStatisticsService.findPhaseWrongAnswersStatistics(trainingRunId, phaseIds));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return adaptiveTrainingStatisticsService.findPhaseWrongAnswersStatistics(trainingRunId, phaseIds)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -183,18 +176,69 @@ public class AdaptiveTrainingStatisticsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @PostMapping(path = "/training-runs/{runId}/phases/overall")
-    public ResponseEntity<Object> getOverallPhasesStatistics(
+    public CompletableFuture<ResponseEntity<Object>> getOverallPhasesStatistics(
             @ApiParam(value = "Training run ID", required = true) @PathVariable("runId") Long trainingRunId,
             @ApiParam(value = "Phase Ids", required = true) @RequestParam("phaseIds") List<Long> phaseIds,
             @ApiParam(value = "Training instance access token", required = true) @RequestParam("accessToken") String accessToken,
             @ApiParam(value = "User ID") @RequestParam(name = "userId", required = false) Long userId,
             @ApiParam(value = "Keywords in the individual phases") @RequestBody(required = false) Map<Long, List<String>> keywordsMapping) {
-        try {
-            return ResponseEntity.ok(adaptiveTrainingStatisticsService.findOverallStatistics(trainingRunId, phaseIds, accessToken, userId, keywordsMapping));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return adaptiveTrainingStatisticsService.findOverallStatistics(trainingRunId, phaseIds, accessToken, userId, keywordsMapping)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
+    /**
+     * Get overall statistics in the particular phases of multiple training runs, without the commands statistics.
+     *
+     * @param trainingRunIds ids of wanted runs
+     * @param phaseIds       ids of the phases whose statistic are requested, all phases if null or empty
+     * @return overall statistics of the specified phases of each training run.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get overall statistics of multiple training runs.",
+            nickname = "getOverallPhasesStatisticsOfRuns"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Overall statistics was found."),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-runs/phases/overall")
+    public CompletableFuture<ResponseEntity<Object>> getOverallPhasesStatisticsOfRuns(
+            @ApiParam(value = "Training run IDs", required = true) @RequestParam("runIds") List<Long> trainingRunIds,
+            @ApiParam(value = "Phase Ids, all phases if omitted") @RequestParam(name = "phaseIds", required = false) List<Long> phaseIds) {
+        return adaptiveTrainingStatisticsService.findOverallStatisticsOfRuns(trainingRunIds, phaseIds)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
+    }
 
+    /**
+     * Get distributions of the time taken in the phases across the ended training runs of the training definition.
+     *
+     * @param trainingDefinitionId id of wanted definition
+     * @param phaseIds             ids of the phases whose distributions are requested
+     * @param percents             percents of the requested percentiles
+     * @param histogramBuckets     number of the buckets of the histogram of each phase
+     * @return percentiles and histogram of the time taken in each completed phase.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get distributions of the phase times across the ended training runs of the training definition.",
+            nickname = "getPhaseTimeDistributions"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Phase time distributions was found."),
+            @ApiResponse(code = 406, message = "The percents or the number of the histogram buckets are not valid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-definitions/{definitionId}/phases/time-distributions")
+    public CompletableFuture<ResponseEntity<Object>> getPhaseTimeDistributions(
+            @ApiParam(value = "Training definition ID", required = true) @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Phase Ids, all phases if omitted") @RequestParam(name = "phaseIds", required = false) List<Long> phaseIds,
+            @ApiParam(value = "Percents of the percentiles") @RequestParam(name = "percents", defaultValue = "50,90,99") List<Double> percents,
+            @ApiParam(value = "Number of the histogram buckets") @RequestParam(name = "histogramBuckets", defaultValue = "10") int histogramBuckets) {
+        return adaptiveTrainingStatisticsService.findPhaseTimeDistributions(trainingDefinitionId, phaseIds, percents, histogramBuckets)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ex -> ex instanceof IllegalArgumentException
+                        ? (IllegalArgumentException) ex
+                        : new ResourceNotFoundException(ex)));
+    }
 }
@@ -1,11 +1,12 @@
 package cz.cyberrange.platform.elasticsearch.rest.controllers;
 
+import cz.cyberrange.platform.elasticsearch.api.dto.CommandsHistogramBucket;
 import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotFoundException;
 import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotModifiedException;
 import cz.cyberrange.platform.elasticsearch.data.enums.CommandType;
 import cz.cyberrange.platform.elasticsearch.rest.ApiError;
 import cz.cyberrange.platform.elasticsearch.service.TrainingConsoleCommandsService;
-import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -24,6 +25,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Api(value = "/training-platform-commands",
         tags = "Training commands",
@@ -49,6 +51,7 @@ public class TrainingConsoleCommandsRestController {
      * Get all training commands specified by an pool ID.
      *
      * @param poolId id of the pool
+     * @param fields fields of the commands to return
      * @return all commands executed in the training.
      */
     @ApiOperation(httpMethod = "GET",
@@ -61,17 +64,17 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/pools/{poolId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsByPoolId(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsByPoolId(
             @ApiParam(value = "Training pool ID", required = true) @PathVariable("poolId") Long poolId,
             @ApiParam(value = "List of command to filter")
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService.findAllConsoleCommandsByPoolId(poolId, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService.findAllConsoleCommandsByPoolId(poolId, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
 
@@ -79,6 +82,7 @@ public class TrainingConsoleCommandsRestController {
      * Get all training commands specified by an access token.
      *
      * @param accessToken access token of the training instance
+     * @param fields      fields of the commands to return
      * @return all commands executed in the training.
      */
     @ApiOperation(httpMethod = "GET",
@@ -91,23 +95,24 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/access-tokens/{accessToken}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsByAccessToken(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsByAccessToken(
             @ApiParam(value = "Training access token.", required = true) @PathVariable("accessToken") String accessToken,
             @ApiParam(value = "List of command to filter")
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService.findAllConsoleCommandsByAccessToken(accessToken, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService.findAllConsoleCommandsByAccessToken(accessToken, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
     /**
      * Get all commands in particular sandbox.
      *
      * @param sandboxId id of wanted sandbox
+     * @param fields    fields of the commands to return
      * @return all commands in selected sandbox.
      */
     @ApiOperation(httpMethod = "GET",
@@ -120,17 +125,17 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/sandboxes/{sandboxId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsBySandboxId(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsBySandboxId(
             @ApiParam(value = "Training sandbox ID", required = true) @PathVariable("sandboxId") String sandboxId,
             @ApiParam(value = "List of command to filter", required = false)
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService.findAllConsoleCommandsBySandboxId(sandboxId, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService.findAllConsoleCommandsBySandboxId(sandboxId, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
     /**
@@ -138,6 +143,7 @@ public class TrainingConsoleCommandsRestController {
      *
      * @param accessToken access token of the training instance
      * @param userId      identifier of the user
+     * @param fields      fields of the commands to return
      * @return all commands executed during training.
      */
     @ApiOperation(httpMethod = "GET",
@@ -150,19 +156,19 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/access-tokens/{accessToken}/users/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsByAccessTokenAndUserId(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsByAccessTokenAndUserId(
             @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken,
             @ApiParam(value = "User identifier", required = true) @PathVariable("userId") Long userId,
             @ApiParam(value = "List of command to filter")
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService
-                    .findAllConsoleCommandsByAccessTokenAndUserId(accessToken, userId, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService
+                .findAllConsoleCommandsByAccessTokenAndUserId(accessToken, userId, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
     /**
@@ -171,6 +177,7 @@ public class TrainingConsoleCommandsRestController {
      * @param sandboxId id of wanted sandbox
      * @param from      the lower bound of the time range
      * @param to        the upper bound of the time range
+     * @param fields    fields of the commands to return
      * @return all commands in selected sandbox.
      */
     @ApiOperation(httpMethod = "GET",
@@ -183,7 +190,7 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/sandboxes/{sandboxId}/ranges", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsBySandboxIdAndTimestampRange(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsBySandboxIdAndTimestampRange(
             @ApiParam(value = "Training sandbox ID", required = true) @PathVariable("sandboxId") String sandboxId,
             @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
             @RequestParam(value = "from") Long from,
@@ -192,13 +199,13 @@ public class TrainingConsoleCommandsRestController {
             @ApiParam(value = "List of command to filter")
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService
-                    .findAllConsoleCommandsBySandboxIdAndTimeRange(sandboxId, from, to, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService
+                .findAllConsoleCommandsBySandboxIdAndTimeRange(sandboxId, from, to, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
     }
 
     /**
@@ -208,6 +215,7 @@ public class TrainingConsoleCommandsRestController {
      * @param userId      identifier of the user
      * @param from        the lower bound of the time range
      * @param to          the upper bound of the time range
+     * @param fields      fields of the commands to return
      * @return all commands in selected sandbox.
      */
     @ApiOperation(httpMethod = "GET",
@@ -220,7 +228,7 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @GetMapping(path = "/access-token/{accessToken}/users/{userId}/ranges", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> findAllConsoleCommandsByAccessTokenAndUserIdAndTimestampRange(
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsByAccessTokenAndUserIdAndTimestampRange(
             @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken,
             @ApiParam(value = "User identifier", required = true) @PathVariable("userId") Long userId,
             @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
@@ -230,13 +238,199 @@ public class TrainingConsoleCommandsRestController {
             @ApiParam(value = "List of command to filter")
             @RequestParam(value = "commands", required = false) List<String> commands,
             @ApiParam(value = "Command type")
-            @RequestParam(value = "commandType", required = false) CommandType commandType) {
-        try {
-            return ResponseEntity.ok(trainingConsoleCommandsService
-                    .findAllConsoleCommandsByAccessTokenAndUserIdAndTimeRange(accessToken, userId, from, to, commands, commandType));
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotFoundException(ex);
-        }
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return trainingConsoleCommandsService
+                .findAllConsoleCommandsByAccessTokenAndUserIdAndTimeRange(accessToken, userId, from, to, commands, commandType, fields)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
+    }
+
+    /**
+     * Get commands in the time range of all trainings specified by sandbox IDs in a single request.
+     *
+     * @param sandboxIds  ids of wanted sandboxes
+     * @param from        the lower bound of the time range
+     * @param to          the upper bound of the time range
+     * @param commands    list of commands to filter
+     * @param commandType type of filtered commands
+     * @param fields      fields of the commands to return
+     * @param limit       maximum number of commands returned for each sandbox
+     * @return the commands keyed by sandbox ID.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get commands in the time range of trainings specified by sandbox IDs.",
+            nickname = "findAllConsoleCommandsBySandboxIdsAndTimestampRange",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "All training commands specified by sandbox IDs were found.", responseContainer = "Map"),
+            @ApiResponse(code = 406, message = "The limit is not valid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/sandboxes/ranges", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsBySandboxIdsAndTimestampRange(
+            @ApiParam(value = "Training sandbox IDs", required = true)
+            @RequestParam(value = "sandboxIds") List<String> sandboxIds,
+            @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
+            @RequestParam(value = "from") Long from,
+            @ApiParam(value = "Upper bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
+            @RequestParam(value = "to") Long to,
+            @ApiParam(value = "List of command to filter")
+            @RequestParam(value = "commands", required = false) List<String> commands,
+            @ApiParam(value = "Command type")
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @ApiParam(value = "Maximum number of the first commands returned for each sandbox")
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        return trainingConsoleCommandsService
+                .findAllConsoleCommandsBySandboxIdsAndTimeRange(sandboxIds, from, to, commands, commandType, fields, limit)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ex -> ex instanceof IllegalArgumentException
+                        ? (IllegalArgumentException) ex
+                        : new ResourceNotFoundException(ex)));
+    }
+
+    /**
+     * Get commands in the time range of all trainings specified by access token and user identifiers in a single request.
+     *
+     * @param accessToken access token of the training instance
+     * @param userIds     identifiers of the users
+     * @param from        the lower bound of the time range
+     * @param to          the upper bound of the time range
+     * @param commands    list of commands to filter
+     * @param commandType type of filtered commands
+     * @param fields      fields of the commands to return
+     * @param limit       maximum number of commands returned for each user
+     * @return the commands keyed by user identifier.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get commands in the time range of trainings specified by access token and user identifiers.",
+            nickname = "findAllConsoleCommandsByAccessTokenAndUserIdsAndTimestampRange",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "All training commands specified by access token and user identifiers were found.", responseContainer = "Map"),
+            @ApiResponse(code = 406, message = "The limit is not valid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/access-token/{accessToken}/users/ranges", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> findAllConsoleCommandsByAccessTokenAndUserIdsAndTimestampRange(
+            @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken,
+            @ApiParam(value = "User identifiers", required = true)
+            @RequestParam(value = "userIds") List<Long> userIds,
+            @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
+            @RequestParam(value = "from") Long from,
+            @ApiParam(value = "Upper bound of the time range (timestamp in epoch_millis format) of the the resulting console commands.", required = true)
+            @RequestParam(value = "to") Long to,
+            @ApiParam(value = "List of command to filter")
+            @RequestParam(value = "commands", required = false) List<String> commands,
+            @ApiParam(value = "Command type")
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Fields of the commands to return, e.g. timestamp,cmd; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @ApiParam(value = "Maximum number of the first commands returned for each user")
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        return trainingConsoleCommandsService
+                .findAllConsoleCommandsByAccessTokenAndUserIdsAndTimeRange(accessToken, userIds, from, to, commands, commandType, fields, limit)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ex -> ex instanceof IllegalArgumentException
+                        ? (IllegalArgumentException) ex
+                        : new ResourceNotFoundException(ex)));
+    }
+
+    /**
+     * Get the number of commands in the fixed time intervals of training specified by sandbox ID.
+     *
+     * @param sandboxId   id of wanted sandbox
+     * @param interval    the length of one interval
+     * @param from        the lower bound of the time range
+     * @param to          the upper bound of the time range
+     * @param commands    list of commands to filter
+     * @param commandType type of filtered commands
+     * @param topCommands number of the most frequent commands returned for each interval
+     * @return the number of commands in each interval.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get histogram of commands of training specified by sandbox ID.",
+            nickname = "findConsoleCommandsHistogramBySandboxId",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Histogram of training commands specified by sandbox ID was computed.", response = CommandsHistogramBucket.class, responseContainer = "List"),
+            @ApiResponse(code = 406, message = "The interval, time range or number of top commands is not valid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/sandboxes/{sandboxId}/histogram", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<CommandsHistogramBucket>>> findConsoleCommandsHistogramBySandboxId(
+            @ApiParam(value = "Training sandbox ID", required = true) @PathVariable("sandboxId") String sandboxId,
+            @ApiParam(value = "Length of one interval of the histogram, e.g. 30s, 5m or 1h.", required = true)
+            @RequestParam(value = "interval") String interval,
+            @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the histogram, the first command if omitted.")
+            @RequestParam(value = "from", required = false) Long from,
+            @ApiParam(value = "Upper bound of the time range (timestamp in epoch_millis format) of the histogram, the last command if omitted.")
+            @RequestParam(value = "to", required = false) Long to,
+            @ApiParam(value = "List of command to filter")
+            @RequestParam(value = "commands", required = false) List<String> commands,
+            @ApiParam(value = "Command type")
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Number of the most frequent commands returned for each interval, none if omitted")
+            @RequestParam(value = "topCommands", defaultValue = "0") int topCommands) {
+        return trainingConsoleCommandsService
+                .findConsoleCommandsHistogramBySandboxId(sandboxId, interval, from, to, commands, commandType, topCommands)
+                .<ResponseEntity<List<CommandsHistogramBucket>>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ex -> ex instanceof IllegalArgumentException
+                        ? (IllegalArgumentException) ex
+                        : new ResourceNotFoundException(ex)));
+    }
+
+    /**
+     * Get the number of commands in the fixed time intervals of training specified by access token and user identifier.
+     *
+     * @param accessToken access token of the training instance
+     * @param userId      identifier of the user
+     * @param interval    the length of one interval
+     * @param from        the lower bound of the time range
+     * @param to          the upper bound of the time range
+     * @param commands    list of commands to filter
+     * @param commandType type of filtered commands
+     * @param topCommands number of the most frequent commands returned for each interval
+     * @return the number of commands in each interval.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get histogram of commands of training specified by access token and user identifier.",
+            nickname = "findConsoleCommandsHistogramByAccessTokenAndUserId",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Histogram of training commands specified by access token and user identifier was computed.", response = CommandsHistogramBucket.class, responseContainer = "List"),
+            @ApiResponse(code = 406, message = "The interval, time range or number of top commands is not valid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/access-token/{accessToken}/users/{userId}/histogram", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<CommandsHistogramBucket>>> findConsoleCommandsHistogramByAccessTokenAndUserId(
+            @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken,
+            @ApiParam(value = "User identifier", required = true) @PathVariable("userId") Long userId,
+            @ApiParam(value = "Length of one interval of the histogram, e.g. 30s, 5m or 1h.", required = true)
+            @RequestParam(value = "interval") String interval,
+            @ApiParam(value = "Lower bound of the time range (timestamp in epoch_millis format) of the histogram, the first command if omitted.")
+            @RequestParam(value = "from", required = false) Long from,
+            @ApiParam(value = "Upper bound of the time range (timestamp in epoch_millis format) of the histogram, the last command if omitted.")
+            @RequestParam(value = "to", required = false) Long to,
+            @ApiParam(value = "List of command to filter")
+            @RequestParam(value = "commands", required = false) List<String> commands,
+            @ApiParam(value = "Command type")
+            @RequestParam(value = "commandType", required = false) CommandType commandType,
+            @ApiParam(value = "Number of the most frequent commands returned for each interval, none if omitted")
+            @RequestParam(value = "topCommands", defaultValue = "0") int topCommands) {
+        return trainingConsoleCommandsService
+                .findConsoleCommandsHistogramByAccessTokenAndUserId(accessToken, userId, interval, from, to, commands, commandType, topCommands)
+                .<ResponseEntity<List<CommandsHistogramBucket>>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ex -> ex instanceof IllegalArgumentException
+                        ? (IllegalArgumentException) ex
+                        : new ResourceNotFoundException(ex)));
     }
 
     /**
@@ -254,14 +448,11 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/pools/{poolId}")
-    public ResponseEntity<Void> deleteConsoleCommandsByPoolId(
+    public CompletableFuture<ResponseEntity<Void>> deleteConsoleCommandsByPoolId(
             @ApiParam(value = "Training pool ID", required = true) @PathVariable("poolId") Long poolId) {
-        try {
-            trainingConsoleCommandsService.deleteConsoleCommandsByPoolId(poolId);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingConsoleCommandsService.deleteConsoleCommandsByPoolId(poolId)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -279,14 +470,11 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/access-tokens/{accessToken}")
-    public ResponseEntity<Void> deleteConsoleCommandsByAccessToken(
+    public CompletableFuture<ResponseEntity<Void>> deleteConsoleCommandsByAccessToken(
             @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken) {
-        try {
-            trainingConsoleCommandsService.deleteConsoleCommandsByAccessToken(accessToken);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingConsoleCommandsService.deleteConsoleCommandsByAccessToken(accessToken)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -304,15 +492,12 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/sandboxes/{sandboxId}")
-    public ResponseEntity<Void> deleteConsoleCommandsBySandboxId(
+    public CompletableFuture<ResponseEntity<Void>> deleteConsoleCommandsBySandboxId(
             @ApiParam(value = "Training sandbox ID", required = true)
             @PathVariable("sandboxId") String sandboxId) {
-        try {
-            trainingConsoleCommandsService.deleteConsoleCommandsBySandboxId(sandboxId);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingConsoleCommandsService.deleteConsoleCommandsBySandboxId(sandboxId)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -331,15 +516,12 @@ public class TrainingConsoleCommandsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/access-tokens/{accessToken}/users/{userId}")
-    public ResponseEntity<Void> deleteConsoleCommandsByAccessTokenAndUserId(
+    public CompletableFuture<ResponseEntity<Void>> deleteConsoleCommandsByAccessTokenAndUserId(
             @ApiParam(value = "Training instance access token", required = true) @PathVariable("accessToken") String accessToken,
             @ApiParam(value = "User identifier", required = true) @PathVariable("userId") Long userId) {
-        try {
-            trainingConsoleCommandsService.deleteConsoleCommandsByAccessTokenAndUserId(accessToken, userId);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingConsoleCommandsService.deleteConsoleCommandsByAccessTokenAndUserId(accessToken, userId)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
 }
@@ -3,9 +3,12 @@ package cz.cyberrange.platform.elasticsearch.rest.controllers;
 import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotFoundException;
 import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotModifiedException;
 import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchHitConsumer;
 import cz.cyberrange.platform.elasticsearch.rest.ApiError;
 import cz.cyberrange.platform.elasticsearch.service.TrainingPlatformEventsService;
 import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -22,6 +25,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The rest controller for Training platform events.
@@ -54,6 +62,7 @@ public class TrainingPlatformEventsRestController {
      * Get all events in particular Training Instance.
      *
      * @param trainingDefinitionId id of definition associated with wanted instance
+     * @param fields               fields of the events to return
      * @return all events in selected Training Definition.
      */
     @ApiOperation(httpMethod = "GET",
@@ -68,19 +77,49 @@ public class TrainingPlatformEventsRestController {
     @GetMapping(path = "/training-definitions/{definitionId}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Object> getAllEventsByTrainingDefinition(
             @ApiParam(value = "Training definition ID", required = true)
-            @PathVariable("definitionId") Long trainingDefinitionId) {
+            @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinition(trainingDefinitionId, TrainingType.LINEAR));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinition(trainingDefinitionId, TrainingType.LINEAR, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
     }
 
+    /**
+     * Stream all events in particular Training Definition as newline delimited JSON.
+     *
+     * @param trainingDefinitionId id of definition associated with wanted instance
+     * @param fields               fields of the events to return
+     * @return all events in selected Training Definition, one event per line.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Stream all events in particular training definition as newline delimited JSON.",
+            nickname = "streamAllEventsByTrainingDefinition",
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "All events in particular training definition are streamed."),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-definitions/{definitionId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllEventsByTrainingDefinition(
+            @ApiParam(value = "Training definition ID", required = true)
+            @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> trainingEventsService.streamAllEventsByTrainingDefinition(trainingDefinitionId, TrainingType.LINEAR, fields, ndjsonWriter(outputStream)));
+    }
+
     /**
      * Get all events in particular Training Instance.
      *
      * @param trainingDefinitionId id of definition associated with wanted instance
      * @param trainingInstanceId   id of wanted instance
+     * @param fields               fields of the events to return
      * @return all events in selected Training Instance.
      */
     @ApiOperation(httpMethod = "GET",
@@ -97,20 +136,53 @@ public class TrainingPlatformEventsRestController {
             @ApiParam(value = "Training definition ID", required = true)
             @PathVariable("definitionId") Long trainingDefinitionId,
             @ApiParam(value = "Training instance ID", required = true)
-            @PathVariable("instanceId") Long trainingInstanceId) {
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, TrainingType.LINEAR));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, TrainingType.LINEAR, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
     }
 
+    /**
+     * Stream all events in particular Training Instance as newline delimited JSON.
+     *
+     * @param trainingDefinitionId id of definition associated with wanted instance
+     * @param trainingInstanceId   id of wanted instance
+     * @param fields               fields of the events to return
+     * @return all events in selected Training Instance, one event per line.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Stream all events in particular training definition and training instance as newline delimited JSON.",
+            nickname = "streamAllEventsByTrainingDefinitionAndTrainingInstanceId",
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "All events in particular training instance are streamed."),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-definitions/{definitionId}/training-instances/{instanceId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllEventsByTrainingDefinitionAndTrainingInstanceId(
+            @ApiParam(value = "Training definition ID", required = true)
+            @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Training instance ID", required = true)
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> trainingEventsService.streamAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, TrainingType.LINEAR, fields, ndjsonWriter(outputStream)));
+    }
+
     /**
      * Get all events in particular Training Run.
      *
      * @param trainingDefinitionId id of definition associated with wanted run
      * @param trainingInstanceId   id of instance associated with wanted run
      * @param trainingRunId        id of wanted run
+     * @param fields               fields of the events to return
      * @return all events in selected Training Run.
      */
     @ApiOperation(httpMethod = "GET",
@@ -129,20 +201,56 @@ public class TrainingPlatformEventsRestController {
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId,
             @ApiParam(value = "Training run ID", required = true)
-            @PathVariable("runId") Long trainingRunId) {
+            @PathVariable("runId") Long trainingRunId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, TrainingType.LINEAR));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, TrainingType.LINEAR, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
     }
 
+    /**
+     * Stream all events in particular Training Run as newline delimited JSON.
+     *
+     * @param trainingDefinitionId id of definition associated with wanted run
+     * @param trainingInstanceId   id of instance associated with wanted run
+     * @param trainingRunId        id of wanted run
+     * @param fields               fields of the events to return
+     * @return all events in selected Training Run, one event per line.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Stream all events in particular training run as newline delimited JSON.",
+            nickname = "streamAllEventsFromTrainingRun",
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "All events in particular training run are streamed."),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-definitions/{definitionId}/training-instances/{instanceId}/training-runs/{runId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllEventsFromTrainingRun(
+            @ApiParam(value = "Training definition ID", required = true)
+            @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Training instance ID", required = true)
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Training run ID", required = true)
+            @PathVariable("runId") Long trainingRunId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> trainingEventsService.streamAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, TrainingType.LINEAR, fields, ndjsonWriter(outputStream)));
+    }
+
     /**
      * Get all events in particular Training Run.
      *
      * @param instanceId   id of instance associated with wanted run
      * @param levelId id of the level
      * @param aggregationField name of the field used to aggregate data
+     * @param fields           fields of the events to return
      * @return all events in selected Training Run.
      */
     @ApiOperation(httpMethod = "GET",
@@ -158,9 +266,11 @@ public class TrainingPlatformEventsRestController {
     public ResponseEntity<Object> getEventsOfTrainingInstanceAndLevelAggregatedByGivenField(
             @ApiParam(value = "Training instance ID", required = true) @PathVariable Long instanceId,
             @ApiParam(value = "Training level ID", required = true) @PathVariable Long levelId,
-            @ApiParam(value = "Field used to aggregate data", required = true) @RequestParam("aggregationField") String aggregationField) {
+            @ApiParam(value = "Field used to aggregate data", required = true) @RequestParam("aggregationField") String aggregationField,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRunByLevelId(instanceId, levelId, aggregationField, TrainingType.LINEAR));
+            return ResponseEntity.ok(trainingEventsService.findAllEventsFromTrainingRunByLevelId(instanceId, levelId, aggregationField, TrainingType.LINEAR, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
@@ -170,6 +280,7 @@ public class TrainingPlatformEventsRestController {
      * Get all events in particular Training Instance and sorted by user ref id and timestamp.
      *
      * @param trainingInstanceId id of wanted instance
+     * @param fields             fields of the events to return
      * @return all events in selected Training Instance.
      */
     @ApiOperation(httpMethod = "GET",
@@ -184,9 +295,11 @@ public class TrainingPlatformEventsRestController {
     @GetMapping(path = "/training-instances/{instanceId}/aggregated/training-runs/levels", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Object> getAllEventsByTrainingDefinitionAndTrainingInstanceIdAggregated(
             @ApiParam(value = "Training instance ID", required = true)
-            @PathVariable("instanceId") Long trainingInstanceId) {
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.getAllEventsOfTrainingInstanceAggregatedByRunsAndLevels(trainingInstanceId));
+            return ResponseEntity.ok(trainingEventsService.getAllEventsOfTrainingInstanceAggregatedByRunsAndLevels(trainingInstanceId, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
@@ -196,6 +309,7 @@ public class TrainingPlatformEventsRestController {
      * Get all events of particular Training Instance aggregated by levels and training runs, sorted by timestamp.
      *
      * @param trainingInstanceId id of wanted instance
+     * @param fields             fields of the events to return
      * @return all events in selected Training Instance.
      */
     @ApiOperation(httpMethod = "GET",
@@ -210,9 +324,11 @@ public class TrainingPlatformEventsRestController {
     @GetMapping(path = "/training-instances/{instanceId}/aggregated/levels/training-runs", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Object> getEventsOfTrainingInstanceAggregatedByLevelsAndRuns(
             @ApiParam(value = "Training instance ID", required = true)
-            @PathVariable("instanceId") Long trainingInstanceId) {
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Fields of the events to return, e.g. timestamp,type,level; all fields are returned if omitted")
+            @RequestParam(value = "fields", required = false) List<String> fields) {
         try {
-            return ResponseEntity.ok(trainingEventsService.getAllEventsOfTrainingInstanceAggregatedByLevelsAndRuns(trainingInstanceId));
+            return ResponseEntity.ok(trainingEventsService.getAllEventsOfTrainingInstanceAggregatedByLevelsAndRuns(trainingInstanceId, fields));
         } catch (ElasticsearchTrainingServiceLayerException ex) {
             throw new ResourceNotFoundException(ex);
         }
@@ -234,17 +350,14 @@ public class TrainingPlatformEventsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/training-instances/{instanceId}/training-runs/{runId}")
-    public ResponseEntity<Void> deleteEventsFromTrainingRun(
+    public CompletableFuture<ResponseEntity<Void>> deleteEventsFromTrainingRun(
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId,
             @ApiParam(value = "Training run ID", required = true)
             @PathVariable("runId") Long trainingRunId) {
-        try {
-            trainingEventsService.deleteEventsFromTrainingRun(trainingInstanceId, trainingRunId, TrainingType.LINEAR);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingEventsService.deleteEventsFromTrainingRun(trainingInstanceId, trainingRunId, TrainingType.LINEAR)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
     }
 
     /**
@@ -262,15 +375,25 @@ public class TrainingPlatformEventsRestController {
             @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
     })
     @DeleteMapping(path = "/training-instances/{instanceId}")
-    public ResponseEntity<Void> deleteEventsFromTrainingInstance(
+    public CompletableFuture<ResponseEntity<Void>> deleteEventsFromTrainingInstance(
             @ApiParam(value = "Training instance ID", required = true)
             @PathVariable("instanceId") Long trainingInstanceId) {
-        try {
-            trainingEventsService.deleteEventsByTrainingInstanceId(trainingInstanceId, TrainingType.LINEAR);
-            return new ResponseEntity<>(HttpStatus.OK);
-        } catch (ElasticsearchTrainingServiceLayerException ex) {
-            throw new ResourceNotModifiedException(ex);
-        }
+        return trainingEventsService.deleteEventsByTrainingInstanceId(trainingInstanceId, TrainingType.LINEAR)
+                .thenApply(deleted -> new ResponseEntity<Void>(HttpStatus.OK))
+                .exceptionally(CompletableFutures.failWith(ResourceNotModifiedException::new));
+    }
+
+    /**
+     * Write each raw source as one line, see {@link RawJsonSource#writeLineTo(OutputStream)}.
+     */
+    private static SearchHitConsumer ndjsonWriter(OutputStream outputStream) {
+        return hit -> {
+            RawJsonSource source = RawJsonSource.of(hit);
+            if (source != null) {
+                source.writeLineTo(outputStream);
+                outputStream.write('\n');
+            }
+        };
     }
 
 }
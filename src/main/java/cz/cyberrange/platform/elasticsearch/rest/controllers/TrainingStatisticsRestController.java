@@ -0,0 +1,83 @@
+package cz.cyberrange.platform.elasticsearch.rest.controllers;
+
+import cz.cyberrange.platform.elasticsearch.api.exceptions.ResourceNotFoundException;
+import cz.cyberrange.platform.elasticsearch.rest.ApiError;
+import cz.cyberrange.platform.elasticsearch.service.TrainingStatisticsService;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import io.swagger.annotations.Authorization;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The rest controller for the statistics of the linear trainings.
+ */
+@Api(value = "/training-statistics",
+        tags = "Linear training statistics",
+        consumes = MediaType.APPLICATION_JSON_VALUE,
+        authorizations = @Authorization(value = "bearerAuth"))
+@ApiResponses(value = {
+        @ApiResponse(code = 401, message = "Full authentication is required to access this resource.", response = ApiError.class),
+        @ApiResponse(code = 403, message = "The necessary permissions are required for a resource.", response = ApiError.class)
+})
+@RestController
+@RequestMapping(path = "/training-statistics", produces = MediaType.APPLICATION_JSON_VALUE)
+public class TrainingStatisticsRestController {
+
+    private final TrainingStatisticsService trainingStatisticsService;
+
+    /**
+     * Instantiates a new Training statistics rest controller.
+     *
+     * @param trainingStatisticsService the training statistics service
+     */
+    @Autowired
+    public TrainingStatisticsRestController(TrainingStatisticsService trainingStatisticsService) {
+        this.trainingStatisticsService = trainingStatisticsService;
+    }
+
+    /**
+     * Get time spent and number of events in the levels of the training runs of particular Training Instance.
+     *
+     * @param trainingDefinitionId id of definition associated with wanted instance
+     * @param trainingInstanceId   id of wanted instance
+     * @param trainingRunIds       ids of wanted runs, all runs of the instance if omitted
+     * @param events               events to count in each level
+     * @return statistics of the levels of each training run.
+     */
+    @ApiOperation(httpMethod = "GET",
+            value = "Get levels statistics of the training runs in particular training instance.",
+            nickname = "getLevelsStatistics"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Levels statistics was found."),
+            @ApiResponse(code = 500, message = "Unexpected condition was encountered.", response = ApiError.class)
+    })
+    @GetMapping(path = "/training-definitions/{definitionId}/training-instances/{instanceId}/levels")
+    public CompletableFuture<ResponseEntity<Object>> getLevelsStatistics(
+            @ApiParam(value = "Training definition ID", required = true)
+            @PathVariable("definitionId") Long trainingDefinitionId,
+            @ApiParam(value = "Training instance ID", required = true)
+            @PathVariable("instanceId") Long trainingInstanceId,
+            @ApiParam(value = "Training run IDs, all training runs of the instance if omitted")
+            @RequestParam(value = "runIds", required = false) List<Long> trainingRunIds,
+            @ApiParam(value = "Events to count in each level, e.g. HintTaken,WrongAnswerSubmitted; hints, answers, solutions and completions are counted if omitted")
+            @RequestParam(value = "events", required = false) List<String> events) {
+        return trainingStatisticsService.findLevelsStatistics(trainingDefinitionId, trainingInstanceId, trainingRunIds, events)
+                .<ResponseEntity<Object>>thenApply(ResponseEntity::ok)
+                .exceptionally(CompletableFutures.failWith(ResourceNotFoundException::new));
+    }
+}
@@ -0,0 +1,162 @@
+package cz.cyberrange.platform.elasticsearch.service;
+
+import cz.cyberrange.platform.elasticsearch.api.dto.OverallPhaseStatistics;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsDAO;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO.EndedRun;
+import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import org.elasticsearch.core.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically materializes the overall statistics of the ended adaptive training runs, so they are served by a single
+ * lookup instead of being recomputed from the events on each request.
+ * <p>
+ * The training runs are detected by their <i>TrainingRunEnded</i> events. A run is materialized once its end is older
+ * than the settle time, which gives the console commands sent just before the end time to be indexed. The runs are
+ * materialized in the order of their end, each pass looks for the runs that ended since the end of the latest run
+ * recorded in the statistics index, so neither the restarts nor the other instances of the service rescan the runs
+ * materialized before. Each window overlaps the previous one by the settle time, so the end events indexed late are
+ * still found. The runs already recorded are skipped, so a failed pass is simply repeated by the next one. The pass
+ * waits for the statistics of a single run at most five minutes.
+ * The training runs with the local sandboxes are only recorded, their commands are found by the access token and
+ * the user which are known only to the requests.
+ */
+@Component
+public class AdaptiveTrainingStatisticsMaterializer implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveTrainingStatisticsMaterializer.class);
+    private static final long COMPUTATION_TIMEOUT_MINUTES = 5;
+
+    private final AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO;
+    private final AdaptiveTrainingStatisticsDAO adaptiveTrainingStatisticsDAO;
+    private final AdaptiveTrainingStatisticsService adaptiveTrainingStatisticsService;
+    private final boolean enabled;
+    private final TimeValue interval;
+    private final TimeValue settleTime;
+    private ScheduledExecutorService scheduler;
+    private boolean indexCreated;
+    private long checkpoint;
+
+    /**
+     * Instantiates a new Adaptive training statistics materializer.
+     *
+     * @param adaptiveTrainingStatisticsStoreDAO the dao of the materialized statistics
+     * @param adaptiveTrainingStatisticsDAO      the dao computing the statistics from the events
+     * @param adaptiveTrainingStatisticsService  the service computing the overall statistics
+     * @param enabled                            whether the statistics are materialized
+     * @param interval                           the delay between two passes
+     * @param settleTime                         how long after its end the training run is materialized
+     */
+    @Autowired
+    public AdaptiveTrainingStatisticsMaterializer(AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO,
+                                                  AdaptiveTrainingStatisticsDAO adaptiveTrainingStatisticsDAO,
+                                                  AdaptiveTrainingStatisticsService adaptiveTrainingStatisticsService,
+                                                  @Value("${elasticsearch.statistics.materialization.enabled:true}") boolean enabled,
+                                                  @Value("${elasticsearch.statistics.materialization.interval:1m}") String interval,
+                                                  @Value("${elasticsearch.statistics.materialization.settle-time:5m}") String settleTime) {
+        this.adaptiveTrainingStatisticsStoreDAO = adaptiveTrainingStatisticsStoreDAO;
+        this.adaptiveTrainingStatisticsDAO = adaptiveTrainingStatisticsDAO;
+        this.adaptiveTrainingStatisticsService = adaptiveTrainingStatisticsService;
+        this.enabled = enabled;
+        this.interval = TimeValue.parseTimeValue(interval, "elasticsearch.statistics.materialization.interval");
+        this.settleTime = TimeValue.parseTimeValue(settleTime, "elasticsearch.statistics.materialization.settle-time");
+    }
+
+    /**
+     * Start the periodic materialization once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crczp-statistics-materializer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::materializeEndedTrainingRuns, 0, interval.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void materializeEndedTrainingRuns() {
+        long to = System.currentTimeMillis() - settleTime.millis();
+        try {
+            if (!indexCreated) {
+                adaptiveTrainingStatisticsStoreDAO.createStatisticsIndexIfMissing();
+                indexCreated = true;
+            }
+            //overlap the windows by the settle time to catch the end events indexed late
+            long from = Math.max(0, Math.max(checkpoint, adaptiveTrainingStatisticsStoreDAO.findCheckpoint()) - settleTime.millis());
+            adaptiveTrainingStatisticsStoreDAO.forEachEndedRuns(from, to, this::materialize);
+            checkpoint = to;
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("The statistics of the ended training runs could not be materialized: {}", ex.getMessage());
+        }
+    }
+
+    private void materialize(List<EndedRun> endedRuns) throws IOException {
+        Set<Long> storedTrainingRunIds = adaptiveTrainingStatisticsStoreDAO.findStoredTrainingRunIds(endedRuns.stream()
+                .map(EndedRun::getTrainingRunId)
+                .collect(Collectors.toList()));
+        for (EndedRun endedRun : endedRuns) {
+            Long trainingRunId = endedRun.getTrainingRunId();
+            if (storedTrainingRunIds.contains(trainingRunId)) {
+                continue;
+            }
+            if (adaptiveTrainingStatisticsDAO.getUniqueFieldValueFromTrainingEvent(trainingRunId, "sandbox_id") == null) {
+                adaptiveTrainingStatisticsStoreDAO.storeLocalSandboxRun(endedRun);
+                continue;
+            }
+            List<Long> phaseIds = adaptiveTrainingStatisticsDAO.getPhaseIdsOfTrainingRun(trainingRunId);
+            if (phaseIds.isEmpty()) {
+                //no phase events were recorded, there is nothing to compute
+                adaptiveTrainingStatisticsStoreDAO.storeStatistics(endedRun, List.of());
+                continue;
+            }
+            List<OverallPhaseStatistics> statistics = awaitStatistics(adaptiveTrainingStatisticsService
+                    .computeOverallStatistics(trainingRunId, phaseIds, null, null, null));
+            adaptiveTrainingStatisticsStoreDAO.storeStatistics(endedRun, statistics);
+        }
+    }
+
+    private List<OverallPhaseStatistics> awaitStatistics(CompletableFuture<List<OverallPhaseStatistics>> statistics) {
+        try {
+            return statistics.get(COMPUTATION_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            statistics.cancel(true);
+            throw new ElasticsearchTrainingServiceLayerException("The materialization was interrupted.", ex);
+        } catch (TimeoutException ex) {
+            statistics.cancel(true);
+            throw new ElasticsearchTrainingServiceLayerException("The statistics were not computed in time.", ex);
+        } catch (ExecutionException ex) {
+            throw new ElasticsearchTrainingServiceLayerException(ex.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
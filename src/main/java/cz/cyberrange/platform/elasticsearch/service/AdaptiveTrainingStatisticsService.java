@@ -1,19 +1,34 @@
 package cz.cyberrange.platform.elasticsearch.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.cyberrange.platform.elasticsearch.api.dto.CommandsStatistics;
 import cz.cyberrange.platform.elasticsearch.api.dto.OverallPhaseStatistics;
+import cz.cyberrange.platform.elasticsearch.api.dto.PhaseTimeDistribution;
 import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsDAO;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO.EndedRun;
 import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.statistics.TrainingRunPhasesData;
+import cz.cyberrange.platform.elasticsearch.service.cache.LiveRunStatistics;
+import cz.cyberrange.platform.elasticsearch.service.cache.PhaseTimeSketches;
 import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
+import org.elasticsearch.search.aggregations.metrics.TDigestState;
 import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -22,116 +37,395 @@ import java.util.stream.Collectors;
 @Service
 public class AdaptiveTrainingStatisticsService {
 
+    /**
+     * The maximum number of the buckets of the histogram of the phase times, all of them are returned even if empty.
+     */
+    private static final int MAX_HISTOGRAM_BUCKETS = 1000;
+
     private final AdaptiveTrainingStatisticsDAO adaptiveTrainingStatisticsDAO;
+    private final AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO;
+    private final LiveRunStatistics liveRunStatistics;
+    private final PhaseTimeSketches phaseTimeSketches;
+    private final ObjectMapper objectMapper;
+    private final boolean incrementalStatistics;
 
     @Autowired
-    public AdaptiveTrainingStatisticsService(AdaptiveTrainingStatisticsDAO adaptiveTrainingStatisticsDAO) {
+    public AdaptiveTrainingStatisticsService(AdaptiveTrainingStatisticsDAO adaptiveTrainingStatisticsDAO,
+                                             AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO,
+                                             LiveRunStatistics liveRunStatistics,
+                                             PhaseTimeSketches phaseTimeSketches,
+                                             @Qualifier("objMapperForElasticsearch") ObjectMapper objectMapper,
+                                             @Value("${elasticsearch.statistics.incremental.enabled:true}") boolean incrementalStatistics) {
         this.adaptiveTrainingStatisticsDAO = adaptiveTrainingStatisticsDAO;
+        this.adaptiveTrainingStatisticsStoreDAO = adaptiveTrainingStatisticsStoreDAO;
+        this.liveRunStatistics = liveRunStatistics;
+        this.phaseTimeSketches = phaseTimeSketches;
+        this.objectMapper = objectMapper;
+        this.incrementalStatistics = incrementalStatistics;
     }
 
-    public List<CommandsStatistics> findCommandsStatistic(Long trainingRunId, List<Long> phaseIds,
-                                                          String accessToken, Long userId,
-                                                          Map<Long, List<String>> keywordsMapping) {
-        try {
-            List<CommandsStatistics> result = new ArrayList<>();
-            Map<Long, Pair<Long, Long>> phasesBoundaries = adaptiveTrainingStatisticsDAO.findTimeBoundariesOfPhases(trainingRunId, phaseIds);
-            Map<Long, Long> taskIdsOfPhases = adaptiveTrainingStatisticsDAO.getTaskIdsOfPhases(trainingRunId, phaseIds);
-
-            String index = getIndexToFindCommandStatistics(trainingRunId, accessToken, userId);
-            for (Map.Entry<Long, Pair<Long, Long>> phaseBoundaries : phasesBoundaries.entrySet()) {
-                Pair<Long, Map<String, Long>> statistics = adaptiveTrainingStatisticsDAO.findCommandsStatisticsInTimeRange(
-                        index,
-                        phaseBoundaries.getValue().getValue0(),
-                        phaseBoundaries.getValue().getValue1(),
-                        keywordsMapping == null ? null : keywordsMapping.get(phaseBoundaries.getKey()));
-                result.add(new CommandsStatistics(phaseBoundaries.getKey(), taskIdsOfPhases.get(phaseBoundaries.getKey()), statistics.getValue0(), statistics.getValue1()));
-            }
-            return result;
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+    public CompletableFuture<List<CommandsStatistics>> findCommandsStatistic(Long trainingRunId, List<Long> phaseIds,
+                                                                             String accessToken, Long userId,
+                                                                             Map<Long, List<String>> keywordsMapping) {
+        if (keywordsMapping != null && !keywordsMapping.isEmpty()) {
+            return computeLiveCommandsStatistic(trainingRunId, phaseIds, accessToken, userId, keywordsMapping);
         }
+        return findStoredOrCompute(trainingRunId, phaseIds,
+                storedStatistics -> storedStatistics.stream()
+                        .map(phase -> new CommandsStatistics(phase.getPhaseId(), phase.getTaskId(), phase.getNumberOfCommands(), phase.getKeywordsInCommands()))
+                        .collect(Collectors.toList()),
+                () -> computeLiveCommandsStatistic(trainingRunId, phaseIds, accessToken, userId, null));
+    }
+
+    private CompletableFuture<List<CommandsStatistics>> computeLiveCommandsStatistic(Long trainingRunId, List<Long> phaseIds,
+                                                                                     String accessToken, Long userId,
+                                                                                     Map<Long, List<String>> keywordsMapping) {
+        return computeIncrementally(trainingRunId, true, accessToken, userId,
+                runStatistics -> {
+                    TrainingRunPhasesData phasesData = runStatistics.getPhasesData(phaseIds, List.of("SolutionDisplayed"));
+                    Map<Long, Pair<Long, Map<String, Long>>> commandsStatisticsOfPhases = runStatistics.countCommands(phasesData.getPhasesBoundaries(), keywordsMapping);
+                    List<CommandsStatistics> result = new ArrayList<>();
+                    for (Long phaseId : phasesData.getPhasesBoundaries().keySet()) {
+                        Pair<Long, Map<String, Long>> statistics = commandsStatisticsOfPhases.get(phaseId);
+                        result.add(new CommandsStatistics(phaseId, phasesData.getTaskIdsOfPhases().get(phaseId), statistics.getValue0(), statistics.getValue1()));
+                    }
+                    return result;
+                },
+                () -> computeCommandsStatistic(trainingRunId, phaseIds, accessToken, userId, keywordsMapping));
+    }
+
+    private CompletableFuture<List<CommandsStatistics>> computeCommandsStatistic(Long trainingRunId, List<Long> phaseIds,
+                                                                                 String accessToken, Long userId,
+                                                                                 Map<Long, List<String>> keywordsMapping) {
+        CompletableFuture<Map<Long, Pair<Long, Long>>> phasesBoundariesFuture = adaptiveTrainingStatisticsDAO.findTimeBoundariesOfPhasesAsync(trainingRunId, phaseIds);
+        CompletableFuture<Map<Long, Long>> taskIdsOfPhasesFuture = adaptiveTrainingStatisticsDAO.getTaskIdsOfPhasesAsync(trainingRunId, phaseIds);
+        CompletableFuture<String> indexFuture = adaptiveTrainingStatisticsDAO.getUniqueFieldValueFromTrainingEventAsync(trainingRunId, "sandbox_id")
+                .thenApply(sandboxId -> getIndexToFindCommandStatistics(sandboxId, accessToken, userId));
+        return CompletableFuture.allOf(phasesBoundariesFuture, taskIdsOfPhasesFuture, indexFuture)
+                .thenCompose(ignored -> adaptiveTrainingStatisticsDAO.findCommandsStatisticsInTimeRangesAsync(indexFuture.join(), phasesBoundariesFuture.join(), keywordsMapping))
+                .thenApply(commandsStatisticsOfPhases -> {
+                    Map<Long, Long> taskIdsOfPhases = taskIdsOfPhasesFuture.join();
+                    List<CommandsStatistics> result = new ArrayList<>();
+                    for (Long phaseId : phasesBoundariesFuture.join().keySet()) {
+                        Pair<Long, Map<String, Long>> statistics = commandsStatisticsOfPhases.get(phaseId);
+                        result.add(new CommandsStatistics(phaseId, taskIdsOfPhases.get(phaseId), statistics.getValue0(), statistics.getValue1()));
+                    }
+                    return result;
+                })
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
     }
 
     public String getIndexToFindCommandStatistics(Long trainingRunId, String accessToken, Long userId) {
         try {
-            String sandboxId = (String) adaptiveTrainingStatisticsDAO.getUniqueFieldValueFromTrainingEvent(trainingRunId, "sandbox_id");
-            if (sandboxId != null) {
-                return AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId;
-            }
-            if (accessToken == null || userId == null) {
-                throw new ElasticsearchTrainingServiceLayerException("The sandbox ID in the training events is null, thus access token and user ID must be defined.");
-            }
-            return AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId;
+            Object sandboxId = adaptiveTrainingStatisticsDAO.getUniqueFieldValueFromTrainingEvent(trainingRunId, "sandbox_id");
+            return getIndexToFindCommandStatistics(sandboxId, accessToken, userId);
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
     }
 
-    public Map<Long, Long> findPhaseTimeStatistics(Long trainingRunId, List<Long> phaseIds) {
-        try {
-            return adaptiveTrainingStatisticsDAO.findTimeBoundariesOfPhases(trainingRunId, phaseIds).entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getValue1() - entry.getValue().getValue0()));
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+    private String getIndexToFindCommandStatistics(Object sandboxId, String accessToken, Long userId) {
+        if (sandboxId != null) {
+            return AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId;
         }
+        if (accessToken == null || userId == null) {
+            throw new ElasticsearchTrainingServiceLayerException("The sandbox ID in the training events is null, thus access token and user ID must be defined.");
+        }
+        return AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId;
     }
 
-    public Map<Long, Boolean> findPhaseSolutionsStatistics(Long trainingRunId, List<Long> phaseIds) {
-        try {
-            Map<Long, Long> solutionDisplayedMapping = adaptiveTrainingStatisticsDAO.countEventsInPhases(trainingRunId, phaseIds, List.of("SolutionDisplayed")).entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, longMapEntry -> longMapEntry.getValue().get("SolutionDisplayed")));
-            return solutionDisplayedMapping.entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue() == 1));
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+    public CompletableFuture<Map<Long, Long>> findPhaseTimeStatistics(Long trainingRunId, List<Long> phaseIds) {
+        return findStoredOrCompute(trainingRunId, phaseIds,
+                storedStatistics -> storedStatistics.stream()
+                        .collect(Collectors.toMap(OverallPhaseStatistics::getPhaseId, OverallPhaseStatistics::getPhaseTime)),
+                () -> computeIncrementally(trainingRunId, false, null, null,
+                        runStatistics -> toPhaseTimes(runStatistics.getPhasesData(phaseIds, List.of("SolutionDisplayed")).getPhasesBoundaries()),
+                        () -> computePhaseTimeStatistics(trainingRunId, phaseIds)));
+    }
+
+    private CompletableFuture<Map<Long, Long>> computePhaseTimeStatistics(Long trainingRunId, List<Long> phaseIds) {
+        return adaptiveTrainingStatisticsDAO.findTimeBoundariesOfPhasesAsync(trainingRunId, phaseIds)
+                .thenApply(AdaptiveTrainingStatisticsService::toPhaseTimes)
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    private static Map<Long, Long> toPhaseTimes(Map<Long, Pair<Long, Long>> phasesBoundaries) {
+        return phasesBoundaries.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getValue1() - entry.getValue().getValue0()));
+    }
+
+    public CompletableFuture<Map<Long, Boolean>> findPhaseSolutionsStatistics(Long trainingRunId, List<Long> phaseIds) {
+        return findStoredOrCompute(trainingRunId, phaseIds,
+                storedStatistics -> storedStatistics.stream()
+                        .collect(Collectors.toMap(OverallPhaseStatistics::getPhaseId, OverallPhaseStatistics::getSolutionDisplayed)),
+                () -> computeIncrementally(trainingRunId, false, null, null,
+                        runStatistics -> toSolutionsDisplayed(runStatistics.getPhasesData(phaseIds, List.of("SolutionDisplayed")).getEventsInPhases()),
+                        () -> computePhaseSolutionsStatistics(trainingRunId, phaseIds)));
+    }
+
+    private CompletableFuture<Map<Long, Boolean>> computePhaseSolutionsStatistics(Long trainingRunId, List<Long> phaseIds) {
+        return adaptiveTrainingStatisticsDAO.countEventsInPhasesAsync(trainingRunId, phaseIds, List.of("SolutionDisplayed"))
+                .thenApply(AdaptiveTrainingStatisticsService::toSolutionsDisplayed)
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    private static Map<Long, Boolean> toSolutionsDisplayed(Map<Long, Map<String, Long>> eventsInPhases) {
+        return eventsInPhases.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get("SolutionDisplayed") == 1));
+    }
+
+    public CompletableFuture<Map<Long, List<String>>> findPhaseWrongAnswersStatistics(Long trainingRunId, List<Long> phaseIds) {
+        return findStoredOrCompute(trainingRunId, phaseIds,
+                storedStatistics -> {
+                    Map<Long, List<String>> wrongAnswersInPhases = new LinkedHashMap<>();
+                    phaseIds.forEach(phaseId -> wrongAnswersInPhases.put(phaseId, new ArrayList<>()));
+                    storedStatistics.stream()
+                            .filter(phase -> phase.getWrongAnswers() != null)
+                            .forEach(phase -> wrongAnswersInPhases.put(phase.getPhaseId(), phase.getWrongAnswers()));
+                    return wrongAnswersInPhases;
+                },
+                () -> computeIncrementally(trainingRunId, false, null, null,
+                        runStatistics -> runStatistics.getPhasesData(phaseIds, List.of("SolutionDisplayed")).getWrongAnswersInPhases(),
+                        () -> adaptiveTrainingStatisticsDAO.getWrongAnswersInPhasesAsync(trainingRunId, phaseIds)));
+    }
+
+    /**
+     * Find the overall statistics of the given phases of the training run. The statistics of the ended training runs
+     * are served from the materialized statistics, unless the keywords are requested, the statistics of the running
+     * training runs are updated with the events indexed since the previous request.
+     *
+     * @param trainingRunId   the training run id
+     * @param phaseIds        ids of the phases whose statistics are requested
+     * @param accessToken     the access token of the local sandbox, used if the events do not contain the sandbox id
+     * @param userId          the user of the local sandbox, used if the events do not contain the sandbox id
+     * @param keywordsMapping the keywords counted in the commands of each phase
+     * @return the future of the statistics of the phases
+     */
+    public CompletableFuture<List<OverallPhaseStatistics>> findOverallStatistics(Long trainingRunId, List<Long> phaseIds,
+                                                                                 String accessToken, Long userId,
+                                                                                 Map<Long, List<String>> keywordsMapping) {
+        if (keywordsMapping != null && !keywordsMapping.isEmpty()) {
+            return computeLiveOverallStatistics(trainingRunId, phaseIds, accessToken, userId, keywordsMapping);
         }
+        return findStoredOrCompute(trainingRunId, phaseIds, Function.identity(),
+                () -> computeLiveOverallStatistics(trainingRunId, phaseIds, accessToken, userId, null));
     }
 
-    public Map<Long, List<String>> findPhaseWrongAnswersStatistics(Long trainingRunId, List<Long> phaseIds) {
-        try {
-            return adaptiveTrainingStatisticsDAO.getWrongAnswersInPhases(trainingRunId, phaseIds);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+    private CompletableFuture<List<OverallPhaseStatistics>> computeLiveOverallStatistics(Long trainingRunId, List<Long> phaseIds,
+                                                                                         String accessToken, Long userId,
+                                                                                         Map<Long, List<String>> keywordsMapping) {
+        return computeIncrementally(trainingRunId, true, accessToken, userId,
+                runStatistics -> {
+                    TrainingRunPhasesData phasesData = runStatistics.getPhasesData(phaseIds, List.of("SolutionDisplayed"));
+                    return createOverallStatistics(phasesData, runStatistics.countCommands(phasesData.getPhasesBoundaries(), keywordsMapping));
+                },
+                () -> computeOverallStatistics(trainingRunId, phaseIds, accessToken, userId, keywordsMapping));
+    }
+
+    /**
+     * Compute the overall statistics of the given phases of the training run from the events.
+     *
+     * @param trainingRunId   the training run id
+     * @param phaseIds        ids of the phases whose statistics are requested
+     * @param accessToken     the access token of the local sandbox, used if the events do not contain the sandbox id
+     * @param userId          the user of the local sandbox, used if the events do not contain the sandbox id
+     * @param keywordsMapping the keywords counted in the commands of each phase
+     * @return the future of the statistics of the phases
+     */
+    CompletableFuture<List<OverallPhaseStatistics>> computeOverallStatistics(Long trainingRunId, List<Long> phaseIds,
+                                                                             String accessToken, Long userId,
+                                                                             Map<Long, List<String>> keywordsMapping) {
+        return adaptiveTrainingStatisticsDAO.findPhasesDataAsync(trainingRunId, phaseIds, List.of("SolutionDisplayed"))
+                .thenCompose(phasesData -> {
+                    String index = getIndexToFindCommandStatistics(phasesData.getSandboxId(), accessToken, userId);
+                    return adaptiveTrainingStatisticsDAO.findCommandsStatisticsInTimeRangesAsync(index, phasesData.getPhasesBoundaries(), keywordsMapping)
+                            .thenApply(commandsStatisticsOfPhases -> createOverallStatistics(phasesData, commandsStatisticsOfPhases));
+                })
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    /**
+     * Find the phase times, solution displayed flags, wrong answers and task ids of the given phases of all given
+     * training runs with a constant number of searches. The commands statistics are not included.
+     *
+     * @param trainingRunIds the training run ids
+     * @param phaseIds       ids of the phases whose statistics are requested, all phases if null or empty
+     * @return the future of the mapping of the training runs and the statistics of their phases
+     */
+    public CompletableFuture<Map<Long, List<OverallPhaseStatistics>>> findOverallStatisticsOfRuns(List<Long> trainingRunIds, List<Long> phaseIds) {
+        return adaptiveTrainingStatisticsDAO.findPhasesDataOfRunsAsync(trainingRunIds, phaseIds, List.of("SolutionDisplayed"))
+                .thenApply(phasesDataOfRuns -> {
+                    Map<Long, List<OverallPhaseStatistics>> result = new LinkedHashMap<>();
+                    phasesDataOfRuns.forEach((trainingRunId, phasesData) -> result.put(trainingRunId, createPhasesStatistics(phasesData)));
+                    return result;
+                })
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    /**
+     * Find the distributions of the times spent at the phases across the ended training runs of the training definition.
+     * Only the completed phases are included. The phase times are kept in the t-digest sketches of the training definition,
+     * the same ones the <i>percentiles</i> aggregation of Elasticsearch uses, thus the percentiles and the histogram are
+     * estimated from the sketches. Each request folds in only the training runs which ended since the previous one,
+     * see {@link PhaseTimeSketches}.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param phaseIds             ids of the phases whose distributions are requested, all phases if null or empty
+     * @param percents             the percents of the estimated percentiles, between 0 and 100
+     * @param histogramBuckets     the number of the equally wide buckets of the histogram from the min phase time covering
+     *                             the max phase time, exactly this number of buckets is returned
+     * @return the future of the distributions of the phase times ordered by the phase id, failed with
+     * {@link IllegalArgumentException} if the percents or the number of the histogram buckets are not valid
+     */
+    public CompletableFuture<List<PhaseTimeDistribution>> findPhaseTimeDistributions(Long trainingDefinitionId, List<Long> phaseIds,
+                                                                                    List<Double> percents, int histogramBuckets) {
+        for (Double percent : percents) {
+            if (percent == null || percent < 0 || percent > 100) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException("The percents must be between 0 and 100."));
+            }
         }
+        if (histogramBuckets < 1 || histogramBuckets > MAX_HISTOGRAM_BUCKETS) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The number of the histogram buckets must be between 1 and " + MAX_HISTOGRAM_BUCKETS + "."));
+        }
+        PhaseTimeSketches.DefinitionSketches sketches = phaseTimeSketches.get(trainingDefinitionId);
+        return sketches.update(() -> adaptiveTrainingStatisticsDAO.findEndedRunsAsync(trainingDefinitionId, sketches.getEndedSince())
+                        .thenCompose(endedRuns -> {
+                            List<EndedRun> newRuns = sketches.filterNew(endedRuns);
+                            return adaptiveTrainingStatisticsDAO.forEachCompletedPhaseTimeAsync(trainingDefinitionId,
+                                            newRuns.stream().map(EndedRun::getTrainingRunId).collect(Collectors.toList()),
+                                            (trainingRunId, phaseId, phaseTime) -> sketches.foldPhaseTime(phaseId, phaseTime))
+                                    .thenRun(() -> sketches.markFolded(newRuns));
+                        })
+                        .whenComplete((ignored, ex) -> {
+                            // the phase times of the training runs folded in before the failure would be folded in again
+                            if (ex != null) {
+                                phaseTimeSketches.evictTrainingDefinition(trainingDefinitionId);
+                            }
+                        }))
+                .thenApply(ignored -> sketches.mapSketches(phaseIds, (phaseId, sketch) -> createPhaseTimeDistribution(phaseId, sketch, percents, histogramBuckets)))
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
     }
 
-    public List<OverallPhaseStatistics> findOverallStatistics(Long trainingRunId, List<Long> phaseIds,
-                                                              String accessToken, Long userId,
-                                                              Map<Long, List<String>> keywordsMapping) {
-        try {
-            List<OverallPhaseStatistics> result = new ArrayList<>();
-            String index = getIndexToFindCommandStatistics(trainingRunId, accessToken, userId);
-            Map<Long, Pair<Long, Long>> phasesBoundaries = adaptiveTrainingStatisticsDAO.findTimeBoundariesOfPhases(trainingRunId, phaseIds);
-            Map<Long, Map<String, Long>> solutionDisplayedInPhases = adaptiveTrainingStatisticsDAO.countEventsInPhases(trainingRunId, phaseIds, List.of("SolutionDisplayed"));
-            Map<Long, List<String>> wrongAnswersOfPhases = adaptiveTrainingStatisticsDAO.getWrongAnswersInPhases(trainingRunId, phaseIds);
-            Map<Long, Long> taskIdsOfPhases = adaptiveTrainingStatisticsDAO.getTaskIdsOfPhases(trainingRunId, phaseIds);
-            for (Map.Entry<Long, Pair<Long, Long>> phaseBoundary : phasesBoundaries.entrySet()) {
-                Long phaseId = phaseBoundary.getKey();
-                OverallPhaseStatistics overallPhaseStatistics = new OverallPhaseStatistics();
-                overallPhaseStatistics.setPhaseId(phaseId);
-                overallPhaseStatistics.setPhaseTime(phaseBoundary.getValue().getValue1() - phaseBoundary.getValue().getValue0());
-                Map<String, Long> phaseMap = solutionDisplayedInPhases.get(phaseId);
-                if (phaseMap != null && phaseMap.get("SolutionDisplayed") != null) {
-                    overallPhaseStatistics.setSolutionDisplayed(phaseMap.get("SolutionDisplayed") == 1);
-                } else {
-                    overallPhaseStatistics.setSolutionDisplayed(false);
-                }
-
-                overallPhaseStatistics.setWrongAnswers(wrongAnswersOfPhases.get(phaseId));
-                overallPhaseStatistics.setTaskId(taskIdsOfPhases.get(phaseId));
-                Pair<Long, Map<String, Long>> phaseCommandsStatistics = adaptiveTrainingStatisticsDAO.findCommandsStatisticsInTimeRange(
-                        index,
-                        phaseBoundary.getValue().getValue0(),
-                        phaseBoundary.getValue().getValue1(),
-                        keywordsMapping == null ? null : keywordsMapping.get(phaseId));
-                overallPhaseStatistics.setNumberOfCommands(phaseCommandsStatistics.getValue0());
-                overallPhaseStatistics.setKeywordsInCommands(phaseCommandsStatistics.getValue1());
-                result.add(overallPhaseStatistics);
+    private PhaseTimeDistribution createPhaseTimeDistribution(Long phaseId, TDigestState sketch, List<Double> percents, int histogramBuckets) {
+        long numberOfRuns = sketch.size();
+        long minPhaseTime = (long) sketch.getMin();
+        long maxPhaseTime = (long) sketch.getMax();
+        PhaseTimeDistribution distribution = new PhaseTimeDistribution();
+        distribution.setPhaseId(phaseId);
+        distribution.setNumberOfRuns(numberOfRuns);
+        distribution.setMinPhaseTime(minPhaseTime);
+        distribution.setMaxPhaseTime(maxPhaseTime);
+
+        Map<Double, Long> percentiles = new LinkedHashMap<>();
+        for (Double percent : percents) {
+            percentiles.put(percent, Math.round(sketch.quantile(percent / 100)));
+        }
+        distribution.setPercentiles(percentiles);
+
+        //Buckets are counted as the differences of the estimated cumulative counts, so they sum up to the number of runs;
+        //the buckets cover the max phase time, the last ones may lie above it if the interval had to be rounded up
+        long interval = (maxPhaseTime - minPhaseTime) / histogramBuckets + 1;
+        Map<Long, Long> histogram = new LinkedHashMap<>();
+        long lowerCount = 0;
+        for (int bucket = 0; bucket < histogramBuckets; bucket++) {
+            long lower = minPhaseTime + bucket * interval;
+            long upper = lower + interval;
+            long upperCount = upper > maxPhaseTime ? numberOfRuns : Math.round(numberOfRuns * sketch.cdf(upper));
+            histogram.put(lower, upperCount - lowerCount);
+            lowerCount = upperCount;
+        }
+        distribution.setHistogramInterval(interval);
+        distribution.setHistogram(histogram);
+        return distribution;
+    }
+
+    /**
+     * Fold the events, and the commands if they are needed, indexed since the previous request in the partial statistics
+     * of the training run and compute the result from them, so the cost of the request depends on the number of the new
+     * events instead of the length of the training run. The statistics are computed from all events if the incremental
+     * statistics are disabled, the indices of the training run have more shards, or some events or commands are held
+     * back by the gap in the sequence numbers, so the response never misses the documents already indexed.
+     */
+    private <T> CompletableFuture<T> computeIncrementally(Long trainingRunId, boolean withCommands, String accessToken, Long userId,
+                                                          Function<LiveRunStatistics.RunStatistics, T> fromRunStatistics,
+                                                          Supplier<CompletableFuture<T>> compute) {
+        if (!incrementalStatistics) {
+            return compute.get();
+        }
+        LiveRunStatistics.RunStatistics runStatistics = liveRunStatistics.get(trainingRunId);
+        return runStatistics.update(() -> {
+                    if (!runStatistics.isIncremental()) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    CompletableFuture<Void> folded = adaptiveTrainingStatisticsDAO.forEachNewEventAsync(trainingRunId, runStatistics.getEventsCursor(), runStatistics::foldEvent);
+                    if (withCommands) {
+                        folded = folded.thenCompose(ignored -> {
+                            String index = getIndexToFindCommandStatistics(runStatistics.getSandboxId(), accessToken, userId);
+                            return adaptiveTrainingStatisticsDAO.forEachNewCommandAsync(index, runStatistics.getCommandsCursor(index), runStatistics::foldCommand);
+                        });
+                    }
+                    return folded.thenApply(ignored -> runStatistics.isIncremental() && runStatistics.isComplete());
+                })
+                .thenCompose(incremental -> incremental
+                        ? CompletableFuture.completedFuture(fromRunStatistics.apply(runStatistics))
+                        : compute.get())
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    /**
+     * Serve the statistics from the materialized statistics of the training run if they are stored, otherwise compute
+     * them from the events. The lookup failures are not fatal, the statistics are computed instead.
+     */
+    private <T> CompletableFuture<T> findStoredOrCompute(Long trainingRunId, List<Long> phaseIds,
+                                                         Function<List<OverallPhaseStatistics>, T> fromStored,
+                                                         Supplier<CompletableFuture<T>> compute) {
+        return adaptiveTrainingStatisticsStoreDAO.getStatisticsAsync(trainingRunId)
+                .exceptionally(ex -> null)
+                .thenCompose(storedPhases -> storedPhases == null
+                        ? compute.get()
+                        : CompletableFuture.completedFuture(fromStored.apply(storedPhases.stream()
+                        .map(phase -> objectMapper.convertValue(phase, OverallPhaseStatistics.class))
+                        .filter(phase -> phaseIds == null || phaseIds.isEmpty() || phaseIds.contains(phase.getPhaseId()))
+                        .collect(Collectors.toList()))))
+                .exceptionally(CompletableFutures.failWith(AdaptiveTrainingStatisticsService::toServiceLayerException));
+    }
+
+    private List<OverallPhaseStatistics> createOverallStatistics(TrainingRunPhasesData phasesData,
+                                                                 Map<Long, Pair<Long, Map<String, Long>>> commandsStatisticsOfPhases) {
+        List<OverallPhaseStatistics> result = createPhasesStatistics(phasesData);
+        for (OverallPhaseStatistics overallPhaseStatistics : result) {
+            Pair<Long, Map<String, Long>> phaseCommandsStatistics = commandsStatisticsOfPhases.get(overallPhaseStatistics.getPhaseId());
+            overallPhaseStatistics.setNumberOfCommands(phaseCommandsStatistics.getValue0());
+            overallPhaseStatistics.setKeywordsInCommands(phaseCommandsStatistics.getValue1());
+        }
+        return result;
+    }
+
+    private List<OverallPhaseStatistics> createPhasesStatistics(TrainingRunPhasesData phasesData) {
+        List<OverallPhaseStatistics> result = new ArrayList<>();
+        for (Map.Entry<Long, Pair<Long, Long>> phaseBoundary : phasesData.getPhasesBoundaries().entrySet()) {
+            Long phaseId = phaseBoundary.getKey();
+            OverallPhaseStatistics overallPhaseStatistics = new OverallPhaseStatistics();
+            overallPhaseStatistics.setPhaseId(phaseId);
+            overallPhaseStatistics.setPhaseTime(phaseBoundary.getValue().getValue1() - phaseBoundary.getValue().getValue0());
+            Map<String, Long> phaseMap = phasesData.getEventsInPhases().get(phaseId);
+            if (phaseMap != null && phaseMap.get("SolutionDisplayed") != null) {
+                overallPhaseStatistics.setSolutionDisplayed(phaseMap.get("SolutionDisplayed") == 1);
+            } else {
+                overallPhaseStatistics.setSolutionDisplayed(false);
             }
-            return result;
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+
+            overallPhaseStatistics.setWrongAnswers(phasesData.getWrongAnswersInPhases().get(phaseId));
+            overallPhaseStatistics.setTaskId(phasesData.getTaskIdsOfPhases().get(phaseId));
+            result.add(overallPhaseStatistics);
         }
+        return result;
+    }
+
+    private static ElasticsearchTrainingServiceLayerException toServiceLayerException(Throwable ex) {
+        return ex instanceof ElasticsearchTrainingServiceLayerException
+                ? (ElasticsearchTrainingServiceLayerException) ex
+                : new ElasticsearchTrainingServiceLayerException(ex);
     }
 
 }
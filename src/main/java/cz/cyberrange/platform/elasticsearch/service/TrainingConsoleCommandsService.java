@@ -1,16 +1,24 @@
 package cz.cyberrange.platform.elasticsearch.service;
 
+import cz.cyberrange.platform.elasticsearch.api.dto.CommandsHistogramBucket;
 import cz.cyberrange.platform.elasticsearch.data.TrainingConsoleCommandsDao;
 import cz.cyberrange.platform.elasticsearch.data.enums.CommandType;
-import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
 import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpIndexPath;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
 import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.core.TimeValue;
+import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * The type Training bash commands service.
@@ -19,89 +27,210 @@ import java.util.Map;
 public class TrainingConsoleCommandsService {
 
     private final TrainingConsoleCommandsDao trainingConsoleCommandsDao;
+    private final long histogramMaxBuckets;
 
+    /**
+     * Instantiates a new Training console commands service.
+     *
+     * @param trainingConsoleCommandsDao the training console commands dao
+     * @param histogramMaxBuckets        the maximum number of the intervals of the histogram of the commands
+     */
     @Autowired
-    public TrainingConsoleCommandsService(TrainingConsoleCommandsDao trainingConsoleCommandsDao) {
+    public TrainingConsoleCommandsService(TrainingConsoleCommandsDao trainingConsoleCommandsDao,
+                                          @Value("${elasticsearch.console-commands.histogram.max-buckets:1000}") long histogramMaxBuckets) {
         this.trainingConsoleCommandsDao = trainingConsoleCommandsDao;
+        this.histogramMaxBuckets = histogramMaxBuckets;
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsByPoolId(Long poolId, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".pool=" + poolId + ".*", filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsByPoolId(Long poolId, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".pool=" + poolId + ".*", filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsByAccessToken(String accessToken, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".*", filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsByAccessToken(String accessToken, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".*", filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsBySandboxId(String sandboxId, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId, filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsBySandboxId(String sandboxId, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId, filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsByAccessTokenAndUserId(String accessToken, Long userId, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId, filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsByAccessTokenAndUserId(String accessToken, Long userId, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId, filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsBySandboxIdAndTimeRange(String sandboxId, Long from, Long to, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommandsBySandboxAndTimeRange(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId, from, to, filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsBySandboxIdAndTimeRange(String sandboxId, Long from, Long to, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsBySandboxAndTimeRangeAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId, from, to, filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public List<Map<String, Object>> findAllConsoleCommandsByAccessTokenAndUserIdAndTimeRange(String accessToken, Long userId, Long from, Long to, List<String> filterCommands, CommandType commandType) {
-        try {
-            return trainingConsoleCommandsDao.findAllConsoleCommandsBySandboxAndTimeRange(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId, from, to, filterCommands, commandType);
-        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<List<RawJsonSource>> findAllConsoleCommandsByAccessTokenAndUserIdAndTimeRange(String accessToken, Long userId, Long from, Long to, List<String> filterCommands, CommandType commandType, List<String> fields) {
+        return trainingConsoleCommandsDao.findAllConsoleCommandsBySandboxAndTimeRangeAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId, from, to, filterCommands, commandType, fields)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public void deleteConsoleCommandsByPoolId(Long poolId) {
-        try {
-            trainingConsoleCommandsDao.deleteConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".pool=" + poolId + ".*");
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    /**
+     * Find the commands of all given sandboxes in the time range in a single request to Elasticsearch.
+     *
+     * @param sandboxIds     the sandbox ids
+     * @param from           the lower bound of the time range (epoch_millis timestamp format)
+     * @param to             the upper bound of the time range (epoch_millis timestamp format)
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @param limit          the maximum number of commands returned for each sandbox, null for no limit
+     * @return the future of the commands keyed by the sandbox ids, failed with {@link IllegalArgumentException} if
+     * the limit is not positive
+     */
+    public CompletableFuture<Map<String, List<RawJsonSource>>> findAllConsoleCommandsBySandboxIdsAndTimeRange(List<String> sandboxIds, Long from, Long to,
+                                                                                                             List<String> filterCommands, CommandType commandType,
+                                                                                                             List<String> fields, Integer limit) {
+        Map<String, String> indices = new LinkedHashMap<>();
+        sandboxIds.forEach(sandboxId -> indices.put(sandboxId, AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId));
+        return findAllConsoleCommandsByIndicesAndTimeRange(indices, from, to, filterCommands, commandType, fields, limit);
     }
 
-    public void deleteConsoleCommandsByAccessToken(String accessToken) {
-        try {
-            trainingConsoleCommandsDao.deleteConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".*");
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    /**
+     * Find the commands of all given users of the training instance in the time range in a single request to Elasticsearch.
+     *
+     * @param accessToken    access token of the training instance
+     * @param userIds        identifiers of the users
+     * @param from           the lower bound of the time range (epoch_millis timestamp format)
+     * @param to             the upper bound of the time range (epoch_millis timestamp format)
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param fields         fields of the commands to return, all fields if null or empty
+     * @param limit          the maximum number of commands returned for each user, null for no limit
+     * @return the future of the commands keyed by the user identifiers, failed with {@link IllegalArgumentException}
+     * if the limit is not positive
+     */
+    public CompletableFuture<Map<Long, List<RawJsonSource>>> findAllConsoleCommandsByAccessTokenAndUserIdsAndTimeRange(String accessToken, List<Long> userIds, Long from, Long to,
+                                                                                                   List<String> filterCommands, CommandType commandType,
+                                                                                                   List<String> fields, Integer limit) {
+        Map<Long, String> indices = new LinkedHashMap<>();
+        userIds.forEach(userId -> indices.put(userId, AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId));
+        return findAllConsoleCommandsByIndicesAndTimeRange(indices, from, to, filterCommands, commandType, fields, limit);
     }
 
-    public void deleteConsoleCommandsBySandboxId(String sandboxId) {
-        try {
-            trainingConsoleCommandsDao.deleteConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId);
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+    private <K> CompletableFuture<Map<K, List<RawJsonSource>>> findAllConsoleCommandsByIndicesAndTimeRange(Map<K, String> indices, Long from, Long to,
+                                                                                                           List<String> filterCommands, CommandType commandType,
+                                                                                                           List<String> fields, Integer limit) {
+        if (limit != null && limit <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The limit of the commands must be positive."));
         }
+        return trainingConsoleCommandsDao.findAllConsoleCommandsByIndicesAndTimeRangeAsync(indices, from, to, filterCommands, commandType, fields, limit)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
-    public void deleteConsoleCommandsByAccessTokenAndUserId(String accessToken, Long userId) {
+
+    /**
+     * Count the commands executed in the sandbox in the fixed time intervals.
+     *
+     * @param sandboxId      the sandbox id
+     * @param interval       the length of one interval, e.g. 30s, 5m or 1h
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param topCommands    the number of the most frequent commands returned for each interval, 0 for none
+     * @return the future of the intervals with the number of commands in the ascending order, failed with
+     * {@link IllegalArgumentException} if the interval is not valid or it splits the time range into too many intervals,
+     * the missing bounds of the time range are those of the commands
+     */
+    public CompletableFuture<List<CommandsHistogramBucket>> findConsoleCommandsHistogramBySandboxId(String sandboxId, String interval, Long from, Long to,
+                                                                                                    List<String> filterCommands, CommandType commandType, int topCommands) {
+        return findConsoleCommandsHistogram(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId,
+                interval, from, to, filterCommands, commandType, topCommands);
+    }
+
+    /**
+     * Count the commands executed by the user in the training instance in the fixed time intervals.
+     *
+     * @param accessToken    access token of the training instance
+     * @param userId         identifier of the user
+     * @param interval       the length of one interval, e.g. 30s, 5m or 1h
+     * @param from           the lower bound of the time range (epoch_millis timestamp format), may be null
+     * @param to             the upper bound of the time range (epoch_millis timestamp format), may be null
+     * @param filterCommands list of commands to filter
+     * @param commandType    type of filtered commands
+     * @param topCommands    the number of the most frequent commands returned for each interval, 0 for none
+     * @return the future of the intervals with the number of commands in the ascending order, failed with
+     * {@link IllegalArgumentException} if the interval is not valid or it splits the time range into too many intervals,
+     * the missing bounds of the time range are those of the commands
+     */
+    public CompletableFuture<List<CommandsHistogramBucket>> findConsoleCommandsHistogramByAccessTokenAndUserId(String accessToken, Long userId, String interval, Long from, Long to,
+                                                                                                               List<String> filterCommands, CommandType commandType, int topCommands) {
+        return findConsoleCommandsHistogram(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId,
+                interval, from, to, filterCommands, commandType, topCommands);
+    }
+
+    private CompletableFuture<List<CommandsHistogramBucket>> findConsoleCommandsHistogram(String index, String interval, Long from, Long to,
+                                                                                          List<String> filterCommands, CommandType commandType, int topCommands) {
+        TimeValue histogramInterval;
         try {
-            trainingConsoleCommandsDao.deleteConsoleCommands(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId);
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
+            histogramInterval = TimeValue.parseTimeValue(interval, "interval");
+        } catch (ElasticsearchParseException ex) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The interval must be a time value, e.g. 30s, 5m or 1h.", ex));
         }
+        if (histogramInterval.millis() <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The interval must be positive."));
+        }
+        if (from != null && to != null && from > to) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The lower bound of the time range must not be after its upper bound."));
+        }
+        if (topCommands < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The number of the top commands must not be negative."));
+        }
+        //The intervals are returned even if empty, so their number is bounded by the time range, the missing
+        //bounds are replaced by the time span of the commands
+        CompletableFuture<Pair<Long, Long>> timeRange = from != null && to != null
+                ? CompletableFuture.completedFuture(Pair.with(from, to))
+                : trainingConsoleCommandsDao.findConsoleCommandsTimeSpanAsync(index, from, to, filterCommands, commandType)
+                .thenApply(timeSpan -> timeSpan == null ? null : Pair.with(from == null ? timeSpan.getValue0() : from, to == null ? timeSpan.getValue1() : to));
+        return timeRange.thenCompose(range -> {
+                    if (range == null) {
+                        return CompletableFuture.completedFuture(Map.<Long, Pair<Long, Map<String, Long>>>of());
+                    }
+                    //The fixed intervals are aligned to the epoch
+                    if (Math.floorDiv(range.getValue1(), histogramInterval.millis()) - Math.floorDiv(range.getValue0(), histogramInterval.millis()) + 1 > histogramMaxBuckets) {
+                        return CompletableFuture.<Map<Long, Pair<Long, Map<String, Long>>>>failedFuture(new IllegalArgumentException(
+                                "The time range must not be split into more than " + histogramMaxBuckets + " intervals, " +
+                                        "choose a longer interval or a shorter time range."));
+                    }
+                    return trainingConsoleCommandsDao.findConsoleCommandsHistogramAsync(index, histogramInterval,
+                            range.getValue0(), range.getValue1(), filterCommands, commandType, topCommands);
+                })
+                .thenApply(histogram -> histogram.entrySet().stream()
+                        .map(bucket -> new CommandsHistogramBucket(bucket.getKey(), bucket.getValue().getValue0(), bucket.getValue().getValue1()))
+                        .collect(Collectors.toList()))
+                .exceptionally(CompletableFutures.failWith(TrainingConsoleCommandsService::toServiceLayerException));
     }
 
-}
\ No newline at end of file
+    public CompletableFuture<Void> deleteConsoleCommandsByPoolId(Long poolId) {
+        return trainingConsoleCommandsDao.deleteConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".pool=" + poolId + ".*")
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+    }
+
+    public CompletableFuture<Void> deleteConsoleCommandsByAccessToken(String accessToken) {
+        return trainingConsoleCommandsDao.deleteConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".*")
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+    }
+
+    public CompletableFuture<Void> deleteConsoleCommandsBySandboxId(String sandboxId) {
+        return trainingConsoleCommandsDao.deleteConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".sandbox=" + sandboxId)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+    }
+
+    public CompletableFuture<Void> deleteConsoleCommandsByAccessTokenAndUserId(String accessToken, Long userId) {
+        return trainingConsoleCommandsDao.deleteConsoleCommandsAsync(AbstractCrczpIndexPath.CRCZP_CONSOLE_COMMANDS_INDEX + "*" + ".access-token=" + accessToken + ".user=" + userId)
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+    }
+
+    private static RuntimeException toServiceLayerException(Throwable ex) {
+        return ex instanceof IllegalArgumentException
+                ? (IllegalArgumentException) ex
+                : new ElasticsearchTrainingServiceLayerException(ex);
+    }
+}
@@ -1,16 +1,24 @@
 package cz.cyberrange.platform.elasticsearch.service;
 
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO;
 import cz.cyberrange.platform.elasticsearch.data.TrainingPlatformEventsDAO;
 import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
 import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchAfterPager;
+import cz.cyberrange.platform.elasticsearch.data.search.SearchHitConsumer;
+import cz.cyberrange.platform.elasticsearch.service.cache.AggregatedEventsCache;
+import cz.cyberrange.platform.elasticsearch.service.cache.LiveRunStatistics;
+import cz.cyberrange.platform.elasticsearch.service.cache.PhaseTimeSketches;
 import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The type Training events service.
@@ -19,29 +27,61 @@ import java.util.Map;
 public class TrainingPlatformEventsService {
 
     private final TrainingPlatformEventsDAO trainingPlatformEventsDAO;
+    private final AggregatedEventsCache aggregatedEventsCache;
+    private final AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO;
+    private final LiveRunStatistics liveRunStatistics;
+    private final PhaseTimeSketches phaseTimeSketches;
 
     /**
      * Instantiates a new Training events service.
      *
-     * @param trainingPlatformEventsDAO the training events dao
+     * @param trainingPlatformEventsDAO          the training events dao
+     * @param aggregatedEventsCache              the cache of the aggregated views of the training instance events
+     * @param adaptiveTrainingStatisticsStoreDAO the dao of the materialized statistics of the adaptive training runs
+     * @param liveRunStatistics                  the partial statistics of the running adaptive training runs
+     * @param phaseTimeSketches                  the sketches of the phase times of the adaptive training definitions
      */
     @Autowired
-    public TrainingPlatformEventsService(TrainingPlatformEventsDAO trainingPlatformEventsDAO) {
+    public TrainingPlatformEventsService(TrainingPlatformEventsDAO trainingPlatformEventsDAO,
+                                         AggregatedEventsCache aggregatedEventsCache,
+                                         AdaptiveTrainingStatisticsStoreDAO adaptiveTrainingStatisticsStoreDAO,
+                                         LiveRunStatistics liveRunStatistics,
+                                         PhaseTimeSketches phaseTimeSketches) {
         this.trainingPlatformEventsDAO = trainingPlatformEventsDAO;
+        this.aggregatedEventsCache = aggregatedEventsCache;
+        this.adaptiveTrainingStatisticsStoreDAO = adaptiveTrainingStatisticsStoreDAO;
+        this.liveRunStatistics = liveRunStatistics;
+        this.phaseTimeSketches = phaseTimeSketches;
     }
 
     /**
      * Find all events by training definition.
      *
      * @param trainingDefinitionId the training definition id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public List<Map<String, Object>> findAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+    public List<RawJsonSource> findAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            List<Map<String, Object>> eventsFromElasticsearch = trainingPlatformEventsDAO.findAllEventsByTrainingDefinition(trainingDefinitionId, trainingType);
-            eventsFromElasticsearch.sort(Comparator.comparing(map -> Long.valueOf(map.get("timestamp").toString())));
-            return eventsFromElasticsearch;
+            return trainingPlatformEventsDAO.findAllEventsByTrainingDefinition(trainingDefinitionId, trainingType, fields);
+        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
+            throw new ElasticsearchTrainingServiceLayerException(ex);
+        }
+    }
+
+    /**
+     * Stream all events of the training definition, sorted by timestamp, to the given consumer one by one.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @param consumer             the consumer of events
+     * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
+     */
+    public void streamAllEventsByTrainingDefinition(Long trainingDefinitionId, TrainingType trainingType, List<String> fields, SearchHitConsumer consumer) throws ElasticsearchTrainingServiceLayerException {
+        try (SearchAfterPager pager = trainingPlatformEventsDAO.pageAllEventsByTrainingDefinition(trainingDefinitionId, trainingType, fields)) {
+            pager.forEachRemainingHit(consumer);
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
@@ -52,14 +92,31 @@ public class TrainingPlatformEventsService {
      *
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public List<Map<String, Object>> findAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+    public List<RawJsonSource> findAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            List<Map<String, Object>> eventsFromElasticsearch = trainingPlatformEventsDAO.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, trainingType);
-            eventsFromElasticsearch.sort(Comparator.comparing(map -> Long.valueOf(map.get("timestamp").toString())));
-            return eventsFromElasticsearch;
+            return trainingPlatformEventsDAO.findAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, trainingType, fields);
+        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
+            throw new ElasticsearchTrainingServiceLayerException(ex);
+        }
+    }
+
+    /**
+     * Stream all events of the training instance, sorted by timestamp, to the given consumer one by one.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @param consumer             the consumer of events
+     * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
+     */
+    public void streamAllEventsByTrainingDefinitionAndTrainingInstanceId(Long trainingDefinitionId, Long trainingInstanceId, TrainingType trainingType, List<String> fields, SearchHitConsumer consumer) throws ElasticsearchTrainingServiceLayerException {
+        try (SearchAfterPager pager = trainingPlatformEventsDAO.pageAllEventsByTrainingDefinitionAndTrainingInstanceId(trainingDefinitionId, trainingInstanceId, trainingType, fields)) {
+            pager.forEachRemainingHit(consumer);
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
@@ -71,14 +128,32 @@ public class TrainingPlatformEventsService {
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
      * @param trainingRunId        the training run id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the list
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public List<Map<String, Object>> findAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+    public List<RawJsonSource> findAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            List<Map<String, Object>> eventsFromElasticsearch = trainingPlatformEventsDAO.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, trainingType);
-            eventsFromElasticsearch.sort(Comparator.comparing(map -> Long.valueOf(map.get("timestamp").toString())));
-            return eventsFromElasticsearch;
+            return trainingPlatformEventsDAO.findAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, trainingType, fields);
+        } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
+            throw new ElasticsearchTrainingServiceLayerException(ex);
+        }
+    }
+
+    /**
+     * Stream all events of the training run, sorted by timestamp, to the given consumer one by one.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingRunId        the training run id
+     * @param trainingType         type of the training (linear or adaptive)
+     * @param fields               fields of the events to return, all fields if null or empty
+     * @param consumer             the consumer of events
+     * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
+     */
+    public void streamAllEventsFromTrainingRun(Long trainingDefinitionId, Long trainingInstanceId, Long trainingRunId, TrainingType trainingType, List<String> fields, SearchHitConsumer consumer) throws ElasticsearchTrainingServiceLayerException {
+        try (SearchAfterPager pager = trainingPlatformEventsDAO.pageAllEventsFromTrainingRun(trainingDefinitionId, trainingInstanceId, trainingRunId, trainingType, fields)) {
+            pager.forEachRemainingHit(consumer);
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
@@ -91,12 +166,14 @@ public class TrainingPlatformEventsService {
      * @param levelId  the level id
      * @param collapseField the field used to collapse data
      * @param trainingType type of the training (linear or adaptive)
+     * @param fields fields of the events to return, all fields if null or empty
      * @return the map of the events aggregated by given field
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public Map<Object, List<Map<String, Object>>> findAllEventsFromTrainingRunByLevelId(Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+    public Map<Object, List<RawJsonSource>> findAllEventsFromTrainingRunByLevelId(Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            return trainingPlatformEventsDAO.findEventsByInstanceAndLevelAggregatedByGivenField(trainingInstanceId, levelId, collapseField, trainingType);
+            return aggregatedEventsCache.get(AggregatedEventsCache.Key.byLevelAndField(trainingInstanceId, levelId, collapseField, trainingType, fields),
+                    () -> trainingPlatformEventsDAO.findEventsByInstanceAndLevelAggregatedByGivenField(trainingInstanceId, levelId, collapseField, trainingType, fields));
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
@@ -107,12 +184,13 @@ public class TrainingPlatformEventsService {
      *
      * @param trainingDefinitionId the training definition id
      * @param trainingInstanceId   the training instance id
+     * @param fields               fields of the events to return, all fields if null or empty
      * @return the aggregated events by user and levels sorted by timestamp.
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(Long trainingDefinitionId, Long trainingInstanceId) throws ElasticsearchTrainingServiceLayerException {
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(Long trainingDefinitionId, Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            return trainingPlatformEventsDAO.findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(trainingDefinitionId, trainingInstanceId);
+            return trainingPlatformEventsDAO.findAllEventsByTrainingDefinitionAndTrainingInstanceAggregated(trainingDefinitionId, trainingInstanceId, fields);
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
@@ -122,14 +200,20 @@ public class TrainingPlatformEventsService {
      * Delete events by training instance id.
      *
      * @param instanceId the instance id
+     * @return the future completed once the events are deleted
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public void deleteEventsByTrainingInstanceId(Long instanceId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
-        try {
-            trainingPlatformEventsDAO.deleteEventsByTrainingInstanceId(instanceId, trainingType);
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<Void> deleteEventsByTrainingInstanceId(Long instanceId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+        return trainingPlatformEventsDAO.deleteEventsByTrainingInstanceIdAsync(instanceId, trainingType)
+                .thenCompose(result -> trainingType == TrainingType.ADAPTIVE
+                        ? adaptiveTrainingStatisticsStoreDAO.deleteStatisticsOfTrainingInstanceAsync(instanceId)
+                        : CompletableFuture.completedFuture(result))
+                .whenComplete((result, ex) -> {
+                    aggregatedEventsCache.evictTrainingInstance(instanceId);
+                    liveRunStatistics.evictTrainingInstance(instanceId);
+                    phaseTimeSketches.evictTrainingInstance(instanceId);
+                })
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
     /**
@@ -137,27 +221,35 @@ public class TrainingPlatformEventsService {
      *
      * @param trainingInstanceId the training instance id
      * @param trainingRunId      the training run id
+     * @return the future completed once the events are deleted
      * @throws ElasticsearchTrainingServiceLayerException the elasticsearch training service layer exception
      */
-    public void deleteEventsFromTrainingRun(Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
-        try {
-            trainingPlatformEventsDAO.deleteEventsFromTrainingRun(trainingInstanceId, trainingRunId, trainingType);
-        } catch (ElasticsearchTrainingDataLayerException ex) {
-            throw new ElasticsearchTrainingServiceLayerException(ex);
-        }
+    public CompletableFuture<Void> deleteEventsFromTrainingRun(Long trainingInstanceId, Long trainingRunId, TrainingType trainingType) throws ElasticsearchTrainingServiceLayerException {
+        return trainingPlatformEventsDAO.deleteEventsFromTrainingRunAsync(trainingInstanceId, trainingRunId, trainingType)
+                .thenCompose(result -> trainingType == TrainingType.ADAPTIVE
+                        ? adaptiveTrainingStatisticsStoreDAO.deleteStatisticsOfTrainingRunAsync(trainingRunId)
+                        : CompletableFuture.completedFuture(result))
+                .whenComplete((result, ex) -> {
+                    aggregatedEventsCache.evictTrainingInstance(trainingInstanceId);
+                    liveRunStatistics.evictTrainingRun(trainingRunId);
+                    phaseTimeSketches.evictTrainingRun(trainingRunId);
+                })
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
     }
 
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> getAllEventsOfTrainingInstanceAggregatedByRunsAndLevels(Long trainingInstanceId) throws ElasticsearchTrainingServiceLayerException {
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> getAllEventsOfTrainingInstanceAggregatedByRunsAndLevels(Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            return trainingPlatformEventsDAO.getEventsOfTrainingInstanceAggregatedByRunsAndLevels(trainingInstanceId);
+            return aggregatedEventsCache.get(AggregatedEventsCache.Key.byRunsAndLevels(trainingInstanceId, fields),
+                    () -> trainingPlatformEventsDAO.getEventsOfTrainingInstanceAggregatedByRunsAndLevels(trainingInstanceId, fields));
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
     }
 
-    public Map<Integer, Map<Integer, List<Map<String, Object>>>> getAllEventsOfTrainingInstanceAggregatedByLevelsAndRuns(Long trainingInstanceId) throws ElasticsearchTrainingServiceLayerException {
+    public Map<Integer, Map<Integer, List<RawJsonSource>>> getAllEventsOfTrainingInstanceAggregatedByLevelsAndRuns(Long trainingInstanceId, List<String> fields) throws ElasticsearchTrainingServiceLayerException {
         try {
-            return trainingPlatformEventsDAO.getEventsOfTrainingInstanceAggregatedByLevelsAndRuns(trainingInstanceId);
+            return aggregatedEventsCache.get(AggregatedEventsCache.Key.byLevelsAndRuns(trainingInstanceId, fields),
+                    () -> trainingPlatformEventsDAO.getEventsOfTrainingInstanceAggregatedByLevelsAndRuns(trainingInstanceId, fields));
         } catch (ElasticsearchTrainingDataLayerException | IOException ex) {
             throw new ElasticsearchTrainingServiceLayerException(ex);
         }
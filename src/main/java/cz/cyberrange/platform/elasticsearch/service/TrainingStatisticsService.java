@@ -0,0 +1,61 @@
+package cz.cyberrange.platform.elasticsearch.service;
+
+import cz.cyberrange.platform.elasticsearch.api.dto.LevelStatistics;
+import cz.cyberrange.platform.elasticsearch.data.TrainingStatisticsDAO;
+import cz.cyberrange.platform.elasticsearch.service.exceptions.ElasticsearchTrainingServiceLayerException;
+import cz.cyberrange.platform.elasticsearch.utils.CompletableFutures;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The type Training statistics service computing the statistics of the linear trainings.
+ */
+@Service
+public class TrainingStatisticsService {
+
+    /**
+     * The events counted in each level if no events are specified.
+     */
+    public static final List<String> DEFAULT_COUNTED_EVENTS = List.of("HintTaken", "WrongAnswerSubmitted", "CorrectAnswerSubmitted",
+            "SolutionDisplayed", "LevelCompleted");
+
+    private final TrainingStatisticsDAO trainingStatisticsDAO;
+
+    @Autowired
+    public TrainingStatisticsService(TrainingStatisticsDAO trainingStatisticsDAO) {
+        this.trainingStatisticsDAO = trainingStatisticsDAO;
+    }
+
+    /**
+     * Find the time spent in each level and the number of the specified events in that level for each training run
+     * of the training instance.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @param trainingInstanceId   the training instance id
+     * @param trainingRunIds       ids of the training runs, all training runs of the instance if null or empty
+     * @param events               events to count, {@link #DEFAULT_COUNTED_EVENTS} if null or empty
+     * @return the future of the mapping of the training runs and the statistics of their levels
+     */
+    public CompletableFuture<Map<Long, List<LevelStatistics>>> findLevelsStatistics(Long trainingDefinitionId, Long trainingInstanceId,
+                                                                                    List<Long> trainingRunIds, List<String> events) {
+        return trainingStatisticsDAO.findLevelsStatisticsAsync(trainingDefinitionId, trainingInstanceId, trainingRunIds,
+                        events == null || events.isEmpty() ? DEFAULT_COUNTED_EVENTS : events)
+                .thenApply(levelsStatisticsOfRuns -> {
+                    Map<Long, List<LevelStatistics>> result = new LinkedHashMap<>();
+                    levelsStatisticsOfRuns.forEach((trainingRunId, levelsStatistics) -> {
+                        List<LevelStatistics> levels = new ArrayList<>();
+                        levelsStatistics.forEach((levelId, statistics) ->
+                                levels.add(new LevelStatistics(levelId, statistics.getValue0(), statistics.getValue1(), statistics.getValue2())));
+                        result.put(trainingRunId, levels);
+                    });
+                    return result;
+                })
+                .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+    }
+}
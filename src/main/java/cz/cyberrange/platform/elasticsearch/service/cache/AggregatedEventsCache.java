@@ -0,0 +1,274 @@
+package cz.cyberrange.platform.elasticsearch.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import cz.cyberrange.platform.elasticsearch.data.enums.TrainingType;
+import cz.cyberrange.platform.elasticsearch.data.exceptions.ElasticsearchTrainingDataLayerException;
+import cz.cyberrange.platform.elasticsearch.data.search.RawJsonSource;
+import cz.cyberrange.platform.elasticsearch.data.search.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of the aggregated views of the training instance events, so the same collapse queries are not
+ * recomputed each time the instructor refreshes the view.
+ * <p>
+ * The cache is bounded by the estimated size of the results in bytes, the results to evict are chosen by the Caffeine
+ * W-TinyLFU policy, i.e., by how often and how recently they were requested, so a burst of one-off views does not
+ * evict the views polled repeatedly. The service does not know whether the training instance has ended, new training
+ * runs may start any time, so every training instance is treated as a live one and the results expire a few seconds
+ * after they were computed (5s by default). The new events become searchable only after the refresh of their index
+ * anyway (1s by default in Elasticsearch), so such expiration keeps the view of a running training instance nearly as
+ * fresh as an uncached one, while all requests of the same view within that time, e.g. from many dashboards polling
+ * it, are served by one collapse query. Keeping the results longer would only pay off for the ended training
+ * instances, which cannot be told apart. The results of the training instance are evicted once its events are deleted.
+ * <p>
+ * The concurrent misses of the same view are coalesced, so when many clients open the view of a starting training
+ * instance at once, only the first one fires the collapse query and the others share its result, see
+ * {@link SingleFlight}. The key identifies the view by its canonical parameters, e.g. the fields are sorted
+ * and deduplicated, so the requests differing only in the order of the fields are coalesced too. The identical searches
+ * are coalesced by the DAOs as well, the view-level coalescing additionally shares the decoding of the response.
+ * <p>
+ * Hits, misses, evictions, invalidations and coalesced misses are exposed as the <i>cache.*</i> metrics with the tag
+ * <i>cache=aggregatedEvents</i>.
+ */
+@Component
+public class AggregatedEventsCache implements MeterBinder {
+
+    public static final String CACHE_NAME = "aggregatedEvents";
+
+    private final Cache<Key, Object> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final SingleFlight<Key> singleFlight = new SingleFlight<>();
+
+    /**
+     * Instantiates a new Aggregated events cache.
+     *
+     * @param maxSize          the maximum estimated size of all cached results, e.g. 64mb
+     * @param expireAfterWrite how long the result is kept since it was computed, e.g. 5s
+     */
+    public AggregatedEventsCache(@Value("${elasticsearch.cache.aggregated-events.max-size:64mb}") String maxSize,
+                                 @Value("${elasticsearch.cache.aggregated-events.expire-after-write:5s}") String expireAfterWrite) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(ByteSizeValue.parseBytesSizeValue(maxSize, "elasticsearch.cache.aggregated-events.max-size").getBytes())
+                .weigher((Key key, Object value) -> (int) Math.min(Integer.MAX_VALUE, estimateSize(value)))
+                .expireAfterWrite(TimeValue.parseTimeValue(expireAfterWrite, "elasticsearch.cache.aggregated-events.expire-after-write").millis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the cached result of the aggregated view or compute and cache it if it is not present. The result is computed
+     * once for all concurrent requests of the same view.
+     *
+     * @param key    the key of the aggregated view
+     * @param loader the loader of the result from Elasticsearch
+     * @param <T>    the type of the result
+     * @return the result of the aggregated view
+     * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+     * @throws IOException                             the io exception
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, Loader<T> loader) throws ElasticsearchTrainingDataLayerException, IOException {
+        T result = (T) cache.getIfPresent(key);
+        if (result == null) {
+            result = singleFlight.load(key, () -> {
+                // the result could have been cached by the previous load just after the miss, not counted as another miss
+                T cached = (T) cache.asMap().get(key);
+                if (cached != null) {
+                    return cached;
+                }
+                T loaded = loader.load();
+                // the view loaded before its training instance was evicted must not be cached
+                if (singleFlight.isInFlight(key)) {
+                    cache.put(key, loaded);
+                }
+                return loaded;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Evict all cached results of the training instance, e.g., when its events are deleted.
+     *
+     * @param trainingInstanceId the training instance id
+     */
+    public void evictTrainingInstance(Long trainingInstanceId) {
+        singleFlight.forget(key -> key.trainingInstanceId.equals(trainingInstanceId));
+        cache.asMap().keySet().removeIf(key -> {
+            if (key.trainingInstanceId.equals(trainingInstanceId)) {
+                invalidations.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        FunctionCounter.builder("cache.invalidations", invalidations, AtomicLong::get)
+                .tag("cache", CACHE_NAME)
+                .description("Entries removed because the events of the training instance were deleted.")
+                .register(registry);
+        FunctionCounter.builder("cache.coalesced", singleFlight, SingleFlight::getCoalesced)
+                .tag("cache", CACHE_NAME)
+                .description("Misses which waited for the result loaded by a concurrent request instead of loading it.")
+                .register(registry);
+        Gauge.builder("cache.weighted.size", cache, c -> c.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0L))
+                        .orElse(0L))
+                .tag("cache", CACHE_NAME)
+                .description("Estimated size of the cached results in bytes.")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Roughly estimate the heap occupied by the result. The raw sources are counted by their length, the parsed
+     * documents by their strings and numbers plus a constant overhead of each map entry and list element.
+     */
+    private static long estimateSize(Object value) {
+        if (value instanceof RawJsonSource) {
+            return ((RawJsonSource) value).length();
+        } else if (value instanceof CharSequence) {
+            return 40L + ((CharSequence) value).length();
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection<?>) value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        }
+        return 16;
+    }
+
+    /**
+     * Computes the result of the aggregated view on the cache miss.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        /**
+         * Load the result from Elasticsearch.
+         *
+         * @return the result
+         * @throws ElasticsearchTrainingDataLayerException the elasticsearch training data layer exception
+         * @throws IOException                             the io exception
+         */
+        T load() throws ElasticsearchTrainingDataLayerException, IOException;
+    }
+
+    /**
+     * Identifies the aggregated view of the training instance events.
+     */
+    public static final class Key {
+
+        private final String view;
+        private final Long trainingInstanceId;
+        private final Long levelId;
+        private final String collapseField;
+        private final TrainingType trainingType;
+        private final List<String> fields;
+
+        private Key(String view, Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType, List<String> fields) {
+            this.view = view;
+            this.trainingInstanceId = Objects.requireNonNull(trainingInstanceId);
+            this.levelId = levelId;
+            this.collapseField = collapseField;
+            this.trainingType = trainingType;
+            this.fields = fields == null || fields.isEmpty() ? null : List.copyOf(new TreeSet<>(fields));
+        }
+
+        /**
+         * Key of the events of the training instance aggregated by the training runs and levels.
+         *
+         * @param trainingInstanceId the training instance id
+         * @param fields             fields of the events to return, all fields if null or empty
+         * @return the key
+         */
+        public static Key byRunsAndLevels(Long trainingInstanceId, List<String> fields) {
+            return new Key("runs-levels", trainingInstanceId, null, null, null, fields);
+        }
+
+        /**
+         * Key of the events of the training instance aggregated by the levels and training runs.
+         *
+         * @param trainingInstanceId the training instance id
+         * @param fields             fields of the events to return, all fields if null or empty
+         * @return the key
+         */
+        public static Key byLevelsAndRuns(Long trainingInstanceId, List<String> fields) {
+            return new Key("levels-runs", trainingInstanceId, null, null, null, fields);
+        }
+
+        /**
+         * Key of the events of the level of the training instance aggregated by the given field.
+         *
+         * @param trainingInstanceId the training instance id
+         * @param levelId            the level id
+         * @param collapseField      the field used to collapse data
+         * @param trainingType       type of the training (linear or adaptive)
+         * @param fields             fields of the events to return, all fields if null or empty
+         * @return the key
+         */
+        public static Key byLevelAndField(Long trainingInstanceId, Long levelId, String collapseField, TrainingType trainingType, List<String> fields) {
+            return new Key("level-field", trainingInstanceId, levelId, collapseField, trainingType, fields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return view.equals(key.view) &&
+                    trainingInstanceId.equals(key.trainingInstanceId) &&
+                    Objects.equals(levelId, key.levelId) &&
+                    Objects.equals(collapseField, key.collapseField) &&
+                    trainingType == key.trainingType &&
+                    Objects.equals(fields, key.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(view, trainingInstanceId, levelId, collapseField, trainingType, fields);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" +
+                    "view='" + view + '\'' +
+                    ", trainingInstanceId=" + trainingInstanceId +
+                    ", levelId=" + levelId +
+                    ", collapseField='" + collapseField + '\'' +
+                    ", trainingType=" + trainingType +
+                    ", fields=" + fields +
+                    '}';
+        }
+    }
+}
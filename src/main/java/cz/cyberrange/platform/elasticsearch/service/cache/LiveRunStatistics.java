@@ -0,0 +1,345 @@
+package cz.cyberrange.platform.elasticsearch.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
+import cz.cyberrange.platform.elasticsearch.data.search.SeqNoCursor;
+import cz.cyberrange.platform.elasticsearch.data.statistics.TrainingRunPhasesData;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.elasticsearch.core.TimeValue;
+import org.javatuples.Pair;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the partial statistics of the running adaptive training runs, so the statistics are updated by folding in only
+ * the events and the commands indexed since the previous request instead of aggregating the whole training run again.
+ * The position of each training run in its events and commands is kept as the {@link SeqNoCursor}.
+ * <p>
+ * The statistics of the least recently used training runs are evicted once the configured number of the training runs
+ * is exceeded, and all statistics expire after they were not accessed for the configured time, e.g. once the training
+ * run ended and the dashboard is closed.
+ * <p>
+ * Hits, misses and evictions are exposed as the <i>cache.*</i> metrics with the tag <i>cache=liveRunStatistics</i>.
+ */
+@Component
+public class LiveRunStatistics implements MeterBinder {
+
+    public static final String CACHE_NAME = "liveRunStatistics";
+
+    private final Cache<Long, RunStatistics> cache;
+    private final long gapTimeoutMillis;
+
+    /**
+     * Instantiates a new Live run statistics.
+     *
+     * @param maxRuns           the maximum number of the training runs whose statistics are kept
+     * @param expireAfterAccess how long the statistics of the training run are kept since they were last used, e.g. 10m
+     * @param gapTimeout        how long the missing sequence number of an event or a command is waited for, e.g. 30s
+     */
+    public LiveRunStatistics(@Value("${elasticsearch.cache.live-run-statistics.max-runs:1024}") int maxRuns,
+                             @Value("${elasticsearch.cache.live-run-statistics.expire-after-access:10m}") String expireAfterAccess,
+                             @Value("${elasticsearch.statistics.incremental.gap-timeout:30s}") String gapTimeout) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxRuns)
+                .expireAfterAccess(TimeValue.parseTimeValue(expireAfterAccess, "elasticsearch.cache.live-run-statistics.expire-after-access").millis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.gapTimeoutMillis = TimeValue.parseTimeValue(gapTimeout, "elasticsearch.statistics.incremental.gap-timeout").millis();
+    }
+
+    /**
+     * Get the statistics of the training run, empty ones are created if they are not present.
+     *
+     * @param trainingRunId the training run id
+     * @return the partial statistics of the training run
+     */
+    public RunStatistics get(Long trainingRunId) {
+        return cache.get(trainingRunId, id -> new RunStatistics(gapTimeoutMillis));
+    }
+
+    /**
+     * Evict the statistics of the training run, e.g., after its events were deleted.
+     *
+     * @param trainingRunId the training run id
+     */
+    public void evictTrainingRun(Long trainingRunId) {
+        cache.invalidate(trainingRunId);
+    }
+
+    /**
+     * Evict the statistics of all training runs of the training instance, e.g., after its events were deleted.
+     *
+     * @param trainingInstanceId the training instance id
+     */
+    public void evictTrainingInstance(Long trainingInstanceId) {
+        cache.asMap().values().removeIf(statistics -> statistics.belongsTo(trainingInstanceId));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * The partial statistics of one training run.
+     */
+    public static final class RunStatistics {
+
+        private static final String PHASE_STARTED = "phasestarted";
+        private static final String PHASE_COMPLETED = "phasecompleted";
+        private static final String WRONG_ANSWER_SUBMITTED = "wronganswersubmitted";
+
+        private final long gapTimeoutMillis;
+        private final SeqNoCursor eventsCursor;
+        private final Map<Long, long[]> phasesBoundaries = new HashMap<>();
+        private final Map<Long, Map<String, Long>> eventTypesInPhases = new HashMap<>();
+        private final Map<Long, List<String>> wrongAnswersInPhases = new HashMap<>();
+        private final Map<Long, Long> taskIdsOfPhases = new HashMap<>();
+        private Object sandboxId;
+        private Long trainingInstanceId;
+        private String commandsIndex;
+        private SeqNoCursor commandsCursor;
+        private final NavigableMap<Long, List<String>> commands = new TreeMap<>();
+        private CompletableFuture<?> lastUpdate = CompletableFuture.completedFuture(null);
+
+        private RunStatistics(long gapTimeoutMillis) {
+            this.gapTimeoutMillis = gapTimeoutMillis;
+            this.eventsCursor = new SeqNoCursor(gapTimeoutMillis);
+        }
+
+        /**
+         * Run the update after the previous update of the statistics has completed, so the new events are folded
+         * in by one update at a time.
+         *
+         * @param update the update of the statistics
+         * @param <T>    the type of the result of the update
+         * @return the future of the result of the update
+         */
+        public synchronized <T> CompletableFuture<T> update(Supplier<CompletableFuture<T>> update) {
+            CompletableFuture<T> result = lastUpdate
+                    .handle((ignored, ex) -> null)
+                    .thenCompose(ignored -> update.get());
+            lastUpdate = result;
+            return result;
+        }
+
+        /**
+         * Gets the cursor of the events already folded in.
+         *
+         * @return the cursor of the events
+         */
+        public SeqNoCursor getEventsCursor() {
+            return eventsCursor;
+        }
+
+        /**
+         * Gets the cursor of the commands already folded in, the commands are discarded if they were read from
+         * another index, e.g. the local sandbox of another user.
+         *
+         * @param index the index pattern of the commands
+         * @return the cursor of the commands
+         */
+        public synchronized SeqNoCursor getCommandsCursor(String index) {
+            if (!index.equals(commandsIndex)) {
+                commandsIndex = index;
+                commandsCursor = new SeqNoCursor(gapTimeoutMillis);
+                commands.clear();
+            }
+            return commandsCursor;
+        }
+
+        /**
+         * Check whether the cursors can be used, i.e., all searched indices have a single shard.
+         *
+         * @return false if the statistics must be computed from all events instead
+         */
+        public synchronized boolean isIncremental() {
+            return eventsCursor.coversAllShards() && (commandsCursor == null || commandsCursor.coversAllShards());
+        }
+
+        /**
+         * Check whether all events and commands found so far are folded in, i.e., no index waits for the missing
+         * sequence number. The documents after the gap are left out of the partial statistics until the gap is
+         * filled or skipped, so the statistics are not complete meanwhile.
+         *
+         * @return false if the statistics must be computed from all events instead
+         */
+        public synchronized boolean isComplete() {
+            return !eventsCursor.hasGaps() && (commandsCursor == null || !commandsCursor.hasGaps());
+        }
+
+        /**
+         * Gets the sandbox id of the training run.
+         *
+         * @return the sandbox id, or null if the events do not contain it
+         */
+        public synchronized Object getSandboxId() {
+            return sandboxId;
+        }
+
+        /**
+         * Fold the event in the statistics.
+         *
+         * @param event the source of the event
+         */
+        public synchronized void foldEvent(Map<String, Object> event) {
+            if (sandboxId == null) {
+                sandboxId = event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_SANDBOX_ID);
+            }
+            if (trainingInstanceId == null) {
+                trainingInstanceId = toLong(event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID));
+            }
+            Long phaseId = toLong(event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID));
+            Object type = event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE);
+            if (phaseId == null || type == null) {
+                return;
+            }
+            eventTypesInPhases.computeIfAbsent(phaseId, id -> new HashMap<>()).merge(type.toString(), 1L, Long::sum);
+
+            //Same events as matched by the wildcard queries of the statistics computed from all events
+            String lowerCaseType = type.toString().toLowerCase(Locale.ROOT);
+            Long timestamp = toLong(event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP));
+            if (timestamp != null && (lowerCaseType.endsWith(PHASE_STARTED) || lowerCaseType.endsWith(PHASE_COMPLETED))) {
+                long[] boundaries = phasesBoundaries.computeIfAbsent(phaseId, id -> new long[]{timestamp, timestamp});
+                boundaries[0] = Math.min(boundaries[0], timestamp);
+                boundaries[1] = Math.max(boundaries[1], timestamp);
+            }
+            if (lowerCaseType.endsWith(PHASE_STARTED)) {
+                taskIdsOfPhases.put(phaseId, toLong(event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TASK_ID)));
+            }
+            if (lowerCaseType.endsWith(WRONG_ANSWER_SUBMITTED)) {
+                wrongAnswersInPhases.computeIfAbsent(phaseId, id -> new ArrayList<>())
+                        .add(Objects.toString(event.get(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_ANSWER_CONTENT)));
+            }
+        }
+
+        /**
+         * Fold the command in the statistics.
+         *
+         * @param timestamp the time the command was executed (epoch_millis timestamp format)
+         * @param command   the command
+         */
+        public synchronized void foldCommand(long timestamp, String command) {
+            commands.computeIfAbsent(timestamp, time -> new ArrayList<>()).add(command);
+        }
+
+        /**
+         * Get the events data of the given phases folded in so far, the same as retrieved from all events.
+         *
+         * @param phaseIds ids of the phases, all phases if null or empty
+         * @param events   events to count, matched anywhere in the type of the event case-insensitively
+         * @return the events data of the phases
+         */
+        public synchronized TrainingRunPhasesData getPhasesData(List<Long> phaseIds, List<String> events) {
+            TrainingRunPhasesData phasesData = new TrainingRunPhasesData();
+            phasesData.setSandboxId(sandboxId);
+            Map<Long, Pair<Long, Long>> boundariesOfPhases = new HashMap<>();
+            phasesBoundaries.forEach((phaseId, boundaries) -> {
+                if (isRequested(phaseIds, phaseId)) {
+                    boundariesOfPhases.put(phaseId, Pair.with(boundaries[0], boundaries[1] == boundaries[0] ? Long.MAX_VALUE : boundaries[1]));
+                }
+            });
+            phasesData.setPhasesBoundaries(boundariesOfPhases);
+
+            Map<Long, Map<String, Long>> eventsInPhases = new HashMap<>();
+            eventTypesInPhases.forEach((phaseId, eventTypes) -> {
+                if (isRequested(phaseIds, phaseId)) {
+                    Map<String, Long> eventsOccurrences = new HashMap<>();
+                    for (String event : events) {
+                        String lowerCaseEvent = event.toLowerCase(Locale.ROOT);
+                        eventsOccurrences.put(event, eventTypes.entrySet().stream()
+                                .filter(eventType -> eventType.getKey().toLowerCase(Locale.ROOT).contains(lowerCaseEvent))
+                                .mapToLong(Map.Entry::getValue)
+                                .sum());
+                    }
+                    eventsInPhases.put(phaseId, eventsOccurrences);
+                }
+            });
+            phasesData.setEventsInPhases(eventsInPhases);
+
+            Map<Long, List<String>> wrongAnswers = new HashMap<>();
+            wrongAnswersInPhases.forEach((phaseId, answers) -> {
+                if (isRequested(phaseIds, phaseId)) {
+                    wrongAnswers.put(phaseId, new ArrayList<>(answers));
+                }
+            });
+            if (phaseIds != null) {
+                phaseIds.forEach(phaseId -> wrongAnswers.putIfAbsent(phaseId, new ArrayList<>()));
+            }
+            phasesData.setWrongAnswersInPhases(wrongAnswers);
+
+            Map<Long, Long> taskIds = new HashMap<>();
+            taskIdsOfPhases.forEach((phaseId, taskId) -> {
+                if (isRequested(phaseIds, phaseId)) {
+                    taskIds.put(phaseId, taskId);
+                }
+            });
+            phasesData.setTaskIdsOfPhases(taskIds);
+            return phasesData;
+        }
+
+        /**
+         * Count the commands folded in so far executed in the time ranges of the phases and the occurrences
+         * of the keywords in them, the same as counted from all commands.
+         *
+         * @param phasesBoundaries the mapping of the phases and their start and end timestamps
+         * @param keywordsMapping  the keywords counted in the commands of each phase, matched anywhere in the command
+         *                         case-insensitively
+         * @return the mapping of the phases and the number of commands with the occurrences of their keywords
+         */
+        public synchronized Map<Long, Pair<Long, Map<String, Long>>> countCommands(Map<Long, Pair<Long, Long>> phasesBoundaries,
+                                                                                    Map<Long, List<String>> keywordsMapping) {
+            Map<Long, Pair<Long, Map<String, Long>>> commandsStatistics = new HashMap<>();
+            for (Map.Entry<Long, Pair<Long, Long>> phaseBoundaries : phasesBoundaries.entrySet()) {
+                Long phaseId = phaseBoundaries.getKey();
+                Long to = phaseBoundaries.getValue().getValue1();
+                NavigableMap<Long, List<String>> phaseCommands = to == Long.MAX_VALUE
+                        ? commands.tailMap(phaseBoundaries.getValue().getValue0(), true)
+                        : commands.subMap(phaseBoundaries.getValue().getValue0(), true, to, true);
+                List<String> phaseKeywords = keywordsMapping == null ? null : keywordsMapping.get(phaseId);
+                Map<String, Long> keywordMapping = null;
+                if (phaseKeywords != null) {
+                    keywordMapping = new LinkedHashMap<>();
+                    for (String keyword : phaseKeywords) {
+                        String lowerCaseKeyword = keyword.toLowerCase(Locale.ROOT);
+                        keywordMapping.put(keyword, phaseCommands.values().stream()
+                                .flatMap(List::stream)
+                                .filter(command -> command.toLowerCase(Locale.ROOT).contains(lowerCaseKeyword))
+                                .count());
+                    }
+                }
+                long numberOfCommands = phaseCommands.values().stream().mapToLong(List::size).sum();
+                commandsStatistics.put(phaseId, Pair.with(numberOfCommands, keywordMapping));
+            }
+            return commandsStatistics;
+        }
+
+        private synchronized boolean belongsTo(Long trainingInstanceId) {
+            return trainingInstanceId.equals(this.trainingInstanceId);
+        }
+
+        private static boolean isRequested(List<Long> phaseIds, Long phaseId) {
+            return phaseIds == null || phaseIds.isEmpty() || phaseIds.contains(phaseId);
+        }
+
+        private static Long toLong(Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package cz.cyberrange.platform.elasticsearch.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO.EndedRun;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.aggregations.metrics.TDigestState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the t-digest sketches of the phase times of the ended training runs of each training definition, so the
+ * distributions of the phase times are updated by folding in only the training runs which ended since the previous
+ * request instead of reading the phase times of all training runs again. The phase times of the ended training runs
+ * do not change, so the sketches are kept until the events of one of their training runs are deleted, the values
+ * cannot be removed from the sketch, hence the sketches of the whole training definition are evicted then.
+ * <p>
+ * The sketches of the least recently used training definitions are evicted once the configured number of the training
+ * definitions is exceeded, and all sketches expire after they were not accessed for the configured time.
+ * <p>
+ * Hits, misses and evictions are exposed as the <i>cache.*</i> metrics with the tag <i>cache=phaseTimeSketches</i>.
+ */
+@Component
+public class PhaseTimeSketches implements MeterBinder {
+
+    public static final String CACHE_NAME = "phaseTimeSketches";
+
+    private final Cache<Long, DefinitionSketches> cache;
+    private final long lateEndMillis;
+
+    /**
+     * Instantiates a new Phase time sketches.
+     *
+     * @param maxDefinitions    the maximum number of the training definitions whose sketches are kept
+     * @param expireAfterAccess how long the sketches of the training definition are kept since they were last used, e.g. 1h
+     * @param lateEnd           how much older <i>TrainingRunEnded</i> event than the latest one folded in can be indexed
+     *                          later, the training runs which ended this long before it are looked for again, e.g. 5m
+     */
+    public PhaseTimeSketches(@Value("${elasticsearch.cache.phase-time-sketches.max-definitions:256}") int maxDefinitions,
+                             @Value("${elasticsearch.cache.phase-time-sketches.expire-after-access:1h}") String expireAfterAccess,
+                             @Value("${elasticsearch.cache.phase-time-sketches.late-end:5m}") String lateEnd) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxDefinitions)
+                .expireAfterAccess(TimeValue.parseTimeValue(expireAfterAccess, "elasticsearch.cache.phase-time-sketches.expire-after-access").millis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.lateEndMillis = TimeValue.parseTimeValue(lateEnd, "elasticsearch.cache.phase-time-sketches.late-end").millis();
+    }
+
+    /**
+     * Get the sketches of the training definition, empty ones are created if they are not present.
+     *
+     * @param trainingDefinitionId the training definition id
+     * @return the sketches of the phase times of the training definition
+     */
+    public DefinitionSketches get(Long trainingDefinitionId) {
+        return cache.get(trainingDefinitionId, id -> new DefinitionSketches(lateEndMillis));
+    }
+
+    /**
+     * Evict the sketches of the training definition, e.g., after their update failed in the middle.
+     *
+     * @param trainingDefinitionId the training definition id
+     */
+    public void evictTrainingDefinition(Long trainingDefinitionId) {
+        cache.invalidate(trainingDefinitionId);
+    }
+
+    /**
+     * Evict the sketches of the training definition the training run is folded in, e.g., after its events were deleted.
+     *
+     * @param trainingRunId the training run id
+     */
+    public void evictTrainingRun(Long trainingRunId) {
+        cache.asMap().values().removeIf(sketches -> sketches.containsTrainingRun(trainingRunId));
+    }
+
+    /**
+     * Evict the sketches of the training definition whose training runs of the training instance are folded in,
+     * e.g., after its events were deleted.
+     *
+     * @param trainingInstanceId the training instance id
+     */
+    public void evictTrainingInstance(Long trainingInstanceId) {
+        cache.asMap().values().removeIf(sketches -> sketches.containsTrainingInstance(trainingInstanceId));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * The sketches of the phase times of one training definition.
+     */
+    public static final class DefinitionSketches {
+
+        private static final double COMPRESSION = 100.0;
+
+        private final long lateEndMillis;
+        private final Map<Long, TDigestState> phaseTimes = new TreeMap<>();
+        private final Set<Long> trainingRunIds = new HashSet<>();
+        private final Set<Long> trainingInstanceIds = new HashSet<>();
+        private long latestEnd;
+        private CompletableFuture<?> lastUpdate = CompletableFuture.completedFuture(null);
+
+        private DefinitionSketches(long lateEndMillis) {
+            this.lateEndMillis = lateEndMillis;
+        }
+
+        /**
+         * Run the update after the previous update of the sketches has completed, so the ended training runs are
+         * folded in by one update at a time.
+         *
+         * @param update the update of the sketches
+         * @param <T>    the type of the result of the update
+         * @return the future of the result of the update
+         */
+        public synchronized <T> CompletableFuture<T> update(Supplier<CompletableFuture<T>> update) {
+            CompletableFuture<T> result = lastUpdate
+                    .handle((ignored, ex) -> null)
+                    .thenCompose(ignored -> update.get());
+            lastUpdate = result;
+            return result;
+        }
+
+        /**
+         * Gets the time since which the ended training runs are looked for, it lies before the end of the latest
+         * training run folded in, so the <i>TrainingRunEnded</i> events indexed late are found too.
+         *
+         * @return the lower bound of the end of the training runs to look for (epoch_millis timestamp format)
+         */
+        public synchronized long getEndedSince() {
+            return Math.max(0, latestEnd - lateEndMillis);
+        }
+
+        /**
+         * Filter the training runs which are not folded in yet.
+         *
+         * @param endedRuns the ended training runs
+         * @return the ended training runs which are not folded in
+         */
+        public synchronized List<EndedRun> filterNew(Collection<EndedRun> endedRuns) {
+            List<EndedRun> newRuns = new ArrayList<>();
+            for (EndedRun endedRun : endedRuns) {
+                if (!trainingRunIds.contains(endedRun.getTrainingRunId())) {
+                    newRuns.add(endedRun);
+                }
+            }
+            return newRuns;
+        }
+
+        /**
+         * Fold the phase time in the sketch of the phase.
+         *
+         * @param phaseId   the phase id
+         * @param phaseTime the time spent at the phase in milliseconds
+         */
+        public synchronized void foldPhaseTime(Long phaseId, long phaseTime) {
+            phaseTimes.computeIfAbsent(phaseId, id -> new TDigestState(COMPRESSION)).add(phaseTime);
+        }
+
+        /**
+         * Mark the training runs as folded in, once all their phase times are folded in.
+         *
+         * @param endedRuns the ended training runs
+         */
+        public synchronized void markFolded(Collection<EndedRun> endedRuns) {
+            for (EndedRun endedRun : endedRuns) {
+                trainingRunIds.add(endedRun.getTrainingRunId());
+                trainingInstanceIds.add(endedRun.getTrainingInstanceId());
+                latestEnd = Math.max(latestEnd, endedRun.getEndedAt());
+            }
+        }
+
+        /**
+         * Map the sketches of the given phases, ordered by the phase id.
+         *
+         * @param phaseIds ids of the phases, all phases if null or empty
+         * @param mapper   the mapper of the phase id and its sketch, it must not keep the sketch
+         * @param <T>      the type of the result of the mapper
+         * @return the mapped sketches ordered by the phase id
+         */
+        public synchronized <T> List<T> mapSketches(List<Long> phaseIds, BiFunction<Long, TDigestState, T> mapper) {
+            List<T> result = new ArrayList<>();
+            phaseTimes.forEach((phaseId, sketch) -> {
+                if (phaseIds == null || phaseIds.isEmpty() || phaseIds.contains(phaseId)) {
+                    result.add(mapper.apply(phaseId, sketch));
+                }
+            });
+            return result;
+        }
+
+        private synchronized boolean containsTrainingRun(Long trainingRunId) {
+            return trainingRunIds.contains(trainingRunId);
+        }
+
+        private synchronized boolean containsTrainingInstance(Long trainingInstanceId) {
+            return trainingInstanceIds.contains(trainingInstanceId);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package cz.cyberrange.platform.elasticsearch.utils;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Helpers translating the failures of the {@link java.util.concurrent.CompletableFuture} between the layers, the same
+ * way the synchronous code catches the exception of the lower layer and throws the exception of its own layer.
+ */
+public final class CompletableFutures {
+
+    private CompletableFutures() {
+    }
+
+    /**
+     * Create the function for {@link java.util.concurrent.CompletableFuture#exceptionally(Function)} that rethrows
+     * the original cause of the failure translated by the given mapper.
+     *
+     * <pre>{@code
+     *  dao.findAsync(...)
+     *          .exceptionally(CompletableFutures.failWith(ElasticsearchTrainingServiceLayerException::new));
+     * }</pre>
+     *
+     * @param exceptionMapper the mapper of the original cause to the exception of the current layer
+     * @param <T>             the type of the future result
+     * @return the function rethrowing the translated exception
+     */
+    public static <T> Function<Throwable, T> failWith(Function<Throwable, ? extends RuntimeException> exceptionMapper) {
+        return ex -> {
+            throw exceptionMapper.apply(unwrap(ex));
+        };
+    }
+
+    /**
+     * Strip the {@link CompletionException} and {@link ExecutionException} wrappers added by the future.
+     *
+     * @param ex the failure of the future
+     * @return the original cause of the failure
+     */
+    public static Throwable unwrap(Throwable ex) {
+        Throwable cause = ex;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
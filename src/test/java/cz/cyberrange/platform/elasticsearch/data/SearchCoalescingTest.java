@@ -0,0 +1,150 @@
+package cz.cyberrange.platform.elasticsearch.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.IndexNameResolver;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchCoalescingTest {
+
+    private static final String VERSION = "{\"name\":\"stub\",\"cluster_name\":\"stub\",\"cluster_uuid\":\"stub\","
+            + "\"version\":{\"number\":\"7.17.4\",\"build_flavor\":\"default\",\"build_type\":\"docker\",\"build_hash\":\"stub\","
+            + "\"build_date\":\"2022-05-18T03:04:15.154Z\",\"build_snapshot\":false,\"lucene_version\":\"8.11.1\","
+            + "\"minimum_wire_compatibility_version\":\"6.8.0\",\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},"
+            + "\"tagline\":\"You Know, for Search\"}";
+    private static final String EMPTY_SEARCH = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}";
+
+    private final AtomicInteger searches = new AtomicInteger();
+    private final CountDownLatch searching = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private RestHighLevelClient client;
+    private TestDAO dao;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().endsWith("/_search")) {
+                searches.incrementAndGet();
+                searching.countDown();
+                awaitRelease();
+                respond(exchange, EMPTY_SEARCH);
+            } else {
+                respond(exchange, VERSION);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        client = new RestHighLevelClient(RestClient.builder(new HttpHost("localhost", server.getAddress().getPort())));
+        dao = new TestDAO(client);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        release.countDown();
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    void sendsConcurrentIdenticalSearchesOnce() throws Exception {
+        CompletableFuture<SearchResponse> leader = new CompletableFuture<>();
+        new Thread(() -> search(leader)).start();
+        assertThat(searching.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<SearchResponse> follower = new CompletableFuture<>();
+        Thread followerThread = new Thread(() -> search(follower));
+        followerThread.start();
+        while (followerThread.getState() != Thread.State.WAITING && !follower.isDone()) {
+            Thread.sleep(5);
+        }
+
+        release.countDown();
+
+        assertThat(follower.get(10, TimeUnit.SECONDS)).isSameAs(leader.get(10, TimeUnit.SECONDS));
+        assertThat(searches).hasValue(1);
+    }
+
+    @Test
+    void sendsConcurrentIdenticalAsyncSearchesOnce() throws Exception {
+        CompletableFuture<SearchResponse> leader = dao.searchAsync(request("training"));
+        CompletableFuture<SearchResponse> follower = dao.searchAsync(request("training"));
+
+        release.countDown();
+
+        assertThat(follower.get(10, TimeUnit.SECONDS)).isSameAs(leader.get(10, TimeUnit.SECONDS));
+        assertThat(searches).hasValue(1);
+    }
+
+    @Test
+    void sendsDifferentSearchesSeparately() throws Exception {
+        release.countDown();
+
+        CompletableFuture<SearchResponse> first = dao.searchAsync(request("training"));
+        CompletableFuture<SearchResponse> second = dao.searchAsync(request("other-training"));
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isNotSameAs(second.get(10, TimeUnit.SECONDS));
+        assertThat(searches).hasValue(2);
+    }
+
+    private void search(CompletableFuture<SearchResponse> result) {
+        try {
+            result.complete(dao.search(request("training")));
+        } catch (Throwable ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private static SearchRequest request(String index) {
+        return new SearchRequest(index).source(new SearchSourceBuilder().query(QueryBuilders.termQuery("training_run_id", 1)));
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static final class TestDAO extends AbstractElasticClientDAO {
+
+        private TestDAO(RestHighLevelClient client) {
+            super(client, new ObjectMapper(), IndexNameResolver.disabled());
+        }
+    }
+}
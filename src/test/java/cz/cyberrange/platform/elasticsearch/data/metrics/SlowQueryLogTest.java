@@ -0,0 +1,46 @@
+package cz.cyberrange.platform.elasticsearch.data.metrics;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlowQueryLogTest {
+
+    @Test
+    void redactsAccessTokensInIndices() {
+        String indices = SlowQueryLog.describeIndices(new String[]{
+                "crczp.logs.console*.access-token=pass-1234.user=5",
+                "crczp.logs.console*.access-token=pass-1234.*"});
+
+        assertThat(indices)
+                .doesNotContain("pass-1234")
+                .isEqualTo("crczp.logs.console*.access-token=***.user=5,crczp.logs.console*.access-token=***.*");
+    }
+
+    @Test
+    void redactsStringValuesOfQuery() {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .size(100)
+                .query(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery("answer_content", "secret answer"))
+                        .filter(QueryBuilders.termsQuery("_index", "crczp.logs.console.access-token=pass-1234.user=5"))
+                        .filter(QueryBuilders.rangeQuery("timestamp").gte(1000L)))
+                .fetchSource(new String[]{"answer_content", "phase_id"}, null)
+                .sort("timestamp", SortOrder.ASC);
+
+        String query = SlowQueryLog.describeQuery(source);
+
+        assertThat(query)
+                .doesNotContain("secret answer")
+                .doesNotContain("pass-1234")
+                .contains("\"answer_content\":{\"value\":\"***\"")
+                .contains("\"_index\":[\"***\"]")
+                .contains("\"from\":1000")
+                .contains("\"includes\":[\"answer_content\",\"phase_id\"]")
+                .contains("\"order\":\"asc\"")
+                .contains("\"size\":100");
+    }
+}
@@ -0,0 +1,100 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the grouping of the events of the user by the levels with {@link IntKeyGrouping} against the former
+ * grouping that read the level from the parsed source of each hit and boxed it on each comparison.
+ * <p>
+ * The hits are created anew before each invocation, so the sources are parsed within the measured code as they are
+ * when the hits come from Elasticsearch. Run with
+ * <pre>{@code
+ *  mvn -DskipChecks=true test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ *  java -cp target/test-classes:target/classes:$(cat target/classpath.txt) org.openjdk.jmh.Main IntKeyGroupingBenchmark
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntKeyGroupingBenchmark {
+
+    private static final String LEVEL = "level";
+
+    @Param({"100000"})
+    private int hitsCount;
+
+    @Param({"20"})
+    private int levelsCount;
+
+    private List<SearchHit> hits;
+
+    @Setup(Level.Invocation)
+    public void createHits() {
+        hits = new ArrayList<>(hitsCount);
+        int hitsPerLevel = hitsCount / levelsCount;
+        for (int i = 0; i < hitsCount; i++) {
+            int level = Math.min(i / hitsPerLevel, levelsCount - 1) + 1;
+            Map<String, DocumentField> fields = Map.of(LEVEL, new DocumentField(LEVEL, List.of(level)));
+            SearchHit hit = new SearchHit(i, String.valueOf(i), null, fields, Map.of());
+            hit.sourceRef(new BytesArray("{\"type\":\"cz.cyberrange.platform.events.trainings.HintTaken\"," +
+                    "\"timestamp\":" + (1_600_000_000_000L + i) + ",\"level\":" + level + ",\"user_ref_id\":1," +
+                    "\"training_run_id\":1,\"hint_id\":" + (i % 5) + ",\"hint_title\":\"Hint " + (i % 5) + "\"}"));
+            hits.add(hit);
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, List<Map<String, Object>>> contiguousBoxedGrouping() {
+        Map<Integer, List<Map<String, Object>>> aggregatedEvents = new HashMap<>();
+        List<Map<String, Object>> eventsOfLevel = new ArrayList<>();
+        Integer levelId = (Integer) hits.get(0).getSourceAsMap().get(LEVEL);
+
+        for (SearchHit unprocessedEvent : hits) {
+            if (!levelId.equals(unprocessedEvent.getSourceAsMap().get(LEVEL))) {
+                aggregatedEvents.put(levelId, eventsOfLevel);
+                levelId = (Integer) unprocessedEvent.getSourceAsMap().get(LEVEL);
+                eventsOfLevel = new ArrayList<>();
+            }
+            eventsOfLevel.add(unprocessedEvent.getSourceAsMap());
+        }
+        return aggregatedEvents;
+    }
+
+    @Benchmark
+    public Map<Integer, List<Map<String, Object>>> intKeyGrouping() {
+        return IntKeyGrouping.groupHits(hits.iterator(), LEVEL, SearchHit::getSourceAsMap);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IntKeyGroupingBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
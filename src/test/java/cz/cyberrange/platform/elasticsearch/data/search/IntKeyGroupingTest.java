@@ -0,0 +1,57 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntKeyGroupingTest {
+
+    private static final String LEVEL = "level";
+
+    @Test
+    void groupsHitsInOrderOfFirstAppearance() {
+        List<SearchHit> hits = List.of(hit(1, 2), hit(2, 1), hit(3, 2), hit(4, 3), hit(5, 1));
+
+        Map<Integer, List<String>> groups = IntKeyGrouping.groupHits(hits.iterator(), LEVEL, SearchHit::getId);
+
+        assertThat(groups.keySet()).containsExactly(2, 1, 3);
+        assertThat(groups.get(2)).containsExactly("1", "3");
+        assertThat(groups.get(1)).containsExactly("2", "5");
+        assertThat(groups.get(3)).containsExactly("4");
+    }
+
+    @Test
+    void skipsHitsWithoutField() {
+        List<SearchHit> hits = List.of(hit(1, 1), hit(2, null), hit(3, 1));
+
+        Map<Integer, List<String>> groups = IntKeyGrouping.groupHits(hits.iterator(), LEVEL, SearchHit::getId);
+
+        assertThat(groups).doesNotContainKey(null);
+        assertThat(groups.get(1)).containsExactly("1", "3");
+    }
+
+    @Test
+    void keepsGroupsWhenTableGrows() {
+        List<SearchHit> hits = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            hits.add(hit(i, (i * 7919) % 100 - 50));
+        }
+
+        Map<Integer, List<String>> groups = IntKeyGrouping.groupHits(hits.iterator(), LEVEL, SearchHit::getId);
+
+        assertThat(groups).hasSize(100);
+        assertThat(groups.values()).allSatisfy(group -> assertThat(group).hasSize(10));
+        assertThat(groups.get(-50)).containsExactly("0", "100", "200", "300", "400", "500", "600", "700", "800", "900");
+    }
+
+    private static SearchHit hit(int docId, Integer level) {
+        Map<String, DocumentField> fields = level == null ? Map.of() : Map.of(LEVEL, new DocumentField(LEVEL, List.of(level)));
+        return new SearchHit(docId, String.valueOf(docId), null, fields, Map.of());
+    }
+}
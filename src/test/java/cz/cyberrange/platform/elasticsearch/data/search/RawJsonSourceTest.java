@@ -0,0 +1,40 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.CompositeBytesReference;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RawJsonSourceTest {
+
+    @Test
+    void writesCompactSourceAsItIs() throws IOException {
+        String source = "{\"type\":\"HintTaken\",\"answer_content\":\"a\\nb\"}";
+
+        assertThat(writeLine(new RawJsonSource(new BytesArray(source)))).isEqualTo(source);
+    }
+
+    @Test
+    void writesPrettyPrintedSourceAsSingleLine() throws IOException {
+        RawJsonSource source = new RawJsonSource(CompositeBytesReference.of(
+                new BytesArray("{\n  \"type\": \"HintTaken\",\r\n"),
+                new BytesArray("  \"answer_content\": \"a\\nb\"\n}")));
+
+        String line = writeLine(source);
+        assertThat(line).doesNotContain("\n", "\r");
+        assertThat(new RawJsonSource(new BytesArray(line)).asMap())
+                .containsEntry("type", "HintTaken")
+                .containsEntry("answer_content", "a\nb");
+    }
+
+    private static String writeLine(RawJsonSource source) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        source.writeLineTo(outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SeqNoCursorTest {
+
+    private static final String INDEX = "crczp.events.adaptive.trainings.run=1";
+    private static final String OTHER_INDEX = "crczp.events.adaptive.trainings.run=1.copy";
+
+    @Test
+    void advancesOverConsecutiveDocuments() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+
+        assertThat(cursor.isRead(INDEX, 0)).isFalse();
+        assertThat(cursor.advance(INDEX, 0, 0)).isTrue();
+        assertThat(cursor.advance(INDEX, 1, 0)).isTrue();
+        assertThat(cursor.isRead(INDEX, 1)).isTrue();
+        assertThat(cursor.isRead(INDEX, 2)).isFalse();
+    }
+
+    @Test
+    void waitsForGapUntilGapTimeout() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+        cursor.advance(INDEX, 0, 0);
+
+        assertThat(cursor.advance(INDEX, 2, 1_000)).isFalse();
+        assertThat(cursor.advance(INDEX, 2, 30_999)).isFalse();
+        assertThat(cursor.isRead(INDEX, 2)).isFalse();
+        assertThat(cursor.advance(INDEX, 2, 31_000)).isTrue();
+        assertThat(cursor.isRead(INDEX, 1)).isTrue();
+    }
+
+    @Test
+    void filledGapIsNotSkipped() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+        cursor.advance(INDEX, 0, 0);
+        cursor.advance(INDEX, 2, 1_000);
+
+        assertThat(cursor.advance(INDEX, 1, 2_000)).isTrue();
+        assertThat(cursor.advance(INDEX, 2, 2_000)).isTrue();
+        //The gap is measured anew once it was filled
+        assertThat(cursor.advance(INDEX, 4, 40_000)).isFalse();
+    }
+
+    @Test
+    void selectsAllDocumentsBeforeFirstRead() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+
+        assertThat(cursor.newerDocuments(Set.of())).isInstanceOf(MatchAllQueryBuilder.class);
+    }
+
+    @Test
+    void doesNotSelectExcludedIndexWithoutMark() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+        assertThat(cursor.advance(INDEX, 5, 0)).isFalse();
+
+        QueryBuilder query = cursor.newerDocuments(Set.of(INDEX));
+
+        assertThat(query).isInstanceOf(BoolQueryBuilder.class);
+        assertThat(unreadIndices((BoolQueryBuilder) query)).containsExactly(INDEX);
+    }
+
+    @Test
+    void doesNotSelectExcludedIndexWithMark() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+        cursor.advance(INDEX, 0, 0);
+        cursor.advance(OTHER_INDEX, 0, 0);
+
+        BoolQueryBuilder query = (BoolQueryBuilder) cursor.newerDocuments(Set.of(OTHER_INDEX));
+
+        //One clause for the marked index which is not excluded and one for the indices not read yet
+        assertThat(query.should()).hasSize(2);
+        assertThat(unreadIndices(query)).containsExactlyInAnyOrder(INDEX, OTHER_INDEX);
+    }
+
+    @Test
+    void coversAllShardsOnlyWithSingleShardIndices() {
+        SeqNoCursor cursor = new SeqNoCursor(30_000);
+        cursor.recordShards(2);
+        assertThat(cursor.coversAllShards()).isTrue();
+
+        cursor.isRead(INDEX, 0);
+        assertThat(cursor.coversAllShards()).isFalse();
+
+        cursor.isRead(OTHER_INDEX, 0);
+        assertThat(cursor.coversAllShards()).isTrue();
+
+        //The shards of the earlier searches are not forgotten
+        cursor.recordShards(1);
+        assertThat(cursor.coversAllShards()).isTrue();
+        cursor.recordShards(3);
+        assertThat(cursor.coversAllShards()).isFalse();
+    }
+
+    private static Iterable<Object> unreadIndices(BoolQueryBuilder query) {
+        BoolQueryBuilder unread = (BoolQueryBuilder) query.should().get(query.should().size() - 1);
+        return ((TermsQueryBuilder) unread.mustNot().get(0)).values();
+    }
+}
@@ -0,0 +1,78 @@
+package cz.cyberrange.platform.elasticsearch.data.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+    private final CountDownLatch loading = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void sharesResultWithWaitingLoad() throws Exception {
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> load(() -> "loaded"));
+        CompletableFuture<String> follower = startFollower();
+
+        release.countDown();
+
+        assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("loaded");
+        assertThat(follower.get(10, TimeUnit.SECONDS)).isEqualTo("loaded");
+    }
+
+    @Test
+    void releasesWaitingLoadWhenLoaderFailsWithError() throws Exception {
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> load(() -> {
+            throw new AssertionError("loader failed");
+        }));
+        CompletableFuture<String> follower = startFollower();
+
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseInstanceOf(AssertionError.class);
+        assertThatThrownBy(() -> follower.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseInstanceOf(AssertionError.class);
+    }
+
+    /**
+     * Start the load of the same key once the first load is in flight and wait until it waits for the first load.
+     */
+    private CompletableFuture<String> startFollower() throws InterruptedException {
+        assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> load(() -> "loaded again"));
+        while (singleFlight.getCoalesced() == 0) {
+            Thread.sleep(5);
+        }
+        return follower;
+    }
+
+    private String load(SingleFlight.Loader<String> loader) {
+        try {
+            return singleFlight.load("key", () -> {
+                loading.countDown();
+                awaitRelease();
+                return loader.load();
+            });
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
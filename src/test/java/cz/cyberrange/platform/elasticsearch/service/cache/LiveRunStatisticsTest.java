@@ -0,0 +1,161 @@
+package cz.cyberrange.platform.elasticsearch.service.cache;
+
+import cz.cyberrange.platform.elasticsearch.data.indexpaths.AbstractCrczpElasticTermQueryFields;
+import cz.cyberrange.platform.elasticsearch.data.statistics.TrainingRunPhasesData;
+import org.javatuples.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LiveRunStatisticsTest {
+
+    private final LiveRunStatistics liveRunStatistics = new LiveRunStatistics(16, "10m", "30s");
+
+    @Test
+    void foldsEventsOfPhases() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.foldEvent(event(10L, "cz.cyberrange.PhaseStarted", 1_000L, null));
+        statistics.foldEvent(event(10L, "cz.cyberrange.WrongAnswerSubmitted", 2_000L, "ls"));
+        statistics.foldEvent(event(10L, "cz.cyberrange.SolutionDisplayed", 2_500L, null));
+        statistics.foldEvent(event(10L, "cz.cyberrange.PhaseCompleted", 3_000L, null));
+        statistics.foldEvent(event(11L, "cz.cyberrange.PhaseStarted", 3_000L, null));
+
+        TrainingRunPhasesData phasesData = statistics.getPhasesData(null, List.of("wronganswer", "solutiondisplayed"));
+
+        assertThat(phasesData.getSandboxId()).isEqualTo(5);
+        assertThat(phasesData.getPhasesBoundaries())
+                .containsEntry(10L, Pair.with(1_000L, 3_000L))
+                //The phase which has not completed yet
+                .containsEntry(11L, Pair.with(3_000L, Long.MAX_VALUE));
+        assertThat(phasesData.getEventsInPhases().get(10L))
+                .containsEntry("wronganswer", 1L)
+                .containsEntry("solutiondisplayed", 1L);
+        assertThat(phasesData.getWrongAnswersInPhases()).containsEntry(10L, List.of("ls"));
+        assertThat(phasesData.getTaskIdsOfPhases()).containsEntry(10L, 100L).containsEntry(11L, 110L);
+    }
+
+    @Test
+    void returnsOnlyRequestedPhases() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.foldEvent(event(10L, "cz.cyberrange.PhaseStarted", 1_000L, null));
+        statistics.foldEvent(event(11L, "cz.cyberrange.PhaseStarted", 2_000L, null));
+
+        TrainingRunPhasesData phasesData = statistics.getPhasesData(List.of(11L, 12L), List.of());
+
+        assertThat(phasesData.getPhasesBoundaries()).containsOnlyKeys(11L);
+        assertThat(phasesData.getWrongAnswersInPhases()).containsOnlyKeys(11L, 12L);
+    }
+
+    @Test
+    void countsCommandsInPhases() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.getCommandsCursor("crczp.logs.console*.sandbox=5");
+        statistics.foldCommand(1_000L, "ls -la");
+        statistics.foldCommand(2_000L, "cat /etc/passwd");
+        statistics.foldCommand(4_000L, "ls");
+
+        Map<Long, Pair<Long, Long>> phasesBoundaries = new HashMap<>();
+        phasesBoundaries.put(10L, Pair.with(1_000L, 2_000L));
+        phasesBoundaries.put(11L, Pair.with(3_000L, Long.MAX_VALUE));
+        Map<Long, Pair<Long, Map<String, Long>>> commands = statistics.countCommands(phasesBoundaries, Map.of(10L, List.of("LS", "passwd")));
+
+        assertThat(commands.get(10L).getValue0()).isEqualTo(2L);
+        assertThat(commands.get(10L).getValue1()).containsEntry("LS", 1L).containsEntry("passwd", 1L);
+        assertThat(commands.get(11L).getValue0()).isEqualTo(1L);
+        assertThat(commands.get(11L).getValue1()).isNull();
+    }
+
+    @Test
+    void discardsCommandsOfAnotherIndex() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.getCommandsCursor("crczp.logs.console*.sandbox=5").advance("crczp.logs.console.sandbox=5", 0, 0);
+        statistics.foldCommand(1_000L, "ls");
+
+        assertThat(statistics.getCommandsCursor("crczp.logs.console*.sandbox=6").isRead("crczp.logs.console.sandbox=5", 0)).isFalse();
+        assertThat(statistics.countCommands(Map.of(10L, Pair.with(0L, Long.MAX_VALUE)), null).get(10L).getValue0()).isZero();
+    }
+
+    @Test
+    void fallsBackWhenIndicesHaveMoreShards() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.getEventsCursor().isRead("crczp.events.adaptive.trainings.run=1", 0);
+        statistics.getEventsCursor().recordShards(1);
+        assertThat(statistics.isIncremental()).isTrue();
+
+        statistics.getCommandsCursor("crczp.logs.console*.sandbox=5").recordShards(2);
+        statistics.getCommandsCursor("crczp.logs.console*.sandbox=5").isRead("crczp.logs.console.sandbox=5", 0);
+        assertThat(statistics.isIncremental()).isFalse();
+    }
+
+    @Test
+    void isNotCompleteWhileGapIsWaitedFor() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.getEventsCursor().advance("crczp.events.adaptive.trainings.run=1", 0, 0);
+        assertThat(statistics.isComplete()).isTrue();
+
+        //The event with the sequence number 1 is not visible yet
+        assertThat(statistics.getEventsCursor().advance("crczp.events.adaptive.trainings.run=1", 2, 1_000)).isFalse();
+        assertThat(statistics.isComplete()).isFalse();
+        assertThat(statistics.isIncremental()).isTrue();
+
+        statistics.getEventsCursor().advance("crczp.events.adaptive.trainings.run=1", 1, 2_000);
+        assertThat(statistics.isComplete()).isTrue();
+    }
+
+    @Test
+    void isNotCompleteWhileCommandsGapIsWaitedFor() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.getCommandsCursor("crczp.logs.console*.sandbox=5").advance("crczp.logs.console.sandbox=5", 1, 0);
+
+        assertThat(statistics.isComplete()).isFalse();
+    }
+
+    @Test
+    void runsUpdatesOneAtATime() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        List<String> order = new ArrayList<>();
+        CompletableFuture<Void> firstSearch = new CompletableFuture<>();
+
+        CompletableFuture<Void> first = statistics.update(() -> firstSearch.thenRun(() -> order.add("first")));
+        CompletableFuture<Void> second = statistics.update(() -> {
+            order.add("second");
+            return CompletableFuture.completedFuture(null);
+        });
+        assertThat(second).isNotDone();
+
+        firstSearch.completeExceptionally(new IllegalStateException("search failed"));
+        assertThat(first).isCompletedExceptionally();
+        //The failure of the previous update does not fail the next one
+        assertThat(second).isCompleted();
+        assertThat(order).containsExactly("second");
+    }
+
+    @Test
+    void evictsRunsOfTrainingInstance() {
+        LiveRunStatistics.RunStatistics statistics = liveRunStatistics.get(1L);
+        statistics.foldEvent(event(10L, "cz.cyberrange.PhaseStarted", 1_000L, null));
+        liveRunStatistics.get(2L);
+
+        liveRunStatistics.evictTrainingInstance(7L);
+
+        assertThat(liveRunStatistics.get(1L)).isNotSameAs(statistics);
+    }
+
+    private static Map<String, Object> event(Long phaseId, String type, Long timestamp, String answer) {
+        Map<String, Object> event = new HashMap<>();
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_SANDBOX_ID, 5);
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TRAINING_INSTANCE_ID, 7);
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_PHASE_ID, phaseId.intValue());
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TASK_ID, phaseId * 10);
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_EVENT_TYPE, type);
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_TIMESTAMP, timestamp);
+        event.put(AbstractCrczpElasticTermQueryFields.CRCZP_ELASTICSEARCH_ANSWER_CONTENT, answer);
+        return event;
+    }
+}
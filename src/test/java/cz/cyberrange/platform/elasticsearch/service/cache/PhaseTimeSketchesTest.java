@@ -0,0 +1,60 @@
+package cz.cyberrange.platform.elasticsearch.service.cache;
+
+import cz.cyberrange.platform.elasticsearch.data.AdaptiveTrainingStatisticsStoreDAO.EndedRun;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PhaseTimeSketchesTest {
+
+    private final PhaseTimeSketches phaseTimeSketches = new PhaseTimeSketches(16, "1h", "5m");
+
+    @Test
+    void foldsOnlyNewTrainingRuns() {
+        PhaseTimeSketches.DefinitionSketches sketches = phaseTimeSketches.get(1L);
+        EndedRun first = new EndedRun(1L, 10L, 1_000_000L);
+        EndedRun second = new EndedRun(2L, 10L, 2_000_000L);
+        sketches.markFolded(List.of(first));
+
+        assertThat(sketches.filterNew(List.of(first, second))).containsExactly(second);
+    }
+
+    @Test
+    void looksForTrainingRunsEndedBeforeLatestFoldedOne() {
+        PhaseTimeSketches.DefinitionSketches sketches = phaseTimeSketches.get(1L);
+        assertThat(sketches.getEndedSince()).isZero();
+
+        sketches.markFolded(List.of(new EndedRun(1L, 10L, 1_000_000L)));
+
+        assertThat(sketches.getEndedSince()).isEqualTo(1_000_000L - 300_000L);
+    }
+
+    @Test
+    void mapsRequestedPhasesOrderedById() {
+        PhaseTimeSketches.DefinitionSketches sketches = phaseTimeSketches.get(1L);
+        sketches.foldPhaseTime(12L, 3_000L);
+        sketches.foldPhaseTime(10L, 1_000L);
+        sketches.foldPhaseTime(10L, 2_000L);
+        sketches.foldPhaseTime(11L, 5_000L);
+
+        assertThat(sketches.mapSketches(null, (phaseId, sketch) -> phaseId)).containsExactly(10L, 11L, 12L);
+        assertThat(sketches.mapSketches(List.of(12L, 10L), (phaseId, sketch) -> sketch.size())).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void evictsDefinitionsOfDeletedTrainingRunsAndInstances() {
+        PhaseTimeSketches.DefinitionSketches firstDefinition = phaseTimeSketches.get(1L);
+        firstDefinition.markFolded(List.of(new EndedRun(1L, 10L, 1_000L)));
+        PhaseTimeSketches.DefinitionSketches secondDefinition = phaseTimeSketches.get(2L);
+        secondDefinition.markFolded(List.of(new EndedRun(2L, 20L, 1_000L)));
+
+        phaseTimeSketches.evictTrainingRun(1L);
+        assertThat(phaseTimeSketches.get(1L)).isNotSameAs(firstDefinition);
+        assertThat(phaseTimeSketches.get(2L)).isSameAs(secondDefinition);
+
+        phaseTimeSketches.evictTrainingInstance(20L);
+        assertThat(phaseTimeSketches.get(2L)).isNotSameAs(secondDefinition);
+    }
+}